@@ -0,0 +1,108 @@
+package com.naloaty.syncshare.communication;
+
+import android.os.Build;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.naloaty.syncshare.media.Media;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link WireFormat} with reflective Gson: serialization and parsing time
+ * and allocated bytes per {@link #ROWS} media-files.
+ * Results are written to logcat (tag WireFormatBenchmark).
+ */
+@RunWith(AndroidJUnit4.class)
+public class WireFormatBenchmark {
+
+    private static final String TAG = "WireFormatBenchmark";
+
+    private static final int ROWS = 10000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 20;
+
+    private static final Type MEDIA_LIST = new TypeToken<List<Media>>(){}.getType();
+
+    @Test
+    public void benchmarkMediaList() {
+        Gson reflective = new Gson();
+        List<Media> list = createMediaList();
+        String json = reflective.toJson(list, MEDIA_LIST);
+
+        assertEquals(json, WireFormat.GSON.toJson(list, MEDIA_LIST));
+        Log.i(TAG, String.format("%d media-files, %d KB of JSON", ROWS, json.length() / 1024));
+
+        //Reflective Gson used to be created per request
+        report("reflection (new Gson)", measure(() -> new Gson().toJson(list, MEDIA_LIST)),
+                measure(() -> new Gson().fromJson(json, MEDIA_LIST)));
+        report("reflection (shared)", measure(() -> reflective.toJson(list, MEDIA_LIST)),
+                measure(() -> reflective.fromJson(json, MEDIA_LIST)));
+        report("WireFormat", measure(() -> WireFormat.GSON.toJson(list, MEDIA_LIST)),
+                measure(() -> WireFormat.GSON.fromJson(json, MEDIA_LIST)));
+    }
+
+    private static List<Media> createMediaList() {
+        List<Media> list = new ArrayList<>(ROWS);
+
+        for (int i = 0; i < ROWS; i++) {
+            Media media = new Media();
+            media.setFilename((100000 + i) + (i % 10 == 0 ? ".mp4" : ".jpg"));
+            media.setDateTaken(1589200000000L - i * 60000L);
+            media.setMimeType(i % 10 == 0 ? "video/mp4" : "image/jpeg");
+            media.setSize(2000000 + i * 37L);
+            media.setOrientation(i % 4 * 90);
+            media.setMediaType(i % 10 == 0 ? 3 : 1);
+            media.setDateModified(1589200000L - i * 60L);
+            list.add(media);
+        }
+
+        return list;
+    }
+
+    /**
+     * @return Average time in nanoseconds and allocated bytes (or -1 if unknown) of one round.
+     */
+    private static long[] measure(Runnable round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++)
+            round.run();
+
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ROUNDS; i++)
+            round.run();
+
+        long time = (System.nanoTime() - start) / ROUNDS;
+        long allocatedAfter = getAllocatedBytes();
+
+        return new long[] { time, allocatedBefore < 0 ? -1 : (allocatedAfter - allocatedBefore) / ROUNDS };
+    }
+
+    /**
+     * @return Bytes allocated by the process since it has started or -1 if the runtime does not report it.
+     */
+    private static long getAllocatedBytes() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M)
+            return -1;
+
+        String value = Debug.getRuntimeStat("art.gc.bytes-allocated");
+        return value != null ? Long.parseLong(value) : -1;
+    }
+
+    private static void report(String codec, long[] serialize, long[] parse) {
+        Log.i(TAG, String.format("%s: serialize %.2fms, %d KB allocated; parse %.2fms, %d KB allocated", codec,
+                serialize[0] / 1e6, serialize[1] / 1024, parse[0] / 1e6, parse[1] / 1024));
+    }
+}
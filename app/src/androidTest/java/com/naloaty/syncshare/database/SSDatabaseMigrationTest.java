@@ -0,0 +1,62 @@
+package com.naloaty.syncshare.database;
+
+import android.database.Cursor;
+
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the migrations of {@link SSDatabase} against the exported schemas (app/schemas),
+ * so trusted devices and shared albums survive an update instead of being dropped by the destructive fallback.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SSDatabaseMigrationTest {
+
+    private static final String TEST_DB = "migration-test";
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(InstrumentationRegistry.getInstrumentation(),
+            SSDatabase.class.getCanonicalName(), new FrameworkSQLiteOpenHelperFactory());
+
+    @Test
+    public void migrate1To3() throws IOException {
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 1);
+
+        db.execSQL("INSERT INTO ss_devices_table (brand, model, nickname, deviceId, lastUsageTime, appVersion, trusted, accessAllowed) "
+                + "VALUES ('Google', 'Pixel', 'Phone', 'DEVICE1', 1589200000000, '0.4.1', 1, 1)");
+        db.execSQL("INSERT INTO albums_table (albumId, name, path, lastItemFilename, itemsCount, accessAllowed) "
+                + "VALUES (42, 'Camera', '/DCIM/Camera', 'IMG_1.jpg', 10, 1)");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 2, true, SSDatabase.MIGRATION_1_2);
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 3, true, SSDatabase.MIGRATION_2_3);
+
+        try (Cursor cursor = db.query("SELECT deviceId, trusted FROM ss_devices_table")) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("DEVICE1", cursor.getString(0));
+            assertEquals(1, cursor.getInt(1));
+        }
+
+        try (Cursor cursor = db.query("SELECT albumId, accessAllowed FROM albums_table")) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(42, cursor.getLong(0));
+            assertEquals(1, cursor.getInt(1));
+        }
+
+        db.close();
+    }
+}
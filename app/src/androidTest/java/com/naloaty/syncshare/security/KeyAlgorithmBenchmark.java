@@ -0,0 +1,213 @@
+package com.naloaty.syncshare.security;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.naloaty.syncshare.config.KeyConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the costs of EC (P-256) and RSA-2048 device identities: key generation,
+ * signing and verification, and a full mutual-auth TLS handshake.
+ * Results are written to logcat (tag KeyAlgorithmBenchmark).
+ */
+@RunWith(AndroidJUnit4.class)
+public class KeyAlgorithmBenchmark {
+
+    private static final String TAG = "KeyAlgorithmBenchmark";
+
+    private static final int KEYGEN_ROUNDS = 3;
+    private static final int SIGN_ROUNDS = 50;
+    private static final int HANDSHAKE_ROUNDS = 10;
+
+    private static final String PASSWORD = "benchmark";
+
+    @Test
+    public void benchmarkEC() throws Exception {
+        benchmark(KeyConfig.KEY_ALGORITHM_EC);
+    }
+
+    @Test
+    public void benchmarkRSA() throws Exception {
+        benchmark(KeyConfig.KEY_ALGORITHM_RSA);
+    }
+
+    private void benchmark(String algorithm) throws Exception {
+        //Key generation
+        KeyPair keyPair = null;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < KEYGEN_ROUNDS; i++)
+            keyPair = KeyTool.generateKeyPair(KeyConfig.CRYPTO_PROVIDER, algorithm);
+
+        long keygen = (System.nanoTime() - start) / KEYGEN_ROUNDS;
+        assertNotNull(keyPair);
+
+        KeyTool.CertificateConfig config = new KeyTool.CertificateConfig(keyPair);
+        X509Certificate certificate = KeyTool.generateCertificate(KeyConfig.CRYPTO_PROVIDER, config);
+        assertNotNull(certificate);
+
+        //Signing and verification
+        byte[] data = new byte[256];
+        byte[] signature = null;
+        Signature signer = Signature.getInstance(config.getSignatureAlgorithm());
+
+        start = System.nanoTime();
+
+        for (int i = 0; i < SIGN_ROUNDS; i++) {
+            signer.initSign(keyPair.getPrivate());
+            signer.update(data);
+            signature = signer.sign();
+        }
+
+        long sign = (System.nanoTime() - start) / SIGN_ROUNDS;
+        start = System.nanoTime();
+
+        for (int i = 0; i < SIGN_ROUNDS; i++) {
+            signer.initVerify(keyPair.getPublic());
+            signer.update(data);
+            assertTrue(signer.verify(signature));
+        }
+
+        long verify = (System.nanoTime() - start) / SIGN_ROUNDS;
+
+        //Mutual-auth handshake between two devices with the same kind of identity
+        SSLContext serverContext = getSSLContext(keyPair, certificate);
+        SSLContext clientContext = getSSLContext(keyPair, certificate);
+
+        //Warm-up
+        handshake(serverContext, clientContext);
+        start = System.nanoTime();
+
+        for (int i = 0; i < HANDSHAKE_ROUNDS; i++)
+            handshake(serverContext, clientContext);
+
+        long handshake = (System.nanoTime() - start) / HANDSHAKE_ROUNDS;
+
+        Log.i(TAG, String.format("%s: keygen %.2fms, sign %.3fms, verify %.3fms, handshake %.2fms",
+                algorithm, keygen / 1e6, sign / 1e6, verify / 1e6, handshake / 1e6));
+    }
+
+    private static SSLContext getSSLContext(KeyPair keyPair, X509Certificate certificate) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null);
+        keyStore.setKeyEntry("benchmark", keyPair.getPrivate(), PASSWORD.toCharArray(), new Certificate[] {certificate});
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD.toCharArray());
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(kmf.getKeyManagers(), new TrustManager[] {new TrustAllManager()}, null);
+
+        //Every handshake should be a full one
+        sslContext.getClientSessionContext().setSessionCacheSize(1);
+        sslContext.getServerSessionContext().setSessionCacheSize(1);
+
+        return sslContext;
+    }
+
+    /**
+     * Performs a handshake between two in-memory engines.
+     */
+    private static void handshake(SSLContext serverContext, SSLContext clientContext) throws Exception {
+        SSLEngine server = serverContext.createSSLEngine();
+        server.setUseClientMode(false);
+        server.setNeedClientAuth(true);
+
+        //A new peer address every time, so the session is not resumed
+        SSLEngine client = clientContext.createSSLEngine("benchmark", (int) (System.nanoTime() & 0x7FFF));
+        client.setUseClientMode(true);
+
+        int bufferSize = Math.max(server.getSession().getPacketBufferSize(), client.getSession().getPacketBufferSize());
+        ByteBuffer clientToServer = ByteBuffer.allocate(bufferSize * 4);
+        ByteBuffer serverToClient = ByteBuffer.allocate(bufferSize * 4);
+        ByteBuffer empty = ByteBuffer.allocate(0);
+        ByteBuffer application = ByteBuffer.allocate(bufferSize * 4);
+
+        client.beginHandshake();
+        server.beginHandshake();
+
+        for (int i = 0; i < 1000; i++) {
+            boolean clientDone = isFinished(client.getHandshakeStatus());
+            boolean serverDone = isFinished(server.getHandshakeStatus());
+
+            if (clientDone && serverDone)
+                return;
+
+            step(client, empty, clientToServer, serverToClient, application);
+            step(server, empty, serverToClient, clientToServer, application);
+        }
+
+        throw new IllegalStateException("Handshake has not completed");
+    }
+
+    private static void step(SSLEngine engine, ByteBuffer empty, ByteBuffer out, ByteBuffer in, ByteBuffer application) throws Exception {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+
+        switch (status) {
+            case NEED_WRAP:
+                engine.wrap(empty, out);
+                break;
+
+            case NEED_UNWRAP:
+                in.flip();
+                engine.unwrap(in, application);
+                in.compact();
+                application.clear();
+                break;
+
+            case NEED_TASK:
+                Runnable task;
+
+                while ((task = engine.getDelegatedTask()) != null)
+                    task.run();
+
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private static boolean isFinished(SSLEngineResult.HandshakeStatus status) {
+        return status == SSLEngineResult.HandshakeStatus.FINISHED
+                || status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+    }
+
+    private static class TrustAllManager implements X509TrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
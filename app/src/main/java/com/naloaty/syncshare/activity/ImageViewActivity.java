@@ -3,7 +3,9 @@ package com.naloaty.syncshare.activity;
 import android.content.Intent;
 import android.os.Bundle;
 import android.provider.MediaStore;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -13,43 +15,73 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.core.content.ContextCompat;
+import androidx.core.util.Pair;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.swiperefreshlayout.widget.CircularProgressDrawable;
 import androidx.viewpager.widget.PagerAdapter;
 import androidx.viewpager.widget.ViewPager;
 
 import com.bumptech.glide.load.DecodeFormat;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.FutureTarget;
 import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.transition.DrawableCrossFadeFactory;
 import com.naloaty.syncshare.R;
 import com.naloaty.syncshare.app.GlideApp;
 import com.naloaty.syncshare.app.MediaActivity;
 import com.naloaty.syncshare.communication.CommunicationHelper;
+import com.naloaty.syncshare.communication.OriginalFileLoader;
+import com.naloaty.syncshare.communication.RemoteThumbnail;
 import com.naloaty.syncshare.database.device.NetworkDevice;
-import com.naloaty.syncshare.media.ListHolder;
+import com.naloaty.syncshare.database.device.NetworkDeviceViewModel;
+import com.naloaty.syncshare.database.media.RemoteListRepository;
 import com.naloaty.syncshare.media.Media;
-import com.ortiz.touchview.TouchImageView;
+import com.naloaty.syncshare.media.MediaListStore;
+import com.naloaty.syncshare.service.Requests;
+import com.naloaty.syncshare.service.ThumbnailSize;
+import com.naloaty.syncshare.util.DeviceUtils;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
+
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.observers.DisposableSingleObserver;
+import io.reactivex.schedulers.Schedulers;
 
 import static com.bumptech.glide.load.resource.drawable.DrawableTransitionOptions.withCrossFade;
 
 /**
- * This activity loads and displays the selected media file in full-resolution.
+ * This activity loads and displays the selected media file in the resolution of the screen.
+ * The original file is loaded only when the image is zoomed in. It is drawn in tiles, see {@link TiledImageView}.
  * @see com.naloaty.syncshare.fragment.RemoteMediaFragment
  */
 public class ImageViewActivity extends MediaActivity {
 
     private static final String TAG = "ImageViewActivity";
 
-    public static final String EXTRA_LIST_HOLDER = "listHolder";
+    public static final String EXTRA_LIST_KEY = "listKey";
     public static final String EXTRA_POSITION = "position";
 
+    /* The original file is loaded when the image is zoomed in beyond this */
+    private static final float ORIGINAL_ZOOM = 1.5f;
+
+    /* Number of pages on each side of the current one whose images are prefetched */
+    private static final int PREFETCH_DISTANCE = 3;
+
     private List<Media> mList = new ArrayList<>();
+    private CompositeDisposable disposables;
     private int mSelectedPosition = 0;
     private NetworkDevice mNetworkDevice;
     private ViewPagerAdapter mViewPagerAdapter;
+    private int mDisplaySize;
+    private int mThumbnailSize;
+
+    /* Prefetched images by page position. The requests are cleared by Glide when the activity is destroyed */
+    private final SparseArray<FutureTarget<File>> mPrefetches = new SparseArray<>();
 
 
     /* UI elements */
@@ -64,29 +96,63 @@ public class ImageViewActivity extends MediaActivity {
 
         super.onCreate(savedInstanceState);
         mViewPager = findViewById(R.id.viewpager);
+        disposables = new CompositeDisposable();
 
-        //TODO: need to pass arguments by other way
-        if (getIntent() != null
-                && getIntent().hasExtra(EXTRA_LIST_HOLDER)
-                && getIntent().hasExtra(EXTRA_POSITION)) {
+        String listKey = getIntent() != null ? getIntent().getStringExtra(EXTRA_LIST_KEY) : null;
+        String deviceId = listKey != null ? MediaListStore.getDeviceId(listKey) : null;
 
-            ListHolder listHolder = (ListHolder) getIntent().getSerializableExtra(EXTRA_LIST_HOLDER);
+        if (deviceId == null || !getIntent().hasExtra(EXTRA_POSITION)) {
+            onSourceError();
+            return;
+        }
 
-            if (listHolder == null) {
-                onSourceError();
-                return;
-            }
+        mSelectedPosition = getIntent().getIntExtra(EXTRA_POSITION, 0);
 
-            mList = listHolder.getMediaList();
-            mNetworkDevice = listHolder.getNetworkDevice();
-            mSelectedPosition = getIntent().getIntExtra(EXTRA_POSITION, 0);
-        }
-        else
-        {
+        //Only the key of the list is passed. See MediaListStore
+        //Images cached by the last known address are shown if the device has dropped off the network
+        NetworkDeviceViewModel netDeviceVM = new ViewModelProvider(this).get(NetworkDeviceViewModel.class);
+        Single<List<Media>> listObs = MediaListStore.getInstance(this).load(listKey);
+        Single<NetworkDevice> netDeviceObs = netDeviceVM.findDevice(null, deviceId, null)
+                .onErrorResumeNext(new RemoteListRepository(this).findLastNetworkDevice(deviceId))
+                .subscribeOn(Schedulers.io());
+
+        disposables.add(Single.zip(listObs, netDeviceObs, Pair::create)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribeWith(new DisposableSingleObserver<Pair<List<Media>, NetworkDevice>>() {
+                    @Override
+                    public void onSuccess(Pair<List<Media>, NetworkDevice> source) {
+                        mList = source.first;
+                        mNetworkDevice = source.second;
+                        initViewPager();
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        Log.w(TAG, "Cannot load image source: " + e.getMessage());
+                        onSourceError();
+                    }
+                }));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        if (disposables != null)
+            disposables.dispose();
+    }
+
+    private void initViewPager() {
+        if (mSelectedPosition < 0 || mSelectedPosition >= mList.size()) {
             onSourceError();
             return;
         }
 
+        //Images are requested in screen size, the original is loaded only when the image is zoomed in
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        mDisplaySize = ThumbnailSize.forPixels(Math.max(metrics.widthPixels, metrics.heightPixels));
+        mThumbnailSize = DeviceUtils.getGridCellSize(getResources());
+
         mViewPagerAdapter = new ViewPagerAdapter();
         mViewPager.setAdapter(mViewPagerAdapter);
         mViewPager.addOnPageChangeListener(viewPagerPageChangeListener);
@@ -112,6 +178,45 @@ public class ImageViewActivity extends MediaActivity {
     private void setCurrentItem(int position) {
         mViewPager.setCurrentItem(position, false);
         displayMediaInfo(mSelectedPosition);
+        prefetch(position);
+    }
+
+    /**
+     * Downloads images of the pages around the current one into the disk cache at low priority.
+     * The nearest pages are loaded by the ViewPager itself. Prefetches that are out of range are cancelled,
+     * so fast swipes do not queue downloads of skipped pages.
+     * @param position Position of the current page.
+     */
+    private void prefetch(int position) {
+        for (int i = mPrefetches.size() - 1; i >= 0; i--) {
+            int prefetched = mPrefetches.keyAt(i);
+
+            if (Math.abs(prefetched - position) > PREFETCH_DISTANCE) {
+                GlideApp.with(this).clear(mPrefetches.valueAt(i));
+                mPrefetches.removeAt(i);
+            }
+        }
+
+        int offscreen = mViewPager.getOffscreenPageLimit();
+
+        for (int distance = offscreen + 1; distance <= PREFETCH_DISTANCE; distance++) {
+            for (int target : new int[] { position - distance, position + distance }) {
+                if (target < 0 || target >= mList.size() || mPrefetches.get(target) != null)
+                    continue;
+
+                //Downloads are stored in the DATA disk cache and have low priority
+                mPrefetches.put(target, GlideApp.with(this)
+                        .downloadOnly()
+                        .load(getDisplayImageURL(mList.get(target)))
+                        .submit());
+            }
+        }
+    }
+
+    @NonNull
+    private String getDisplayImageURL(@NonNull Media media) {
+        return CommunicationHelper.getDisplayImageRequestURL(mNetworkDevice) + media.getFilename()
+                + "?" + Requests.SIZE + "=" + mDisplaySize;
     }
 
     /**
@@ -122,6 +227,7 @@ public class ImageViewActivity extends MediaActivity {
         @Override
         public void onPageSelected(int position) {
             displayMediaInfo(position);
+            prefetch(position);
         }
 
         @Override
@@ -159,7 +265,7 @@ public class ImageViewActivity extends MediaActivity {
             View view = layoutInflater.inflate(R.layout.image_fullscreen, container, false);
             LinearLayout playBtn = view.findViewById(R.id.play_btn);
 
-            TouchImageView image = view.findViewById(R.id.image);
+            TiledImageView image = view.findViewById(R.id.image);
             image.setOnClickListener(v -> toggleSystemUI());
             image.setZoomEnabled(false);
 
@@ -191,25 +297,63 @@ public class ImageViewActivity extends MediaActivity {
             circularProgressDrawable.setCenterRadius(90f);
             circularProgressDrawable.start();
 
+            //Display images are kept in the bounded disk cache, so revisited and prefetched pages are not downloaded again
             RequestOptions options = new RequestOptions()
                     .format(DecodeFormat.PREFER_ARGB_8888)
                     .placeholder(circularProgressDrawable)
                     .error(R.drawable.ic_warning_24dp)
-                    .diskCacheStrategy(DiskCacheStrategy.NONE);
+                    .diskCacheStrategy(DiskCacheStrategy.DATA);
 
-            String URL = CommunicationHelper.getFullsizeImageRequestURL(mNetworkDevice) + media.getFilename();
+            //The grid thumbnail is shown at once if it is cached. See RemoteMediaAdapter
+            RemoteThumbnail thumbnail = new RemoteThumbnail(mNetworkDevice, media.getFilename(), mThumbnailSize);
             DrawableCrossFadeFactory factory = new DrawableCrossFadeFactory.Builder().setCrossFadeEnabled(true).build();
 
             GlideApp.with(ImageViewActivity.this)
-                    .load(URL)
+                    .load(getDisplayImageURL(media))
                     .apply(options)
+                    .thumbnail(GlideApp.with(ImageViewActivity.this)
+                            .load(thumbnail)
+                            .onlyRetrieveFromCache(true)
+                            .diskCacheStrategy(DiskCacheStrategy.DATA))
                     .transition(withCrossFade(factory))
                     .into(image);
 
+            if (media.getMediaType() != MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO)
+                image.setOnTouchImageViewListener(() -> {
+                    if (image.getCurrentZoom() < ORIGINAL_ZOOM || image.getTag(R.id.image) != null)
+                        return;
+
+                    loadOriginal(image, media);
+                });
+
             container.addView(view);
             return view;
         }
 
+        /**
+         * Downloads the original file, which is drawn in tiles over the screen-sized image.
+         * The original is never decoded as a whole, so its resolution is not limited.
+         */
+        private void loadOriginal(@NonNull TiledImageView image, @NonNull Media media) {
+            Future<?> load = OriginalFileLoader.load(ImageViewActivity.this, mNetworkDevice, media.getFilename(),
+                    new OriginalFileLoader.Callback() {
+                        @Override
+                        public void onLoaded(@NonNull File file) {
+                            //The page may have been destroyed meanwhile
+                            if (image.isAttachedToWindow())
+                                image.setTileSource(file, media.getOrientation());
+                        }
+
+                        @Override
+                        public void onFailed(@NonNull Exception e) {
+                            //The screen-sized image stays, the original is requested again on the next zoom
+                            image.setTag(R.id.image, null);
+                        }
+                    });
+
+            image.setTag(R.id.image, load);
+        }
+
         @Override
         public int getCount() {
             return mList.size();
@@ -222,7 +366,17 @@ public class ImageViewActivity extends MediaActivity {
 
         @Override
         public void destroyItem(ViewGroup container, int position, @NonNull Object object) {
-            container.removeView((View) object);
+            View view = (View) object;
+            TiledImageView image = view.findViewById(R.id.image);
+
+            //Cancels the loads if the page has been swiped away before the image arrived
+            GlideApp.with(ImageViewActivity.this).clear(image);
+
+            if (image.getTag(R.id.image) instanceof Future)
+                ((Future<?>) image.getTag(R.id.image)).cancel(true);
+
+            image.setTileSource(null, 0);
+            container.removeView(view);
         }
     }
 }
@@ -0,0 +1,407 @@
+package com.naloaty.syncshare.activity;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ortiz.touchview.TouchImageView;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * TouchImageView that draws the visible part of a huge image in tiles decoded by {@link BitmapRegionDecoder}.
+ * The screen-sized image is drawn below the tiles, so the image is never blank while tiles are decoded.
+ * Only visible tiles are decoded, with the sample size of the current zoom, so a tile has about as many pixels
+ * as it takes on the screen. Decoded tiles are kept in a cache bounded by {@link #TILE_CACHE_SCREENS},
+ * so the memory taken by a page does not depend on the resolution of the source.
+ * Tiles are decoded in the stored orientation of the file and rotated when drawn, so their grid
+ * does not depend on the orientation, while the source size is the size of the image as it is displayed.
+ * @see ImageViewActivity
+ * @see com.naloaty.syncshare.communication.OriginalFileLoader
+ */
+public class TiledImageView extends TouchImageView {
+
+    private static final String TAG = "TiledImageView";
+
+    /* Side of a tile in decoded pixels */
+    private static final int TILE_SIZE = 256;
+
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+    /* Decoded tiles take at most this many screens of ARGB_8888 pixels */
+    private static final int TILE_CACHE_SCREENS = 3;
+
+    /* Tiles of all pages are decoded on one thread, only the current page is zoomed in */
+    private static final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final LruCache<Tile, Bitmap> mTiles;
+
+    /* Tiles that are visible, but not decoded yet. Guarded by itself */
+    private final Set<Tile> mPending = new LinkedHashSet<>();
+
+    /* Written on the main thread, read by the decoding thread */
+    private volatile BitmapRegionDecoder mDecoder;
+    private int mSourceWidth;
+    private int mSourceHeight;
+
+    /* Maps the stored pixels of the file to the displayed image */
+    private final Matrix mOrientation = new Matrix();
+    private boolean mMaxZoomAdjusted = false;
+
+    /* Temporary objects of onDraw() */
+    private final Matrix mSourceToView = new Matrix();
+    private final Matrix mStoredToView = new Matrix();
+    private final Matrix mViewToStored = new Matrix();
+    private final RectF mRect = new RectF();
+    private final Rect mTileRect = new Rect();
+    private final float[] mValues = new float[9];
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+
+        int screenPixels = getResources().getDisplayMetrics().widthPixels * getResources().getDisplayMetrics().heightPixels;
+
+        mTiles = new LruCache<Tile, Bitmap>(TILE_CACHE_SCREENS * screenPixels * 4) {
+            @Override
+            protected int sizeOf(Tile key, Bitmap value) {
+                return value.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Tile key, Bitmap oldValue, Bitmap newValue) {
+                oldValue.recycle();
+            }
+        };
+    }
+
+    /**
+     * Opens the original file, so the visible part of the zoomed image is drawn in its resolution.
+     * @param file Original image or null to release the decoder and the tiles.
+     * @param orientation Clockwise rotation of the stored image in degrees (e.g. EXIF orientation).
+     */
+    public void setTileSource(@Nullable File file, int orientation) {
+        releaseTiles();
+
+        if (file == null)
+            return;
+
+        decodeExecutor.execute(() -> {
+            try {
+                BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(file.getAbsolutePath(), false);
+
+                mHandler.post(() -> {
+                    mDecoder = decoder;
+                    setOrientation(orientation, decoder.getWidth(), decoder.getHeight());
+                    invalidate();
+                });
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Cannot open " + file + ". Reason: " + e.toString());
+            }
+        });
+    }
+
+    /**
+     * Sets the size of the displayed image and the mapping of the stored pixels to it.
+     * @param orientation Rotation in degrees. Rotations that are not a multiple of 90 are ignored.
+     */
+    private void setOrientation(int orientation, int storedWidth, int storedHeight) {
+        orientation = (orientation % 360 + 360) % 360;
+        mOrientation.reset();
+
+        switch (orientation) {
+            case 90:
+                mOrientation.postRotate(90);
+                mOrientation.postTranslate(storedHeight, 0);
+                break;
+
+            case 180:
+                mOrientation.postRotate(180);
+                mOrientation.postTranslate(storedWidth, storedHeight);
+                break;
+
+            case 270:
+                mOrientation.postRotate(270);
+                mOrientation.postTranslate(0, storedWidth);
+                break;
+
+            default:
+                orientation = 0;
+        }
+
+        boolean swapped = orientation == 90 || orientation == 270;
+
+        mSourceWidth = swapped ? storedHeight : storedWidth;
+        mSourceHeight = swapped ? storedWidth : storedHeight;
+    }
+
+    private void releaseTiles() {
+        synchronized (mPending) {
+            mPending.clear();
+        }
+
+        mTiles.evictAll();
+
+        if (mDecoder != null) {
+            BitmapRegionDecoder decoder = mDecoder;
+            mDecoder = null;
+
+            //The decoder may be in use by the decoding thread
+            decodeExecutor.execute(decoder::recycle);
+        }
+
+        mMaxZoomAdjusted = false;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        releaseTiles();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        Drawable drawable = getDrawable();
+
+        if (mDecoder == null || drawable == null || drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0)
+            return;
+
+        //Source pixels are mapped to the drawable and then to the view by the matrix of TouchImageView
+        mSourceToView.set(getImageMatrix());
+        mSourceToView.preScale((float) drawable.getIntrinsicWidth() / mSourceWidth, (float) drawable.getIntrinsicHeight() / mSourceHeight);
+        mSourceToView.getValues(mValues);
+
+        float viewPixelsPerSourcePixel = mValues[Matrix.MSCALE_X];
+
+        if (!mMaxZoomAdjusted) {
+            mMaxZoomAdjusted = true;
+
+            //The image can be zoomed in to its own resolution
+            float fitZoom = viewPixelsPerSourcePixel / getCurrentZoom();
+
+            if (fitZoom > 0)
+                setMaxZoom(Math.max(getMaxZoom(), 1 / fitZoom));
+        }
+
+        //The screen-sized image is detailed enough
+        if (viewPixelsPerSourcePixel * mSourceWidth <= drawable.getIntrinsicWidth()) {
+            requestTiles(Collections.emptyList());
+            return;
+        }
+
+        //Tiles are cut from the stored pixels, so the visible part is mapped back to them
+        mStoredToView.set(mSourceToView);
+        mStoredToView.preConcat(mOrientation);
+
+        if (!mStoredToView.invert(mViewToStored))
+            return;
+
+        mRect.set(0, 0, getWidth(), getHeight());
+        mViewToStored.mapRect(mRect);
+
+        int storedWidth = mDecoder.getWidth();
+        int storedHeight = mDecoder.getHeight();
+        int sampleSize = getSampleSize(1 / viewPixelsPerSourcePixel);
+        int left, top, right, bottom;
+
+        //Visible tiles should fit into the cache, otherwise they would evict each other
+        while (true) {
+            int tileSourceSize = TILE_SIZE * sampleSize;
+
+            left = Math.max(0, (int) Math.floor(mRect.left / tileSourceSize));
+            top = Math.max(0, (int) Math.floor(mRect.top / tileSourceSize));
+            right = Math.min((storedWidth - 1) / tileSourceSize, (int) Math.floor(mRect.right / tileSourceSize));
+            bottom = Math.min((storedHeight - 1) / tileSourceSize, (int) Math.floor(mRect.bottom / tileSourceSize));
+
+            if ((long) (right - left + 1) * (bottom - top + 1) * TILE_BYTES <= mTiles.maxSize())
+                break;
+
+            sampleSize *= 2;
+        }
+
+        List<Tile> missing = new ArrayList<>();
+
+        for (int row = top; row <= bottom; row++) {
+            for (int column = left; column <= right; column++) {
+                Tile tile = new Tile(sampleSize, column, row);
+                Bitmap bitmap = mTiles.get(tile);
+
+                if (bitmap == null) {
+                    missing.add(tile);
+                    continue;
+                }
+
+                //The tile is rotated together with the canvas
+                getSourceRect(tile, storedWidth, storedHeight, mTileRect);
+                canvas.save();
+                canvas.concat(mStoredToView);
+                canvas.drawBitmap(bitmap, null, mTileRect, mPaint);
+                canvas.restore();
+            }
+        }
+
+        requestTiles(missing);
+    }
+
+    /**
+     * Replaces the queue of tiles to be decoded, so tiles that are not visible anymore are not decoded.
+     */
+    private void requestTiles(@NonNull List<Tile> tiles) {
+        boolean start;
+
+        synchronized (mPending) {
+            start = mPending.isEmpty() && !tiles.isEmpty();
+            mPending.clear();
+            mPending.addAll(tiles);
+        }
+
+        if (start)
+            decodeExecutor.execute(this::decodePending);
+    }
+
+    /**
+     * Decodes the queued tiles one by one on the decoding thread.
+     */
+    private void decodePending() {
+        while (true) {
+            //Decoders are recycled on this thread, so the decoder stays valid during the iteration
+            BitmapRegionDecoder decoder = mDecoder;
+            Tile tile;
+
+            synchronized (mPending) {
+                if (mPending.isEmpty())
+                    return;
+
+                tile = mPending.iterator().next();
+            }
+
+            Bitmap bitmap = null;
+
+            if (decoder != null && !decoder.isRecycled()) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = tile.sampleSize;
+                options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+                Rect rect = new Rect();
+                getSourceRect(tile, decoder.getWidth(), decoder.getHeight(), rect);
+
+                try {
+                    bitmap = decoder.decodeRegion(rect, options);
+                }
+                catch (Exception e) {
+                    Log.w(TAG, "Cannot decode tile " + tile + ". Reason: " + e.toString());
+                }
+            }
+
+            synchronized (mPending) {
+                mPending.remove(tile);
+            }
+
+            if (bitmap != null) {
+                Bitmap decoded = bitmap;
+
+                mHandler.post(() -> {
+                    //The source may have been released while the tile was decoded
+                    if (mDecoder != decoder) {
+                        decoded.recycle();
+                        return;
+                    }
+
+                    mTiles.put(tile, decoded);
+                    invalidate();
+                });
+            }
+        }
+    }
+
+    /**
+     * @param sourcePixelsPerViewPixel Scale of the source on the screen.
+     * @return The highest power of two that does not make a tile coarser than the screen.
+     */
+    private static int getSampleSize(float sourcePixelsPerViewPixel) {
+        int sampleSize = 1;
+
+        while (sampleSize * 2 <= sourcePixelsPerViewPixel)
+            sampleSize *= 2;
+
+        return sampleSize;
+    }
+
+    private static void getSourceRect(@NonNull Tile tile, int sourceWidth, int sourceHeight, @NonNull Rect rect) {
+        int size = TILE_SIZE * tile.sampleSize;
+
+        rect.set(tile.column * size, tile.row * size,
+                Math.min(sourceWidth, (tile.column + 1) * size), Math.min(sourceHeight, (tile.row + 1) * size));
+    }
+
+    private static class Tile {
+
+        private final int sampleSize;
+        private final int column;
+        private final int row;
+
+        private Tile(int sampleSize, int column, int row) {
+            this.sampleSize = sampleSize;
+            this.column = column;
+            this.row = row;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+
+            if (!(o instanceof Tile))
+                return false;
+
+            Tile tile = (Tile) o;
+            return sampleSize == tile.sampleSize && column == tile.column && row == tile.row;
+        }
+
+        @Override
+        public int hashCode() {
+            return (sampleSize * 31 + column) * 31 + row;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return sampleSize + "/" + column + "x" + row;
+        }
+    }
+}
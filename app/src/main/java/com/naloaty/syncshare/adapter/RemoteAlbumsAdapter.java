@@ -23,6 +23,8 @@ import com.naloaty.syncshare.app.GlideApp;
 import com.naloaty.syncshare.communication.CommunicationHelper;
 import com.naloaty.syncshare.database.device.NetworkDevice;
 import com.naloaty.syncshare.database.media.Album;
+import com.naloaty.syncshare.service.Requests;
+import com.naloaty.syncshare.service.ThumbnailSize;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -79,8 +81,8 @@ public class RemoteAlbumsAdapter extends RecyclerView.Adapter<RemoteAlbumsAdapte
 
                 @Override
                 public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                    return mList.get(oldItemPosition).getId() ==
-                            albumsList.get(newItemPosition).getId();
+                    return mList.get(oldItemPosition).getAlbumId() ==
+                            albumsList.get(newItemPosition).getAlbumId();
                 }
 
                 @Override
@@ -126,7 +128,9 @@ public class RemoteAlbumsAdapter extends RecyclerView.Adapter<RemoteAlbumsAdapte
                 .error(R.drawable.ic_warning_24dp)
                 .diskCacheStrategy(DiskCacheStrategy.RESOURCE);
 
-        String URL = CommunicationHelper.getThumbnailRequestURL(mNetworkDevice) + album.getLastItemFilename();
+        int size = ThumbnailSize.forPixels(holder.albumPreview.getLayoutParams().width);
+        String URL = CommunicationHelper.getThumbnailRequestURL(mNetworkDevice) + album.getLastItemFilename()
+                + "?" + Requests.SIZE + "=" + size;
         DrawableCrossFadeFactory factory = new DrawableCrossFadeFactory.Builder().setCrossFadeEnabled(true).build();
 
         Log.d(TAG, "Album icon url: " + URL);
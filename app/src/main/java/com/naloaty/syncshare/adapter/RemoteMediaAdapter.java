@@ -2,7 +2,6 @@ package com.naloaty.syncshare.adapter;
 
 import android.provider.MediaStore;
 import android.text.TextUtils;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -19,9 +18,10 @@ import com.bumptech.glide.request.RequestOptions;
 import com.bumptech.glide.request.transition.DrawableCrossFadeFactory;
 import com.naloaty.syncshare.R;
 import com.naloaty.syncshare.app.GlideApp;
-import com.naloaty.syncshare.communication.CommunicationHelper;
+import com.naloaty.syncshare.communication.RemoteThumbnail;
 import com.naloaty.syncshare.database.device.NetworkDevice;
 import com.naloaty.syncshare.media.Media;
+import com.naloaty.syncshare.util.DeviceUtils;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -78,7 +78,8 @@ public class RemoteMediaAdapter extends RecyclerView.Adapter<RemoteMediaAdapter.
 
                 @Override
                 public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                    return mList.get(oldItemPosition) == mediaList.get(newItemPosition);
+                    return TextUtils.equals(mList.get(oldItemPosition).getFilename(),
+                            mediaList.get(newItemPosition).getFilename());
                 }
 
                 @Override
@@ -89,6 +90,7 @@ public class RemoteMediaAdapter extends RecyclerView.Adapter<RemoteMediaAdapter.
                     return TextUtils.equals(newMedia.getFilename(), oldMedia.getFilename())
                             && TextUtils.equals(newMedia.getMimeType(), oldMedia.getMimeType())
                             && newMedia.getDateTaken() == oldMedia.getDateTaken()
+                            && newMedia.getDateModified() == oldMedia.getDateModified()
                             && newMedia.getOrientation() == oldMedia.getOrientation()
                             && newMedia.getSize() == oldMedia.getSize();
 
@@ -100,6 +102,23 @@ public class RemoteMediaAdapter extends RecyclerView.Adapter<RemoteMediaAdapter.
         }
     }
 
+    /**
+     * Appends the next page of media-files to the end of the list
+     * @param page Media-files that follow the current list
+     */
+    public void appendMediaList(@NonNull List<Media> page) {
+        if (page.isEmpty())
+            return;
+
+        int start = mList.size();
+        List<Media> list = new ArrayList<>(start + page.size());
+        list.addAll(mList);
+        list.addAll(page);
+
+        mList = list;
+        notifyItemRangeInserted(start, page.size());
+    }
+
     @NonNull
     @Override
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -117,21 +136,22 @@ public class RemoteMediaAdapter extends RecyclerView.Adapter<RemoteMediaAdapter.
                 .centerCrop()
                 .placeholder(R.color.colorEmptyThumbnail)
                 .error(R.drawable.ic_warning_24dp)
-                .diskCacheStrategy(DiskCacheStrategy.RESOURCE);
+                .diskCacheStrategy(DiskCacheStrategy.ALL);
 
         if (media.getMediaType() == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO)
             holder.videoText.setVisibility(View.VISIBLE);
         else
             holder.videoText.setVisibility(View.INVISIBLE);
 
-        String URL = CommunicationHelper.getThumbnailRequestURL(mNetworkDevice) + media.getFilename();
+        //Thumbnails of the visible range are requested together. See ThumbnailBatcher
+        //The encoded thumbnail is cached too, so ImageViewActivity can show it while the full image is loading
+        int cellSize = DeviceUtils.getGridCellSize(holder.thumbnail.getResources());
+        RemoteThumbnail thumbnail = new RemoteThumbnail(mNetworkDevice, media.getFilename(), cellSize);
         DrawableCrossFadeFactory factory = new DrawableCrossFadeFactory.Builder().setCrossFadeEnabled(true).build();
 
-        Log.d(TAG, "Media url: " + URL);
-
         GlideApp.with(holder.thumbnail.getContext())
                 .asBitmap()
-                .load(URL)
+                .load(thumbnail)
                 .apply(options)
                 .transition(withCrossFade(factory))
                 .into(holder.thumbnail);
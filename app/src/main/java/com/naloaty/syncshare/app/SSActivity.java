@@ -14,6 +14,7 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import com.naloaty.syncshare.R;
 import com.naloaty.syncshare.activity.WelcomeActivity;
 import com.naloaty.syncshare.config.AppConfig;
+import com.naloaty.syncshare.config.KeyConfig;
 import com.naloaty.syncshare.dialog.SSProgressDialog;
 import com.naloaty.syncshare.security.KeyTool;
 import com.naloaty.syncshare.security.SecurityUtils;
@@ -115,6 +116,62 @@ public abstract class SSActivity extends AppCompatActivity {
         KeyTool.createSecurityStuff(getFilesDir(), callback);
     }
 
+    /**
+     * Replaces the RSA identity of this device with a faster EC one.
+     * The communication service is restarted, so the media server uses the new keys.
+     * @see KeyTool#replaceSecurityStuff
+     */
+    public void replaceSecurityStuff() {
+        final SSProgressDialog ssDialog = new SSProgressDialog(SSActivity.this);
+
+        ssDialog.setMessage(R.string.text_generatingInProgress);
+
+        KeyTool.KeyGeneratorCallback callback = new KeyTool.KeyGeneratorCallback() {
+            @Override
+            public void onStart() {
+                Log.i(TAG, "Replacement of security stuff is started");
+                ssDialog.show();
+            }
+
+            @Override
+            public void onFinish() {
+                Log.i(TAG, "Replacement of security stuff is finished");
+
+                if (ssDialog.isShowing()){
+                    ssDialog.dismiss();
+                    Toast.makeText(SSActivity.this, getText(R.string.toast_keysCreationSuccess), Toast.LENGTH_LONG).show();
+                }
+
+                if (AppUtils.isServiceRunning(getApplication(), CommunicationService.class)) {
+                    Intent intent = new Intent(SSActivity.this, CommunicationService.class);
+                    stopService(intent);
+                    startService(intent);
+                }
+
+                Intent intent = new Intent(SECURITY_STUFF_GENERATION_RESULT);
+                LocalBroadcastManager.getInstance(SSActivity.this).sendBroadcast(intent);
+            }
+
+            @Override
+            public void onFail() {
+                Log.i(TAG, "Replacement of security stuff is failed");
+
+                if (ssDialog.isShowing())
+                    ssDialog.dismiss();
+
+                //The old keys are kept
+                new AlertDialog.Builder(SSActivity.this)
+                        .setTitle(R.string.title_generationFailed)
+                        .setMessage(R.string.text_generationFailed)
+                        .setNegativeButton(R.string.btn_cancel, null)
+                        .setPositiveButton(R.string.btn_tryAgain, (dialog, which) -> replaceSecurityStuff())
+                        .show();
+            }
+        };
+
+        KeyTool.replaceSecurityStuff(getFilesDir(), KeyConfig.KEY_ALGORITHM_EC, callback);
+    }
+
     /**
      * Forces application to stop
      */
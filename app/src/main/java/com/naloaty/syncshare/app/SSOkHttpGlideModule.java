@@ -5,27 +5,72 @@ import android.content.Context;
 import androidx.annotation.NonNull;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.GlideBuilder;
 import com.bumptech.glide.Registry;
 import com.bumptech.glide.annotation.GlideModule;
 import com.bumptech.glide.integration.okhttp3.OkHttpUrlLoader;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+import com.bumptech.glide.load.engine.cache.MemorySizeCalculator;
 import com.bumptech.glide.load.model.GlideUrl;
 import com.bumptech.glide.module.AppGlideModule;
+import com.naloaty.syncshare.communication.RemoteThumbnail;
+import com.naloaty.syncshare.communication.RemoteThumbnailLoader;
 import com.naloaty.syncshare.communication.SSOkHttpClient;
 
 import java.io.InputStream;
 
 import okhttp3.OkHttpClient;
+import okhttp3.Request;
 
 /**
  * GlideModule that uses StreamShare SSL certificate.
+ * Requests WebP thumbnails, which are much smaller than PNG or JPEG ones.
+ * Thumbnails of remote media-files are loaded in batches. See {@link RemoteThumbnailLoader}.
+ * Both caches are bounded: display images viewed and prefetched in ImageViewActivity are kept on disk.
  * @see SSOkHttpClient
  */
 @GlideModule
 public class SSOkHttpGlideModule extends AppGlideModule {
 
+    private static final String IMAGE_ACCEPT = "image/webp,image/*;q=0.8";
+
+    private static final long DISK_CACHE_SIZE = 256 * 1024 * 1024; //bytes
+
+    /* Number of screens of decoded images kept in memory */
+    private static final float MEMORY_CACHE_SCREENS = 3;
+
+    @Override
+    public void applyOptions(@NonNull Context context, @NonNull GlideBuilder builder) {
+        MemorySizeCalculator calculator = new MemorySizeCalculator.Builder(context)
+                .setMemoryCacheScreens(MEMORY_CACHE_SCREENS)
+                .build();
+
+        builder.setMemoryCache(new LruResourceCache(calculator.getMemoryCacheSize()));
+        builder.setDiskCache(new InternalCacheDiskCacheFactory(context, DISK_CACHE_SIZE));
+    }
+
     @Override
     public void registerComponents(@NonNull Context context, @NonNull Glide glide, Registry registry) {
         OkHttpClient client = SSOkHttpClient.getOkHttpClient(context);
+
+        if (client != null) {
+            client = client.newBuilder()
+                    .addInterceptor(chain -> {
+                        Request request = chain.request();
+
+                        if (request.header("Accept") != null)
+                            return chain.proceed(request);
+
+                        return chain.proceed(request.newBuilder()
+                                .header("Accept", IMAGE_ACCEPT)
+                                .build());
+                    })
+                    .build();
+
+            registry.append(RemoteThumbnail.class, InputStream.class, new RemoteThumbnailLoader.Factory(client));
+        }
+
         registry.replace(GlideUrl.class, InputStream.class, new OkHttpUrlLoader.Factory(client));
     }
 }
@@ -3,20 +3,24 @@ package com.naloaty.syncshare.communication;
 import android.content.Context;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.naloaty.syncshare.config.AppConfig;
 import com.naloaty.syncshare.service.Requests;
+import com.naloaty.syncshare.service.ThumbnailFrames;
 import com.naloaty.syncshare.database.device.NetworkDevice;
 import com.naloaty.syncshare.database.device.SSDevice;
 import com.naloaty.syncshare.database.media.Album;
 import com.naloaty.syncshare.media.Media;
+import com.naloaty.syncshare.media.MediaDelta;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import okhttp3.OkHttpClient;
 import retrofit2.Call;
 import retrofit2.Retrofit;
-import retrofit2.converter.gson.GsonConverterFactory;
 
 /**
  * This class helps send requests to another device.
@@ -31,6 +35,16 @@ public class CommunicationHelper {
 
     private static final String PROTOCOL = "https://";
 
+    /* Maximum number of cached Retrofit instances */
+    private static final int MAX_RETROFITS = 16;
+
+    private static final LinkedHashMap<String, Retrofit> retrofitCache = new LinkedHashMap<String, Retrofit>(MAX_RETROFITS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Retrofit> eldest) {
+            return size() > MAX_RETROFITS;
+        }
+    };
+
     /**
      * Requests general information about a remote device.
      * @param context The Context in which this request should be executed.
@@ -64,14 +78,15 @@ public class CommunicationHelper {
      * Requests a list of shared albums on a remote device.
      * @param context The Context in which this request should be executed.
      * @param networkDevice Network information about remote device. See {@link com.naloaty.syncshare.util.DNSSDHelper}.
+     * @param since Sync token of the list received before or null. The response code is 304 if the list has not changed.
      * @return Retrofit network call.
      */
-    public static Call<List<Album>> requestAlbumsList (@NonNull final Context context, @NonNull final NetworkDevice networkDevice) {
+    public static Call<List<Album>> requestAlbumsList (@NonNull final Context context, @NonNull final NetworkDevice networkDevice, @Nullable String since) {
         String requestAddress = PROTOCOL + networkDevice.getIpAddress() + ":" + AppConfig.MEDIA_SERVER_PORT + "/";
         Retrofit retrofit = buildRetrofit(context, networkDevice, requestAddress);
         MediaRequest request = retrofit.create(MediaRequest.class);
 
-        return request.getAlbumsList();
+        return request.getAlbumsList(since);
     }
 
     /**
@@ -90,20 +105,75 @@ public class CommunicationHelper {
     }
 
     /**
-     * Builds Retrofit instance with OkHttpClient that uses StreamShare SSL certificate.
+     * Requests a page of media-files in a specific album on a remote device.
+     * @param context The Context in which this request should be executed.
+     * @param networkDevice Network information about remote device. See {@link com.naloaty.syncshare.util.DNSSDHelper}.
+     * @param album The album whose file list you want to receive.
+     * @param limit Maximum number of media-files in the page.
+     * @param after Position of the page returned with the previous page or null for the first page.
+     * @return Retrofit network call.
+     * @see MediaPager
+     */
+    public static Call<List<Media>> requestMediaPage (@NonNull final Context context, @NonNull final NetworkDevice networkDevice,
+                                                      @NonNull final Album album, int limit, @Nullable String after) {
+        String requestAddress = PROTOCOL + networkDevice.getIpAddress() + ":" + AppConfig.MEDIA_SERVER_PORT + "/";
+        Retrofit retrofit = buildRetrofit(context, networkDevice, requestAddress);
+        MediaRequest request = retrofit.create(MediaRequest.class);
+
+        return request.getMediaPage(String.valueOf(album.getAlbumId()), limit, after);
+    }
+
+    /**
+     * Requests changes of a media list since the sync token was issued.
+     * @param context The Context in which this request should be executed.
+     * @param networkDevice Network information about remote device. See {@link com.naloaty.syncshare.util.DNSSDHelper}.
+     * @param album The album whose file list has been received before.
+     * @param since Sync token received with the list.
+     * @return Retrofit network call.
+     * @see MediaDelta
+     */
+    public static Call<MediaDelta> requestMediaDelta (@NonNull final Context context, @NonNull final NetworkDevice networkDevice,
+                                                      @NonNull final Album album, @NonNull String since) {
+        String requestAddress = PROTOCOL + networkDevice.getIpAddress() + ":" + AppConfig.MEDIA_SERVER_PORT + "/";
+        Retrofit retrofit = buildRetrofit(context, networkDevice, requestAddress);
+        MediaRequest request = retrofit.create(MediaRequest.class);
+
+        return request.getMediaDelta(String.valueOf(album.getAlbumId()), since);
+    }
+
+    /**
+     * Returns Retrofit instance with OkHttpClient that uses StreamShare SSL certificate.
+     * Instances are cached per device, so services and their converters are not built for every request.
+     * The instance is rebuilt if the device has changed its address.
      * @param context The Context in which this request should be executed.
      * @param networkDevice Network information about remote device. See {@link com.naloaty.syncshare.util.DNSSDHelper}.
      * @param requestAddress Address to which the request will be sent.
      * @return Retrofit instance.
      */
     private static Retrofit buildRetrofit(@NonNull final Context context, @NonNull final NetworkDevice networkDevice, @NonNull final String requestAddress) {
-        OkHttpClient client = SSOkHttpClient.getOkHttpClient(context);
+        OkHttpClient client = SSOkHttpClient.getApiOkHttpClient(context);
+
+        //The device id is unknown until the device has been added
+        String key = networkDevice.getDeviceId() != null ? networkDevice.getDeviceId() : networkDevice.getIpAddress();
+
+        synchronized (retrofitCache) {
+            Retrofit retrofit = retrofitCache.get(key);
+
+            if (retrofit != null && retrofit.callFactory() == client && retrofit.baseUrl().toString().equals(requestAddress))
+                return retrofit;
+
+            retrofit = new Retrofit.Builder()
+                    .baseUrl(requestAddress)
+                    .client(client)
+                    .addConverterFactory(WireFormat.CONVERTER_FACTORY)
+                    .build();
 
-        return new Retrofit.Builder()
-                .baseUrl(requestAddress)
-                .client(client)
-                .addConverterFactory(GsonConverterFactory.create())
-                .build();
+            //The client is not available until the key material has been generated
+            if (client != null)
+                retrofitCache.put(key, retrofit);
+
+            return retrofit;
+        }
     }
 
     /**
@@ -123,6 +193,26 @@ public class CommunicationHelper {
                 + "/";
     }
 
+    /**
+     * Builds a request URL to retrieve small thumbnails of several media-files at once.
+     * Filenames should be appended to the ids parameter, separated by {@link ThumbnailFrames#SEPARATOR}.
+     * @param networkDevice Network information about remote device. See {@link com.naloaty.syncshare.util.DNSSDHelper}.
+     * @return Request URL.
+     */
+    public static String getThumbnailsRequestURL(@NonNull NetworkDevice networkDevice) {
+        return PROTOCOL
+                + networkDevice.getIpAddress()
+                + ":"
+                + AppConfig.MEDIA_SERVER_PORT
+                + "/"
+                + Requests.MEDIA
+                + "/"
+                + Requests.THUMBNAILS
+                + "?"
+                + Requests.IDS
+                + "=";
+    }
+
     /**
      * Builds a request URL to retrieve a full-size thumbnail of media-file.
      * @param networkDevice Network information about remote device. See {@link com.naloaty.syncshare.util.DNSSDHelper}.
@@ -140,6 +230,24 @@ public class CommunicationHelper {
                 + "/";
     }
 
+    /**
+     * Builds a request URL to retrieve an image of media-file that fits the screen.
+     * The size should be appended as the {@link Requests#SIZE} parameter after the filename.
+     * @param networkDevice Network information about remote device. See {@link com.naloaty.syncshare.util.DNSSDHelper}.
+     * @return Request URL.
+     */
+    public static String getDisplayImageRequestURL(@NonNull NetworkDevice networkDevice) {
+        return PROTOCOL
+                + networkDevice.getIpAddress()
+                + ":"
+                + AppConfig.MEDIA_SERVER_PORT
+                + "/"
+                + Requests.MEDIA
+                + "/"
+                + Requests.DISPLAY_IMAGE
+                + "/";
+    }
+
     /**
      * Builds a request URL to retrieve a media-file itself.
      * @param networkDevice Network information about remote device. See {@link com.naloaty.syncshare.util.DNSSDHelper}.
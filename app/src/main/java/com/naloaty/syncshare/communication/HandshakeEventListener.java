@@ -0,0 +1,72 @@
+package com.naloaty.syncshare.communication;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.naloaty.syncshare.security.HandshakeMetrics;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+
+/**
+ * This class measures TLS handshakes of connections opened by OkHttp. See {@link HandshakeMetrics#CLIENT}.
+ * A call that gets a pooled connection is counted as reused.
+ * @see SSOkHttpClient
+ */
+class HandshakeEventListener extends EventListener {
+
+    private static final String TAG = "HandshakeEventListener";
+
+    static final EventListener.Factory FACTORY = call -> new HandshakeEventListener();
+
+    private long mConnectStart = -1;
+    private long mSecureConnectStart = -1;
+    private long mSecureConnectEnd = -1;
+
+    @Override
+    public void connectStart(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress, @NonNull Proxy proxy) {
+        mConnectStart = System.currentTimeMillis();
+    }
+
+    @Override
+    public void secureConnectStart(@NonNull Call call) {
+        mSecureConnectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(@NonNull Call call, @Nullable Handshake handshake) {
+        mSecureConnectEnd = System.nanoTime();
+    }
+
+    @Override
+    public void connectionAcquired(@NonNull Call call, @NonNull Connection connection) {
+        if (mConnectStart < 0) {
+            HandshakeMetrics.CLIENT.recordReuse();
+            return;
+        }
+
+        Socket socket = connection.socket();
+
+        if (!(socket instanceof SSLSocket) || mSecureConnectStart < 0 || mSecureConnectEnd < 0)
+            return;
+
+        SSLSession session = ((SSLSocket) socket).getSession();
+        boolean resumed = session.getCreationTime() < mConnectStart;
+        long time = mSecureConnectEnd - mSecureConnectStart;
+
+        HandshakeMetrics.CLIENT.recordHandshake(time, resumed, session.getProtocol());
+        Log.d(TAG, String.format("%s handshake with %s took %dms (%s)", resumed ? "Resumed" : "Full",
+                call.request().url().host(), time / 1000000, session.getProtocol()));
+    }
+}
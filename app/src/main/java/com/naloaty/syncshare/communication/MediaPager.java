@@ -0,0 +1,158 @@
+package com.naloaty.syncshare.communication;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.naloaty.syncshare.database.device.NetworkDevice;
+import com.naloaty.syncshare.database.media.Album;
+import com.naloaty.syncshare.media.Media;
+import com.naloaty.syncshare.service.Requests;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.internal.EverythingIsNonNull;
+
+/**
+ * This class loads the media list of a remote album page by page.
+ * The first page is small, so the first screen is shown as soon as possible.
+ * Next pages are loaded on demand (e.g. when the user scrolls close to the end of the list).
+ * @see com.naloaty.syncshare.fragment.RemoteMediaFragment
+ */
+public class MediaPager {
+
+    private static final String TAG = "MediaPager";
+
+    public static final int FIRST_PAGE_SIZE = 120;
+    public static final int PAGE_SIZE = 500;
+
+    private final Context mContext;
+    private final NetworkDevice mNetworkDevice;
+    private final Album mAlbum;
+    private final Listener mListener;
+
+    private Call<List<Media>> mCall;
+    private String mNextCursor;
+    private String mSyncToken;
+    private boolean mFirstPage = true;
+    private boolean mHasMore = true;
+
+    public MediaPager(@NonNull Context context, @NonNull NetworkDevice networkDevice,
+                      @NonNull Album album, @NonNull Listener listener) {
+        mContext = context.getApplicationContext();
+        mNetworkDevice = networkDevice;
+        mAlbum = album;
+        mListener = listener;
+    }
+
+    /**
+     * Requests the next page unless it is being loaded or the last page has been loaded.
+     * Listener is called on the main thread.
+     */
+    public void loadNext() {
+        if (mCall != null || !mHasMore)
+            return;
+
+        boolean firstPage = mFirstPage;
+        int limit = firstPage ? FIRST_PAGE_SIZE : PAGE_SIZE;
+
+        mCall = CommunicationHelper.requestMediaPage(mContext, mNetworkDevice, mAlbum, limit, mNextCursor);
+        mCall.enqueue(new Callback<List<Media>>() {
+            @Override
+            @EverythingIsNonNull
+            public void onResponse(Call<List<Media>> call, Response<List<Media>> response) {
+                mCall = null;
+
+                if (!response.isSuccessful()) {
+                    onFailure(call, new Exception("Unexpected response code " + response.code()));
+                    return;
+                }
+
+                List<Media> page = response.body() != null ? response.body() : new ArrayList<>();
+
+                if (firstPage)
+                    mSyncToken = response.headers().get(Requests.SYNC_TOKEN);
+
+                mNextCursor = response.headers().get(Requests.NEXT_CURSOR);
+                mHasMore = mNextCursor != null;
+                mFirstPage = false;
+
+                Log.d(TAG, String.format("Loaded %d media-files, has more: %s", page.size(), mHasMore));
+                mListener.onPageLoaded(page, firstPage);
+            }
+
+            @Override
+            @EverythingIsNonNull
+            public void onFailure(Call<List<Media>> call, Throwable t) {
+                mCall = null;
+
+                if (call.isCanceled())
+                    return;
+
+                mListener.onPageFailed(t, firstPage);
+            }
+        });
+    }
+
+    /**
+     * Continues loading of a list whose first pages were loaded before.
+     * @param nextCursor Position of the next page or null if the whole album is loaded.
+     * @see RemoteMediaCache
+     */
+    public void resume(@Nullable String nextCursor) {
+        cancel();
+
+        mNextCursor = nextCursor;
+        mHasMore = nextCursor != null;
+        mFirstPage = false;
+    }
+
+    /**
+     * @return Position of the next page or null if the whole album is loaded.
+     */
+    @Nullable
+    public String getNextCursor() {
+        return mNextCursor;
+    }
+
+    /**
+     * @return Token received with the first page. See {@link CommunicationHelper#requestMediaDelta}.
+     */
+    @Nullable
+    public String getSyncToken() {
+        return mSyncToken;
+    }
+
+    /**
+     * @return True if there are pages that have not been loaded yet.
+     */
+    public boolean hasMore() {
+        return mHasMore;
+    }
+
+    /**
+     * Cancels the page that is being loaded.
+     */
+    public void cancel() {
+        if (mCall != null) {
+            mCall.cancel();
+            mCall = null;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * @param page Media-files of the page.
+         * @param isFirst True if this is the first page of the album.
+         */
+        void onPageLoaded(@NonNull List<Media> page, boolean isFirst);
+
+        void onPageFailed(@NonNull Throwable t, boolean isFirst);
+    }
+}
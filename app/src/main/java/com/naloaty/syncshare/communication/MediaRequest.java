@@ -3,6 +3,7 @@ package com.naloaty.syncshare.communication;
 import com.naloaty.syncshare.service.Requests;
 import com.naloaty.syncshare.database.media.Album;
 import com.naloaty.syncshare.media.Media;
+import com.naloaty.syncshare.media.MediaDelta;
 
 import java.util.List;
 
@@ -16,14 +17,32 @@ import retrofit2.http.Query;
  */
 public interface MediaRequest {
     /*
-     * media/albums
+     * media/albums?since=***
+     * Responds with 304 if nothing has changed since the token was issued.
+     * The new token is returned in the X-Sync-Token header.
      */
     @GET(Requests.MEDIA + "/" + Requests.ALBUMS)
-    Call<List<Album>> getAlbumsList();
+    Call<List<Album>> getAlbumsList(@Query(Requests.SINCE) String since);
 
     /*
      * media/medialist?albumId=***
      */
     @GET(Requests.MEDIA + "/" + Requests.MEDIA_LIST)
     Call<List<Media>> getMediaList(@Query(Requests.ALBUM_ID) String albumId);
+
+    /*
+     * media/medialist?albumId=***&limit=***&after=***
+     * The position of the next page is returned in the X-Next-Cursor header.
+     */
+    @GET(Requests.MEDIA + "/" + Requests.MEDIA_LIST)
+    Call<List<Media>> getMediaPage(@Query(Requests.ALBUM_ID) String albumId,
+                                   @Query(Requests.LIMIT) int limit,
+                                   @Query(Requests.AFTER) String after);
+
+    /*
+     * media/medialist?albumId=***&since=***
+     */
+    @GET(Requests.MEDIA + "/" + Requests.MEDIA_LIST)
+    Call<MediaDelta> getMediaDelta(@Query(Requests.ALBUM_ID) String albumId,
+                                   @Query(Requests.SINCE) String since);
 }
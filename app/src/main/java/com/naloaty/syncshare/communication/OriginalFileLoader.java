@@ -0,0 +1,294 @@
+package com.naloaty.syncshare.communication;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.naloaty.syncshare.database.device.NetworkDevice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * This class downloads original media-files into a bounded directory in the cache, so they can be decoded by regions.
+ * Files are downloaded in chunks with range requests: a cancelled or interrupted download is resumed
+ * from the downloaded part, which is validated with If-Range, and the chunks can be interleaved
+ * with other requests by the server.
+ * @see com.naloaty.syncshare.activity.TiledImageView
+ * @see com.naloaty.syncshare.service.MediaServer
+ */
+public class OriginalFileLoader {
+
+    private static final String TAG = "OriginalFileLoader";
+
+    private static final String DIRECTORY = "originals";
+    private static final String PART_SUFFIX = ".part";
+    private static final String ETAG_SUFFIX = ".etag";
+
+    /* Maximum size of the downloaded originals, the least recently used are deleted */
+    private static final long MAX_DIRECTORY_SIZE = 256 * 1024 * 1024; //bytes
+
+    private static final long CHUNK_SIZE = 1024 * 1024; //bytes
+
+    private static final int BUFFER_SIZE = 64 * 1024; //bytes
+
+    /* Originals are downloaded one by one, only the current page needs them */
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Callbacks are called on the main thread unless the load has been cancelled.
+     */
+    public interface Callback {
+        void onLoaded(@NonNull File file);
+        void onFailed(@NonNull Exception e);
+    }
+
+    /**
+     * Starts loading of the original file unless it has been downloaded already.
+     * @param context The Context in which the file will be cached.
+     * @param networkDevice Network information about remote device.
+     * @param filename Filename of the remote media-file. See {@link com.naloaty.syncshare.media.Media#getFilename()}.
+     * @return Future to cancel the load with. The downloaded part is kept.
+     */
+    @NonNull
+    public static Future<?> load(@NonNull Context context, @NonNull NetworkDevice networkDevice,
+                                 @NonNull String filename, @NonNull Callback callback) {
+        Context appContext = context.getApplicationContext();
+        String url = CommunicationHelper.getServeRequestURL(networkDevice) + filename;
+
+        return executor.submit(() -> {
+            try {
+                File file = download(appContext, url, networkDevice.getDeviceId() + "_" + filename);
+
+                if (!Thread.currentThread().isInterrupted())
+                    mainHandler.post(() -> callback.onLoaded(file));
+            }
+            catch (InterruptedIOException e) {
+                Log.d(TAG, "Load of " + filename + " has been cancelled");
+            }
+            catch (Exception e) {
+                Log.w(TAG, "Cannot load " + filename + ". Reason: " + e.toString());
+
+                if (!Thread.currentThread().isInterrupted())
+                    mainHandler.post(() -> callback.onFailed(e));
+            }
+        });
+    }
+
+    @NonNull
+    private static File download(@NonNull Context context, @NonNull String url, @NonNull String name) throws IOException {
+        File directory = new File(context.getCacheDir(), DIRECTORY);
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create directory " + directory);
+
+        String cacheName = Integer.toHexString(name.hashCode()) + "_" + Integer.toHexString(url.hashCode());
+        File file = new File(directory, cacheName);
+
+        if (file.isFile()) {
+            //Marks the file as recently used
+            file.setLastModified(System.currentTimeMillis());
+            return file;
+        }
+
+        OkHttpClient client = SSOkHttpClient.getOkHttpClient(context);
+
+        if (client == null)
+            throw new IOException("Secure client is not available");
+
+        File part = new File(directory, cacheName + PART_SUFFIX);
+        File etagFile = new File(directory, cacheName + ETAG_SUFFIX);
+        String etag = readEtag(etagFile);
+
+        if (etag == null)
+            part.delete();
+
+        long position = part.length();
+        long total = -1;
+
+        while (total < 0 || position < total) {
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException();
+
+            Request.Builder builder = new Request.Builder()
+                    .url(url)
+                    .header("Range", "bytes=" + position + "-" + (position + CHUNK_SIZE - 1));
+
+            if (etag != null && position > 0)
+                builder.header("If-Range", etag);
+
+            try (Response response = client.newCall(builder.build()).execute()) {
+                ResponseBody body = response.body();
+
+                if (body == null)
+                    throw new IOException("Empty response");
+
+                if (response.code() == 206) {
+                    total = parseTotalLength(response.header("Content-Range"));
+                }
+                else if (response.code() == 200) {
+                    //The file has changed or ranges are not supported: it is downloaded from the beginning
+                    position = 0;
+                    total = body.contentLength();
+                }
+                else if (response.code() == 416) {
+                    long length = parseTotalLength(response.header("Content-Range"));
+
+                    //The download has been interrupted right before the rename
+                    if (length == position) {
+                        total = length;
+                        continue;
+                    }
+
+                    if (position == 0)
+                        throw new IOException("Unexpected response " + response.code());
+
+                    //The part does not match the file anymore: it is downloaded from the beginning
+                    part.delete();
+                    etagFile.delete();
+                    etag = null;
+                    position = 0;
+                    continue;
+                }
+                else {
+                    throw new IOException("Unexpected response " + response.code());
+                }
+
+                if (total < 0)
+                    throw new IOException("Unknown length of " + url);
+
+                String newEtag = response.header("ETag");
+
+                if (newEtag != null && !newEtag.equals(etag)) {
+                    etag = newEtag;
+                    writeEtag(etagFile, etag);
+                }
+
+                position = append(part, position, body.byteStream());
+            }
+        }
+
+        if (!part.renameTo(file))
+            throw new IOException("Cannot rename " + part);
+
+        etagFile.delete();
+        trim(directory, file);
+
+        return file;
+    }
+
+    /**
+     * Writes the body into the file starting from the position. The file is truncated to the written data.
+     * @return Position after the written data.
+     */
+    private static long append(@NonNull File file, long position, @NonNull InputStream data) throws IOException {
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(position);
+            output.seek(position);
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+
+            while ((read = data.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+                position += read;
+
+                if (Thread.currentThread().isInterrupted())
+                    throw new InterruptedIOException();
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * @param contentRange Value of the Content-Range header (e.g. "bytes 0-1023/4096").
+     * @return Complete length of the file or -1 if it is unknown.
+     */
+    private static long parseTotalLength(@Nullable String contentRange) {
+        if (contentRange == null)
+            return -1;
+
+        int separator = contentRange.lastIndexOf('/');
+
+        try {
+            return separator >= 0 ? Long.parseLong(contentRange.substring(separator + 1).trim()) : -1;
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Nullable
+    private static String readEtag(@NonNull File file) {
+        if (!file.isFile())
+            return null;
+
+        try (InputStream input = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int length = input.read(data);
+            return length > 0 ? new String(data, 0, length, "UTF-8") : null;
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeEtag(@NonNull File file, @NonNull String etag) throws IOException {
+        try (OutputStream output = new FileOutputStream(file)) {
+            output.write(etag.getBytes("UTF-8"));
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the directory fits {@link #MAX_DIRECTORY_SIZE}.
+     * @param keep File that has just been downloaded.
+     */
+    private static void trim(@NonNull File directory, @NonNull File keep) {
+        File[] files = directory.listFiles();
+
+        if (files == null)
+            return;
+
+        long size = 0;
+
+        for (File file : files)
+            size += file.length();
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+        for (File file : files) {
+            if (size <= MAX_DIRECTORY_SIZE)
+                break;
+
+            if (file.equals(keep))
+                continue;
+
+            long length = file.length();
+
+            if (file.delete())
+                size -= length;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.naloaty.syncshare.communication;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.naloaty.syncshare.config.KeyConfig;
+import com.naloaty.syncshare.security.SecurityUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * This class represents an SSLSocketFactory that loads the StreamShare key and certificate once
+ * and reloads them only when their files change.
+ * Clients derived from the shared OkHttpClient (Retrofit, Glide, ExoPlayer) keep using this factory,
+ * so all of them switch to the new key at once.
+ * @see SSOkHttpClient
+ */
+class ReloadingSSLSocketFactory extends SSLSocketFactory {
+
+    private static final String TAG = "ReloadingSSLSocketFact";
+
+    private final File mPemDirectory;
+    private final X509TrustManager mTrustManager;
+    private final Runnable mOnReload;
+
+    private SSLSocketFactory mDelegate;
+    private long mVersion;
+
+    /**
+     * @param pemDirectory Directory where security objects (certificate and key pair) are located.
+     * @param trustManager TrustManager to be used for device authentication.
+     * @param onReload Called after the key has been reloaded, e.g. to close connections authenticated by the old one.
+     */
+    ReloadingSSLSocketFactory(@NonNull File pemDirectory, @NonNull X509TrustManager trustManager, @NonNull Runnable onReload) {
+        mPemDirectory = pemDirectory;
+        mTrustManager = trustManager;
+        mOnReload = onReload;
+    }
+
+    /**
+     * @return True if the key material can be loaded.
+     */
+    boolean isAvailable() {
+        return getDelegateOrNull() != null;
+    }
+
+    @Nullable
+    private synchronized SSLSocketFactory getDelegateOrNull() {
+        long version = getVersion();
+
+        if (mDelegate != null && version == mVersion)
+            return mDelegate;
+
+        SSLContext sslContext = SecurityUtils.getSSlContext(mPemDirectory, mTrustManager);
+
+        if (sslContext == null) {
+            Log.e(TAG, "Cannot load key material: sslContext is null");
+            return mDelegate;
+        }
+
+        boolean reloaded = mDelegate != null;
+
+        mDelegate = sslContext.getSocketFactory();
+        mVersion = version;
+
+        if (reloaded) {
+            Log.i(TAG, "Key material has changed and has been reloaded");
+            mOnReload.run();
+        }
+
+        return mDelegate;
+    }
+
+    @NonNull
+    private SSLSocketFactory getDelegate() throws IOException {
+        SSLSocketFactory delegate = getDelegateOrNull();
+
+        if (delegate == null)
+            throw new IOException("Key material is not available");
+
+        return delegate;
+    }
+
+    /**
+     * @return Value that changes whenever the key or certificate file is replaced.
+     */
+    private long getVersion() {
+        File key = new File(mPemDirectory, KeyConfig.HTTPS_KEY_FILENAME);
+        File cert = new File(mPemDirectory, KeyConfig.HTTPS_CERT_FILENAME);
+
+        return 31 * (31 * key.lastModified() + key.length()) + 31 * cert.lastModified() + cert.length();
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        SSLSocketFactory delegate = getDelegateOrNull();
+        return delegate != null ? delegate.getDefaultCipherSuites() : new String[0];
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        SSLSocketFactory delegate = getDelegateOrNull();
+        return delegate != null ? delegate.getSupportedCipherSuites() : new String[0];
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+        return getDelegate().createSocket(s, host, port, autoClose);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return getDelegate().createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return getDelegate().createSocket(host, port, localHost, localPort);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return getDelegate().createSocket(host, port);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return getDelegate().createSocket(address, port, localAddress, localPort);
+    }
+}
@@ -0,0 +1,137 @@
+package com.naloaty.syncshare.communication;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.naloaty.syncshare.database.media.Album;
+import com.naloaty.syncshare.media.Media;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class keeps the recently viewed album and media lists of remote devices in memory.
+ * Together with the sync token they allow to show a list immediately and then download only its changes.
+ * The lists are also kept on the disk by {@link com.naloaty.syncshare.database.media.RemoteListRepository}.
+ * @see com.naloaty.syncshare.fragment.RemoteAlbumsFragment
+ * @see com.naloaty.syncshare.fragment.RemoteMediaFragment
+ */
+public class RemoteMediaCache {
+
+    /* Maximum number of cached lists of each kind */
+    private static final int MAX_LISTS = 8;
+
+    private static final LinkedHashMap<String, MediaList> mMediaLists = new LruMap<>();
+    private static final LinkedHashMap<String, AlbumList> mAlbumLists = new LruMap<>();
+
+    @Nullable
+    public static synchronized MediaList getMediaList(@NonNull String deviceId, long albumId) {
+        return mMediaLists.get(deviceId + "/" + albumId);
+    }
+
+    public static synchronized void putMediaList(@NonNull String deviceId, long albumId, @NonNull MediaList mediaList) {
+        mMediaLists.put(deviceId + "/" + albumId, mediaList);
+    }
+
+    @Nullable
+    public static synchronized AlbumList getAlbumList(@NonNull String deviceId) {
+        return mAlbumLists.get(deviceId);
+    }
+
+    public static synchronized void putAlbumList(@NonNull String deviceId, @NonNull AlbumList albumList) {
+        mAlbumLists.put(deviceId, albumList);
+    }
+
+    /**
+     * Removes all lists of the device, e.g. when it is no longer trusted.
+     */
+    public static synchronized void removeDevice(@NonNull String deviceId) {
+        Iterator<String> iterator = mMediaLists.keySet().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(deviceId + "/"))
+                iterator.remove();
+        }
+
+        mAlbumLists.remove(deviceId);
+    }
+
+    /**
+     * Loaded pages of a remote album.
+     */
+    public static class MediaList {
+
+        private final List<Media> list;
+        private final String syncToken;
+        private final String nextCursor;
+
+        /**
+         * @param list Loaded media-files. It is copied.
+         * @param syncToken Token to request changes with.
+         * @param nextCursor Position of the next page or null if the whole album is loaded.
+         */
+        public MediaList(@NonNull List<Media> list, @Nullable String syncToken, @Nullable String nextCursor) {
+            this.list = new ArrayList<>(list);
+            this.syncToken = syncToken;
+            this.nextCursor = nextCursor;
+        }
+
+        @NonNull
+        public List<Media> getList() {
+            return new ArrayList<>(list);
+        }
+
+        @Nullable
+        public String getSyncToken() {
+            return syncToken;
+        }
+
+        @Nullable
+        public String getNextCursor() {
+            return nextCursor;
+        }
+
+        public boolean isComplete() {
+            return nextCursor == null;
+        }
+    }
+
+    /**
+     * Shared albums of a remote device.
+     */
+    public static class AlbumList {
+
+        private final List<Album> list;
+        private final String syncToken;
+
+        public AlbumList(@NonNull List<Album> list, @Nullable String syncToken) {
+            this.list = new ArrayList<>(list);
+            this.syncToken = syncToken;
+        }
+
+        @NonNull
+        public List<Album> getList() {
+            return new ArrayList<>(list);
+        }
+
+        @Nullable
+        public String getSyncToken() {
+            return syncToken;
+        }
+    }
+
+    private static class LruMap<V> extends LinkedHashMap<String, V> {
+
+        LruMap() {
+            super(MAX_LISTS, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+            return size() > MAX_LISTS;
+        }
+    }
+}
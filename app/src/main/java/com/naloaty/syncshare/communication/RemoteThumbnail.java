@@ -0,0 +1,77 @@
+package com.naloaty.syncshare.communication;
+
+import androidx.annotation.NonNull;
+
+import com.naloaty.syncshare.database.device.NetworkDevice;
+import com.naloaty.syncshare.service.Requests;
+import com.naloaty.syncshare.service.ThumbnailSize;
+
+/**
+ * This class represents a small thumbnail of media-file on the remote device.
+ * It is a Glide model that is loaded by {@link RemoteThumbnailLoader} in batches.
+ * @see com.naloaty.syncshare.adapter.RemoteMediaAdapter
+ */
+public class RemoteThumbnail {
+
+    private final NetworkDevice networkDevice;
+    private final String filename;
+    private final int size;
+
+    /**
+     * @param networkDevice Network information about remote device. See {@link com.naloaty.syncshare.util.DNSSDHelper}.
+     * @param filename Filename of media-file (e.g. 5241.jpg).
+     * @param pixels Size of the cell the thumbnail is drawn in. It is rounded up to {@link ThumbnailSize} ladder.
+     */
+    public RemoteThumbnail(@NonNull NetworkDevice networkDevice, @NonNull String filename, int pixels) {
+        this.networkDevice = networkDevice;
+        this.filename = filename;
+        this.size = ThumbnailSize.forPixels(pixels);
+    }
+
+    @NonNull
+    public NetworkDevice getNetworkDevice() {
+        return networkDevice;
+    }
+
+    @NonNull
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * @return Size of {@link ThumbnailSize} ladder.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return Key that identifies the thumbnail in the Glide cache.
+     */
+    @NonNull
+    public String getCacheKey() {
+        return CommunicationHelper.getThumbnailRequestURL(networkDevice) + filename + "?" + Requests.SIZE + "=" + size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+
+        if (!(o instanceof RemoteThumbnail))
+            return false;
+
+        return getCacheKey().equals(((RemoteThumbnail) o).getCacheKey());
+    }
+
+    @Override
+    public int hashCode() {
+        return getCacheKey().hashCode();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return getCacheKey();
+    }
+}
@@ -0,0 +1,118 @@
+package com.naloaty.syncshare.communication;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+import com.bumptech.glide.signature.ObjectKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Glide ModelLoader that loads thumbnails of remote media-files through {@link ThumbnailBatcher}.
+ * @see RemoteThumbnail
+ * @see com.naloaty.syncshare.app.SSOkHttpGlideModule
+ */
+public class RemoteThumbnailLoader implements ModelLoader<RemoteThumbnail, InputStream> {
+
+    private final ThumbnailBatcher mBatcher;
+
+    private RemoteThumbnailLoader(@NonNull ThumbnailBatcher batcher) {
+        mBatcher = batcher;
+    }
+
+    @Nullable
+    @Override
+    public LoadData<InputStream> buildLoadData(@NonNull RemoteThumbnail model, int width, int height, @NonNull Options options) {
+        return new LoadData<>(new ObjectKey(model.getCacheKey()), new Fetcher(mBatcher, model));
+    }
+
+    @Override
+    public boolean handles(@NonNull RemoteThumbnail model) {
+        return true;
+    }
+
+    public static class Factory implements ModelLoaderFactory<RemoteThumbnail, InputStream> {
+
+        private final ThumbnailBatcher mBatcher;
+
+        /**
+         * @param client OkHttpClient that uses the StreamShare SSL certificate. See {@link SSOkHttpClient}.
+         */
+        public Factory(@NonNull OkHttpClient client) {
+            mBatcher = new ThumbnailBatcher(client);
+        }
+
+        @NonNull
+        @Override
+        public ModelLoader<RemoteThumbnail, InputStream> build(@NonNull MultiModelLoaderFactory multiFactory) {
+            return new RemoteThumbnailLoader(mBatcher);
+        }
+
+        @Override
+        public void teardown() {
+            //The batcher is shared by all loaders
+        }
+    }
+
+    private static class Fetcher implements DataFetcher<InputStream> {
+
+        private final ThumbnailBatcher batcher;
+        private final RemoteThumbnail thumbnail;
+        private volatile ThumbnailBatcher.Ticket ticket;
+
+        Fetcher(ThumbnailBatcher batcher, RemoteThumbnail thumbnail) {
+            this.batcher = batcher;
+            this.thumbnail = thumbnail;
+        }
+
+        @Override
+        public void loadData(@NonNull Priority priority, @NonNull DataCallback<? super InputStream> callback) {
+            ticket = batcher.enqueue(thumbnail, new ThumbnailBatcher.Callback() {
+                @Override
+                public void onThumbnailReady(@NonNull byte[] data) {
+                    callback.onDataReady(new ByteArrayInputStream(data));
+                }
+
+                @Override
+                public void onThumbnailFailed(@NonNull Exception e) {
+                    callback.onLoadFailed(e);
+                }
+            });
+        }
+
+        @Override
+        public void cleanup() {
+            //Nothing to close: data is held in memory
+        }
+
+        @Override
+        public void cancel() {
+            ThumbnailBatcher.Ticket current = ticket;
+
+            if (current != null)
+                current.cancel();
+        }
+
+        @NonNull
+        @Override
+        public Class<InputStream> getDataClass() {
+            return InputStream.class;
+        }
+
+        @NonNull
+        @Override
+        public DataSource getDataSource() {
+            return DataSource.REMOTE;
+        }
+    }
+}
@@ -7,15 +7,21 @@ import androidx.annotation.NonNull;
 
 import com.naloaty.syncshare.security.SSTrustManager;
 import com.naloaty.syncshare.security.SecurityManager;
-import com.naloaty.syncshare.security.SecurityUtils;
 
-import javax.net.ssl.SSLContext;
+import java.io.File;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
 import javax.net.ssl.X509TrustManager;
 
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
+import okhttp3.ConnectionSpec;
 import okhttp3.OkHttpClient;
+import okhttp3.TlsVersion;
 
 /**
- * This class helps build an instance of OkHttpClient that uses the StreamShare SSL certificate.
+ * This class provides the shared instance of OkHttpClient that uses the StreamShare SSL certificate.
  * @see com.naloaty.syncshare.activity.VideoPlayerActivity
  * @see com.naloaty.syncshare.app.SSOkHttpGlideModule
  * @see CommunicationHelper
@@ -24,23 +30,92 @@ public class SSOkHttpClient {
 
     private static final String TAG = "SSOkHttpClient";
 
+    private static final String HTTP_CACHE_DIRECTORY = "http";
+    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024;
+
+    /* Devices on the local network are few, but Glide and ExoPlayer open several connections to each */
+    private static final int MAX_IDLE_CONNECTIONS = 10;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private static Cache httpCache;
+    private static OkHttpClient okHttpClient;
+    private static OkHttpClient apiOkHttpClient;
+
     /**
-     * Builds an instance of OkHttpClient that uses the StreamShare SSL certificate.
+     * Returns the disk cache of API responses (albums and media lists).
+     * Responses are revalidated with ETag, so browsing back into an album costs one small request.
+     * The cache is shared by all clients, because OkHttp does not allow two instances to use the same directory.
+     * @param context The Context in which the cache should be created.
+     * @return Shared instance of OkHttp Cache.
+     */
+    public static synchronized Cache getHttpCache(@NonNull final Context context) {
+        if (httpCache == null)
+            httpCache = new Cache(new File(context.getApplicationContext().getCacheDir(), HTTP_CACHE_DIRECTORY), HTTP_CACHE_SIZE);
+
+        return httpCache;
+    }
+
+    /**
+     * Returns the shared instance of OkHttpClient that uses the StreamShare SSL certificate.
+     * It is built once per process, so all requests share one connection pool and dispatcher
+     * and a connection to a device is reused instead of paying a new TCP and TLS handshake.
+     * Derive clients with {@link OkHttpClient#newBuilder()} to keep sharing them.
+     * The key material is loaded once and reloaded only when it changes. See {@link ReloadingSSLSocketFactory}.
      * @param context The Context in which an instance of OkHttpClient will be built.
-     * @return Instance of OkHttpClient that uses the StreamShare SSL certificate.
+     * @return Instance of OkHttpClient that uses the StreamShare SSL certificate or null if the key material is not available yet.
      */
-    public static OkHttpClient getOkHttpClient(@NonNull final Context context) {
-        X509TrustManager trustManager = new SSTrustManager(new SecurityManager(context));
-        SSLContext sslContext = SecurityUtils.getSSlContext(context.getFilesDir(), trustManager);
+    public static synchronized OkHttpClient getOkHttpClient(@NonNull final Context context) {
+        if (okHttpClient != null)
+            return okHttpClient;
+
+        Context appContext = context.getApplicationContext();
+        X509TrustManager trustManager = new SSTrustManager(new SecurityManager(appContext));
+        ConnectionPool connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES);
 
-        if (sslContext == null) {
-            Log.e(TAG, "Cannot create secure okHttpClient: sslContext is null");
+        //Connections authenticated by the old key should not be reused
+        ReloadingSSLSocketFactory socketFactory = new ReloadingSSLSocketFactory(appContext.getFilesDir(),
+                trustManager, connectionPool::evictAll);
+
+        if (!socketFactory.isAvailable()) {
+            Log.e(TAG, "Cannot create secure okHttpClient: key material is not available");
             return null;
         }
 
-        return new OkHttpClient.Builder()
-                .sslSocketFactory(sslContext.getSocketFactory(), trustManager)
+        //TLS 1.3 first, only modern cipher suites
+        ConnectionSpec connectionSpec = new ConnectionSpec.Builder(ConnectionSpec.MODERN_TLS)
+                .tlsVersions(TlsVersion.TLS_1_3, TlsVersion.TLS_1_2)
+                .build();
+
+        okHttpClient = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .connectionSpecs(Collections.singletonList(connectionSpec))
+                .eventListenerFactory(HandshakeEventListener.FACTORY)
+                .sslSocketFactory(socketFactory, trustManager)
                 .hostnameVerifier((hostname, session) -> true)
                 .build();
+
+        return okHttpClient;
+    }
+
+    /**
+     * Returns the shared client for API requests. It is the client returned by {@link #getOkHttpClient(Context)}
+     * with the response cache. Only API responses are cached: images are cached by Glide.
+     * @param context The Context in which an instance of OkHttpClient will be built.
+     * @return Instance of OkHttpClient or null if the key material is not available yet.
+     */
+    public static synchronized OkHttpClient getApiOkHttpClient(@NonNull final Context context) {
+        if (apiOkHttpClient != null)
+            return apiOkHttpClient;
+
+        OkHttpClient client = getOkHttpClient(context);
+
+        if (client == null)
+            return null;
+
+        apiOkHttpClient = client.newBuilder()
+                .cache(getHttpCache(context))
+                .build();
+
+        return apiOkHttpClient;
     }
 }
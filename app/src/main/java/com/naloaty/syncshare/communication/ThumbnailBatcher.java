@@ -0,0 +1,248 @@
+package com.naloaty.syncshare.communication;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.naloaty.syncshare.database.device.NetworkDevice;
+import com.naloaty.syncshare.service.Requests;
+import com.naloaty.syncshare.service.ThumbnailFrames;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * This class groups thumbnail requests to the same remote device into media/thumbnails requests.
+ * Requests made within a short window (e.g. while RecyclerView binds the visible range) share one round trip.
+ * Thumbnails of different sizes are requested separately.
+ * @see RemoteThumbnailLoader
+ * @see ThumbnailFrames
+ */
+public class ThumbnailBatcher {
+
+    private static final String TAG = "ThumbnailBatcher";
+
+    /* How long requests are collected before a batch is sent (in milliseconds) */
+    private static final long BATCH_WINDOW = 20;
+
+    /* Number of batches loaded at the same time */
+    private static final int NETWORK_THREADS = 3;
+
+    private final OkHttpClient mClient;
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService mNetworkExecutor = Executors.newFixedThreadPool(NETWORK_THREADS);
+
+    /* Batches that are being collected, by remote device address and thumbnail size. Guarded by this. */
+    private final Map<String, Batch> mPending = new HashMap<>();
+
+    public ThumbnailBatcher(@NonNull OkHttpClient client) {
+        mClient = client;
+    }
+
+    /**
+     * Adds the thumbnail to the current batch of its device.
+     * @return Handle that can be used to cancel the request.
+     */
+    @NonNull
+    public synchronized Ticket enqueue(@NonNull RemoteThumbnail thumbnail, @NonNull Callback callback) {
+        String address = thumbnail.getNetworkDevice().getIpAddress() + "/" + thumbnail.getSize();
+        Batch batch = mPending.get(address);
+
+        if (batch == null) {
+            Batch created = new Batch(thumbnail.getNetworkDevice(), thumbnail.getSize());
+            mPending.put(address, created);
+            mScheduler.schedule(() -> dispatch(address, created), BATCH_WINDOW, TimeUnit.MILLISECONDS);
+            batch = created;
+        }
+
+        Ticket ticket = new Ticket(callback);
+        batch.add(thumbnail.getFilename(), ticket);
+
+        if (batch.size() >= ThumbnailFrames.MAX_BATCH_SIZE)
+            dispatch(address, batch);
+
+        return ticket;
+    }
+
+    /**
+     * Sends the batch unless it has already been sent.
+     */
+    private synchronized void dispatch(String address, Batch batch) {
+        if (mPending.get(address) != batch)
+            return;
+
+        mPending.remove(address);
+        mNetworkExecutor.execute(() -> load(batch));
+    }
+
+    private void load(Batch batch) {
+        List<String> filenames = batch.getActiveFilenames();
+
+        if (filenames.isEmpty())
+            return;
+
+        String url = CommunicationHelper.getThumbnailsRequestURL(batch.networkDevice)
+                + TextUtils.join(ThumbnailFrames.SEPARATOR, filenames)
+                + "&" + Requests.SIZE + "=" + batch.thumbnailSize;
+
+        Request request = new Request.Builder()
+                .url(url)
+                .build();
+
+        try (Response response = mClient.newCall(request).execute()) {
+            ResponseBody body = response.body();
+
+            if (!response.isSuccessful() || body == null)
+                throw new IOException("Unexpected response code " + response.code());
+
+            InputStream in = body.byteStream();
+            ThumbnailFrames.Frame frame;
+
+            while ((frame = ThumbnailFrames.read(in)) != null) {
+                if (frame.getData() != null)
+                    batch.deliver(frame.getFilename(), frame.getData());
+                else
+                    batch.fail(frame.getFilename(), new IOException("Remote device cannot respond thumbnail of " + frame.getFilename()));
+            }
+        }
+        catch (Exception e) {
+            Log.w(TAG, String.format("Cannot load %d thumbnails. Reason: %s", filenames.size(), e.toString()));
+            batch.failAll(e);
+            return;
+        }
+
+        batch.failAll(new IOException("Thumbnail is missing from the response"));
+    }
+
+    /**
+     * Receives the result of a single thumbnail request.
+     */
+    public interface Callback {
+        void onThumbnailReady(@NonNull byte[] data);
+        void onThumbnailFailed(@NonNull Exception e);
+    }
+
+    /**
+     * This class represents a single thumbnail request in a batch.
+     */
+    public static class Ticket {
+
+        private final Callback callback;
+        private volatile boolean cancelled = false;
+
+        Ticket(Callback callback) {
+            this.callback = callback;
+        }
+
+        /**
+         * Cancels the request. Thumbnails that are not yet sent are excluded from the batch.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    /**
+     * Requests to the same device that are sent together.
+     */
+    private static class Batch {
+
+        private final NetworkDevice networkDevice;
+        private final int thumbnailSize;
+        private final LinkedHashMap<String, List<Ticket>> tickets = new LinkedHashMap<>();
+
+        Batch(NetworkDevice networkDevice, int thumbnailSize) {
+            this.networkDevice = networkDevice;
+            this.thumbnailSize = thumbnailSize;
+        }
+
+        synchronized void add(String filename, Ticket ticket) {
+            List<Ticket> list = tickets.get(filename);
+
+            if (list == null) {
+                list = new ArrayList<>(1);
+                tickets.put(filename, list);
+            }
+
+            list.add(ticket);
+        }
+
+        synchronized int size() {
+            return tickets.size();
+        }
+
+        synchronized List<String> getActiveFilenames() {
+            List<String> filenames = new ArrayList<>(tickets.size());
+
+            for (Map.Entry<String, List<Ticket>> entry : tickets.entrySet()) {
+                for (Ticket ticket : entry.getValue()) {
+                    if (!ticket.cancelled) {
+                        filenames.add(entry.getKey());
+                        break;
+                    }
+                }
+            }
+
+            return filenames;
+        }
+
+        void deliver(String filename, byte[] data) {
+            List<Ticket> list;
+
+            synchronized (this) {
+                list = tickets.remove(filename);
+            }
+
+            if (list == null)
+                return;
+
+            for (Ticket ticket : list)
+                if (!ticket.cancelled)
+                    ticket.callback.onThumbnailReady(data);
+        }
+
+        void fail(String filename, Exception e) {
+            List<Ticket> list;
+
+            synchronized (this) {
+                list = tickets.remove(filename);
+            }
+
+            if (list == null)
+                return;
+
+            for (Ticket ticket : list)
+                if (!ticket.cancelled)
+                    ticket.callback.onThumbnailFailed(e);
+        }
+
+        void failAll(Exception e) {
+            List<List<Ticket>> lists;
+
+            synchronized (this) {
+                lists = new ArrayList<>(tickets.values());
+                tickets.clear();
+            }
+
+            for (List<Ticket> list : lists)
+                for (Ticket ticket : list)
+                    if (!ticket.cancelled)
+                        ticket.callback.onThumbnailFailed(e);
+        }
+    }
+}
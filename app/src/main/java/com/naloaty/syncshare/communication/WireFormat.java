@@ -0,0 +1,278 @@
+package com.naloaty.syncshare.communication;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.naloaty.syncshare.database.device.SSDevice;
+import com.naloaty.syncshare.database.media.Album;
+import com.naloaty.syncshare.media.Media;
+
+import java.io.IOException;
+
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * This class holds the JSON codecs shared by the media server and the clients.
+ * Objects of the protocol are written and read field by field by streaming adapters instead of reflection,
+ * so a list of media-files is converted without reflective lookups and boxing of every field.
+ * Field names and their order are the same as the reflective Gson output, so devices with older versions
+ * of StreamShare understand each other. Unknown fields are skipped.
+ * Both instances are immutable and thread-safe.
+ * @see CommunicationHelper
+ * @see com.naloaty.syncshare.service.MediaServer
+ */
+public class WireFormat {
+
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Media.class, new MediaAdapter().nullSafe())
+            .registerTypeAdapter(Album.class, new AlbumAdapter().nullSafe())
+            .registerTypeAdapter(SSDevice.class, new SSDeviceAdapter().nullSafe())
+            .registerTypeAdapter(SimpleServerResponse.class, new SimpleServerResponseAdapter().nullSafe())
+            .create();
+
+    public static final GsonConverterFactory CONVERTER_FACTORY = GsonConverterFactory.create(GSON);
+
+    static class MediaAdapter extends TypeAdapter<Media> {
+
+        @Override
+        public void write(JsonWriter out, Media media) throws IOException {
+            out.beginObject();
+            out.name("filename").value(media.getFilename());
+            out.name("dateTaken").value(media.getDateTaken());
+            out.name("mimeType").value(media.getMimeType());
+            out.name("size").value(media.getSize());
+            out.name("orientation").value(media.getOrientation());
+            out.name("mediaType").value(media.getMediaType());
+            out.name("dateModified").value(media.getDateModified());
+            out.endObject();
+        }
+
+        @Override
+        public Media read(JsonReader in) throws IOException {
+            Media media = new Media();
+
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "filename":
+                        media.setFilename(nextString(in));
+                        break;
+
+                    case "dateTaken":
+                        media.setDateTaken(in.nextLong());
+                        break;
+
+                    case "mimeType":
+                        media.setMimeType(nextString(in));
+                        break;
+
+                    case "size":
+                        media.setSize(in.nextLong());
+                        break;
+
+                    case "orientation":
+                        media.setOrientation(in.nextInt());
+                        break;
+
+                    case "mediaType":
+                        media.setMediaType(in.nextInt());
+                        break;
+
+                    case "dateModified":
+                        media.setDateModified(in.nextLong());
+                        break;
+
+                    default:
+                        in.skipValue();
+                }
+            }
+
+            in.endObject();
+            return media;
+        }
+    }
+
+    static class AlbumAdapter extends TypeAdapter<Album> {
+
+        @Override
+        public void write(JsonWriter out, Album album) throws IOException {
+            out.beginObject();
+            out.name("id").value(album.getId());
+            out.name("albumId").value(album.getAlbumId());
+            out.name("name").value(album.getName());
+            out.name("path").value(album.getPath());
+            out.name("lastItemFilename").value(album.getLastItemFilename());
+            out.name("itemsCount").value(album.getItemsCount());
+            out.name("accessAllowed").value(album.isAccessAllowed());
+            out.name("lastModified").value(album.getLastModified());
+            out.endObject();
+        }
+
+        @Override
+        public Album read(JsonReader in) throws IOException {
+            Album album = new Album(0, null, null, false);
+
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        album.setId(in.nextInt());
+                        break;
+
+                    case "albumId":
+                        album.setAlbumId(in.nextLong());
+                        break;
+
+                    case "name":
+                        album.setName(nextString(in));
+                        break;
+
+                    case "path":
+                        album.setPath(nextString(in));
+                        break;
+
+                    case "lastItemFilename":
+                        album.setLastItemFilename(nextString(in));
+                        break;
+
+                    case "itemsCount":
+                        album.setItemsCount(in.nextInt());
+                        break;
+
+                    case "accessAllowed":
+                        album.setAccessAllowed(in.nextBoolean());
+                        break;
+
+                    case "lastModified":
+                        album.setLastModified(in.nextLong());
+                        break;
+
+                    default:
+                        in.skipValue();
+                }
+            }
+
+            in.endObject();
+            return album;
+        }
+    }
+
+    static class SSDeviceAdapter extends TypeAdapter<SSDevice> {
+
+        @Override
+        public void write(JsonWriter out, SSDevice device) throws IOException {
+            out.beginObject();
+            out.name("id").value(device.getId());
+            out.name("brand").value(device.getBrand());
+            out.name("model").value(device.getModel());
+            out.name("nickname").value(device.getNickname());
+            out.name("deviceId").value(device.getDeviceId());
+            out.name("lastUsageTime").value(device.getLastUsageTime());
+            out.name("appVersion").value(device.getAppVersion());
+            out.name("trusted").value(device.isTrusted());
+            out.name("accessAllowed").value(device.isAccessAllowed());
+            out.endObject();
+        }
+
+        @Override
+        public SSDevice read(JsonReader in) throws IOException {
+            SSDevice device = new SSDevice(null, null);
+
+            in.beginObject();
+
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        device.setId(in.nextInt());
+                        break;
+
+                    case "brand":
+                        device.setBrand(nextString(in));
+                        break;
+
+                    case "model":
+                        device.setModel(nextString(in));
+                        break;
+
+                    case "nickname":
+                        device.setNickname(nextString(in));
+                        break;
+
+                    case "deviceId":
+                        device.setDeviceId(nextString(in));
+                        break;
+
+                    case "lastUsageTime":
+                        device.setLastUsageTime(in.nextLong());
+                        break;
+
+                    case "appVersion":
+                        device.setAppVersion(nextString(in));
+                        break;
+
+                    case "trusted":
+                        device.setTrusted(in.nextBoolean());
+                        break;
+
+                    case "accessAllowed":
+                        device.setAccessAllowed(in.nextBoolean());
+                        break;
+
+                    default:
+                        in.skipValue();
+                }
+            }
+
+            in.endObject();
+            return device;
+        }
+    }
+
+    static class SimpleServerResponseAdapter extends TypeAdapter<SimpleServerResponse> {
+
+        @Override
+        public void write(JsonWriter out, SimpleServerResponse response) throws IOException {
+            out.beginObject();
+            out.name("description").value(response.getDescription());
+            out.endObject();
+        }
+
+        @Override
+        public SimpleServerResponse read(JsonReader in) throws IOException {
+            SimpleServerResponse response = new SimpleServerResponse();
+
+            in.beginObject();
+
+            while (in.hasNext()) {
+                if ("description".equals(in.nextName()))
+                    response.setDescription(nextString(in));
+                else
+                    in.skipValue();
+            }
+
+            in.endObject();
+            return response;
+        }
+    }
+
+    /**
+     * @return String value or null if the value is JSON null.
+     */
+    @Nullable
+    private static String nextString(@NonNull JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        return in.nextString();
+    }
+}
@@ -2,9 +2,12 @@ package com.naloaty.syncshare.database;
 
 import android.content.Context;
 
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import com.naloaty.syncshare.database.device.NetworkDevice;
 import com.naloaty.syncshare.database.device.NetworkDeviceDao;
@@ -12,22 +15,67 @@ import com.naloaty.syncshare.database.device.SSDevice;
 import com.naloaty.syncshare.database.device.SSDeviceDao;
 import com.naloaty.syncshare.database.media.Album;
 import com.naloaty.syncshare.database.media.AlbumDao;
+import com.naloaty.syncshare.database.media.MediaListItem;
+import com.naloaty.syncshare.database.media.MediaListItemDao;
+import com.naloaty.syncshare.database.media.RemoteAlbum;
+import com.naloaty.syncshare.database.media.RemoteList;
+import com.naloaty.syncshare.database.media.RemoteListDao;
+import com.naloaty.syncshare.database.media.RemoteMedia;
 
 /**
  * This class represents StreamShare database.
  * To understand how it works, you need to get acquainted with the Room library.
  */
-@Database(entities = {NetworkDevice.class, SSDevice.class, Album.class}, version = 1)
+@Database(entities = {NetworkDevice.class, SSDevice.class, Album.class, MediaListItem.class,
+        RemoteList.class, RemoteAlbum.class, RemoteMedia.class}, version = 3)
 public abstract class SSDatabase extends RoomDatabase {
 
     private static final String DATABASE_NAME = "StreamShare_DB";
 
+    /* Trusted devices and shared albums are kept, only the new table is created */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `media_list_items_table` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`listKey` TEXT, `generation` INTEGER NOT NULL, `position` INTEGER NOT NULL, `filename` TEXT, "
+                    + "`dateTaken` INTEGER NOT NULL, `mimeType` TEXT, `size` INTEGER NOT NULL, `orientation` INTEGER NOT NULL, "
+                    + "`mediaType` INTEGER NOT NULL, `dateModified` INTEGER NOT NULL)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_media_list_items_table_listKey_generation_position` "
+                    + "ON `media_list_items_table` (`listKey`, `generation`, `position`)");
+        }
+    };
+
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `remote_lists_table` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`deviceId` TEXT, `albumId` INTEGER NOT NULL, `ipAddress` TEXT, `syncToken` TEXT, `nextCursor` TEXT, "
+                    + "`itemsCount` INTEGER NOT NULL, `lastUsed` INTEGER NOT NULL)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_remote_lists_table_deviceId_albumId` "
+                    + "ON `remote_lists_table` (`deviceId`, `albumId`)");
+
+            database.execSQL("CREATE TABLE IF NOT EXISTS `remote_albums_table` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`deviceId` TEXT, `position` INTEGER NOT NULL, `albumId` INTEGER NOT NULL, `name` TEXT, `path` TEXT, "
+                    + "`lastItemFilename` TEXT, `itemsCount` INTEGER NOT NULL, `accessAllowed` INTEGER NOT NULL)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_remote_albums_table_deviceId_position` "
+                    + "ON `remote_albums_table` (`deviceId`, `position`)");
+
+            database.execSQL("CREATE TABLE IF NOT EXISTS `remote_media_table` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`deviceId` TEXT, `albumId` INTEGER NOT NULL, `position` INTEGER NOT NULL, `filename` TEXT, "
+                    + "`dateTaken` INTEGER NOT NULL, `mimeType` TEXT, `size` INTEGER NOT NULL, `orientation` INTEGER NOT NULL, "
+                    + "`mediaType` INTEGER NOT NULL, `dateModified` INTEGER NOT NULL)");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_remote_media_table_deviceId_albumId_position` "
+                    + "ON `remote_media_table` (`deviceId`, `albumId`, `position`)");
+        }
+    };
+
     private static SSDatabase instance;
 
     public static synchronized SSDatabase getInstance(Context context){
         if (instance == null) {
             instance = Room.databaseBuilder(context.getApplicationContext(),
                     SSDatabase.class, DATABASE_NAME)
+                    .addMigrations(MIGRATION_1_2, MIGRATION_2_3)
                     .fallbackToDestructiveMigration()
                     .build();
         }
@@ -50,4 +98,14 @@ public abstract class SSDatabase extends RoomDatabase {
      */
     public abstract AlbumDao albumDao();
 
+    /**
+     * Remote media lists table. Contains media lists opened in the viewer. See {@link com.naloaty.syncshare.media.MediaListStore}.
+     */
+    public abstract MediaListItemDao mediaListItemDao();
+
+    /**
+     * Cached lists tables. Contain album and media lists of trusted devices. See {@link com.naloaty.syncshare.database.media.RemoteListRepository}.
+     */
+    public abstract RemoteListDao remoteListDao();
+
 }
@@ -10,6 +10,7 @@ import androidx.room.Update;
 
 import java.util.List;
 
+import io.reactivex.Flowable;
 import io.reactivex.Single;
 
 /**
@@ -59,6 +60,14 @@ public interface SSDeviceDao {
     @Query("SELECT * FROM ss_devices_table")
     LiveData<List<SSDevice>> getAllDevices();
 
+    /**
+     * Observes all trusted devices. A new list is emitted whenever the table is modified.
+     * @return A stream of lists containing all trusted devices.
+     * @see com.naloaty.syncshare.security.TrustIndex
+     */
+    @Query("SELECT * FROM ss_devices_table")
+    Flowable<List<SSDevice>> observeAllDevices();
+
     /**
      * Searches for the required trusted device in the database.
      * @param deviceId Device StreamShare identifier.
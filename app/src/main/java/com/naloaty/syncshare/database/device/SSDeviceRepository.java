@@ -7,6 +7,8 @@ import android.util.Log;
 import androidx.lifecycle.LiveData;
 
 import com.naloaty.syncshare.database.SSDatabase;
+import com.naloaty.syncshare.database.media.RemoteListRepository;
+import com.naloaty.syncshare.security.TrustIndex;
 
 import java.util.List;
 
@@ -28,6 +30,8 @@ public class SSDeviceRepository {
 
     private SSDeviceDao ssDeviceDao;
     private LiveData<List<SSDevice>> allDevices;
+    private TrustIndex trustIndex;
+    private RemoteListRepository remoteListRepository;
 
     public SSDeviceRepository(Context context) {
         SSDatabase database = SSDatabase.getInstance(context);
@@ -35,6 +39,8 @@ public class SSDeviceRepository {
         //Room auto generates these abstract methods
         ssDeviceDao = database.ssDeviceDao();
         allDevices = ssDeviceDao.getAllDevices();
+        trustIndex = TrustIndex.getInstance(context);
+        remoteListRepository = new RemoteListRepository(context);
     }
 
     /**
@@ -42,6 +48,7 @@ public class SSDeviceRepository {
      * @param device General information about device. Instance of {@link SSDevice}.
      */
     public void insert(SSDevice device) {
+        trustIndex.put(device);
         new InsertDeviceAT(ssDeviceDao).execute(device);
     }
 
@@ -50,7 +57,11 @@ public class SSDeviceRepository {
      * @param device General information about device. Instance of {@link SSDevice}.
      */
     public void update(SSDevice device) {
+        trustIndex.put(device);
         new UpdateDeviceAT(ssDeviceDao).execute(device);
+
+        if (!device.isTrusted())
+            remoteListRepository.purgeDevice(device.getDeviceId());
     }
 
     /**
@@ -74,10 +85,13 @@ public class SSDeviceRepository {
 
     /**
      * Deletes general information about device from the database.
+     * Cached lists of the device are purged as well. See {@link RemoteListRepository}.
      * @param device General information about device. Instance of {@link SSDevice}
      */
     public void delete(SSDevice device) {
+        trustIndex.remove(device);
         new DeleteDeviceAT(ssDeviceDao).execute(device);
+        remoteListRepository.purgeDevice(device.getDeviceId());
     }
 
     /**
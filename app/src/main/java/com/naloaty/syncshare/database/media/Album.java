@@ -6,6 +6,7 @@ import android.provider.MediaStore;
 
 import androidx.annotation.RequiresApi;
 import androidx.room.Entity;
+import androidx.room.Ignore;
 import androidx.room.PrimaryKey;
 
 import com.naloaty.syncshare.media.MediaProvider;
@@ -55,6 +56,12 @@ public class Album {
      */
     private boolean accessAllowed;
 
+    /**
+     * Modification date of the last media-file in seconds. It is not stored in the database.
+     */
+    @Ignore
+    private long lastModified;
+
     public Album(long albumId, String name, String path, boolean accessAllowed) {
         this.albumId = albumId;
         this.name = name;
@@ -69,6 +76,7 @@ public class Album {
         this.name = cursor.getString(1);
         this.path = MediaProvider.getBucketPathByImagePath(cursor.getString(2));
         this.itemsCount = cursor.getInt(3);
+        this.lastModified = cursor.getLong(4);
 
         String lastItemPath = cursor.getString(2);
         String lastItemId = cursor.getString(5);
@@ -134,6 +142,14 @@ public class Album {
         this.accessAllowed = accessAllowed;
     }
 
+    //lastModified
+    public long getLastModified() {
+        return lastModified;
+    }
+    public void setLastModified(long lastModified) {
+        this.lastModified = lastModified;
+    }
+
     /**
      * Returns the projection in order to retrieve albums list from android media store database.
      * @return Projection for albums request.
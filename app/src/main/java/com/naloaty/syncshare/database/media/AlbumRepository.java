@@ -7,6 +7,7 @@ import android.util.Log;
 import androidx.lifecycle.LiveData;
 
 import com.naloaty.syncshare.database.SSDatabase;
+import com.naloaty.syncshare.media.SharedAlbumIndex;
 
 import java.util.List;
 
@@ -26,9 +27,11 @@ public class AlbumRepository {
 
     private AlbumDao albumDao;
     private LiveData<List<Album>> allAlbums;
+    private SharedAlbumIndex sharedAlbumIndex;
 
     public AlbumRepository(Context context) {
         SSDatabase database = SSDatabase.getInstance(context);
+        sharedAlbumIndex = SharedAlbumIndex.getInstance(context);
 
         //Room auto generates these abstract methods
         albumDao = database.albumDao();
@@ -41,6 +44,7 @@ public class AlbumRepository {
      */
     public void insert(Album album) {
         new InsertAlbumAT(albumDao).execute(album);
+        notifySharedAlbumsChanged();
     }
 
     /**
@@ -49,6 +53,7 @@ public class AlbumRepository {
      */
     public void update(Album album) {
         new UpdateAlbumAT(albumDao).execute(album);
+        notifySharedAlbumsChanged();
     }
 
     /**
@@ -72,6 +77,15 @@ public class AlbumRepository {
      */
     public void delete(Album album) {
         new DeleteAlbumAT(albumDao).execute(album);
+        notifySharedAlbumsChanged();
+    }
+
+    /**
+     * Lets {@link SharedAlbumIndex} know that shared albums have changed. It notifies clients after it has been updated.
+     * AsyncTasks run one after another, so this is done right after the pending write.
+     */
+    private void notifySharedAlbumsChanged() {
+        AsyncTask.SERIAL_EXECUTOR.execute(sharedAlbumIndex::notifySharedAlbumsChanged);
     }
 
     /**
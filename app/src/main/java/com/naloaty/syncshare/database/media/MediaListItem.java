@@ -0,0 +1,164 @@
+package com.naloaty.syncshare.database.media;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import com.naloaty.syncshare.media.Media;
+
+/**
+ * This class represents a table of remote media lists opened in the viewer in a StreamShare database.
+ * Each row is a media-file at a position of a list, so the viewer can restore its list after the process has been killed.
+ * To understand how it works, you need to get acquainted with the Room library.
+ * @see com.naloaty.syncshare.media.MediaListStore
+ */
+@Entity(tableName = "media_list_items_table",
+        indices = {@Index(value = {"listKey", "generation", "position"}, unique = true)})
+public class MediaListItem {
+
+    /**
+     * Database row id
+     */
+    @PrimaryKey(autoGenerate = true)
+    private int id;
+
+    /**
+     * Remote device and album of the list (e.g. "deviceId/albumId").
+     */
+    private String listKey;
+
+    /**
+     * Version of the list. See {@link com.naloaty.syncshare.media.MediaListStore}.
+     */
+    private long generation;
+
+    /**
+     * Position of the media-file in the list.
+     */
+    private int position;
+
+    /* Fields of the media-file. See Media */
+    private String filename;
+    private long dateTaken;
+    private String mimeType;
+    private long size;
+    private int orientation;
+    private int mediaType;
+    private long dateModified;
+
+    public MediaListItem() {
+    }
+
+    public MediaListItem(String listKey, long generation, int position, Media media) {
+        this.listKey = listKey;
+        this.generation = generation;
+        this.position = position;
+        this.filename = media.getFilename();
+        this.dateTaken = media.getDateTaken();
+        this.mimeType = media.getMimeType();
+        this.size = media.getSize();
+        this.orientation = media.getOrientation();
+        this.mediaType = media.getMediaType();
+        this.dateModified = media.getDateModified();
+    }
+
+    public Media toMedia() {
+        Media media = new Media();
+        media.setFilename(filename);
+        media.setDateTaken(dateTaken);
+        media.setMimeType(mimeType);
+        media.setSize(size);
+        media.setOrientation(orientation);
+        media.setMediaType(mediaType);
+        media.setDateModified(dateModified);
+        return media;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getListKey() {
+        return listKey;
+    }
+
+    public void setListKey(String listKey) {
+        this.listKey = listKey;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public long getDateTaken() {
+        return dateTaken;
+    }
+
+    public void setDateTaken(long dateTaken) {
+        this.dateTaken = dateTaken;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
+    public void setOrientation(int orientation) {
+        this.orientation = orientation;
+    }
+
+    public int getMediaType() {
+        return mediaType;
+    }
+
+    public void setMediaType(int mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public long getDateModified() {
+        return dateModified;
+    }
+
+    public void setDateModified(long dateModified) {
+        this.dateModified = dateModified;
+    }
+}
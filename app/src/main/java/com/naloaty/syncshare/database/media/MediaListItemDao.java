@@ -0,0 +1,50 @@
+package com.naloaty.syncshare.database.media;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+/**
+ * This class represents Data Access Object of remote media lists table in a StreamShare database.
+ * It allows you to retrieve information from the database.
+ * To understand how it works, you need to get acquainted with the Room library and Android Architecture Components.
+ * @see MediaListItem
+ */
+@Dao
+public interface MediaListItemDao {
+
+    /**
+     * Inserts media-files of a list into the database.
+     * @param items Media-files with their positions. Instances of {@link MediaListItem}
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertAll(List<MediaListItem> items);
+
+    /**
+     * Returns a version of a list from the database.
+     * @param listKey Remote device and album of the list.
+     * @param generation Version of the list.
+     * @return Media-files of the list ordered by position.
+     */
+    @Query("SELECT * FROM media_list_items_table WHERE listKey=:listKey AND generation=:generation ORDER BY position")
+    List<MediaListItem> getList(String listKey, long generation);
+
+    /**
+     * Deletes all lists except the most recent ones. Generations are unique for all lists.
+     * @param count Number of lists to keep.
+     */
+    @Query("DELETE FROM media_list_items_table WHERE generation NOT IN " +
+            "(SELECT DISTINCT generation FROM media_list_items_table ORDER BY generation DESC LIMIT :count)")
+    void deleteOldLists(int count);
+
+    /**
+     * Deletes all lists of the remote device. Keys of its lists start with "deviceId/".
+     * The prefix is compared as is, so characters of the ID are not treated as LIKE wildcards.
+     * @param deviceId ID of the remote device.
+     */
+    @Query("DELETE FROM media_list_items_table WHERE substr(listKey, 1, length(:deviceId) + 1) = :deviceId || '/'")
+    void deleteDevice(String deviceId);
+}
@@ -0,0 +1,136 @@
+package com.naloaty.syncshare.database.media;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * This class represents a table of cached albums of remote devices in a StreamShare database.
+ * To understand how it works, you need to get acquainted with the Room library.
+ * @see RemoteListRepository
+ */
+@Entity(tableName = "remote_albums_table",
+        indices = {@Index(value = {"deviceId", "position"}, unique = true)})
+public class RemoteAlbum {
+
+    /**
+     * Database row id
+     */
+    @PrimaryKey(autoGenerate = true)
+    private int id;
+
+    /**
+     * StreamShare ID of the remote device.
+     */
+    private String deviceId;
+
+    /**
+     * Position of the album in the list.
+     */
+    private int position;
+
+    private long albumId;
+
+    private String name;
+
+    private String path;
+
+    private String lastItemFilename;
+
+    private int itemsCount;
+
+    private boolean accessAllowed;
+
+    public RemoteAlbum() {
+    }
+
+    public RemoteAlbum(String deviceId, int position, Album album) {
+        this.deviceId = deviceId;
+        this.position = position;
+        this.albumId = album.getAlbumId();
+        this.name = album.getName();
+        this.path = album.getPath();
+        this.lastItemFilename = album.getLastItemFilename();
+        this.itemsCount = album.getItemsCount();
+        this.accessAllowed = album.isAccessAllowed();
+    }
+
+    public Album toAlbum() {
+        Album album = new Album(albumId, name, path, accessAllowed);
+        album.setLastItemFilename(lastItemFilename);
+        album.setItemsCount(itemsCount);
+        return album;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    public long getAlbumId() {
+        return albumId;
+    }
+
+    public void setAlbumId(long albumId) {
+        this.albumId = albumId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public String getLastItemFilename() {
+        return lastItemFilename;
+    }
+
+    public void setLastItemFilename(String lastItemFilename) {
+        this.lastItemFilename = lastItemFilename;
+    }
+
+    public int getItemsCount() {
+        return itemsCount;
+    }
+
+    public void setItemsCount(int itemsCount) {
+        this.itemsCount = itemsCount;
+    }
+
+    public boolean isAccessAllowed() {
+        return accessAllowed;
+    }
+
+    public void setAccessAllowed(boolean accessAllowed) {
+        this.accessAllowed = accessAllowed;
+    }
+}
@@ -0,0 +1,138 @@
+package com.naloaty.syncshare.database.media;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * This class represents a table of cached lists of remote devices in a StreamShare database.
+ * Each row describes the album list of a device or the media list of one of its albums,
+ * so the list can be shown while it is synchronized or while the device is offline.
+ * To understand how it works, you need to get acquainted with the Room library.
+ * @see RemoteListRepository
+ */
+@Entity(tableName = "remote_lists_table",
+        indices = {@Index(value = {"deviceId", "albumId"}, unique = true)})
+public class RemoteList {
+
+    /* Album id of the list of albums */
+    public static final long ALBUM_LIST = -1;
+
+    /**
+     * Database row id
+     */
+    @PrimaryKey(autoGenerate = true)
+    private int id;
+
+    /**
+     * StreamShare ID of the remote device.
+     */
+    private String deviceId;
+
+    /**
+     * Id of the remote album or {@link #ALBUM_LIST} for the list of albums.
+     */
+    private long albumId;
+
+    /**
+     * Last known ip address of the device. Thumbnails are cached by address.
+     */
+    private String ipAddress;
+
+    /**
+     * Token to request changes of the list with.
+     */
+    private String syncToken;
+
+    /**
+     * Position of the next page or null if the whole list is loaded.
+     */
+    private String nextCursor;
+
+    /**
+     * Number of cached rows of the list.
+     */
+    private int itemsCount;
+
+    /**
+     * The time when the list was last shown.
+     */
+    private long lastUsed;
+
+    public RemoteList() {
+    }
+
+    public RemoteList(String deviceId, long albumId, String ipAddress, String syncToken, String nextCursor, int itemsCount) {
+        this.deviceId = deviceId;
+        this.albumId = albumId;
+        this.ipAddress = ipAddress;
+        this.syncToken = syncToken;
+        this.nextCursor = nextCursor;
+        this.itemsCount = itemsCount;
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public long getAlbumId() {
+        return albumId;
+    }
+
+    public void setAlbumId(long albumId) {
+        this.albumId = albumId;
+    }
+
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
+    public void setIpAddress(String ipAddress) {
+        this.ipAddress = ipAddress;
+    }
+
+    public String getSyncToken() {
+        return syncToken;
+    }
+
+    public void setSyncToken(String syncToken) {
+        this.syncToken = syncToken;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public int getItemsCount() {
+        return itemsCount;
+    }
+
+    public void setItemsCount(int itemsCount) {
+        this.itemsCount = itemsCount;
+    }
+
+    public long getLastUsed() {
+        return lastUsed;
+    }
+
+    public void setLastUsed(long lastUsed) {
+        this.lastUsed = lastUsed;
+    }
+}
@@ -0,0 +1,82 @@
+package com.naloaty.syncshare.database.media;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+/**
+ * This class represents Data Access Object of cached lists of remote devices in a StreamShare database.
+ * It allows you to retrieve information from the database.
+ * To understand how it works, you need to get acquainted with the Room library and Android Architecture Components.
+ * @see RemoteList
+ * @see RemoteAlbum
+ * @see RemoteMedia
+ */
+@Dao
+public interface RemoteListDao {
+
+    /**
+     * Inserts or replaces the description of a cached list.
+     * @param list Description of the list. Instance of {@link RemoteList}
+     */
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insertList(RemoteList list);
+
+    /**
+     * @param albumId Id of the remote album or {@link RemoteList#ALBUM_LIST}.
+     * @return Description of the cached list or null if the list is not cached.
+     */
+    @Query("SELECT * FROM remote_lists_table WHERE deviceId=:deviceId AND albumId=:albumId")
+    RemoteList getList(String deviceId, long albumId);
+
+    /**
+     * @return Descriptions of the cached media lists of the device, the most recently used first.
+     */
+    @Query("SELECT * FROM remote_lists_table WHERE deviceId=:deviceId AND albumId!=-1 ORDER BY lastUsed DESC")
+    List<RemoteList> getMediaLists(String deviceId);
+
+    /**
+     * @return Description of the most recently used list of the device or null if nothing is cached.
+     */
+    @Query("SELECT * FROM remote_lists_table WHERE deviceId=:deviceId ORDER BY lastUsed DESC LIMIT 1")
+    RemoteList getLastUsedList(String deviceId);
+
+    @Query("UPDATE remote_lists_table SET lastUsed=:time WHERE deviceId=:deviceId AND albumId=:albumId")
+    void touchList(String deviceId, long albumId, long time);
+
+    @Query("DELETE FROM remote_lists_table WHERE deviceId=:deviceId AND albumId=:albumId")
+    void deleteList(String deviceId, long albumId);
+
+    @Insert
+    void insertAlbums(List<RemoteAlbum> albums);
+
+    /**
+     * @return Cached albums of the device ordered by position.
+     */
+    @Query("SELECT * FROM remote_albums_table WHERE deviceId=:deviceId ORDER BY position")
+    List<RemoteAlbum> getAlbums(String deviceId);
+
+    @Query("DELETE FROM remote_albums_table WHERE deviceId=:deviceId")
+    void deleteAlbums(String deviceId);
+
+    @Insert
+    void insertMedia(List<RemoteMedia> media);
+
+    /**
+     * @return Cached media-files of the album ordered by position.
+     */
+    @Query("SELECT * FROM remote_media_table WHERE deviceId=:deviceId AND albumId=:albumId ORDER BY position")
+    List<RemoteMedia> getMedia(String deviceId, long albumId);
+
+    @Query("DELETE FROM remote_media_table WHERE deviceId=:deviceId AND albumId=:albumId")
+    void deleteMedia(String deviceId, long albumId);
+
+    @Query("DELETE FROM remote_media_table WHERE deviceId=:deviceId")
+    void deleteAllMedia(String deviceId);
+
+    @Query("DELETE FROM remote_lists_table WHERE deviceId=:deviceId")
+    void deleteAllLists(String deviceId);
+}
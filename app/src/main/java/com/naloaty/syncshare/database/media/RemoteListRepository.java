@@ -0,0 +1,196 @@
+package com.naloaty.syncshare.database.media;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.naloaty.syncshare.communication.RemoteMediaCache;
+import com.naloaty.syncshare.database.SSDatabase;
+import com.naloaty.syncshare.database.device.NetworkDevice;
+import com.naloaty.syncshare.media.Media;
+import com.naloaty.syncshare.media.MediaListStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Single;
+
+/**
+ * This class represents extra abstract layer above {@link RemoteListDao} in a StreamShare database.
+ * It keeps album and media lists of trusted devices on the disk, so they are shown immediately
+ * and then synchronized (stale-while-revalidate), or shown while the device is offline.
+ * Each device may take at most {@link #MAX_MEDIA_ROWS_PER_DEVICE} media-files, the least recently used lists are dropped.
+ * Lists of a device, including the lists kept for the viewer by {@link MediaListStore}, are purged when it is no longer trusted.
+ * Writes are done one after another in the background, loads return ReactiveX single objects.
+ * @see RemoteMediaCache
+ */
+public class RemoteListRepository {
+
+    private static final String TAG = "RemoteListRepo";
+
+    /* Maximum number of cached media-files of one device */
+    private static final int MAX_MEDIA_ROWS_PER_DEVICE = 20000;
+
+    private SSDatabase database;
+    private RemoteListDao remoteListDao;
+    private MediaListStore mediaListStore;
+
+    public RemoteListRepository(Context context) {
+        database = SSDatabase.getInstance(context);
+        mediaListStore = MediaListStore.getInstance(context);
+
+        //Room auto generates these abstract methods
+        remoteListDao = database.remoteListDao();
+    }
+
+    /**
+     * Loads the cached album list of the device.
+     * @return Album list as ReactiveX single object. It fails if the list is not cached.
+     */
+    public Single<RemoteMediaCache.AlbumList> loadAlbumList(@NonNull String deviceId) {
+        return Single.fromCallable(() -> {
+            RemoteList list = remoteListDao.getList(deviceId, RemoteList.ALBUM_LIST);
+
+            if (list == null)
+                throw new IllegalStateException("Album list of " + deviceId + " is not cached");
+
+            List<Album> albums = new ArrayList<>();
+
+            for (RemoteAlbum album : remoteListDao.getAlbums(deviceId))
+                albums.add(album.toAlbum());
+
+            remoteListDao.touchList(deviceId, RemoteList.ALBUM_LIST, System.currentTimeMillis());
+            return new RemoteMediaCache.AlbumList(albums, list.getSyncToken());
+        });
+    }
+
+    /**
+     * Loads the cached media list of the album.
+     * @return Media list as ReactiveX single object. It fails if the list is not cached.
+     */
+    public Single<RemoteMediaCache.MediaList> loadMediaList(@NonNull String deviceId, long albumId) {
+        return Single.fromCallable(() -> {
+            RemoteList list = remoteListDao.getList(deviceId, albumId);
+
+            if (list == null)
+                throw new IllegalStateException("Media list of " + deviceId + "/" + albumId + " is not cached");
+
+            List<RemoteMedia> rows = remoteListDao.getMedia(deviceId, albumId);
+            List<Media> media = new ArrayList<>(rows.size());
+
+            for (RemoteMedia row : rows)
+                media.add(row.toMedia());
+
+            remoteListDao.touchList(deviceId, albumId, System.currentTimeMillis());
+            return new RemoteMediaCache.MediaList(media, list.getSyncToken(), list.getNextCursor());
+        });
+    }
+
+    /**
+     * Returns the network information the device had when its lists were cached.
+     * It allows to show the cached lists (and the thumbnails cached by address) while the device is offline.
+     * @return Network device as ReactiveX single object. It fails if nothing is cached.
+     */
+    public Single<NetworkDevice> findLastNetworkDevice(@NonNull String deviceId) {
+        return Single.fromCallable(() -> {
+            RemoteList list = remoteListDao.getLastUsedList(deviceId);
+
+            if (list == null || list.getIpAddress() == null)
+                throw new IllegalStateException("Nothing is cached for " + deviceId);
+
+            NetworkDevice networkDevice = new NetworkDevice(list.getIpAddress(), null);
+            networkDevice.setDeviceId(deviceId);
+            return networkDevice;
+        });
+    }
+
+    /**
+     * Replaces the cached album list of the device.
+     */
+    public void saveAlbumList(@NonNull NetworkDevice networkDevice, @NonNull RemoteMediaCache.AlbumList albumList) {
+        String deviceId = networkDevice.getDeviceId();
+        String ipAddress = networkDevice.getIpAddress();
+        List<Album> albums = albumList.getList();
+
+        execute(() -> {
+            List<RemoteAlbum> rows = new ArrayList<>(albums.size());
+
+            for (int i = 0; i < albums.size(); i++)
+                rows.add(new RemoteAlbum(deviceId, i, albums.get(i)));
+
+            database.runInTransaction(() -> {
+                remoteListDao.deleteAlbums(deviceId);
+                remoteListDao.insertAlbums(rows);
+                remoteListDao.insertList(new RemoteList(deviceId, RemoteList.ALBUM_LIST, ipAddress,
+                        albumList.getSyncToken(), null, rows.size()));
+            });
+        });
+    }
+
+    /**
+     * Replaces the cached media list of the album and drops the least recently used lists of the device
+     * if it takes more than its quota.
+     */
+    public void saveMediaList(@NonNull NetworkDevice networkDevice, long albumId, @NonNull RemoteMediaCache.MediaList mediaList) {
+        String deviceId = networkDevice.getDeviceId();
+        String ipAddress = networkDevice.getIpAddress();
+        List<Media> media = mediaList.getList();
+
+        execute(() -> {
+            List<RemoteMedia> rows = new ArrayList<>(media.size());
+
+            for (int i = 0; i < media.size(); i++)
+                rows.add(new RemoteMedia(deviceId, albumId, i, media.get(i)));
+
+            database.runInTransaction(() -> {
+                remoteListDao.deleteMedia(deviceId, albumId);
+                remoteListDao.insertMedia(rows);
+                remoteListDao.insertList(new RemoteList(deviceId, albumId, ipAddress,
+                        mediaList.getSyncToken(), mediaList.getNextCursor(), rows.size()));
+
+                int total = 0;
+
+                for (RemoteList list : remoteListDao.getMediaLists(deviceId)) {
+                    total += list.getItemsCount();
+
+                    if (total > MAX_MEDIA_ROWS_PER_DEVICE && list.getAlbumId() != albumId) {
+                        remoteListDao.deleteMedia(deviceId, list.getAlbumId());
+                        remoteListDao.deleteList(deviceId, list.getAlbumId());
+                        total -= list.getItemsCount();
+                    }
+                }
+            });
+        });
+    }
+
+    /**
+     * Deletes all cached lists of the device, e.g. when it is no longer trusted.
+     */
+    public void purgeDevice(@Nullable String deviceId) {
+        if (deviceId == null)
+            return;
+
+        RemoteMediaCache.removeDevice(deviceId);
+        mediaListStore.removeDevice(deviceId);
+
+        execute(() -> database.runInTransaction(() -> {
+            remoteListDao.deleteAlbums(deviceId);
+            remoteListDao.deleteAllMedia(deviceId);
+            remoteListDao.deleteAllLists(deviceId);
+        }));
+    }
+
+    private static void execute(@NonNull Runnable write) {
+        AsyncTask.SERIAL_EXECUTOR.execute(() -> {
+            try {
+                write.run();
+            }
+            catch (Exception e) {
+                Log.w(TAG, "Cannot write cached lists. Reason: " + e.toString());
+            }
+        });
+    }
+}
@@ -0,0 +1,168 @@
+package com.naloaty.syncshare.database.media;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import com.naloaty.syncshare.media.Media;
+
+/**
+ * This class represents a table of cached media lists of remote albums in a StreamShare database.
+ * To understand how it works, you need to get acquainted with the Room library.
+ * @see RemoteListRepository
+ */
+@Entity(tableName = "remote_media_table",
+        indices = {@Index(value = {"deviceId", "albumId", "position"}, unique = true)})
+public class RemoteMedia {
+
+    /**
+     * Database row id
+     */
+    @PrimaryKey(autoGenerate = true)
+    private int id;
+
+    /**
+     * StreamShare ID of the remote device.
+     */
+    private String deviceId;
+
+    /**
+     * Id of the remote album.
+     */
+    private long albumId;
+
+    /**
+     * Position of the media-file in the list.
+     */
+    private int position;
+
+    private String filename;
+
+    private long dateTaken;
+
+    private String mimeType;
+
+    private long size;
+
+    private int orientation;
+
+    private int mediaType;
+
+    private long dateModified;
+
+    public RemoteMedia() {
+    }
+
+    public RemoteMedia(String deviceId, long albumId, int position, Media media) {
+        this.deviceId = deviceId;
+        this.albumId = albumId;
+        this.position = position;
+        this.filename = media.getFilename();
+        this.dateTaken = media.getDateTaken();
+        this.mimeType = media.getMimeType();
+        this.size = media.getSize();
+        this.orientation = media.getOrientation();
+        this.mediaType = media.getMediaType();
+        this.dateModified = media.getDateModified();
+    }
+
+    public Media toMedia() {
+        Media media = new Media();
+        media.setFilename(filename);
+        media.setDateTaken(dateTaken);
+        media.setMimeType(mimeType);
+        media.setSize(size);
+        media.setOrientation(orientation);
+        media.setMediaType(mediaType);
+        media.setDateModified(dateModified);
+        return media;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public long getAlbumId() {
+        return albumId;
+    }
+
+    public void setAlbumId(long albumId) {
+        this.albumId = albumId;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public long getDateTaken() {
+        return dateTaken;
+    }
+
+    public void setDateTaken(long dateTaken) {
+        this.dateTaken = dateTaken;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public int getOrientation() {
+        return orientation;
+    }
+
+    public void setOrientation(int orientation) {
+        this.orientation = orientation;
+    }
+
+    public int getMediaType() {
+        return mediaType;
+    }
+
+    public void setMediaType(int mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public long getDateModified() {
+        return dateModified;
+    }
+
+    public void setDateModified(long dateModified) {
+        this.dateModified = dateModified;
+    }
+}
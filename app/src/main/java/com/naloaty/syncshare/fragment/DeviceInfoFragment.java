@@ -1,17 +1,24 @@
 package com.naloaty.syncshare.fragment;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.Fragment;
+import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 
 import com.bumptech.glide.Glide;
 import com.google.zxing.BarcodeFormat;
@@ -20,7 +27,9 @@ import com.google.zxing.WriterException;
 import com.google.zxing.common.BitMatrix;
 import com.journeyapps.barcodescanner.BarcodeEncoder;
 import com.naloaty.syncshare.R;
+import com.naloaty.syncshare.app.SSActivity;
 import com.naloaty.syncshare.config.AppConfig;
+import com.naloaty.syncshare.config.KeyConfig;
 import com.naloaty.syncshare.security.SecurityUtils;
 import com.naloaty.syncshare.util.AppUtils;
 
@@ -47,6 +56,7 @@ public class DeviceInfoFragment extends Fragment{
     private TextView mDeviceId;
     private RelativeLayout mDeviceNameLayout;
     private RelativeLayout mAppVersionLayout;
+    private Button mReplaceKeysButton;
 
     private UIState currentUIState;
 
@@ -72,10 +82,55 @@ public class DeviceInfoFragment extends Fragment{
         mDeviceId = view.findViewById(R.id.device_info_device_id);
         mDeviceNameLayout = view.findViewById(R.id.device_info_device_name_layout);
         mAppVersionLayout = view.findViewById(R.id.device_app_version_layout);
+        mReplaceKeysButton = view.findViewById(R.id.device_info_replace_keys_btn);
+
+        mReplaceKeysButton.setOnClickListener(v -> replaceKeys());
 
         setUIState(getRequiredState());
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+
+        IntentFilter filter = new IntentFilter(SSActivity.SECURITY_STUFF_GENERATION_RESULT);
+        LocalBroadcastManager.getInstance(requireContext()).registerReceiver(mReceiver, filter);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        LocalBroadcastManager.getInstance(requireContext()).unregisterReceiver(mReceiver);
+    }
+
+    /**
+     * Receives a broadcast about SECURITY_STUFF_GENERATION_RESULT (SSL certificate created or replaced)
+     */
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (getContext() != null)
+                setUIState(getRequiredState());
+        }
+    };
+
+    /**
+     * Asks the user to confirm the replacement of the RSA keys, then replaces them.
+     * @see SSActivity#replaceSecurityStuff()
+     */
+    private void replaceKeys() {
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.title_replaceKeys)
+                .setMessage(R.string.text_replaceKeys)
+                .setNegativeButton(R.string.btn_cancel, null)
+                .setPositiveButton(R.string.btn_replace, (dialog, which) -> {
+                    if (getActivity() instanceof SSActivity)
+                        ((SSActivity) getActivity()).replaceSecurityStuff();
+                })
+                .show();
+    }
+
     /**
      * Returns the optimal state of the UI.
      * @return Optimal UI state
@@ -133,6 +188,11 @@ public class DeviceInfoFragment extends Fragment{
         mDeviceNameLayout.setVisibility(deviceInfoVisibility);
         mAppVersionLayout.setVisibility(deviceInfoVisibility);
 
+        //Only old RSA identities are offered to be replaced
+        boolean rsaIdentity = state.equals(UIState.QRShown)
+                && KeyConfig.KEY_ALGORITHM_RSA.equals(SecurityUtils.getKeyAlgorithm(requireContext().getFilesDir()));
+        mReplaceKeysButton.setVisibility(rsaIdentity ? View.VISIBLE : View.GONE);
+
         currentUIState = state;
     }
 
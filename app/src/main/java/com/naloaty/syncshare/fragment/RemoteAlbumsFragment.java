@@ -5,6 +5,7 @@ import android.animation.AnimatorListenerAdapter;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -21,18 +22,23 @@ import androidx.localbroadcastmanager.content.LocalBroadcastManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.google.gson.Gson;
 import com.naloaty.syncshare.R;
 import com.naloaty.syncshare.activity.RemoteViewActivity;
 import com.naloaty.syncshare.adapter.OnRVClickListener;
 import com.naloaty.syncshare.adapter.RemoteAlbumsAdapter;
 import com.naloaty.syncshare.communication.CommunicationHelper;
+import com.naloaty.syncshare.communication.RemoteMediaCache;
+import com.naloaty.syncshare.communication.WireFormat;
 import com.naloaty.syncshare.database.device.NetworkDevice;
 import com.naloaty.syncshare.database.device.NetworkDeviceViewModel;
 import com.naloaty.syncshare.database.device.SSDevice;
 import com.naloaty.syncshare.database.device.SSDeviceViewModel;
 import com.naloaty.syncshare.database.media.Album;
+import com.naloaty.syncshare.database.media.RemoteListRepository;
+import com.naloaty.syncshare.service.Requests;
 
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.net.ssl.SSLHandshakeException;
@@ -53,6 +59,8 @@ import retrofit2.internal.EverythingIsNonNull;
  */
 public class RemoteAlbumsFragment extends Fragment {
 
+    private static final String TAG = "RemoteAlbumsFragment";
+
     private List<Album> mList;
     private RemoteAlbumsAdapter mRVadapter;
     private SSDeviceViewModel mDeviceViewModel;
@@ -61,6 +69,13 @@ public class RemoteAlbumsFragment extends Fragment {
     private NetworkDevice mNetworkDevice;
     private SSDevice mSSDevice;
     private String mDeviceId;
+    private RemoteListRepository mListRepository;
+
+    /* True if the cached list has been looked up on the disk */
+    private boolean mDiskChecked = false;
+
+    /* True if the device is not on the network and only the cached list is shown */
+    private boolean mOffline = false;
 
     /* UI elements*/
     private RecyclerView mRecyclerView;
@@ -73,6 +88,7 @@ public class RemoteAlbumsFragment extends Fragment {
         mDisposables = new CompositeDisposable();
         mDeviceViewModel = new ViewModelProvider(this).get(SSDeviceViewModel.class);
         mNetworkDeviceViewModel = new ViewModelProvider(this).get(NetworkDeviceViewModel.class);
+        mListRepository = new RemoteListRepository(requireContext());
     }
 
     @Nullable
@@ -126,11 +142,10 @@ public class RemoteAlbumsFragment extends Fragment {
         OnRVClickListener clickListener = itemIndex -> {
             Album album = mList.get(itemIndex);
 
-            Gson gson = new Gson();
             Intent intent = new Intent(RemoteViewActivity.ACTION_CHANGE_FRAGMENT);
             intent.putExtra(RemoteViewActivity.EXTRA_TARGET_FRAGMENT, RemoteViewFragment.MediaGridView.toString());
             intent.putExtra(RemoteViewActivity.EXTRA_ALBUM_NAME, album.getName());
-            intent.putExtra(RemoteViewActivity.EXTRA_ALBUM, gson.toJson(album));
+            intent.putExtra(RemoteViewActivity.EXTRA_ALBUM, WireFormat.GSON.toJson(album));
 
             LocalBroadcastManager.getInstance(requireContext()).sendBroadcast(intent);
         };
@@ -163,17 +178,46 @@ public class RemoteAlbumsFragment extends Fragment {
 
                     @Override
                     public void onError(Throwable e) {
-                        setUIState(UIState.CannotLoadAlbums);
+                        initOfflineDevice();
+                    }
+                }));
+
+    }
 
-                        new AlertDialog.Builder(requireContext())
-                                .setTitle(R.string.title_deviceOffline)
-                                .setMessage(R.string.text_deviceOffline)
-                                .setCancelable(false)
-                                .setPositiveButton(R.string.btn_close, (dialog, which) -> requireActivity().onBackPressed())
-                                .show();
+    /**
+     * Shows the cached list of albums if the device has dropped off the network.
+     * @see RemoteListRepository#findLastNetworkDevice(String)
+     */
+    private void initOfflineDevice() {
+        mDisposables.add(mListRepository.findLastNetworkDevice(mDeviceId)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribeOn(Schedulers.io())
+                .subscribeWith(new DisposableSingleObserver<NetworkDevice>() {
+                    @Override
+                    public void onSuccess(NetworkDevice networkDevice) {
+                        Log.i(TAG, "Device is offline, the cached albums list is shown");
+                        mNetworkDevice = networkDevice;
+                        mOffline = true;
+                        setupRecyclerView();
+                        requestAlbumsList();
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        onDeviceOffline();
                     }
                 }));
+    }
+
+    private void onDeviceOffline() {
+        setUIState(UIState.CannotLoadAlbums);
 
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.title_deviceOffline)
+                .setMessage(R.string.text_deviceOffline)
+                .setCancelable(false)
+                .setPositiveButton(R.string.btn_close, (dialog, which) -> requireActivity().onBackPressed())
+                .show();
     }
 
     /**
@@ -203,10 +247,33 @@ public class RemoteAlbumsFragment extends Fragment {
     }
 
     /**
-     * Loads a list of albums on remote device
+     * Loads a list of albums on remote device.
+     * A list viewed before is shown immediately and downloaded again only if it has changed.
+     * The list is looked up in memory and then on the disk. See {@link RemoteListRepository}.
      */
     private void requestAlbumsList() {
-        Call<List<Album>> request = CommunicationHelper.requestAlbumsList(getContext(), mNetworkDevice);
+        RemoteMediaCache.AlbumList cached = RemoteMediaCache.getAlbumList(mDeviceId);
+        String since = null;
+
+        if (cached == null && !mDiskChecked) {
+            mDiskChecked = true;
+            loadCachedAlbumsList();
+            return;
+        }
+
+        if (cached != null) {
+            since = cached.getSyncToken();
+            showAlbumsList(cached.getList());
+        }
+
+        if (mOffline) {
+            if (cached == null)
+                onDeviceOffline();
+
+            return;
+        }
+
+        Call<List<Album>> request = CommunicationHelper.requestAlbumsList(getContext(), mNetworkDevice, since);
 
         if (request == null) {
             onInternalError("NULL_REQUEST");
@@ -217,18 +284,33 @@ public class RemoteAlbumsFragment extends Fragment {
             @Override
             @EverythingIsNonNull
             public void onResponse(Call<List<Album>> call, Response<List<Album>> response) {
-                if (response.body() != null && response.body().size() > 0) {
-                    mList = response.body();
-                    mRVadapter.setAlbumsList(response.body());
-                    setUIState(UIState.AlbumsShown);
+                //The shown list is up to date
+                if (response.code() == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null)
+                    return;
+
+                //A busy or failing server must not replace the cached list with an empty one
+                if (!response.isSuccessful()) {
+                    onFailure(call, new Exception("Unexpected response code " + response.code()));
+                    return;
                 }
-                else
-                    setUIState(UIState.NoAlbumsFound);
+
+                List<Album> albums = response.body() != null ? response.body() : new ArrayList<>();
+                RemoteMediaCache.AlbumList albumList = new RemoteMediaCache.AlbumList(albums, response.headers().get(Requests.SYNC_TOKEN));
+
+                RemoteMediaCache.putAlbumList(mDeviceId, albumList);
+                mListRepository.saveAlbumList(mNetworkDevice, albumList);
+
+                showAlbumsList(albums);
             }
 
             @Override
             @EverythingIsNonNull
             public void onFailure(Call<List<Album>> call, Throwable t) {
+                if (cached != null) {
+                    Log.w(TAG, "Cannot synchronize albums list: " + t.getMessage());
+                    return;
+                }
+
                 setUIState(UIState.CannotLoadAlbums);
 
                 if (t instanceof SSLHandshakeException) {
@@ -245,6 +327,41 @@ public class RemoteAlbumsFragment extends Fragment {
         });
     }
 
+    /**
+     * Loads the albums list cached on the disk into memory and requests the list again.
+     */
+    private void loadCachedAlbumsList() {
+        mDisposables.add(mListRepository.loadAlbumList(mDeviceId)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribeOn(Schedulers.io())
+                .subscribeWith(new DisposableSingleObserver<RemoteMediaCache.AlbumList>() {
+                    @Override
+                    public void onSuccess(RemoteMediaCache.AlbumList albumList) {
+                        RemoteMediaCache.putAlbumList(mDeviceId, albumList);
+                        requestAlbumsList();
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        requestAlbumsList();
+                    }
+                }));
+    }
+
+    /**
+     * Shows the list of albums.
+     * @param albums Albums on the remote device.
+     */
+    private void showAlbumsList(@NonNull List<Album> albums) {
+        if (albums.size() > 0) {
+            mList = albums;
+            mRVadapter.setAlbumsList(new ArrayList<>(albums));
+            setUIState(UIState.AlbumsShown);
+        }
+        else
+            setUIState(UIState.NoAlbumsFound);
+    }
+
     /**
      * Displays an error code alert dialog.
      * @param errorCode Error code
@@ -24,22 +24,27 @@ import androidx.recyclerview.widget.DefaultItemAnimator;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.google.gson.Gson;
 import com.naloaty.syncshare.R;
 import com.naloaty.syncshare.activity.ImageViewActivity;
 import com.naloaty.syncshare.activity.RemoteViewActivity;
 import com.naloaty.syncshare.adapter.OnRVClickListener;
 import com.naloaty.syncshare.adapter.RemoteMediaAdapter;
 import com.naloaty.syncshare.communication.CommunicationHelper;
+import com.naloaty.syncshare.communication.MediaPager;
+import com.naloaty.syncshare.communication.RemoteMediaCache;
+import com.naloaty.syncshare.communication.WireFormat;
 import com.naloaty.syncshare.database.device.NetworkDevice;
 import com.naloaty.syncshare.database.device.NetworkDeviceViewModel;
 import com.naloaty.syncshare.database.device.SSDevice;
 import com.naloaty.syncshare.database.device.SSDeviceViewModel;
 import com.naloaty.syncshare.database.media.Album;
-import com.naloaty.syncshare.media.ListHolder;
+import com.naloaty.syncshare.database.media.RemoteListRepository;
 import com.naloaty.syncshare.media.Media;
+import com.naloaty.syncshare.media.MediaDelta;
+import com.naloaty.syncshare.media.MediaListStore;
 import com.naloaty.syncshare.util.DeviceUtils;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.net.ssl.SSLHandshakeException;
@@ -62,7 +67,13 @@ public class RemoteMediaFragment extends Fragment {
 
     private static final String TAG = "RemoteMediaFragment";
 
-    private List<Media> mList;
+    /* Number of items left below the visible range when the next page is requested */
+    private static final int PREFETCH_DISTANCE = 60;
+
+    private List<Media> mList = new ArrayList<>();
+    private String mListKey;
+    private MediaPager mMediaPager;
+    private String mSyncToken;
     private RemoteMediaAdapter mRVAdapter;
     private SSDeviceViewModel ssDeviceVM;
     private NetworkDeviceViewModel netDeviceVM;
@@ -71,6 +82,16 @@ public class RemoteMediaFragment extends Fragment {
     private SSDevice mSSDevice;
     private String deviceId;
     private Album mAlbum;
+    private RemoteListRepository mListRepository;
+
+    /* True if the cached list has been looked up on the disk */
+    private boolean mDiskChecked = false;
+
+    /* True if the list has changed since it was written to the disk */
+    private boolean mListDirty = false;
+
+    /* True if the device is not on the network and only the cached list is shown */
+    private boolean mOffline = false;
 
     /* UI elements */
     private RecyclerView mRecyclerView;
@@ -82,6 +103,7 @@ public class RemoteMediaFragment extends Fragment {
         disposables = new CompositeDisposable();
         ssDeviceVM = new ViewModelProvider(this).get(SSDeviceViewModel.class);
         netDeviceVM = new ViewModelProvider(this).get(NetworkDeviceViewModel.class);
+        mListRepository = new RemoteListRepository(requireContext());
     }
 
     @Nullable
@@ -98,9 +120,8 @@ public class RemoteMediaFragment extends Fragment {
         Bundle bundle = getArguments();
 
         if (bundle != null){
-            Gson gson = new Gson();
             deviceId = bundle.getString(RemoteViewActivity.EXTRA_DEVICE_ID);
-            mAlbum = gson.fromJson(bundle.getString(RemoteViewActivity.EXTRA_ALBUM), Album.class);
+            mAlbum = WireFormat.GSON.fromJson(bundle.getString(RemoteViewActivity.EXTRA_ALBUM), Album.class);
         }
         else
         {
@@ -117,6 +138,22 @@ public class RemoteMediaFragment extends Fragment {
         super.onStop();
 
         disposables.clear();
+
+        //The list is stored once per visit instead of after every page
+        if (mListDirty)
+            saveMediaList();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        if (mMediaPager != null)
+            mMediaPager.cancel();
+
+        //Pages that have arrived after onStop()
+        if (mListDirty)
+            saveMediaList();
     }
 
     @Override
@@ -138,11 +175,17 @@ public class RemoteMediaFragment extends Fragment {
      */
     private void setupRecyclerView() {
         OnRVClickListener clickListener = itemIndex -> {
-            ListHolder listHolder = new ListHolder(mList, mNetworkDevice);
+            MediaListStore store = MediaListStore.getInstance(requireContext());
+
+            //The list is copied for the viewer once and reused until it changes
+            if (mListKey == null)
+                mListKey = store.put(deviceId, mAlbum.getAlbumId(), mList);
+
+            store.persist(mListKey);
 
             Intent intent = new Intent(getActivity(), ImageViewActivity.class);
             intent.putExtra(ImageViewActivity.EXTRA_POSITION, itemIndex);
-            intent.putExtra(ImageViewActivity.EXTRA_LIST_HOLDER, listHolder);
+            intent.putExtra(ImageViewActivity.EXTRA_LIST_KEY, mListKey);
 
             startActivity(intent);
         };
@@ -153,7 +196,19 @@ public class RemoteMediaFragment extends Fragment {
         mRecyclerView.setLayoutManager(layoutManager);
         mRecyclerView.setItemAnimator(new DefaultItemAnimator());
         mRecyclerView.setAdapter(mRVAdapter);
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                GridLayoutManager manager = (GridLayoutManager) recyclerView.getLayoutManager();
+
+                //A list restored in offline mode is browsed without network requests
+                if (mOffline || mMediaPager == null || manager == null || !mMediaPager.hasMore())
+                    return;
 
+                if (manager.findLastVisibleItemPosition() >= manager.getItemCount() - PREFETCH_DISTANCE)
+                    mMediaPager.loadNext();
+            }
+        });
     }
 
     /**
@@ -206,17 +261,47 @@ public class RemoteMediaFragment extends Fragment {
 
                     @Override
                     public void onError(Throwable e) {
-                        setUIState(UIState.CannotLoadMedia);
-                        new AlertDialog.Builder(requireContext())
-                                .setTitle(R.string.title_deviceOffline)
-                                .setMessage(R.string.text_deviceOffline)
-                                .setCancelable(false)
-                                .setPositiveButton(R.string.btn_close, (dialog, which) -> requireActivity().onBackPressed())
-                                .show();
+                        initOfflineDevice();
+                    }
+                }));
+
+
+    }
+
+    /**
+     * Shows the cached media list if the device has dropped off the network.
+     * @see RemoteListRepository#findLastNetworkDevice(String)
+     */
+    private void initOfflineDevice() {
+        disposables.add(mListRepository.findLastNetworkDevice(deviceId)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribeOn(Schedulers.io())
+                .subscribeWith(new DisposableSingleObserver<NetworkDevice>() {
+                    @Override
+                    public void onSuccess(NetworkDevice networkDevice) {
+                        Log.i(TAG, "Device is offline, the cached media list is shown");
+                        mNetworkDevice = networkDevice;
+                        mOffline = true;
+                        setupRecyclerView();
+                        requestMediaList();
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        onDeviceOffline();
                     }
                 }));
+    }
 
+    private void onDeviceOffline() {
+        setUIState(UIState.CannotLoadMedia);
 
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.title_deviceOffline)
+                .setMessage(R.string.text_deviceOffline)
+                .setCancelable(false)
+                .setPositiveButton(R.string.btn_close, (dialog, which) -> requireActivity().onBackPressed())
+                .show();
     }
     
     /**
@@ -247,33 +332,51 @@ public class RemoteMediaFragment extends Fragment {
 
     /**
      * Loads a media list from a specific album on a remote device.
-     * @see CommunicationHelper#requestMediaList(Context, NetworkDevice, Album)
+     * A list viewed before is shown immediately and only its changes are requested.
+     * It is looked up in memory and then on the disk. See {@link RemoteListRepository}.
+     * Otherwise the list is loaded page by page. See {@link MediaPager}.
+     * @see CommunicationHelper#requestMediaPage(Context, NetworkDevice, Album, int, String)
      */
     private void requestMediaList() {
-        Call<List<Media>> request = CommunicationHelper.requestMediaList(getContext(), mNetworkDevice, mAlbum);
+        RemoteMediaCache.MediaList cached = RemoteMediaCache.getMediaList(deviceId, mAlbum.getAlbumId());
 
-        if (request == null) {
-            onInternalError("NULL_REQUEST");
+        if (cached == null && !mDiskChecked) {
+            mDiskChecked = true;
+            loadCachedMediaList();
             return;
         }
 
-        request.enqueue(new Callback<List<Media>>() {
+        mMediaPager = new MediaPager(requireContext(), mNetworkDevice, mAlbum, new MediaPager.Listener() {
             @Override
-            @EverythingIsNonNull
-            public void onResponse(Call<List<Media>> call, Response<List<Media>> response) {
+            public void onPageLoaded(@NonNull List<Media> page, boolean isFirst) {
+                if (isFirst) {
+                    mSyncToken = mMediaPager.getSyncToken();
+
+                    if (page.size() > 0) {
+                        mList = new ArrayList<>(page);
+                        mRVAdapter.setMediaList(new ArrayList<>(page));
+                        setUIState(UIState.MediaShown);
+                    }
+                    else
+                        setUIState(UIState.NoMediaFound);
 
-                if (response.body() != null && response.body().size() > 0) {
-                    mList = response.body();
-                    mRVAdapter.setMediaList(response.body());
-                    setUIState(UIState.MediaShown);
+                    onMediaListChanged();
+                    return;
                 }
-                else
-                    setUIState(UIState.NoMediaFound);
+
+                mList.addAll(page);
+                mRVAdapter.appendMediaList(page);
+                onMediaListChanged();
             }
 
             @Override
-            @EverythingIsNonNull
-            public void onFailure(Call<List<Media>> call, Throwable t) {
+            public void onPageFailed(@NonNull Throwable t, boolean isFirst) {
+                //Next pages are requested again when the user scrolls
+                if (!isFirst) {
+                    Log.w(TAG, "Cannot load the next page of media list: " + t.getMessage());
+                    return;
+                }
+
                 setUIState(UIState.CannotLoadMedia);
 
                 if (t instanceof SSLHandshakeException) {
@@ -288,6 +391,127 @@ public class RemoteMediaFragment extends Fragment {
                     onInternalError("MEDIA_REQUEST_FAILURE");
             }
         });
+
+        if (cached == null || cached.getSyncToken() == null) {
+            if (mOffline)
+                onDeviceOffline();
+            else
+                mMediaPager.loadNext();
+
+            return;
+        }
+
+        mList = cached.getList();
+        mListKey = null;
+        mSyncToken = cached.getSyncToken();
+        mMediaPager.resume(cached.getNextCursor());
+
+        if (mList.size() > 0) {
+            mRVAdapter.setMediaList(new ArrayList<>(mList));
+            setUIState(UIState.MediaShown);
+        }
+        else
+            setUIState(UIState.NoMediaFound);
+
+        if (!mOffline)
+            requestMediaDelta();
+    }
+
+    /**
+     * Loads the media list cached on the disk into memory and requests the list again.
+     */
+    private void loadCachedMediaList() {
+        disposables.add(mListRepository.loadMediaList(deviceId, mAlbum.getAlbumId())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribeOn(Schedulers.io())
+                .subscribeWith(new DisposableSingleObserver<RemoteMediaCache.MediaList>() {
+                    @Override
+                    public void onSuccess(RemoteMediaCache.MediaList mediaList) {
+                        RemoteMediaCache.putMediaList(deviceId, mAlbum.getAlbumId(), mediaList);
+                        requestMediaList();
+                    }
+
+                    @Override
+                    public void onError(Throwable e) {
+                        requestMediaList();
+                    }
+                }));
+    }
+
+    /**
+     * Requests changes of the shown media list and merges them into it.
+     * @see CommunicationHelper#requestMediaDelta(Context, NetworkDevice, Album, String)
+     */
+    private void requestMediaDelta() {
+        Call<MediaDelta> request = CommunicationHelper.requestMediaDelta(requireContext(), mNetworkDevice, mAlbum, mSyncToken);
+
+        request.enqueue(new Callback<MediaDelta>() {
+            @Override
+            @EverythingIsNonNull
+            public void onResponse(Call<MediaDelta> call, Response<MediaDelta> response) {
+                MediaDelta delta = response.body();
+
+                if (!isAdded() || delta == null)
+                    return;
+
+                List<Media> merged = delta.isReset() ? null : delta.applyTo(mList, !mMediaPager.hasMore());
+
+                //Changes the delta cannot describe (e.g. media-files moved between albums)
+                if (merged != null && delta.getTotal() >= 0 && !mMediaPager.hasMore() && merged.size() != delta.getTotal())
+                    merged = null;
+
+                if (merged == null) {
+                    Log.i(TAG, "Media list cannot be synchronized, reloading it");
+                    reloadMediaList();
+                    return;
+                }
+
+                mList = merged;
+                mSyncToken = delta.getToken();
+                mRVAdapter.setMediaList(new ArrayList<>(merged));
+                setUIState(merged.size() > 0 ? UIState.MediaShown : UIState.NoMediaFound);
+                onMediaListChanged();
+            }
+
+            @Override
+            @EverythingIsNonNull
+            public void onFailure(Call<MediaDelta> call, Throwable t) {
+                //The cached list stays on the screen
+                Log.w(TAG, "Cannot synchronize media list: " + t.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Loads the media list from the first page, replacing the shown one when the first page arrives.
+     */
+    private void reloadMediaList() {
+        RemoteMediaCache.putMediaList(deviceId, mAlbum.getAlbumId(), new RemoteMediaCache.MediaList(new ArrayList<>(), null, null));
+        mMediaPager.cancel();
+        requestMediaList();
+    }
+
+    /**
+     * Called when pages have been loaded or changes have been merged. Nothing is copied here:
+     * the list is saved when the fragment is stopped and copied for the viewer when it is opened.
+     * See {@link MediaListStore}.
+     */
+    private void onMediaListChanged() {
+        mListDirty = true;
+        mListKey = null;
+    }
+
+    /**
+     * Saves the loaded pages in memory and on the disk, so the list is shown immediately next time.
+     */
+    private void saveMediaList() {
+        RemoteMediaCache.MediaList mediaList = new RemoteMediaCache.MediaList(mList, mSyncToken, mMediaPager.getNextCursor());
+        RemoteMediaCache.putMediaList(deviceId, mAlbum.getAlbumId(), mediaList);
+
+        if (mNetworkDevice != null)
+            mListRepository.saveMediaList(mNetworkDevice, mAlbum.getAlbumId(), mediaList);
+
+        mListDirty = false;
     }
 
     /**
@@ -43,6 +43,14 @@ public class Media implements Serializable {
      */
     private int mediaType;
 
+    /**
+     * Date the media-file was last modified (in seconds).
+     */
+    private long dateModified;
+
+    public Media() {
+    }
+
     public Media(Cursor cursor) {
         String mediaId = cursor.getString(0);
         String path = cursor.getString(1);
@@ -54,6 +62,7 @@ public class Media implements Serializable {
         this.size = cursor.getLong(4);
         this.orientation = cursor.getInt(5);
         this.mediaType = cursor.getInt(6);
+        this.dateModified = cursor.getLong(7);
     }
 
     public String getFilename() {
@@ -64,6 +73,14 @@ public class Media implements Serializable {
         this.filename = filename;
     }
 
+    /**
+     * @return Id of the media-file in the Android Media Store database.
+     */
+    public long getMediaId() {
+        int dot = filename.indexOf('.');
+        return Long.parseLong(dot < 0 ? filename : filename.substring(0, dot));
+    }
+
     public long getDateTaken() {
         return dateTaken;
     }
@@ -104,6 +121,14 @@ public class Media implements Serializable {
         this.mediaType = mediaType;
     }
 
+    public long getDateModified() {
+        return dateModified;
+    }
+
+    public void setDateModified(long dateModified) {
+        this.dateModified = dateModified;
+    }
+
     /**
      * Returns the projection in order to retrieve media-file list from android media store database.
      * @return Projection for media-files request.
@@ -117,7 +142,8 @@ public class Media implements Serializable {
                 MediaStore.Images.Media.MIME_TYPE,      //MIME
                 MediaStore.Images.Media.SIZE,           //Size
                 MediaStore.Images.Media.ORIENTATION,    //Orientation
-                MediaStore.Files.FileColumns.MEDIA_TYPE //Media type (image, video or audio)
+                MediaStore.Files.FileColumns.MEDIA_TYPE, //Media type (image, video or audio)
+                MediaStore.MediaColumns.DATE_MODIFIED   //Modification date (seconds)
         };
     }
 }
@@ -0,0 +1,191 @@
+package com.naloaty.syncshare.media;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class keeps track of changes in the Android Media Store database and of shared albums.
+ * Every change increments the generation. Deleted media-files are remembered as tombstones,
+ * so clients can remove them from their lists without downloading the whole list again.
+ * Tombstones are kept in memory, so tokens issued before the process was restarted are not accepted.
+ * @see SyncToken
+ * @see com.naloaty.syncshare.service.MediaServer
+ */
+public class MediaChangeTracker {
+
+    private static final String TAG = "MediaChangeTracker";
+
+    /* Maximum number of remembered deleted media-files */
+    private static final int MAX_TOMBSTONES = 4096;
+
+    private static MediaChangeTracker instance;
+
+    private final Context mContext;
+    private final long mEpoch = System.currentTimeMillis();
+
+    /* Guarded by this */
+    private long mGeneration = 0;
+
+    /* Media id to the generation it was deleted at. Guarded by this. */
+    private final LinkedHashMap<Long, Long> mTombstones = new LinkedHashMap<>();
+
+    /* Tokens older than this generation cannot be served with a delta. Guarded by this. */
+    private long mOldestValidGeneration = 0;
+
+    public static synchronized MediaChangeTracker getInstance(Context context) {
+        if (instance == null)
+            instance = new MediaChangeTracker(context.getApplicationContext());
+
+        return instance;
+    }
+
+    private MediaChangeTracker(@NonNull Context context) {
+        mContext = context;
+
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+
+        ContentObserver observer = new ContentObserver(new Handler(thread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, @Nullable Uri uri) {
+                onMediaChanged(uri);
+            }
+        };
+
+        context.getContentResolver().registerContentObserver(MediaStore.Files.getContentUri("external"), true, observer);
+    }
+
+    /**
+     * @return Token that describes the current state of shared media.
+     */
+    @NonNull
+    public synchronized SyncToken issueToken() {
+        return new SyncToken(mEpoch, mGeneration, System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * @return Current generation. It is incremented on every change.
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return True if the changes made after the token can be described by a delta.
+     */
+    public synchronized boolean isValid(@NonNull SyncToken token) {
+        return token.getEpoch() == mEpoch
+                && token.getGeneration() <= mGeneration
+                && token.getGeneration() >= mOldestValidGeneration;
+    }
+
+    /**
+     * @return True if anything has changed after the token was issued.
+     */
+    public synchronized boolean hasChangedSince(@NonNull SyncToken token) {
+        return token.getGeneration() < mGeneration;
+    }
+
+    /**
+     * @return Ids of media-files deleted after the token was issued.
+     */
+    @NonNull
+    public synchronized List<Long> getRemovedSince(@NonNull SyncToken token) {
+        List<Long> removed = new ArrayList<>();
+
+        for (Map.Entry<Long, Long> tombstone : mTombstones.entrySet())
+            if (tombstone.getValue() > token.getGeneration())
+                removed.add(tombstone.getKey());
+
+        return removed;
+    }
+
+    /**
+     * Should be called when the set of shared albums has changed.
+     */
+    public synchronized void notifySharedAlbumsChanged() {
+        mGeneration++;
+    }
+
+    private void onMediaChanged(@Nullable Uri uri) {
+        long mediaId = -1;
+
+        if (uri != null) {
+            try {
+                mediaId = ContentUris.parseId(uri);
+            }
+            catch (Exception ignored) {
+            }
+        }
+
+        //Checked outside the lock: it is a query to the media store
+        Boolean exists = mediaId >= 0 ? exists(mediaId) : null;
+
+        if (exists == null)
+            mediaId = -1;
+
+        synchronized (this) {
+            mGeneration++;
+
+            if (mediaId < 0) {
+                //Deletions cannot be attributed, so the clients have to download their lists again
+                mOldestValidGeneration = mGeneration;
+                mTombstones.clear();
+                return;
+            }
+
+            if (exists)
+                return;
+
+            mTombstones.remove(mediaId);
+            mTombstones.put(mediaId, mGeneration);
+
+            Iterator<Map.Entry<Long, Long>> iterator = mTombstones.entrySet().iterator();
+
+            while (mTombstones.size() > MAX_TOMBSTONES && iterator.hasNext()) {
+                mOldestValidGeneration = iterator.next().getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return True if the media-file exists or null if it cannot be checked.
+     */
+    @Nullable
+    private Boolean exists(long mediaId) {
+        String[] projection = { MediaStore.Files.FileColumns._ID };
+        String selection = MediaStore.Files.FileColumns._ID + "=?";
+        String[] args = { String.valueOf(mediaId) };
+
+        try (Cursor cursor = mContext.getContentResolver().query(MediaStore.Files.getContentUri("external"),
+                projection, selection, args, null)) {
+            return cursor != null && cursor.getCount() > 0;
+        }
+        catch (Exception e) {
+            Log.w(TAG, "Cannot check media-file existence: " + e.getMessage());
+            return null;
+        }
+    }
+}
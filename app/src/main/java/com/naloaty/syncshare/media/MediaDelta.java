@@ -0,0 +1,131 @@
+package com.naloaty.syncshare.media;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class represents changes of a media list since a {@link SyncToken}.
+ * It is sent in response to the media_list request with the since parameter.
+ * @see MediaChangeTracker
+ */
+public class MediaDelta {
+
+    /**
+     * True if the changes cannot be described by a delta and the whole list must be downloaded again.
+     */
+    private boolean reset;
+
+    /**
+     * Added and modified media-files.
+     */
+    private List<Media> changed;
+
+    /**
+     * Ids of deleted media-files (might contain media-files of other albums).
+     */
+    private List<Long> removed;
+
+    /**
+     * Number of media-files in the album or -1 if nothing has changed.
+     */
+    private int total;
+
+    /**
+     * Token that should be used for the next request.
+     */
+    private String token;
+
+    public MediaDelta(boolean reset, List<Media> changed, List<Long> removed, int total, String token) {
+        this.reset = reset;
+        this.changed = changed;
+        this.removed = removed;
+        this.total = total;
+        this.token = token;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    public List<Media> getChanged() {
+        return changed;
+    }
+
+    public List<Long> getRemoved() {
+        return removed;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Applies the changes to a media list sorted by modification date and id (both descending).
+     * @param current Media list the changes are applied to. It is not modified.
+     * @param complete False if the list contains only the first pages of the album.
+     *                 Changed media-files that belong to the pages not loaded yet are skipped.
+     * @return Updated media list.
+     */
+    @NonNull
+    public List<Media> applyTo(@NonNull List<Media> current, boolean complete) {
+        Set<Long> dropped = new HashSet<>();
+
+        if (removed != null)
+            dropped.addAll(removed);
+
+        List<Media> changedList = changed != null ? new ArrayList<>(changed) : new ArrayList<>();
+
+        for (Media media : changedList)
+            dropped.add(media.getMediaId());
+
+        List<Media> kept = new ArrayList<>(current.size() + changedList.size());
+
+        for (Media media : current)
+            if (!dropped.contains(media.getMediaId()))
+                kept.add(media);
+
+        Media last = current.isEmpty() ? null : current.get(current.size() - 1);
+        List<Media> merged = new ArrayList<>(kept.size() + changedList.size());
+        int i = 0, j = 0;
+
+        //Both lists are sorted in the same order, so they are merged in one pass
+        while (i < kept.size() || j < changedList.size()) {
+            if (j == changedList.size()) {
+                merged.add(kept.get(i++));
+                continue;
+            }
+
+            Media candidate = changedList.get(j);
+
+            if (i < kept.size() && compare(kept.get(i), candidate) <= 0) {
+                merged.add(kept.get(i++));
+                continue;
+            }
+
+            j++;
+
+            if (complete || last == null || compare(candidate, last) <= 0)
+                merged.add(candidate);
+        }
+
+        return merged;
+    }
+
+    /**
+     * Compares media-files in the order of the media list: newer first.
+     */
+    public static int compare(@NonNull Media a, @NonNull Media b) {
+        if (a.getDateModified() != b.getDateModified())
+            return a.getDateModified() > b.getDateModified() ? -1 : 1;
+
+        return Long.compare(b.getMediaId(), a.getMediaId());
+    }
+}
@@ -0,0 +1,241 @@
+package com.naloaty.syncshare.media;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.naloaty.syncshare.database.SSDatabase;
+import com.naloaty.syncshare.database.media.MediaListItem;
+import com.naloaty.syncshare.database.media.MediaListItemDao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * This class keeps remote media lists for {@link com.naloaty.syncshare.activity.ImageViewActivity},
+ * so only a key of the list is put into the Intent instead of the serialized list.
+ * A key identifies a version of the list of a remote album: "deviceId/albumId/generation".
+ * Lists are kept in memory up to {@link #MAX_ROWS} media-files. A list is written to the database
+ * when it is opened in the viewer, so the viewer can restore it after the process has been killed.
+ * @see com.naloaty.syncshare.fragment.RemoteMediaFragment
+ * @see MediaListItem
+ */
+public class MediaListStore {
+
+    private static final String TAG = "MediaListStore";
+
+    /* Maximum number of media-files of the lists kept in memory */
+    private static final int MAX_ROWS = 50000;
+
+    /* Maximum number of lists kept in the database */
+    private static final int MAX_PERSISTED_LISTS = 8;
+
+    private static MediaListStore instance;
+
+    private final MediaListItemDao mDao;
+    private final SSDatabase mDatabase;
+
+    /* All fields below are guarded by this */
+    private final LinkedHashMap<String, List<Media>> mLists = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> mPersisted = new HashSet<>();
+    private int mRows = 0;
+
+    /* Generations are unique across process restarts, so a persisted key never points to another list */
+    private long mGeneration = System.currentTimeMillis();
+
+    public static synchronized MediaListStore getInstance(@NonNull Context context) {
+        if (instance == null)
+            instance = new MediaListStore(context.getApplicationContext());
+
+        return instance;
+    }
+
+    private MediaListStore(@NonNull Context context) {
+        mDatabase = SSDatabase.getInstance(context);
+        mDao = mDatabase.mediaListItemDao();
+    }
+
+    /**
+     * Stores a new version of the list of a remote album.
+     * Previous versions that have not been opened in the viewer are dropped.
+     * @param list Media-files of the album. It is copied.
+     * @return Key of the stored list.
+     */
+    @NonNull
+    public synchronized String put(@NonNull String deviceId, long albumId, @NonNull List<Media> list) {
+        String listKey = getListKey(deviceId, albumId);
+        Iterator<Map.Entry<String, List<Media>>> iterator = mLists.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<String, List<Media>> entry = iterator.next();
+
+            if (!mPersisted.contains(entry.getKey()) && getListKey(entry.getKey()).equals(listKey)) {
+                mRows -= entry.getValue().size();
+                iterator.remove();
+            }
+        }
+
+        String key = listKey + "/" + (++mGeneration);
+        List<Media> copy = Collections.unmodifiableList(new ArrayList<>(list));
+
+        mLists.put(key, copy);
+        mRows += copy.size();
+        trim();
+
+        return key;
+    }
+
+    /**
+     * Writes the list to the database unless it has been written already. It is done in the background.
+     * @param key Key returned by {@link #put(String, long, List)}.
+     */
+    public void persist(@NonNull String key) {
+        List<Media> list;
+
+        synchronized (this) {
+            list = mLists.get(key);
+
+            if (list == null || !mPersisted.add(key))
+                return;
+        }
+
+        String listKey = getListKey(key);
+        long generation = getGeneration(key);
+
+        AsyncTask.SERIAL_EXECUTOR.execute(() -> {
+            List<MediaListItem> items = new ArrayList<>(list.size());
+
+            for (int i = 0; i < list.size(); i++)
+                items.add(new MediaListItem(listKey, generation, i, list.get(i)));
+
+            try {
+                mDatabase.runInTransaction(() -> {
+                    mDao.insertAll(items);
+                    mDao.deleteOldLists(MAX_PERSISTED_LISTS);
+                });
+            }
+            catch (Exception e) {
+                Log.w(TAG, "Cannot persist media list " + key + ". Reason: " + e.toString());
+            }
+        });
+    }
+
+    /**
+     * Returns the list from memory or from the database if the process has been restarted.
+     * @param key Key returned by {@link #put(String, long, List)}.
+     * @return The list as ReactiveX single object. It fails if the list is not found.
+     */
+    @NonNull
+    public Single<List<Media>> load(@NonNull String key) {
+        List<Media> list;
+
+        synchronized (this) {
+            list = mLists.get(key);
+        }
+
+        if (list != null)
+            return Single.just(list);
+
+        return Single.fromCallable(() -> {
+            List<MediaListItem> items = mDao.getList(getListKey(key), getGeneration(key));
+
+            if (items.isEmpty())
+                throw new IllegalStateException("Media list " + key + " is not found");
+
+            List<Media> loaded = new ArrayList<>(items.size());
+
+            for (MediaListItem item : items)
+                loaded.add(item.toMedia());
+
+            loaded = Collections.unmodifiableList(loaded);
+
+            synchronized (this) {
+                mLists.put(key, loaded);
+                mPersisted.add(key);
+                mRows += loaded.size();
+                trim();
+            }
+
+            return loaded;
+        }).subscribeOn(Schedulers.io());
+    }
+
+    /**
+     * Drops all lists of the remote device from memory and from the database, e.g. when it is no longer trusted.
+     * Viewers that are open keep their lists, but the lists cannot be restored after the process has been killed.
+     */
+    public void removeDevice(@NonNull String deviceId) {
+        synchronized (this) {
+            Iterator<Map.Entry<String, List<Media>>> iterator = mLists.entrySet().iterator();
+
+            while (iterator.hasNext()) {
+                Map.Entry<String, List<Media>> entry = iterator.next();
+
+                if (deviceId.equals(getDeviceId(entry.getKey()))) {
+                    mRows -= entry.getValue().size();
+                    mPersisted.remove(entry.getKey());
+                    iterator.remove();
+                }
+            }
+        }
+
+        AsyncTask.SERIAL_EXECUTOR.execute(() -> {
+            try {
+                mDao.deleteDevice(deviceId);
+            }
+            catch (Exception e) {
+                Log.w(TAG, "Cannot delete media lists of " + deviceId + ". Reason: " + e.toString());
+            }
+        });
+    }
+
+    /**
+     * @return ID of the remote device of the list or null if the key is malformed.
+     */
+    @Nullable
+    public static String getDeviceId(@NonNull String key) {
+        int albumSeparator = key.lastIndexOf('/', key.lastIndexOf('/') - 1);
+        return albumSeparator > 0 ? key.substring(0, albumSeparator) : null;
+    }
+
+    /**
+     * Evicts the least recently used lists, except the most recent one.
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, List<Media>>> iterator = mLists.entrySet().iterator();
+
+        while (mRows > MAX_ROWS && mLists.size() > 1 && iterator.hasNext()) {
+            Map.Entry<String, List<Media>> entry = iterator.next();
+
+            mRows -= entry.getValue().size();
+            mPersisted.remove(entry.getKey());
+            iterator.remove();
+        }
+    }
+
+    @NonNull
+    private static String getListKey(@NonNull String deviceId, long albumId) {
+        return deviceId + "/" + albumId;
+    }
+
+    @NonNull
+    private static String getListKey(@NonNull String key) {
+        return key.substring(0, key.lastIndexOf('/'));
+    }
+
+    private static long getGeneration(@NonNull String key) {
+        return Long.parseLong(key.substring(key.lastIndexOf('/') + 1));
+    }
+}
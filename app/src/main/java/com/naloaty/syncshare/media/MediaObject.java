@@ -10,6 +10,11 @@ import android.content.Context;
  */
 public class MediaObject {
 
+    /**
+     * Id of the media-file in the Android Media Store database.
+     */
+    private long id;
+
     /**
      * Absolute path of the media-file.
      */
@@ -30,12 +35,27 @@ public class MediaObject {
      */
     private int orientation;
 
-    MediaObject(String path, String mime, boolean isVideo, int orientation)
+    /**
+     * Date the media-file was last modified (in seconds).
+     */
+    private long dateModified;
+
+    MediaObject(long id, String path, String mime, boolean isVideo, int orientation, long dateModified)
     {
+        this.id = id;
         this.path = path;
         this.mime = mime;
         this.isVideo = isVideo;
         this.orientation = orientation;
+        this.dateModified = dateModified;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
     }
 
     public String getPath() {
@@ -69,4 +89,12 @@ public class MediaObject {
     public void setOrientation(int orientation) {
         this.orientation = orientation;
     }
+
+    public long getDateModified() {
+        return dateModified;
+    }
+
+    public void setDateModified(long dateModified) {
+        this.dateModified = dateModified;
+    }
 }
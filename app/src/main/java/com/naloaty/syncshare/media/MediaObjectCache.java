@@ -0,0 +1,271 @@
+package com.naloaty.syncshare.media;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * This class represents an in-memory cache of {@link MediaObject} keyed by media id,
+ * so serving a thumbnail or a file does not query the Android Media Store database every time.
+ * Entries are invalidated by a ContentObserver on the external files URI.
+ * The map is an open-addressing table of primitive keys with CLOCK eviction, so lookups do not allocate.
+ * @see MediaProvider#getMediaObjectById(Context, String)
+ */
+public class MediaObjectCache {
+
+    private static final String TAG = "MediaObjectCache";
+
+    /* Maximum number of cached media objects */
+    private static final int MAX_ENTRIES = 4096;
+
+    /* The table is kept at most half full, so probe sequences stay short */
+    private static final int TABLE_BITS = 13;
+    private static final int TABLE_SIZE = 1 << TABLE_BITS;
+    private static final int MASK = TABLE_SIZE - 1;
+
+    /* Media ids are positive */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static MediaObjectCache instance;
+
+    /* All fields below are guarded by this */
+    private final long[] mKeys = new long[TABLE_SIZE];
+    private final MediaObject[] mValues = new MediaObject[TABLE_SIZE];
+    private final boolean[] mReferenced = new boolean[TABLE_SIZE];
+    private int mSize = 0;
+    private int mHand = 0;
+
+    /* Incremented on every invalidation, so results of queries started before it are not cached */
+    private long mGeneration = 0;
+
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mInvalidations = 0;
+
+    public static synchronized MediaObjectCache getInstance(@NonNull Context context) {
+        if (instance == null)
+            instance = new MediaObjectCache(context.getApplicationContext());
+
+        return instance;
+    }
+
+    private MediaObjectCache(@NonNull Context context) {
+        Arrays.fill(mKeys, EMPTY);
+
+        //Invalidation is cheap, so it is done right on the binder thread
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, @Nullable Uri uri) {
+                invalidate(uri);
+            }
+        };
+
+        context.getContentResolver().registerContentObserver(MediaStore.Files.getContentUri("external"), true, observer);
+    }
+
+    /**
+     * @return Cached media object or null if it has to be queried.
+     */
+    @Nullable
+    public synchronized MediaObject get(long id) {
+        int index = indexOf(id);
+
+        if (index < 0) {
+            mMisses++;
+            return null;
+        }
+
+        mHits++;
+        mReferenced[index] = true;
+        return mValues[index];
+    }
+
+    /**
+     * @return Value to be passed to {@link #put(MediaObject, long)} along with the result of a query started after this call.
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches the media object unless the Media Store has changed since the query was started.
+     * @param generation Value of {@link #getGeneration()} taken before the query.
+     */
+    public synchronized void put(@NonNull MediaObject mediaObject, long generation) {
+        if (generation != mGeneration)
+            return;
+
+        long id = mediaObject.getId();
+        int index = indexOf(id);
+
+        if (index >= 0) {
+            mValues[index] = mediaObject;
+            mReferenced[index] = true;
+            return;
+        }
+
+        if (mSize >= MAX_ENTRIES)
+            evict();
+
+        index = hash(id);
+
+        while (mKeys[index] != EMPTY)
+            index = (index + 1) & MASK;
+
+        mKeys[index] = id;
+        mValues[index] = mediaObject;
+        mReferenced[index] = false;
+        mSize++;
+    }
+
+    /**
+     * @param uri Uri of the changed media-file or null if anything may have changed.
+     */
+    private synchronized void invalidate(@Nullable Uri uri) {
+        mGeneration++;
+        mInvalidations++;
+
+        long id = -1;
+
+        if (uri != null) {
+            try {
+                id = ContentUris.parseId(uri);
+            }
+            catch (Exception ignored) {
+            }
+        }
+
+        if (id < 0) {
+            Arrays.fill(mKeys, EMPTY);
+            Arrays.fill(mValues, null);
+            Arrays.fill(mReferenced, false);
+            mSize = 0;
+            return;
+        }
+
+        int index = indexOf(id);
+
+        if (index >= 0)
+            removeAt(index);
+    }
+
+    private int indexOf(long id) {
+        int index = hash(id);
+
+        while (mKeys[index] != EMPTY) {
+            if (mKeys[index] == id)
+                return index;
+
+            index = (index + 1) & MASK;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Removes an entry that has not been used since the hand passed it last time.
+     */
+    private void evict() {
+        while (true) {
+            mHand = (mHand + 1) & MASK;
+
+            if (mKeys[mHand] == EMPTY)
+                continue;
+
+            if (mReferenced[mHand]) {
+                mReferenced[mHand] = false;
+                continue;
+            }
+
+            removeAt(mHand);
+            return;
+        }
+    }
+
+    /**
+     * Removes the entry and shifts the following entries of the probe sequence back, so lookups do not stop early.
+     */
+    private void removeAt(int index) {
+        clearAt(index);
+        mSize--;
+
+        int next = index;
+
+        while (true) {
+            next = (next + 1) & MASK;
+
+            if (mKeys[next] == EMPTY)
+                return;
+
+            int home = hash(mKeys[next]);
+
+            //The entry stays if its home slot lies cyclically in (index, next]
+            boolean stays = index <= next ? (index < home && home <= next) : (index < home || home <= next);
+
+            if (stays)
+                continue;
+
+            mKeys[index] = mKeys[next];
+            mValues[index] = mValues[next];
+            mReferenced[index] = mReferenced[next];
+            clearAt(next);
+            index = next;
+        }
+    }
+
+    private void clearAt(int index) {
+        mKeys[index] = EMPTY;
+        mValues[index] = null;
+        mReferenced[index] = false;
+    }
+
+    private static int hash(long id) {
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> (64 - TABLE_BITS));
+    }
+
+    /**
+     * @return Snapshot of the statistics. It is serialized with Gson.
+     */
+    @NonNull
+    public synchronized Snapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        Snapshot s = getSnapshot();
+
+        return String.format("%s{size=%d, hits=%d, misses=%d, hitRatio=%.2f, invalidations=%d}",
+                TAG, s.size, s.hits, s.misses, s.hitRatio, s.invalidations);
+    }
+
+    public static class Snapshot {
+
+        private final int size;
+        private final long hits;
+        private final long misses;
+        private final double hitRatio;
+        private final long invalidations;
+
+        private Snapshot(@NonNull MediaObjectCache cache) {
+            size = cache.mSize;
+            hits = cache.mHits;
+            misses = cache.mMisses;
+            hitRatio = hits + misses > 0 ? (double) hits / (hits + misses) : 0;
+            invalidations = cache.mInvalidations;
+        }
+    }
+}
@@ -8,16 +8,22 @@ import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
 import android.media.ThumbnailUtils;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
 import android.provider.MediaStore;
 import android.text.TextUtils;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.naloaty.syncshare.R;
 import com.naloaty.syncshare.database.media.Album;
-import com.naloaty.syncshare.database.media.AlbumRepository;
 import com.naloaty.syncshare.util.PermissionHelper;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -28,6 +34,15 @@ public class MediaProvider {
 
     private static final String TAG = "MediaProvider";
 
+    /* SQLite does not allow more than 999 arguments in a query */
+    private static final int MAX_ALBUMS_PER_QUERY = 500;
+
+    /* Shorter side of MINI_KIND thumbnails */
+    private static final int MINI_KIND_SIZE = 384;
+
+    /* Longer side of decoded thumbnails is limited, so panoramas do not take too much memory */
+    private static final int MAX_DECODED_SIDE = 4096;
+
     /**
      * TODO: add ability to select sorting parameters
      * Returns a list of albums on the local device.
@@ -35,6 +50,31 @@ public class MediaProvider {
      * @return A list of albums on the local device.
      */
     public static List<Album> getAlbums(Context context) {
+        return queryAlbums(context, null);
+    }
+
+    /**
+     * Returns a list of the required albums on the local device.
+     * Only media files of these albums are aggregated, so it is much cheaper than {@link #getAlbums(Context)}.
+     * @param context The Context in which this request should be executed.
+     * @param albumIds Ids of the albums in the Android Media Store database.
+     * @return A list of those albums that exist.
+     */
+    public static List<Album> getAlbums(Context context, Collection<Long> albumIds) {
+        List<Album> albumsList = new ArrayList<>();
+        List<Long> ids = new ArrayList<>(albumIds);
+
+        //SQLite limits the number of arguments of a query
+        for (int i = 0; i < ids.size(); i += MAX_ALBUMS_PER_QUERY)
+            albumsList.addAll(queryAlbums(context, ids.subList(i, Math.min(ids.size(), i + MAX_ALBUMS_PER_QUERY))));
+
+        return albumsList;
+    }
+
+    /**
+     * @param albumIds Ids of the albums to aggregate or null for all albums.
+     */
+    private static List<Album> queryAlbums(Context context, @Nullable List<Long> albumIds) {
         if (!PermissionHelper.checkRequiredPermissions(context))
             return new ArrayList<>();
 
@@ -46,32 +86,39 @@ public class MediaProvider {
         if (!ascending)
             sort += " DESC ";
 
+        String filter = "";
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE));
+        args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO));
+
+        if (albumIds != null) {
+            filter = String.format(" and %s in (%s)",
+                    MediaStore.Files.FileColumns.PARENT,
+                    TextUtils.join(",", Collections.nCopies(albumIds.size(), "?")));
+
+            for (Long albumId : albumIds)
+                args.add(String.valueOf(albumId));
+        }
+
         String selection =
-                String.format("%s=? or %s=?) group by (%s",
+                String.format("(%s=? or %s=?)%s) group by (%s",
                         MediaStore.Files.FileColumns.MEDIA_TYPE,
                         MediaStore.Files.FileColumns.MEDIA_TYPE,
+                        filter,
                         MediaStore.Files.FileColumns.PARENT);
 
-        Object[] args =
-        {
-                MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE,
-                MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO
-        };
-
-        String[] argsStr = new String[args.length];
-
-        for (int i = 0; i < args.length; i++)
-            argsStr[i] = String.valueOf(args[i]);
+        String[] argsStr = args.toArray(new String[0]);
 
         ContentResolver contentResolver = context.getContentResolver();
 
         Cursor cursor = contentResolver.query(uri, projection, selection, argsStr, sort);
         ArrayList<Album> albumsList = new ArrayList<>();
 
-        if (cursor != null && cursor.getCount() > 0) {
-            while (cursor.moveToNext())
-                albumsList.add(new Album(cursor, false));
-        }
+        if (cursor == null)
+            return albumsList;
+
+        while (cursor.moveToNext())
+            albumsList.add(new Album(cursor, false));
 
         cursor.close();
         return albumsList;
@@ -79,6 +126,7 @@ public class MediaProvider {
 
     /**
      * Returns a list of those albums on the local device that the user has marked as shared.
+     * The list is taken from {@link SharedAlbumIndex}, so it does not query the Android Media Store database.
      * @param context The Context in which this request should be executed.
      * @return A list of shared albums on the local device.
      */
@@ -86,65 +134,7 @@ public class MediaProvider {
         if (!PermissionHelper.checkRequiredPermissions(context))
             return new ArrayList<>();
 
-        AlbumRepository shared = new AlbumRepository(context);
-
-        List<Album> dbAlbums = shared.getAllAlbumsList();
-        List<Album> actualAlbums = getAlbums(context);
-
-        /* Here we check if album exists and access to it is granted */
-        List<Album> sharedAlbums = new ArrayList<>();
-
-        for (Album dbAlbum: dbAlbums) {
-            if (!dbAlbum.isAccessAllowed())
-                continue;
-
-            boolean isFound = false;
-
-            for (Album actualAlbum: actualAlbums) {
-                boolean exists = dbAlbum.getAlbumId() == actualAlbum.getAlbumId() &&
-                                 TextUtils.equals(dbAlbum.getPath(), actualAlbum.getPath());
-                if (exists)
-                {
-                    isFound = true;
-                    sharedAlbums.add(actualAlbum);
-                    break;
-                }
-            }
-
-            /* clear ghost albums */
-            if (!isFound)
-                shared.delete(dbAlbum);
-        }
-
-        return sharedAlbums;
-
-    }
-
-    /**
-     * Deletes those shared albums from the database that no longer exist.
-     * @param context The Context in which this operation should be executed.
-     */
-    public static void clearGhostAlbums(Context context) throws Exception {
-        if (!PermissionHelper.checkRequiredPermissions(context))
-            return;
-
-        AlbumRepository shared = new AlbumRepository(context);
-
-        List<Album> dbAlbums = shared.getAllAlbumsList();
-        List<Album> actualAlbums = getAlbums(context);
-
-
-        List<Album> sharedAlbums = new ArrayList<>();
-
-        for (Album dbAlbum: dbAlbums) {
-            for (Album actualAlbum: actualAlbums) {
-                boolean exists = dbAlbum.getAlbumId() == actualAlbum.getAlbumId() &&
-                        TextUtils.equals(dbAlbum.getPath(), actualAlbum.getPath());
-
-                if (!exists)
-                    shared.delete(dbAlbum);
-            }
-        }
+        return SharedAlbumIndex.getInstance(context).getAlbums();
     }
 
     /**
@@ -170,62 +160,184 @@ public class MediaProvider {
      * @return A list of media files.
      */
     public static List<Media> getMediaFromMediaStore(Context context, String albumId) {
+        Cursor cursor = queryMedia(context, albumId, null, 0);
+        List<Media> mediaList = new ArrayList<>();
+
+        if (cursor == null)
+            return mediaList;
+
+        while (cursor.moveToNext())
+            mediaList.add(new Media(cursor));
+
+        cursor.close();
+
+        return mediaList;
+    }
+
+    /**
+     * Queries a page of media files from the required album.
+     * Media files are sorted by modification date and id (both descending), so pages stay stable
+     * while new media-files are added to the album.
+     * @param context The Context in which this request should be executed.
+     * @param albumId Id of the album in the Android Media Store database.
+     * @param after Position after which the page starts or null for the first page.
+     * @param limit Maximum number of rows or 0 for the whole album.
+     * @return Cursor with the {@link Media#getProjection()} columns or null if it cannot be queried.
+     * The caller is responsible for closing it.
+     */
+    @Nullable
+    public static Cursor queryMedia(Context context, String albumId, @Nullable PageCursor after, int limit) {
         if (!PermissionHelper.checkRequiredPermissions(context))
-            return new ArrayList<>();
+            return null;
 
         Uri      uri        = MediaStore.Files.getContentUri("external");
         String[] projection = Media.getProjection();
-        String   sort       = MediaStore.MediaColumns.DATE_MODIFIED;
-        boolean  ascending  = false;
-
-        if (!ascending)
-            sort += " DESC ";
+        String   sort       = String.format("%s DESC, %s DESC",
+                MediaStore.MediaColumns.DATE_MODIFIED,
+                MediaStore.Files.FileColumns._ID);
 
         String selection =
-                String.format("%s=? or %s=?) and (%s=?",
+                String.format("(%s=? or %s=?) and %s=?",
                         MediaStore.Files.FileColumns.MEDIA_TYPE,
                         MediaStore.Files.FileColumns.MEDIA_TYPE,
                         MediaStore.Files.FileColumns.PARENT);
 
-        Object[] args =
-                {
-                        MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE,
-                        MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO,
-                        albumId
-                };
-
-        String[] argsStr = new String[args.length];
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE));
+        args.add(String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO));
+        args.add(albumId);
 
-        for (int i = 0; i < args.length; i++)
-            argsStr[i] = String.valueOf(args[i]);
+        if (after != null) {
+            selection += String.format(" and (%s<? or (%s=? and %s<?))",
+                    MediaStore.MediaColumns.DATE_MODIFIED,
+                    MediaStore.MediaColumns.DATE_MODIFIED,
+                    MediaStore.Files.FileColumns._ID);
 
+            args.add(String.valueOf(after.getDateModified()));
+            args.add(String.valueOf(after.getDateModified()));
+            args.add(String.valueOf(after.getMediaId()));
+        }
 
+        String[] argsStr = args.toArray(new String[0]);
         ContentResolver contentResolver = context.getContentResolver();
 
-        Cursor cursor = contentResolver.query(uri, projection, selection, argsStr, sort);
-        List<Media> mediaList = new ArrayList<>();
+        //Android 11 rejects LIMIT in the sort order, but accepts it as a query argument
+        if (limit > 0 && Build.VERSION.SDK_INT >= 30) {
+            Bundle queryArgs = new Bundle();
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+            queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, argsStr);
+            queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sort);
+            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
 
-        if (cursor != null && cursor.getCount() > 0) {
-            while (cursor.moveToNext())
-                mediaList.add(new Media(cursor));
+            return contentResolver.query(uri, projection, queryArgs, null);
         }
 
-        cursor.close();
+        if (limit > 0)
+            sort += " LIMIT " + limit;
 
-        return mediaList;
+        return contentResolver.query(uri, projection, selection, argsStr, sort);
+    }
+
+
+    /**
+     * Queries media files of the required album that were added or modified after the given time.
+     * @param context The Context in which this request should be executed.
+     * @param albumId Id of the album in the Android Media Store database.
+     * @param since Time in seconds (see {@link SyncToken#getTimestamp()}).
+     * @return Cursor with the {@link Media#getProjection()} columns or null if it cannot be queried.
+     * The caller is responsible for closing it.
+     */
+    @Nullable
+    public static Cursor queryMediaChanges(Context context, String albumId, long since) {
+        if (!PermissionHelper.checkRequiredPermissions(context))
+            return null;
+
+        Uri      uri        = MediaStore.Files.getContentUri("external");
+        String[] projection = Media.getProjection();
+        String   sort       = String.format("%s DESC, %s DESC",
+                MediaStore.MediaColumns.DATE_MODIFIED,
+                MediaStore.Files.FileColumns._ID);
+
+        //Copied files keep their modification date, so the date of adding is checked too
+        String selection =
+                String.format("(%s=? or %s=?) and %s=? and (%s>=? or %s>=?)",
+                        MediaStore.Files.FileColumns.MEDIA_TYPE,
+                        MediaStore.Files.FileColumns.MEDIA_TYPE,
+                        MediaStore.Files.FileColumns.PARENT,
+                        MediaStore.MediaColumns.DATE_MODIFIED,
+                        MediaStore.MediaColumns.DATE_ADDED);
+
+        //DATE_MODIFIED has one-second precision, so the boundary second is included
+        String[] args = {
+                String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE),
+                String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO),
+                albumId,
+                String.valueOf(since - 1),
+                String.valueOf(since - 1)
+        };
+
+        return context.getContentResolver().query(uri, projection, selection, args, sort);
     }
 
+    /**
+     * Returns the most recent media files of the required album.
+     * @param context The Context in which this request should be executed.
+     * @param albumId Id of the album in the Android Media Store database.
+     * @param limit Maximum number of media files.
+     * @return A list of media files sorted by modification date (descending).
+     */
+    public static List<MediaObject> getRecentMediaObjects(Context context, String albumId, int limit) {
+        List<MediaObject> mediaObjects = new ArrayList<>();
+
+        try (Cursor cursor = queryMedia(context, albumId, null, limit)) {
+            if (cursor == null)
+                return mediaObjects;
+
+            /* See column index in Media#getProjection() */
+            while (cursor.moveToNext())
+                mediaObjects.add(new MediaObject(cursor.getLong(0), cursor.getString(1), cursor.getString(3),
+                        cursor.getInt(6) == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO, cursor.getInt(5), cursor.getLong(7)));
+        }
+
+        return mediaObjects;
+    }
+
+    /**
+     * Returns the number of media files in the required album.
+     * @param context The Context in which this request should be executed.
+     * @param albumId Id of the album in the Android Media Store database.
+     * @return Number of media files or -1 if it cannot be queried.
+     */
+    public static int getMediaCount(Context context, String albumId) {
+        if (!PermissionHelper.checkRequiredPermissions(context))
+            return -1;
+
+        String[] projection = { MediaStore.Files.FileColumns._ID };
+        String selection =
+                String.format("(%s=? or %s=?) and %s=?",
+                        MediaStore.Files.FileColumns.MEDIA_TYPE,
+                        MediaStore.Files.FileColumns.MEDIA_TYPE,
+                        MediaStore.Files.FileColumns.PARENT);
+
+        String[] args = {
+                String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_IMAGE),
+                String.valueOf(MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO),
+                albumId
+        };
+
+        try (Cursor cursor = context.getContentResolver().query(MediaStore.Files.getContentUri("external"), projection, selection, args, null)) {
+            return cursor != null ? cursor.getCount() : -1;
+        }
+    }
 
     /**
      * Converts media file name to its absolute path.
+     * Results are taken from {@link MediaObjectCache} when possible.
      * @param context The Context in which this operation should be executed.
      * @param filename Filename of the media-file in StreamShare format (see {@link Media}).
      * @see MediaObject
      */
     public static MediaObject getMediaObjectById(Context context, String filename) throws Exception{
-        if (!PermissionHelper.checkRequiredPermissions(context))
-            throw new Exception("Not found");
-
         /*
          * filename has following structure:
          * 12345.jpg
@@ -238,6 +350,26 @@ public class MediaProvider {
         if (dot >= 0)
             filename = filename.substring(0, dot);
 
+        long id;
+
+        try {
+            id = Long.parseLong(filename);
+        }
+        catch (NumberFormatException e) {
+            throw new Exception("Not found");
+        }
+
+        MediaObjectCache cache = MediaObjectCache.getInstance(context);
+        MediaObject cached = cache.get(id);
+
+        if (cached != null)
+            return cached;
+
+        if (!PermissionHelper.checkRequiredPermissions(context))
+            throw new Exception("Not found");
+
+        //Taken before the query, so a change made during it is not cached
+        long generation = cache.getGeneration();
         Uri uri = MediaStore.Files.getContentUri("external");
 
         if(uri != null)
@@ -246,7 +378,8 @@ public class MediaProvider {
                     MediaStore.Files.FileColumns.DATA,
                     MediaStore.Files.FileColumns.MIME_TYPE,
                     MediaStore.Files.FileColumns.MEDIA_TYPE,
-                    MediaStore.Images.ImageColumns.ORIENTATION};
+                    MediaStore.Images.ImageColumns.ORIENTATION,
+                    MediaStore.Files.FileColumns.DATE_MODIFIED};
 
             String selection = MediaStore.Files.FileColumns._ID + "=?";
             String[] args = { filename };
@@ -257,6 +390,7 @@ public class MediaProvider {
             String mime = null;
             int media_type = 0;
             int orientation = -1;
+            long dateModified = 0;
 
             if(cursor.moveToFirst())
             {
@@ -264,12 +398,18 @@ public class MediaProvider {
                 mime = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MIME_TYPE));
                 media_type = cursor.getInt(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.MEDIA_TYPE));
                 orientation = cursor.getInt(cursor.getColumnIndexOrThrow( MediaStore.Images.ImageColumns.ORIENTATION));
+                dateModified = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns.DATE_MODIFIED));
             }
 
             cursor.close();
 
-            if(path != null)
-                return new MediaObject(path, mime, media_type == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO, orientation);
+            if(path != null) {
+                MediaObject mediaObject = new MediaObject(id, path, mime,
+                        media_type == MediaStore.Files.FileColumns.MEDIA_TYPE_VIDEO, orientation, dateModified);
+
+                cache.put(mediaObject, generation);
+                return mediaObject;
+            }
         }
 
         throw new Exception("Not found");
@@ -277,12 +417,49 @@ public class MediaProvider {
 
     /**
      * Returns a correctly oriented thumbnail of a media-file.
+     * Images are decoded with {@link BitmapFactory.Options#inSampleSize}, so the full-resolution image is never decoded.
+     * @param context The Context in which this operation should be executed.
+     * @param mediaObject Media-file in form of {@link MediaObject}.
+     * @param size Required length of the shorter side in pixels. Thumbnails are never upscaled.
+     * @return Thumbnail bitmap or null if it cannot be created.
+     */
+    @Nullable
+    public static Bitmap getCorrectlyOrientedThumbnail(Context context, MediaObject mediaObject, int size) {
+        return getCorrectlyOrientedBitmap(context, mediaObject, size, false);
+    }
+
+    /**
+     * Returns a correctly oriented image of a media-file that fits the screen.
      * @param context The Context in which this operation should be executed.
      * @param mediaObject Media-file in form of {@link MediaObject}.
-     * @param nativeSize True if thumbnail should not be compressed and resized.
-     * @return Thumbnail bitmap.
+     * @param maxDimension Maximum length of the longer side in pixels. Images are never upscaled.
+     * @return Image bitmap or null if it cannot be created.
+     */
+    @Nullable
+    public static Bitmap getDisplayImage(Context context, MediaObject mediaObject, int maxDimension) {
+        return getCorrectlyOrientedBitmap(context, mediaObject, maxDimension, true);
+    }
+
+    /**
+     * @return True if the media-file is an image whose both sides are not longer than the max dimension.
      */
-    public static Bitmap getCorrectlyOrientedThumbnail(Context context, MediaObject mediaObject, boolean nativeSize) {
+    public static boolean fitsInside(MediaObject mediaObject, int maxDimension) {
+        if (mediaObject.isVideo())
+            return false;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(mediaObject.getPath(), options);
+
+        return options.outWidth > 0 && options.outHeight > 0
+                && options.outWidth <= maxDimension && options.outHeight <= maxDimension;
+    }
+
+    /**
+     * @param size Required length of the shorter side or, if fitInside is true, of the longer side.
+     */
+    @Nullable
+    private static Bitmap getCorrectlyOrientedBitmap(Context context, MediaObject mediaObject, int size, boolean fitInside) {
         if (!PermissionHelper.checkRequiredPermissions(context)){
             Log.d(TAG, "Permissions not granted");
 
@@ -292,17 +469,17 @@ public class MediaProvider {
 
         Bitmap srcBitmap;
 
-        int size;
-
-        if (nativeSize)
-            size = MediaStore.Images.Thumbnails.FULL_SCREEN_KIND;
+        if (mediaObject.isVideo()) {
+            int kind = size > MINI_KIND_SIZE ? MediaStore.Images.Thumbnails.FULL_SCREEN_KIND : MediaStore.Images.Thumbnails.MINI_KIND;
+            srcBitmap = ThumbnailUtils.createVideoThumbnail(mediaObject.getPath(), kind);
+        }
         else
-            size = MediaStore.Images.Thumbnails.MINI_KIND;
+            srcBitmap = decodeSampledBitmap(mediaObject.getPath(), size, fitInside);
 
-        if (mediaObject.isVideo())
-            srcBitmap = ThumbnailUtils.createVideoThumbnail(mediaObject.getPath(), size);
-        else
-            srcBitmap = ThumbnailUtils.createImageThumbnail(mediaObject.getPath(), size);
+        if (srcBitmap == null)
+            return null;
+
+        srcBitmap = scaleToSize(srcBitmap, size, fitInside);
 
         int orientation = mediaObject.getOrientation();
 
@@ -311,23 +488,77 @@ public class MediaProvider {
          * have to do a rotation.
          */
         if (orientation > 0) {
-            int outWidth = 250;
-            int outHeight = 250;
-
-            if (nativeSize) {
-                outWidth = srcBitmap.getWidth();
-                outHeight = srcBitmap.getHeight();
-            }
-
             Matrix matrix = new Matrix();
             matrix.postRotate(orientation);
 
-            srcBitmap = Bitmap.createBitmap(srcBitmap, 0, 0, srcBitmap.getWidth(),
+            Bitmap rotated = Bitmap.createBitmap(srcBitmap, 0, 0, srcBitmap.getWidth(),
                     srcBitmap.getHeight(), matrix, true);
 
-            srcBitmap = ThumbnailUtils.extractThumbnail(srcBitmap, outWidth, outHeight);
+            if (rotated != srcBitmap)
+                srcBitmap.recycle();
+
+            srcBitmap = rotated;
         }
 
         return srcBitmap;
     }
+
+    /**
+     * Decodes the image with the largest power-of-two subsampling that keeps the measured side not less than the size.
+     */
+    @Nullable
+    private static Bitmap decodeSampledBitmap(String path, int size, boolean fitInside) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            return null;
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, size, fitInside);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    /**
+     * @return Power of two by which the image is subsampled while it is decoded.
+     */
+    private static int calculateInSampleSize(int width, int height, int size, boolean fitInside) {
+        int longer = Math.max(width, height);
+        int side = fitInside ? longer : Math.min(width, height);
+        int sampleSize = 1;
+
+        while (side / (sampleSize * 2) >= size)
+            sampleSize *= 2;
+
+        //Panoramas are bounded by the longer side too
+        while (longer / sampleSize > MAX_DECODED_SIDE)
+            sampleSize *= 2;
+
+        return sampleSize;
+    }
+
+    /**
+     * Scales the bitmap down, so its measured side is equal to the size.
+     */
+    @NonNull
+    private static Bitmap scaleToSize(@NonNull Bitmap bitmap, int size, boolean fitInside) {
+        int side = fitInside
+                ? Math.max(bitmap.getWidth(), bitmap.getHeight())
+                : Math.min(bitmap.getWidth(), bitmap.getHeight());
+
+        if (side <= size)
+            return bitmap;
+
+        float scale = (float) size / side;
+        int width = Math.max(1, Math.round(bitmap.getWidth() * scale));
+        int height = Math.max(1, Math.round(bitmap.getHeight() * scale));
+
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+
+        if (scaled != bitmap)
+            bitmap.recycle();
+
+        return scaled;
+    }
 }
@@ -0,0 +1,74 @@
+package com.naloaty.syncshare.media;
+
+import android.database.Cursor;
+import android.provider.MediaStore;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * This class represents a position in a media list sorted by modification date and id (both descending).
+ * It is sent to clients as an opaque string and used for keyset pagination of the media list.
+ * @see MediaProvider#queryMedia(android.content.Context, String, PageCursor, int)
+ */
+public class PageCursor {
+
+    private static final char SEPARATOR = '_';
+
+    private final long dateModified;
+    private final long mediaId;
+
+    public PageCursor(long dateModified, long mediaId) {
+        this.dateModified = dateModified;
+        this.mediaId = mediaId;
+    }
+
+    /**
+     * Creates a cursor that points at the current row.
+     * @param cursor Cursor created with {@link Media#getProjection()}.
+     */
+    @NonNull
+    public static PageCursor fromCursor(@NonNull Cursor cursor) {
+        return new PageCursor(
+                cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.DATE_MODIFIED)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Files.FileColumns._ID)));
+    }
+
+    /**
+     * Parses a cursor received from a client.
+     * @return Cursor or null if the value is malformed.
+     */
+    @Nullable
+    public static PageCursor parse(@Nullable String value) {
+        if (value == null)
+            return null;
+
+        int separator = value.indexOf(SEPARATOR);
+
+        if (separator <= 0)
+            return null;
+
+        try {
+            return new PageCursor(Long.parseLong(value.substring(0, separator)), Long.parseLong(value.substring(separator + 1)));
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getDateModified() {
+        return dateModified;
+    }
+
+    public long getMediaId() {
+        return mediaId;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d%c%d", dateModified, SEPARATOR, mediaId);
+    }
+}
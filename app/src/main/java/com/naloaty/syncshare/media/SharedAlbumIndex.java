@@ -0,0 +1,409 @@
+package com.naloaty.syncshare.media;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.naloaty.syncshare.database.SSDatabase;
+import com.naloaty.syncshare.database.media.Album;
+import com.naloaty.syncshare.database.media.AlbumDao;
+import com.naloaty.syncshare.util.PermissionHelper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class represents a maintained index of shared albums, so the albums list is served from memory.
+ * Only the albums marked as shared are aggregated, and only those of them that have changed are queried again.
+ * The index is updated on its own thread when the Android Media Store database or the shared albums have changed.
+ * Shared albums that no longer exist are deleted from the database by a delayed background job.
+ * @see com.naloaty.syncshare.service.MediaServer
+ */
+public class SharedAlbumIndex {
+
+    private static final String TAG = "SharedAlbumIndex";
+
+    /* Media Store notifications come in bursts (e.g. a camera burst or a copied folder) */
+    private static final long UPDATE_DELAY = 500; //milliseconds
+
+    /* Albums may be missing for a while, e.g. while the storage is being mounted */
+    private static final long GHOST_CLEANUP_DELAY = 60 * 1000; //milliseconds
+
+    /* How long the first request waits for the index to be built */
+    private static final long LOAD_TIMEOUT = 5000; //milliseconds
+
+    private static SharedAlbumIndex instance;
+
+    /**
+     * Called on the index thread when the list of shared albums has changed.
+     */
+    public interface Listener {
+        void onSharedAlbumsChanged(@NonNull List<Album> albums);
+    }
+
+    private final Context mContext;
+    private final AlbumDao mAlbumDao;
+    private final MediaChangeTracker mChangeTracker;
+    private final Handler mHandler;
+    private final CountDownLatch mLoaded = new CountDownLatch(1);
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private final Runnable mUpdateTask = this::update;
+    private final Runnable mGhostCleanupTask = this::clearGhostAlbums;
+
+    /* Shared albums sorted by the modification date of their last media-file */
+    private volatile List<Album> mAlbums = Collections.emptyList();
+
+    /* All fields below are accessed on the index thread only */
+    private final Map<Long, Album> mShared = new HashMap<>();
+    private final Map<Long, Album> mAggregated = new HashMap<>();
+    private final Set<Long> mDirtyAlbums = new HashSet<>();
+    private boolean mSharedDirty = true;
+    private boolean mAllDirty = true;
+    private boolean mGhostCleanupScheduled = false;
+
+    /* Statistics, guarded by this */
+    private long mUpdates = 0;
+    private long mFullUpdates = 0;
+    private long mGhostsRemoved = 0;
+
+    public static synchronized SharedAlbumIndex getInstance(@NonNull Context context) {
+        if (instance == null)
+            instance = new SharedAlbumIndex(context.getApplicationContext());
+
+        return instance;
+    }
+
+    private SharedAlbumIndex(@NonNull Context context) {
+        mContext = context;
+        mAlbumDao = SSDatabase.getInstance(context).albumDao();
+        mChangeTracker = MediaChangeTracker.getInstance(context);
+
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        ContentObserver observer = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, @Nullable Uri uri) {
+                onMediaChanged(uri);
+            }
+        };
+
+        context.getContentResolver().registerContentObserver(MediaStore.Files.getContentUri("external"), true, observer);
+        mHandler.post(mUpdateTask);
+    }
+
+    /**
+     * Waits for the index to be built if this is the first request.
+     * @return Unmodifiable list of shared albums.
+     */
+    @NonNull
+    public List<Album> getAlbums() {
+        try {
+            if (!mLoaded.await(LOAD_TIMEOUT, TimeUnit.MILLISECONDS))
+                Log.w(TAG, "Index has not been built in time");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return mAlbums;
+    }
+
+    public void addListener(@NonNull Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(@NonNull Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Should be called after the shared albums have been changed in the database.
+     * @see com.naloaty.syncshare.database.media.AlbumRepository
+     */
+    public void notifySharedAlbumsChanged() {
+        mHandler.post(() -> {
+            mSharedDirty = true;
+            scheduleUpdate(0);
+        });
+    }
+
+    private void onMediaChanged(@Nullable Uri uri) {
+        long mediaId = -1;
+
+        if (uri != null) {
+            try {
+                mediaId = ContentUris.parseId(uri);
+            }
+            catch (Exception ignored) {
+            }
+        }
+
+        Long albumId = mediaId >= 0 ? getParent(mediaId) : null;
+
+        //Deleted media-files cannot be attributed, and a media-file outside of shared albums
+        //might have been moved out of one of them, so all shared albums are aggregated again
+        if (albumId != null && mShared.containsKey(albumId))
+            mDirtyAlbums.add(albumId);
+        else
+            mAllDirty = true;
+
+        scheduleUpdate(UPDATE_DELAY);
+    }
+
+    private void scheduleUpdate(long delay) {
+        mHandler.removeCallbacks(mUpdateTask);
+        mHandler.postDelayed(mUpdateTask, delay);
+    }
+
+    private void update() {
+        try {
+            if (!PermissionHelper.checkRequiredPermissions(mContext)) {
+                publish(new ArrayList<>());
+                return;
+            }
+
+            Set<Long> dirty = new HashSet<>(mDirtyAlbums);
+            boolean full = mAllDirty;
+
+            mDirtyAlbums.clear();
+            mAllDirty = false;
+
+            if (mSharedDirty) {
+                mSharedDirty = false;
+                Map<Long, Album> shared = loadSharedAlbums();
+
+                //Newly shared albums have not been aggregated yet
+                for (Long albumId : shared.keySet())
+                    if (!mShared.containsKey(albumId))
+                        dirty.add(albumId);
+
+                mShared.clear();
+                mShared.putAll(shared);
+                mAggregated.keySet().retainAll(shared.keySet());
+            }
+
+            if (full)
+                dirty.addAll(mShared.keySet());
+
+            dirty.retainAll(mShared.keySet());
+
+            if (!dirty.isEmpty()) {
+                for (Long albumId : dirty)
+                    mAggregated.remove(albumId);
+
+                for (Album album : MediaProvider.getAlbums(mContext, dirty))
+                    mAggregated.put(album.getAlbumId(), album);
+            }
+
+            synchronized (this) {
+                mUpdates++;
+
+                if (full)
+                    mFullUpdates++;
+            }
+
+            List<Album> albums = new ArrayList<>();
+            boolean hasGhosts = false;
+
+            for (Album shared : mShared.values()) {
+                Album album = mAggregated.get(shared.getAlbumId());
+
+                if (album != null && TextUtils.equals(shared.getPath(), album.getPath()))
+                    albums.add(album);
+                else
+                    hasGhosts = true;
+            }
+
+            Collections.sort(albums, (a, b) -> Long.compare(b.getLastModified(), a.getLastModified()));
+            publish(albums);
+
+            if (hasGhosts && !mGhostCleanupScheduled) {
+                mGhostCleanupScheduled = true;
+                mHandler.postDelayed(mGhostCleanupTask, GHOST_CLEANUP_DELAY);
+            }
+        }
+        catch (Exception e) {
+            Log.e(TAG, "Cannot update index: " + e.getMessage());
+        }
+        finally {
+            mLoaded.countDown();
+        }
+    }
+
+    /**
+     * Replaces the list and lets clients know about it if it has changed.
+     */
+    private void publish(@NonNull List<Album> albums) {
+        if (isSame(mAlbums, albums))
+            return;
+
+        mAlbums = Collections.unmodifiableList(albums);
+        mChangeTracker.notifySharedAlbumsChanged();
+
+        for (Listener listener : mListeners)
+            listener.onSharedAlbumsChanged(mAlbums);
+
+        Log.d(TAG, String.format("Index has been updated. Albums count is %d", albums.size()));
+    }
+
+    /**
+     * Deletes shared albums that are still missing from the database.
+     */
+    private void clearGhostAlbums() {
+        mGhostCleanupScheduled = false;
+
+        if (!PermissionHelper.checkRequiredPermissions(mContext))
+            return;
+
+        try {
+            List<Album> dbAlbums = mAlbumDao.getAllAlbumsList();
+            Set<Long> albumIds = new HashSet<>();
+
+            for (Album dbAlbum : dbAlbums)
+                albumIds.add(dbAlbum.getAlbumId());
+
+            Map<Long, Album> actualAlbums = new HashMap<>();
+
+            for (Album album : MediaProvider.getAlbums(mContext, albumIds))
+                actualAlbums.put(album.getAlbumId(), album);
+
+            int removed = 0;
+
+            for (Album dbAlbum : dbAlbums) {
+                Album actualAlbum = actualAlbums.get(dbAlbum.getAlbumId());
+
+                if (actualAlbum != null && TextUtils.equals(dbAlbum.getPath(), actualAlbum.getPath()))
+                    continue;
+
+                mAlbumDao.delete(dbAlbum);
+                removed++;
+            }
+
+            synchronized (this) {
+                mGhostsRemoved += removed;
+            }
+
+            if (removed > 0) {
+                Log.i(TAG, String.format("%d ghost albums have been removed", removed));
+
+                mSharedDirty = true;
+                scheduleUpdate(0);
+            }
+        }
+        catch (Exception e) {
+            Log.e(TAG, "Cannot clear ghost albums: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return Albums that the user has allowed access to by their ids in the Android Media Store database.
+     */
+    @NonNull
+    private Map<Long, Album> loadSharedAlbums() {
+        Map<Long, Album> shared = new HashMap<>();
+
+        for (Album dbAlbum : mAlbumDao.getAllAlbumsList())
+            if (dbAlbum.isAccessAllowed())
+                shared.put(dbAlbum.getAlbumId(), dbAlbum);
+
+        return shared;
+    }
+
+    /**
+     * @return Album id of the media-file or null if it does not exist.
+     */
+    @Nullable
+    private Long getParent(long mediaId) {
+        String[] projection = { MediaStore.Files.FileColumns.PARENT };
+        String selection = MediaStore.Files.FileColumns._ID + "=?";
+        String[] args = { String.valueOf(mediaId) };
+
+        try (Cursor cursor = mContext.getContentResolver().query(MediaStore.Files.getContentUri("external"),
+                projection, selection, args, null)) {
+            return cursor != null && cursor.moveToFirst() ? cursor.getLong(0) : null;
+        }
+        catch (Exception e) {
+            Log.w(TAG, "Cannot get album of media-file: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isSame(@NonNull List<Album> a, @NonNull List<Album> b) {
+        if (a.size() != b.size())
+            return false;
+
+        for (int i = 0; i < a.size(); i++) {
+            Album x = a.get(i);
+            Album y = b.get(i);
+
+            boolean same = x.getAlbumId() == y.getAlbumId()
+                    && x.getItemsCount() == y.getItemsCount()
+                    && x.getLastModified() == y.getLastModified()
+                    && TextUtils.equals(x.getName(), y.getName())
+                    && TextUtils.equals(x.getPath(), y.getPath())
+                    && TextUtils.equals(x.getLastItemFilename(), y.getLastItemFilename());
+
+            if (!same)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Snapshot of the statistics. It is serialized with Gson.
+     */
+    @NonNull
+    public synchronized Snapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        Snapshot s = getSnapshot();
+
+        return String.format("%s{size=%d, updates=%d, fullUpdates=%d, ghostsRemoved=%d}",
+                TAG, s.size, s.updates, s.fullUpdates, s.ghostsRemoved);
+    }
+
+    public static class Snapshot {
+
+        private final int size;
+        private final long updates;
+        private final long fullUpdates;
+        private final long ghostsRemoved;
+
+        private Snapshot(@NonNull SharedAlbumIndex index) {
+            size = index.mAlbums.size();
+            updates = index.mUpdates;
+            fullUpdates = index.mFullUpdates;
+            ghostsRemoved = index.mGhostsRemoved;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.naloaty.syncshare.media;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * This class represents the state of shared media at the moment a list was sent to a client.
+ * Clients send it back as the "since" parameter to receive only the changes made after that moment.
+ * @see MediaChangeTracker
+ */
+public class SyncToken {
+
+    private static final String SEPARATOR = "_";
+
+    /* Identifies the tracker instance that issued the token */
+    private final long epoch;
+
+    /* Change counter of the tracker */
+    private final long generation;
+
+    /* Time the token was issued (in seconds, comparable with DATE_MODIFIED) */
+    private final long timestamp;
+
+    SyncToken(long epoch, long generation, long timestamp) {
+        this.epoch = epoch;
+        this.generation = generation;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Parses a token received from a client.
+     * @return Token or null if the value is malformed.
+     */
+    @Nullable
+    public static SyncToken parse(@Nullable String value) {
+        if (value == null)
+            return null;
+
+        String[] parts = value.split(SEPARATOR);
+
+        if (parts.length != 3)
+            return null;
+
+        try {
+            return new SyncToken(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d%s%d%s%d", epoch, SEPARATOR, generation, SEPARATOR, timestamp);
+    }
+}
@@ -0,0 +1,298 @@
+package com.naloaty.syncshare.media;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a persistent cache of encoded thumbnails.
+ * Thumbnails are stored in the app cache directory and evicted in LRU order when the size limit is reached.
+ * The most recently used thumbnails are also kept in memory.
+ * Entries are keyed by media id, modification date and size class, so modified media-files never hit stale entries
+ * and every size of {@link com.naloaty.syncshare.service.ThumbnailSize} ladder is cached independently.
+ * @see com.naloaty.syncshare.service.MediaServer
+ */
+public class ThumbnailCache {
+
+    private static final String TAG = "ThumbnailCache";
+
+    private static final String CACHE_DIRECTORY = "thumbnails";
+    private static final String TEMP_SUFFIX     = ".tmp";
+
+    /* Size limits of the disk and memory tiers in bytes */
+    private static final long MAX_DISK_SIZE  = 128 * 1024 * 1024;
+    private static final int MAX_MEMORY_SIZE = 8 * 1024 * 1024;
+
+    private static ThumbnailCache instance;
+
+    private final File mDirectory;
+
+    /* Files of the disk tier in access order. Guarded by this. */
+    private final LinkedHashMap<String, Long> mDiskIndex = new LinkedHashMap<>(256, 0.75f, true);
+    private long mDiskSize = 0;
+
+    private final LruCache<String, byte[]> mMemoryCache = new LruCache<String, byte[]>(MAX_MEMORY_SIZE) {
+        @Override
+        protected int sizeOf(String key, byte[] value) {
+            return value.length;
+        }
+    };
+
+    private final AtomicLong mMemoryHits = new AtomicLong();
+    private final AtomicLong mDiskHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (instance == null)
+            instance = new ThumbnailCache(new File(context.getApplicationContext().getCacheDir(), CACHE_DIRECTORY));
+
+        return instance;
+    }
+
+    private ThumbnailCache(@NonNull File directory) {
+        mDirectory = directory;
+        loadIndex();
+    }
+
+    /**
+     * Builds a cache key of the thumbnail.
+     * @param mediaObject Media-file the thumbnail belongs to.
+     * @param sizeClass Size class of the thumbnail (e.g. "512_webp80").
+     * @return Cache key.
+     */
+    @NonNull
+    public static String getKey(@NonNull MediaObject mediaObject, @NonNull String sizeClass) {
+        return String.format(Locale.US, "%d_%d_%s", mediaObject.getId(), mediaObject.getDateModified(), sizeClass);
+    }
+
+    /**
+     * Returns the encoded thumbnail.
+     * @param key Cache key. See {@link #getKey(MediaObject, String)}.
+     * @return Encoded thumbnail or null if it is not cached.
+     */
+    @Nullable
+    public byte[] get(@NonNull String key) {
+        byte[] data = mMemoryCache.get(key);
+
+        if (data != null) {
+            //The disk tier is ordered by all accesses, otherwise the hottest thumbnails would be evicted first
+            synchronized (this) {
+                mDiskIndex.get(key);
+            }
+
+            mMemoryHits.incrementAndGet();
+            return data;
+        }
+
+        File file;
+
+        synchronized (this) {
+            if (mDiskIndex.get(key) == null) {
+                mMisses.incrementAndGet();
+                return null;
+            }
+
+            file = new File(mDirectory, key);
+        }
+
+        data = readFile(file);
+
+        if (data == null) {
+            remove(key);
+            mMisses.incrementAndGet();
+            return null;
+        }
+
+        //Keeps the LRU order across restarts
+        file.setLastModified(System.currentTimeMillis());
+
+        mMemoryCache.put(key, data);
+        mDiskHits.incrementAndGet();
+        return data;
+    }
+
+    /**
+     * Puts the encoded thumbnail into the cache.
+     * The file is written under a unique temporary name and then renamed, so readers never see a partial thumbnail
+     * and concurrent writers of the same key do not write into one file.
+     * @param key Cache key. See {@link #getKey(MediaObject, String)}.
+     * @param data Encoded thumbnail.
+     * @param offset Offset of the thumbnail in the data array.
+     * @param length Length of the thumbnail.
+     */
+    public void put(@NonNull String key, @NonNull byte[] data, int offset, int length) {
+        byte[] copy = offset == 0 && length == data.length ? data : Arrays.copyOfRange(data, offset, offset + length);
+        mMemoryCache.put(key, copy);
+
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Cannot create cache directory");
+            return;
+        }
+
+        File file = new File(mDirectory, key);
+        File temp;
+
+        try {
+            temp = File.createTempFile(key, TEMP_SUFFIX, mDirectory);
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Cannot create temporary file: " + e.getMessage());
+            return;
+        }
+
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(data, offset, length);
+            out.getFD().sync();
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Cannot write thumbnail: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Cannot commit thumbnail " + key);
+            temp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            Long previous = mDiskIndex.put(key, (long) length);
+
+            if (previous != null)
+                mDiskSize -= previous;
+
+            mDiskSize += length;
+            trimToSize();
+        }
+    }
+
+    /**
+     * Puts the encoded thumbnail into the cache.
+     * @see #put(String, byte[], int, int)
+     */
+    public void put(@NonNull String key, @NonNull byte[] data) {
+        put(key, data, 0, data.length);
+    }
+
+    /**
+     * @return True if the thumbnail is cached on disk.
+     */
+    public synchronized boolean contains(@NonNull String key) {
+        return mDiskIndex.containsKey(key);
+    }
+
+    /**
+     * Removes the thumbnail from the cache.
+     * @param key Cache key. See {@link #getKey(MediaObject, String)}.
+     */
+    public void remove(@NonNull String key) {
+        mMemoryCache.remove(key);
+
+        synchronized (this) {
+            Long size = mDiskIndex.remove(key);
+
+            if (size != null)
+                mDiskSize -= size;
+        }
+
+        new File(mDirectory, key).delete();
+    }
+
+    public long getHitCount() {
+        return mMemoryHits.get() + mDiskHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    @NonNull
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "ThumbnailCache[entries=%d, diskSize=%d, memoryHits=%d, diskHits=%d, misses=%d]",
+                mDiskIndex.size(), mDiskSize, mMemoryHits.get(), mDiskHits.get(), mMisses.get());
+    }
+
+    /**
+     * Evicts the least recently used thumbnails until the disk tier fits its limit.
+     */
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mDiskIndex.entrySet().iterator();
+
+        while (mDiskSize > MAX_DISK_SIZE && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+
+            new File(mDirectory, eldest.getKey()).delete();
+            mMemoryCache.remove(eldest.getKey());
+            mDiskSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Restores the index of the disk tier from the cache directory.
+     * Files are ordered by the time of last access, which is stored as modification time.
+     */
+    private void loadIndex() {
+        File[] files = mDirectory.listFiles();
+
+        if (files == null)
+            return;
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+
+        synchronized (this) {
+            for (File file : files) {
+                //Leftovers of interrupted writes
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    file.delete();
+                    continue;
+                }
+
+                mDiskIndex.put(file.getName(), file.length());
+                mDiskSize += file.length();
+            }
+
+            trimToSize();
+        }
+
+        Log.i(TAG, String.format(Locale.US, "Loaded %d cached thumbnails (%d bytes)", mDiskIndex.size(), mDiskSize));
+    }
+
+    @Nullable
+    private static byte[] readFile(File file) {
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+
+                if (read < 0)
+                    return null;
+
+                offset += read;
+            }
+
+            return data;
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.naloaty.syncshare.security;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * This class collects statistics of TLS handshakes: how many of them were full or resumed,
+ * how long they took and how many requests reused an established connection.
+ * It tells how much of the request latency (e.g. of a thumbnail) is handshake cost.
+ * @see SecurityUtils#getSSlContext
+ */
+public class HandshakeMetrics {
+
+    private static final String TAG = "HandshakeMetrics";
+
+    /* Handshakes of connections accepted by the media server */
+    public static final HandshakeMetrics SERVER = new HandshakeMetrics();
+
+    /* Handshakes of connections opened by OkHttp */
+    public static final HandshakeMetrics CLIENT = new HandshakeMetrics();
+
+    private final AtomicLong mFull = new AtomicLong();
+    private final AtomicLong mFullTime = new AtomicLong();
+    private final AtomicLong mResumed = new AtomicLong();
+    private final AtomicLong mResumedTime = new AtomicLong();
+    private final AtomicLong mReused = new AtomicLong();
+    private final Map<String, AtomicLong> mProtocols = new ConcurrentHashMap<>();
+
+    private HandshakeMetrics() {
+
+    }
+
+    /**
+     * @param time Duration of the handshake in nanoseconds.
+     * @param resumed True if the session was resumed, i.e. certificates were not exchanged.
+     * @param protocol Negotiated protocol (e.g. TLSv1.3).
+     */
+    public void recordHandshake(long time, boolean resumed, @NonNull String protocol) {
+        if (resumed) {
+            mResumed.incrementAndGet();
+            mResumedTime.addAndGet(time);
+        }
+        else {
+            mFull.incrementAndGet();
+            mFullTime.addAndGet(time);
+        }
+
+        AtomicLong count = mProtocols.get(protocol);
+
+        if (count == null) {
+            mProtocols.putIfAbsent(protocol, new AtomicLong());
+            count = mProtocols.get(protocol);
+        }
+
+        count.incrementAndGet();
+    }
+
+    /**
+     * Records a request that was sent over an established connection without any handshake.
+     */
+    public void recordReuse() {
+        mReused.incrementAndGet();
+    }
+
+    /**
+     * Records the completed handshake of a connection accepted by the server.
+     * The time is measured from the moment the connection is accepted, so it includes the network round trip.
+     * Resumed sessions skip {@link SSTrustManager}, so the peer certificate is checked again.
+     * @param session Negotiated session.
+     * @param start Value of {@link System#nanoTime()} when the connection was accepted.
+     * @param startMillis Value of {@link System#currentTimeMillis()} when the connection was accepted.
+     * @param securityManager Security manager to check the peer certificate with.
+     * @return False if the device is no longer trusted and the connection must be closed.
+     */
+    public boolean recordServerHandshake(@NonNull SSLSession session, long start, long startMillis,
+                                         @NonNull SecurityManager securityManager) {
+        boolean resumed = session.getCreationTime() < startMillis;
+        recordHandshake(System.nanoTime() - start, resumed, session.getProtocol());
+
+        if (!resumed)
+            return true;
+
+        try {
+            Certificate[] certificates = session.getPeerCertificates();
+
+            for (Certificate certificate : certificates)
+                securityManager.checkCertificate((X509Certificate) certificate);
+
+            return true;
+        }
+        catch (SSLPeerUnverifiedException | CertificateException | ClassCastException e) {
+            Log.w(TAG, "Resumed session is not trusted anymore: " + e.getMessage());
+            session.invalidate();
+            return false;
+        }
+    }
+
+    /**
+     * @return Snapshot of the statistics. It is serialized with Gson.
+     */
+    @NonNull
+    public Snapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        Snapshot s = getSnapshot();
+
+        return String.format("HandshakeMetrics{full=%d (avg %dms), resumed=%d (avg %dms), reused=%d, protocols=%s}",
+                s.full, s.fullAverageMs, s.resumed, s.resumedAverageMs, s.reused, s.protocols);
+    }
+
+    public static class Snapshot {
+
+        private final long full;
+        private final long fullAverageMs;
+        private final long resumed;
+        private final long resumedAverageMs;
+        private final long reused;
+        private final Map<String, Long> protocols = new TreeMap<>();
+
+        private Snapshot(@NonNull HandshakeMetrics metrics) {
+            full = metrics.mFull.get();
+            fullAverageMs = full > 0 ? metrics.mFullTime.get() / full / 1000000 : 0;
+            resumed = metrics.mResumed.get();
+            resumedAverageMs = resumed > 0 ? metrics.mResumedTime.get() / resumed / 1000000 : 0;
+            reused = metrics.mReused.get();
+
+            for (Map.Entry<String, AtomicLong> entry : metrics.mProtocols.entrySet())
+                protocols.put(entry.getKey(), entry.getValue().get());
+        }
+    }
+}
@@ -9,7 +9,6 @@ import androidx.annotation.NonNull;
 import com.naloaty.syncshare.config.KeyConfig;
 
 import org.bouncycastle.asn1.x500.X500Name;
-import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
 import org.bouncycastle.asn1.x509.BasicConstraints;
 import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
 import org.bouncycastle.asn1.x509.Extension;
@@ -19,15 +18,12 @@ import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
-import org.bouncycastle.crypto.params.AsymmetricKeyParameter;
-import org.bouncycastle.crypto.util.PrivateKeyFactory;
 import org.bouncycastle.jce.X509KeyUsage;
 import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
 import org.bouncycastle.operator.ContentSigner;
-import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
-import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
 import org.bouncycastle.operator.OperatorCreationException;
-import org.bouncycastle.operator.bc.BcRSAContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
 
 import java.io.File;
 import java.io.FileWriter;
@@ -38,16 +34,20 @@ import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
 import java.security.spec.RSAKeyGenParameterSpec;
 import java.util.Date;
 
 import retrofit2.internal.EverythingIsNonNull;
 
 /**
- * This class helps to create a StreamShare security elements such as an SSL certificate and RSA key pair.
+ * This class helps to create a StreamShare security elements such as an SSL certificate and key pair.
+ * New identities use EC (P-256) keys, which are generated and sign handshakes much faster than RSA ones.
+ * Existing RSA identities keep working until the user replaces them. See {@link #replaceSecurityStuff}.
  */
 public class KeyTool {
 
@@ -67,7 +67,20 @@ public class KeyTool {
      * @see com.naloaty.syncshare.app.SSActivity
      */
     public static void createSecurityStuff(@NonNull final File saveDirectory, final KeyGeneratorCallback callback) {
-        new GenerateSecurityStuffAT(saveDirectory, callback).execute();
+        new GenerateSecurityStuffAT(saveDirectory, KeyConfig.DEFAULT_KEY_ALGORITHM, callback).execute();
+    }
+
+    /**
+     * Replaces the existing certificate and key pair with new ones.
+     * NOTE: The device ID is calculated from the certificate, so it changes and other devices have to add this device again.
+     * The files are replaced atomically, clients reload them by themselves (see {@link com.naloaty.syncshare.communication.SSOkHttpClient}),
+     * but the media server has to be restarted.
+     * @param saveDirectory Directory where certificate is saved.
+     * @param algorithm {@link KeyConfig#KEY_ALGORITHM_EC} or {@link KeyConfig#KEY_ALGORITHM_RSA}.
+     * @param callback Key generator callback. See {@link KeyGeneratorCallback}.
+     */
+    public static void replaceSecurityStuff(@NonNull final File saveDirectory, @NonNull String algorithm, final KeyGeneratorCallback callback) {
+        new GenerateSecurityStuffAT(saveDirectory, algorithm, callback).execute();
     }
 
     /**
@@ -80,25 +93,39 @@ public class KeyTool {
     private static void saveStuff(File file, Object stuff) throws IOException {
         FileWriter fileWriter = new FileWriter(file);
         JcaPEMWriter pemWriter = new JcaPEMWriter(fileWriter);
-        pemWriter.writeObject(stuff);
+
+        //EC keys are saved as PKCS#8, RSA keys keep the format of existing identities
+        if (stuff instanceof PrivateKey && !KeyConfig.KEY_ALGORITHM_RSA.equals(((PrivateKey) stuff).getAlgorithm()))
+            pemWriter.writeObject(new JcaPKCS8Generator((PrivateKey) stuff, null));
+        else
+            pemWriter.writeObject(stuff);
+
         pemWriter.flush();
         pemWriter.close();
         fileWriter.close();
     }
 
     /**
-     * Generates RSA key pair.
+     * Generates key pair.
      * @param provider Crypto provider to be used for generation.
-     * @param keysize RSA key size.
-     * @return RSA key pair.
+     * @param algorithm {@link KeyConfig#KEY_ALGORITHM_EC} or {@link KeyConfig#KEY_ALGORITHM_RSA}.
+     * @return EC (P-256) or RSA key pair.
      * @throws NoSuchProviderException Throws an exception if the specified crypto provider does not exist.
      */
     @EverythingIsNonNull
-    private static KeyPair generateKeyPair(String provider, int keysize) throws NoSuchProviderException {
+    static KeyPair generateKeyPair(String provider, String algorithm) throws NoSuchProviderException {
         try {
-            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(KeyProperties.KEY_ALGORITHM_RSA, provider);
-            RSAKeyGenParameterSpec spec = new RSAKeyGenParameterSpec(keysize, RSAKeyGenParameterSpec.F4);
-            keyPairGenerator.initialize(spec, new SecureRandom());
+            KeyPairGenerator keyPairGenerator;
+
+            if (KeyConfig.KEY_ALGORITHM_EC.equals(algorithm)) {
+                keyPairGenerator = KeyPairGenerator.getInstance(KeyProperties.KEY_ALGORITHM_EC, provider);
+                keyPairGenerator.initialize(new ECGenParameterSpec(KeyConfig.EC_CURVE), new SecureRandom());
+            }
+            else {
+                keyPairGenerator = KeyPairGenerator.getInstance(KeyProperties.KEY_ALGORITHM_RSA, provider);
+                RSAKeyGenParameterSpec spec = new RSAKeyGenParameterSpec(KeyConfig.KEY_SIZE, RSAKeyGenParameterSpec.F4);
+                keyPairGenerator.initialize(spec, new SecureRandom());
+            }
 
             return keyPairGenerator.generateKeyPair();
         }
@@ -116,13 +143,11 @@ public class KeyTool {
      * @return Self-signed X509 v3 certificate.
      */
     @EverythingIsNonNull
-    private static X509Certificate generateCertificate(final String provider, final CertificateConfig config) {
+    static X509Certificate generateCertificate(final String provider, final CertificateConfig config) {
         try {
-            AlgorithmIdentifier sigAlgId = new DefaultSignatureAlgorithmIdentifierFinder().find(config.getSignatureAlgorithm());
-            AlgorithmIdentifier digAlgId = new DefaultDigestAlgorithmIdentifierFinder().find(sigAlgId);
-            AsymmetricKeyParameter privateKeyAsymKeyParam = PrivateKeyFactory.createKey(config.getKeyPair().getPrivate().getEncoded());
-
-            ContentSigner signatureBuilder = new BcRSAContentSignerBuilder(sigAlgId, digAlgId).build(privateKeyAsymKeyParam);
+            ContentSigner signatureBuilder = new JcaContentSignerBuilder(config.getSignatureAlgorithm())
+                    .setProvider(provider)
+                    .build(config.getKeyPair().getPrivate());
 
             X500Name issuer                    = new X500Name("CN=" + config.getIssuer());
             BigInteger serialNumber            = new BigInteger(64, new SecureRandom()); //or BigInteger.valueOf(System.currentTimeMillis())
@@ -134,7 +159,8 @@ public class KeyTool {
             X509v3CertificateBuilder builder = new X509v3CertificateBuilder(issuer, serialNumber, notBefore, notAfter, subject, publicKeyInfo);
 
             //Key usage extension
-            X509KeyUsage keyUsage = new X509KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign);
+            //TLS stacks require digitalSignature for ECDSA certificates
+            X509KeyUsage keyUsage = new X509KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyCertSign | KeyUsage.cRLSign);
             Extension extKeyUsage = new Extension(Extension.keyUsage, true, keyUsage.getEncoded());
 
             //Extended key usage (we can use that certificate in https)
@@ -169,10 +195,12 @@ public class KeyTool {
 
         private final KeyGeneratorCallback callback;
         private final File saveDirectory;
+        private final String algorithm;
 
-        GenerateSecurityStuffAT(@NonNull final File saveDirectory, final KeyGeneratorCallback callback) {
+        GenerateSecurityStuffAT(@NonNull final File saveDirectory, @NonNull String algorithm, final KeyGeneratorCallback callback) {
             this.callback = callback;
             this.saveDirectory = saveDirectory;
+            this.algorithm = algorithm;
         }
         @Override
         protected void onPreExecute() {
@@ -186,7 +214,8 @@ public class KeyTool {
         protected Void doInBackground(Void... voids) {
 
             try {
-                KeyPair keyPair = generateKeyPair(KeyConfig.CRYPTO_PROVIDER, KeyConfig.KEY_SIZE);
+                long start = System.currentTimeMillis();
+                KeyPair keyPair = generateKeyPair(KeyConfig.CRYPTO_PROVIDER, algorithm);
 
                 if (keyPair == null){
                     cancel(true);
@@ -203,9 +232,15 @@ public class KeyTool {
 
                 File key = new File(saveDirectory, KeyConfig.KEY_FILENAME);
                 File cert = new File(saveDirectory, KeyConfig.CERTIFICATE_FILENAME);
+                File tempKey = new File(saveDirectory, KeyConfig.KEY_FILENAME + ".tmp");
+                File tempCert = new File(saveDirectory, KeyConfig.CERTIFICATE_FILENAME + ".tmp");
+
+                //Existing files are replaced only when both new ones are written
+                saveStuff(tempKey, keyPair.getPrivate());
+                saveStuff(tempCert, certificate);
+                replaceStuff(key, cert, tempKey, tempCert);
 
-                saveStuff(key, keyPair.getPrivate());
-                saveStuff(cert, certificate);
+                Log.i(TAG, String.format("%s security stuff created in %dms", algorithm, System.currentTimeMillis() - start));
 
             }
             catch (NoSuchProviderException e)
@@ -222,6 +257,41 @@ public class KeyTool {
             return null;
         }
 
+        /**
+         * Replaces the key and the certificate as a pair. The old files are moved aside first
+         * and are restored if either new file cannot be moved into place, so the key always matches the certificate.
+         */
+        private static void replaceStuff(@NonNull File key, @NonNull File cert, @NonNull File newKey, @NonNull File newCert) throws IOException {
+            File oldKey = new File(key.getPath() + ".old");
+            File oldCert = new File(cert.getPath() + ".old");
+
+            oldKey.delete();
+            oldCert.delete();
+
+            if ((key.exists() && !key.renameTo(oldKey)) || (cert.exists() && !cert.renameTo(oldCert))) {
+                restore(oldKey, key);
+                throw new IOException("Cannot move the old security stuff aside");
+            }
+
+            if (!newKey.renameTo(key) || !newCert.renameTo(cert)) {
+                key.delete();
+                cert.delete();
+                restore(oldKey, key);
+                restore(oldCert, cert);
+                newKey.delete();
+                newCert.delete();
+                throw new IOException("Cannot replace security stuff");
+            }
+
+            oldKey.delete();
+            oldCert.delete();
+        }
+
+        private static void restore(@NonNull File backup, @NonNull File file) {
+            if (backup.exists() && !backup.renameTo(file))
+                Log.e(TAG, "Cannot restore " + file.getName());
+        }
+
         @Override
         protected void onPostExecute(Void aVoid) {
             super.onPostExecute(aVoid);
@@ -245,7 +315,7 @@ public class KeyTool {
      */
     public static class CertificateConfig {
         /**
-         * RSA key pair
+         * EC or RSA key pair
          */
         private KeyPair keyPair;
 
@@ -283,7 +353,12 @@ public class KeyTool {
         }
 
         public String getSignatureAlgorithm() {
-            return signatureAlgorithm == null ? KeyConfig.CERTIFICATE_SIGNATURE_ALGORITHM : signatureAlgorithm;
+            if (signatureAlgorithm != null)
+                return signatureAlgorithm;
+
+            return KeyConfig.KEY_ALGORITHM_RSA.equals(keyPair.getPublic().getAlgorithm())
+                    ? KeyConfig.CERTIFICATE_SIGNATURE_ALGORITHM
+                    : KeyConfig.EC_CERTIFICATE_SIGNATURE_ALGORITHM;
         }
 
         public void setSignatureAlgorithm(String signatureAlgorithm) {
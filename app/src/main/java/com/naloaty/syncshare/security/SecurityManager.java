@@ -3,9 +3,6 @@ package com.naloaty.syncshare.security;
 import android.content.Context;
 import android.util.Log;
 
-import com.naloaty.syncshare.database.device.SSDevice;
-import com.naloaty.syncshare.database.device.SSDeviceRepository;
-
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 
@@ -20,31 +17,32 @@ public class SecurityManager {
     private static final String UNTRUSTED_DEVICE = "noTrust";
     private static final String ACCESS_DENIED = "accessDenied";
 
-    private final SSDeviceRepository mDeviceRepo;
+    private final TrustIndex mTrustIndex;
 
     public SecurityManager(final Context context) {
-        mDeviceRepo = new SSDeviceRepository(context);
+        mTrustIndex = TrustIndex.getInstance(context);
     }
 
     /**
      * Checks if the incoming connection is from a trusted device.
+     * It is called on every TLS handshake, so the decision is taken from {@link TrustIndex} instead of the database.
      * @param certificate X509 v3 certificate to be verified.
      * @throws CertificateException Drops the connection if the certificate is not trusted.
      */
     void checkCertificate(X509Certificate certificate) throws CertificateException {
-        String deviceID = SecurityUtils.calculateDeviceId(certificate);
-        SSDevice foundedDevice = mDeviceRepo.findDeviceDep(deviceID);
-
-        Log.i(TAG, String.format("New connection with DevId: %s, isTrusted: %s, isAccessAllowed: %s",
-                deviceID, foundedDevice.isTrusted(), foundedDevice.isAccessAllowed()));
-
-        if (!foundedDevice.isTrusted())
-            throw new CertificateException(UNTRUSTED_DEVICE);
+        TrustIndex.Decision decision = mTrustIndex.getDecision(certificate);
 
-        if (!foundedDevice.isAccessAllowed())
-            throw new CertificateException(ACCESS_DENIED);
+        switch (decision) {
+            case TRUSTED:
+                return;
 
+            case ACCESS_DENIED:
+                Log.i(TAG, "Access denied for " + SecurityUtils.calculateDeviceId(certificate));
+                throw new CertificateException(ACCESS_DENIED);
 
-        Log.i(TAG, "Trust and access approved for " + deviceID);
+            default:
+                Log.i(TAG, "Untrusted connection with DevId: " + SecurityUtils.calculateDeviceId(certificate));
+                throw new CertificateException(UNTRUSTED_DEVICE);
+        }
     }
 }
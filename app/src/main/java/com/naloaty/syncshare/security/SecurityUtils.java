@@ -1,5 +1,6 @@
 package com.naloaty.syncshare.security;
 
+import android.os.Build;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -7,6 +8,7 @@ import androidx.annotation.NonNull;
 import com.naloaty.syncshare.config.KeyConfig;
 
 import org.apache.commons.codec.binary.Base32;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openssl.PEMKeyPair;
 import org.bouncycastle.openssl.PEMParser;
@@ -19,19 +21,23 @@ import java.io.IOException;
 import java.security.KeyPair;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.Security;
 import java.security.cert.Certificate;
-import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
@@ -46,6 +52,26 @@ public class SecurityUtils {
 
     private static boolean isProviderInitialized = false;
 
+    /* Sessions are resumed without exchanging certificates, which makes reconnection several times cheaper */
+    private static final int SESSION_CACHE_SIZE = 64;
+    private static final int SESSION_TIMEOUT = 12 * 60 * 60; //seconds
+
+    /* In the order of preference */
+    private static final String[] PREFERRED_PROTOCOLS = { "TLSv1.3", "TLSv1.2" };
+    private static final String[] PREFERRED_CIPHER_SUITES = {
+            //TLS 1.3
+            "TLS_AES_128_GCM_SHA256",
+            "TLS_CHACHA20_POLY1305_SHA256",
+            "TLS_AES_256_GCM_SHA384",
+            //TLS 1.2 with forward secrecy and AEAD
+            "TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256",
+            "TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384",
+            "TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384"
+    };
+
     static {
         initBCProvider();
     }
@@ -92,6 +118,10 @@ public class SecurityUtils {
 
             sslContext.init(keyManagers, new TrustManager[]{trustManager}, null);
 
+            //Session tickets are requested by OkHttp on the client side
+            configureSessionContext(sslContext.getServerSessionContext());
+            configureSessionContext(sslContext.getClientSessionContext());
+
             return sslContext;
         }
         catch (Exception e)
@@ -101,6 +131,81 @@ public class SecurityUtils {
         }
     }
 
+    private static void configureSessionContext(SSLSessionContext sessionContext) {
+        if (sessionContext == null)
+            return;
+
+        sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessionContext.setSessionTimeout(SESSION_TIMEOUT);
+    }
+
+    /**
+     * Creates a server-side engine that requires client authentication.
+     * TLS 1.3 and fast cipher suites are preferred.
+     * @param sslContext SSLContext that uses the StreamShare authentication method.
+     * @return SSLEngine for an accepted connection.
+     */
+    @EverythingIsNonNull
+    public static SSLEngine createServerEngine(SSLContext sslContext) {
+        SSLEngine engine = sslContext.createSSLEngine();
+
+        engine.setUseClientMode(false);
+        engine.setEnabledProtocols(getPreferredProtocols(engine.getSupportedProtocols()));
+        engine.setEnabledCipherSuites(getPreferredCipherSuites(engine.getEnabledCipherSuites()));
+
+        //The server chooses the cipher suite by its own preference
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            SSLParameters parameters = engine.getSSLParameters();
+            parameters.setUseCipherSuitesOrder(true);
+            engine.setSSLParameters(parameters);
+        }
+
+        //Enable client authentication
+        engine.setNeedClientAuth(true);
+        return engine;
+    }
+
+    /**
+     * Selects protocols to be enabled: TLS 1.3 first, then TLS 1.2. Older protocols are disabled.
+     * @param supported Protocols supported by the socket.
+     * @return Protocols in the order of preference or all the supported ones if none of the preferred is supported.
+     */
+    @EverythingIsNonNull
+    public static String[] getPreferredProtocols(String[] supported) {
+        List<String> protocols = intersect(PREFERRED_PROTOCOLS, supported);
+        return protocols.isEmpty() ? supported : protocols.toArray(new String[0]);
+    }
+
+    /**
+     * Orders cipher suites: TLS 1.3 ones first, then TLS 1.2 ones with forward secrecy and AEAD, then the others.
+     * @param enabled Cipher suites enabled by default.
+     * @return The same cipher suites in the order of preference.
+     */
+    @EverythingIsNonNull
+    public static String[] getPreferredCipherSuites(String[] enabled) {
+        List<String> suites = intersect(PREFERRED_CIPHER_SUITES, enabled);
+
+        for (String suite : enabled) {
+            if (!suites.contains(suite))
+                suites.add(suite);
+        }
+
+        return suites.toArray(new String[0]);
+    }
+
+    @EverythingIsNonNull
+    private static List<String> intersect(String[] preferred, String[] available) {
+        List<String> availableList = Arrays.asList(available);
+        List<String> result = new ArrayList<>();
+
+        for (String item : preferred) {
+            if (availableList.contains(item))
+                result.add(item);
+        }
+
+        return result;
+    }
+
     /**
      * Creates a PKS12 key store that contains the local device security objects.
      * @param pemDirectory Directory where security objects (certificate and key pair) are located.
@@ -161,6 +266,11 @@ public class SecurityUtils {
                 KeyPair key = converter.getKeyPair(pemKeyPair);
                 return key.getPrivate();
             }
+            else if (stuff instanceof PrivateKeyInfo) {
+                //EC keys are saved as PKCS#8. See KeyTool
+                JcaPEMKeyConverter converter = new JcaPEMKeyConverter().setProvider(provider);
+                return converter.getPrivateKey((PrivateKeyInfo) stuff);
+            }
             else
                 return null;
         }
@@ -192,30 +302,43 @@ public class SecurityUtils {
      * @return The StreamShare device ID.
      */
     public static String calculateDeviceId(@NonNull X509Certificate certificate) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(certificate.getEncoded());
+        byte[] hash = TrustIndex.getFingerprint(certificate);
 
-            Base32 base32 = new Base32();
-            String encodedHash = base32.encodeAsString(hash);
-            encodedHash = encodedHash.substring(0, encodedHash.length() - 4);
+        if (hash == null) {
+            Log.w(TAG, "Cannot calculate device id because it seems some problems with certificate");
+            return null;
+        }
 
-            String deviceId = "";
+        Base32 base32 = new Base32();
+        String encodedHash = base32.encodeAsString(hash);
+        int length = encodedHash.length() - 4;
 
-            for (int i = 0; i < encodedHash.length(); i++) {
-                if (i != 0 && i % 6 == 0)
-                    deviceId += '-';
+        StringBuilder deviceId = new StringBuilder(length + length / 6);
 
-                deviceId += encodedHash.charAt(i);
-            }
+        for (int i = 0; i < length; i++) {
+            if (i != 0 && i % 6 == 0)
+                deviceId.append('-');
 
-            return deviceId;
+            deviceId.append(encodedHash.charAt(i));
         }
-        catch (NoSuchAlgorithmException | CertificateEncodingException e)
-        {
-            Log.w(TAG, "Cannot calculate device id because it seems some problems with certificate: " + e.getMessage());
+
+        return deviceId.toString();
+    }
+
+    /**
+     * Returns the key algorithm of the local device identity.
+     * @param pemDirectory Directory where security objects (certificate and key pair) are located.
+     * @return {@link KeyConfig#KEY_ALGORITHM_EC}, {@link KeyConfig#KEY_ALGORITHM_RSA} or null if there is no certificate.
+     */
+    public static String getKeyAlgorithm(@NonNull File pemDirectory) {
+        X509Certificate certificate = loadCertificate(new File(pemDirectory, KeyConfig.CERTIFICATE_FILENAME));
+
+        if (certificate == null)
             return null;
-        }
+
+        //BouncyCastle names EC keys "ECDSA"
+        String algorithm = certificate.getPublicKey().getAlgorithm();
+        return algorithm.startsWith(KeyConfig.KEY_ALGORITHM_EC) ? KeyConfig.KEY_ALGORITHM_EC : algorithm;
     }
 
     /**
@@ -0,0 +1,191 @@
+package com.naloaty.syncshare.security;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.naloaty.syncshare.database.SSDatabase;
+import com.naloaty.syncshare.database.device.SSDevice;
+
+import org.apache.commons.codec.binary.Base32;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * This class represents an in-memory index of trust decisions keyed by certificate fingerprint (SHA-256).
+ * It is kept in sync with the trusted devices table, so a TLS handshake is verified
+ * by a map lookup and never waits for the database.
+ * @see SecurityManager
+ */
+public class TrustIndex {
+
+    private static final String TAG = "TrustIndex";
+
+    /* The first handshake waits for the index at most this long */
+    private static final long LOAD_TIMEOUT = 5; //seconds
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private static TrustIndex instance;
+
+    private final CountDownLatch mLoaded = new CountDownLatch(1);
+
+    /* Replaced as a whole, so readers never lock */
+    private volatile Map<ByteBuffer, Decision> mDecisions = Collections.emptyMap();
+
+    public enum Decision {
+        TRUSTED,
+        UNTRUSTED,
+        ACCESS_DENIED
+    }
+
+    private TrustIndex(@NonNull Context context) {
+        //Room emits a new list whenever the table is modified
+        SSDatabase.getInstance(context).ssDeviceDao().observeAllDevices()
+                .subscribeOn(Schedulers.io())
+                .subscribe(this::rebuild, e -> Log.e(TAG, "Cannot observe trusted devices: " + e.getMessage()));
+    }
+
+    public static synchronized TrustIndex getInstance(@NonNull Context context) {
+        if (instance == null)
+            instance = new TrustIndex(context.getApplicationContext());
+
+        return instance;
+    }
+
+    /**
+     * @param certificate Certificate of the remote device.
+     * @return Trust decision. Unknown devices are not trusted.
+     */
+    @NonNull
+    public Decision getDecision(@NonNull X509Certificate certificate) {
+        byte[] fingerprint = getFingerprint(certificate);
+
+        if (fingerprint == null)
+            return Decision.UNTRUSTED;
+
+        awaitLoaded();
+        Decision decision = mDecisions.get(ByteBuffer.wrap(fingerprint));
+
+        return decision != null ? decision : Decision.UNTRUSTED;
+    }
+
+    /**
+     * Applies a change of the device before it is written to the database,
+     * so a device is trusted as soon as it has been added.
+     * @param device Device that is being inserted or updated.
+     */
+    public synchronized void put(@NonNull SSDevice device) {
+        byte[] fingerprint = parseDeviceId(device.getDeviceId());
+
+        if (fingerprint == null)
+            return;
+
+        Map<ByteBuffer, Decision> decisions = new HashMap<>(mDecisions);
+        decisions.put(ByteBuffer.wrap(fingerprint), getDecision(device));
+        mDecisions = decisions;
+    }
+
+    /**
+     * Applies a removal of the device before it is written to the database.
+     * @param device Device that is being deleted.
+     */
+    public synchronized void remove(@NonNull SSDevice device) {
+        byte[] fingerprint = parseDeviceId(device.getDeviceId());
+
+        if (fingerprint == null)
+            return;
+
+        Map<ByteBuffer, Decision> decisions = new HashMap<>(mDecisions);
+        decisions.remove(ByteBuffer.wrap(fingerprint));
+        mDecisions = decisions;
+    }
+
+    private synchronized void rebuild(@NonNull List<SSDevice> devices) {
+        Map<ByteBuffer, Decision> decisions = new HashMap<>(devices.size() * 2);
+
+        for (SSDevice device : devices) {
+            byte[] fingerprint = parseDeviceId(device.getDeviceId());
+
+            if (fingerprint != null)
+                decisions.put(ByteBuffer.wrap(fingerprint), getDecision(device));
+        }
+
+        mDecisions = decisions;
+        mLoaded.countDown();
+
+        Log.d(TAG, String.format("Trust index rebuilt. Devices count is %d", decisions.size()));
+    }
+
+    private void awaitLoaded() {
+        try {
+            if (!mLoaded.await(LOAD_TIMEOUT, TimeUnit.SECONDS))
+                Log.w(TAG, "Trust index has not been loaded in time");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @NonNull
+    private static Decision getDecision(@NonNull SSDevice device) {
+        if (!device.isTrusted())
+            return Decision.UNTRUSTED;
+
+        return device.isAccessAllowed() ? Decision.TRUSTED : Decision.ACCESS_DENIED;
+    }
+
+    /**
+     * @return SHA-256 hash of the encoded certificate or null if it cannot be encoded.
+     */
+    @Nullable
+    static byte[] getFingerprint(@NonNull X509Certificate certificate) {
+        try {
+            return DIGEST.get().digest(certificate.getEncoded());
+        }
+        catch (CertificateEncodingException e) {
+            Log.w(TAG, "Cannot calculate fingerprint: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Restores the fingerprint from the device ID. See {@link SecurityUtils#calculateDeviceId}.
+     * @return SHA-256 hash of the device certificate or null if the device ID is malformed.
+     */
+    @Nullable
+    static byte[] parseDeviceId(@Nullable String deviceId) {
+        if (deviceId == null)
+            return null;
+
+        //The device ID is the Base32 hash without padding, grouped by dashes
+        String encoded = deviceId.replace("-", "") + "====";
+        byte[] fingerprint = new Base32().decode(encoded);
+
+        return fingerprint.length == 32 ? fingerprint : null;
+    }
+}
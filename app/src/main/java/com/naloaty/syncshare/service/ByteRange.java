@@ -0,0 +1,268 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * This class represents a single satisfiable byte range of a file (RFC 7233).
+ * It also contains helpers to parse the Range and If-Range request headers.
+ * @see MediaServer
+ */
+public class ByteRange {
+
+    /**
+     * Requests with more ranges than this are served as a whole file.
+     * Protects the server from range requests that are more expensive than the file itself.
+     */
+    public static final int MAX_RANGES = 32;
+
+    private static final String BYTES_UNIT = "bytes=";
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
+
+    /**
+     * Position of the first byte of the range.
+     */
+    private final long start;
+
+    /**
+     * Position of the last byte of the range (inclusive).
+     */
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * @param totalLength Length of the whole file.
+     * @return Value of the Content-Range header for this range.
+     */
+    @NonNull
+    public String toContentRange(long totalLength) {
+        return "bytes " + start + "-" + end + "/" + totalLength;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ByteRange))
+            return false;
+
+        ByteRange other = (ByteRange) obj;
+        return start == other.start && end == other.end;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (start ^ (start >>> 32)) * 31 + (int) (end ^ (end >>> 32));
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+
+    /**
+     * Parses the value of the Range header.
+     * Supports "first-last", open-ended "first-" and suffix "-length" ranges and lists of them.
+     * Overlapping and adjacent ranges are coalesced.
+     * @param header Value of the Range header.
+     * @param length Length of the file.
+     * @return Null if the header is absent, malformed or should be ignored (the whole file must be served),
+     *         an empty list if none of the ranges is satisfiable (416 must be returned),
+     *         otherwise the list of satisfiable ranges.
+     */
+    @Nullable
+    public static List<ByteRange> parse(@Nullable String header, long length) {
+        if (header == null)
+            return null;
+
+        header = header.trim();
+
+        if (!header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length()))
+            return null;
+
+        String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+        List<ByteRange> ranges = new ArrayList<>();
+        boolean hasSpec = false;
+
+        for (String spec : specs) {
+            spec = spec.trim();
+
+            //Empty list elements are allowed by the grammar
+            if (spec.isEmpty())
+                continue;
+
+            hasSpec = true;
+            int minus = spec.indexOf('-');
+
+            if (minus < 0)
+                return null;
+
+            String first = spec.substring(0, minus).trim();
+            String last = spec.substring(minus + 1).trim();
+
+            if (first.isEmpty()) {
+                //Suffix range: last N bytes of the file
+                long suffix = parseNumber(last);
+
+                if (suffix < 0)
+                    return null;
+
+                if (suffix == 0 || length == 0)
+                    continue;
+
+                ranges.add(new ByteRange(Math.max(0, length - suffix), length - 1));
+            }
+            else
+            {
+                long from = parseNumber(first);
+
+                if (from < 0)
+                    return null;
+
+                long to;
+
+                if (last.isEmpty())
+                    to = length - 1;
+                else
+                {
+                    to = parseNumber(last);
+
+                    //Syntactically invalid spec invalidates the whole header
+                    if (to < 0 || to < from)
+                        return null;
+
+                    to = Math.min(to, length - 1);
+                }
+
+                if (from >= length)
+                    continue;
+
+                ranges.add(new ByteRange(from, to));
+            }
+        }
+
+        if (!hasSpec)
+            return null;
+
+        ranges = coalesce(ranges);
+
+        if (ranges.size() > MAX_RANGES)
+            return null;
+
+        return ranges;
+    }
+
+    /**
+     * Checks the If-Range precondition.
+     * @param ifRange Value of the If-Range header.
+     * @param etag Current strong entity tag of the file (quoted).
+     * @param lastModified Last modification time of the file in milliseconds.
+     * @return True if the Range header should be honoured.
+     */
+    public static boolean isIfRangeSatisfied(@Nullable String ifRange, @NonNull String etag, long lastModified) {
+        if (ifRange == null)
+            return true;
+
+        ifRange = ifRange.trim();
+
+        //Weak entity tags never match in If-Range
+        if (ifRange.startsWith("W/"))
+            return false;
+
+        if (ifRange.startsWith("\""))
+            return ifRange.equals(etag);
+
+        try {
+            Date date = getHttpDateFormat().parse(ifRange);
+            return date != null && date.getTime() == (lastModified / 1000) * 1000;
+        }
+        catch (ParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param time Time in milliseconds.
+     * @return The time formatted as HTTP-date (RFC 7231), suitable for the Last-Modified header.
+     */
+    @NonNull
+    public static String formatHttpDate(long time) {
+        return getHttpDateFormat().format(new Date(time));
+    }
+
+    /**
+     * Merges overlapping and adjacent ranges.
+     * The original order is kept when nothing has to be merged.
+     */
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() < 2)
+            return ranges;
+
+        List<ByteRange> sorted = new ArrayList<>(ranges);
+        Collections.sort(sorted, (a, b) -> Long.compare(a.start, b.start));
+
+        List<ByteRange> merged = new ArrayList<>();
+        ByteRange current = sorted.get(0);
+
+        for (int i = 1; i < sorted.size(); i++) {
+            ByteRange next = sorted.get(i);
+
+            if (next.start <= current.end + 1)
+                current = new ByteRange(current.start, Math.max(current.end, next.end));
+            else
+            {
+                merged.add(current);
+                current = next;
+            }
+        }
+
+        merged.add(current);
+
+        return merged.size() == ranges.size() ? ranges : merged;
+    }
+
+    /**
+     * @return Non-negative number or -1 if the value is not a valid number.
+     */
+    private static long parseNumber(String value) {
+        if (value.isEmpty() || value.length() > 18)
+            return -1;
+
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9')
+                return -1;
+        }
+
+        return Long.parseLong(value);
+    }
+
+    private static SimpleDateFormat getHttpDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+}
@@ -111,6 +111,7 @@ public class CommunicationService extends SSService {
         try {
             mMediaServer = new MediaServer(this, AppConfig.MEDIA_SERVER_PORT);
             mMediaServer.start();
+            mMediaServer.startThumbnailPregeneration();
 
             Log.i(TAG, "Media server is started");
             return true;
@@ -0,0 +1,151 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * This class represents a stream that compresses another stream while it is read,
+ * so a response of unknown length is compressed without being held in memory.
+ * @see ContentEncoding
+ */
+public class CompressingInputStream extends InputStream {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    /* Minimal gzip header: deflate, no flags, no time, unknown OS */
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private final InputStream mSource;
+    private final boolean mGzip;
+    private final Deflater mDeflater;
+    private final CRC32 mCrc = new CRC32();
+    private final Listener mListener;
+
+    private final byte[] mInput = new byte[CHUNK_SIZE];
+    private final PooledOutputStream mOutput = new PooledOutputStream();
+    private final byte[] mDeflated = new byte[CHUNK_SIZE];
+
+    private int mPosition = 0;
+    private long mRawLength = 0;
+    private long mCompressedLength = 0;
+    private long mCpuTime = 0;
+    private boolean mFinished = false;
+    private boolean mClosed = false;
+
+    /**
+     * @param source Stream to compress. It is closed with this stream.
+     * @param encoding {@link ContentEncoding#GZIP} or {@link ContentEncoding#DEFLATE}.
+     * @param listener Receives the statistics when this stream is closed.
+     */
+    public CompressingInputStream(@NonNull InputStream source, @NonNull String encoding, @Nullable Listener listener) {
+        mSource = source;
+        mGzip = ContentEncoding.GZIP.equals(encoding);
+        mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION, mGzip);
+        mListener = listener;
+
+        if (mGzip)
+            mOutput.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        while (mPosition == mOutput.size()) {
+            if (mFinished || mClosed)
+                return -1;
+
+            mOutput.reset();
+            mPosition = 0;
+            fill();
+        }
+
+        int count = Math.min(len, mOutput.size() - mPosition);
+        System.arraycopy(mOutput.getBuffer(), mPosition, b, off, count);
+        mPosition += count;
+        mCompressedLength += count;
+
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed)
+            return;
+
+        mClosed = true;
+        mDeflater.end();
+        mOutput.release();
+        mSource.close();
+
+        if (mListener != null)
+            mListener.onClosed(mRawLength, mCompressedLength, mCpuTime);
+    }
+
+    /**
+     * Compresses the next chunk of the source.
+     */
+    private void fill() throws IOException {
+        int read = mSource.read(mInput, 0, mInput.length);
+        long start = ServerMetrics.getCpuTime();
+
+        if (read > 0) {
+            mRawLength += read;
+            mCrc.update(mInput, 0, read);
+            mDeflater.setInput(mInput, 0, read);
+
+            while (!mDeflater.needsInput())
+                drain();
+        }
+        else if (read < 0) {
+            mDeflater.finish();
+
+            while (!mDeflater.finished())
+                drain();
+
+            if (mGzip) {
+                writeIntLE(mCrc.getValue());
+                writeIntLE(mRawLength);
+            }
+
+            mFinished = true;
+        }
+
+        mCpuTime += ServerMetrics.getCpuTime() - start;
+    }
+
+    private void drain() {
+        int count = mDeflater.deflate(mDeflated, 0, mDeflated.length);
+
+        if (count > 0)
+            mOutput.write(mDeflated, 0, count);
+    }
+
+    private void writeIntLE(long value) {
+        mOutput.write((int) (value & 0xFF));
+        mOutput.write((int) ((value >> 8) & 0xFF));
+        mOutput.write((int) ((value >> 16) & 0xFF));
+        mOutput.write((int) ((value >> 24) & 0xFF));
+    }
+
+    public interface Listener {
+        /**
+         * @param rawLength Number of bytes read from the source.
+         * @param compressedLength Number of compressed bytes read from this stream.
+         * @param cpuTime CPU time spent on compression in nanoseconds.
+         */
+        void onClosed(long rawLength, long compressedLength, long cpuTime);
+    }
+}
@@ -0,0 +1,105 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class helps to negotiate and apply HTTP content coding (gzip or deflate) of JSON responses.
+ * Small responses are sent as is, because compression would not pay off.
+ * @see CompressingInputStream
+ */
+public class ContentEncoding {
+
+    public static final String GZIP    = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    /* Smaller responses are sent as is: compression would not pay off */
+    public static final int MIN_SIZE = 1024;
+
+    /**
+     * Selects the content coding accepted by the client.
+     * @param acceptEncoding Value of the Accept-Encoding header.
+     * @return {@link #GZIP}, {@link #DEFLATE} or null if the response should not be compressed.
+     */
+    @Nullable
+    public static String negotiate(@Nullable String acceptEncoding) {
+        if (acceptEncoding == null)
+            return null;
+
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.trim().split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.US);
+            float quality = 1;
+
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2));
+                    }
+                    catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+
+            switch (coding) {
+                case GZIP:
+                case "x-gzip":
+                    gzip = quality;
+                    break;
+
+                case DEFLATE:
+                    deflate = quality;
+                    break;
+
+                case "*":
+                    any = quality;
+                    break;
+            }
+        }
+
+        if (gzip < 0)
+            gzip = any;
+
+        if (deflate < 0)
+            deflate = any;
+
+        if (gzip <= 0 && deflate <= 0)
+            return null;
+
+        return gzip >= deflate ? GZIP : DEFLATE;
+    }
+
+    /**
+     * Compresses the data.
+     * @param encoding {@link #GZIP} or {@link #DEFLATE}.
+     * @return Compressed data.
+     */
+    @NonNull
+    public static byte[] encode(@NonNull byte[] data, @NonNull String encoding) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(256, data.length / 4));
+
+        try (OutputStream out = GZIP.equals(encoding) ? new GZIPOutputStream(bos) : new DeflaterOutputStream(bos)) {
+            out.write(data);
+        }
+        catch (IOException e) {
+            //Cannot happen: the data is written to memory
+            throw new IllegalStateException(e);
+        }
+
+        return bos.toByteArray();
+    }
+}
@@ -0,0 +1,57 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class represents a process-wide pool of large direct buffers.
+ * Buffers are reused between requests, so streaming a file does not allocate on every request.
+ * @see FileChannelInputStream
+ */
+public class DirectBufferPool {
+
+    /* Size of a single buffer (256 KiB) */
+    public static final int BUFFER_SIZE = 256 * 1024;
+
+    /* Maximum number of idle buffers kept in the pool */
+    private static final int MAX_POOLED_BUFFERS = 8;
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> mPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger mPooledCount = new AtomicInteger();
+
+    /**
+     * Takes a buffer from the pool or allocates a new one if the pool is empty.
+     * @return Cleared direct buffer of {@link #BUFFER_SIZE} bytes.
+     */
+    @NonNull
+    public static ByteBuffer acquire() {
+        ByteBuffer buffer = mPool.poll();
+
+        if (buffer == null)
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        mPooledCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used by the caller after this call.
+     * @param buffer Buffer previously obtained from {@link #acquire()}.
+     */
+    public static void release(@NonNull ByteBuffer buffer) {
+        if (!buffer.isDirect() || buffer.capacity() != BUFFER_SIZE)
+            return;
+
+        if (mPooledCount.incrementAndGet() > MAX_POOLED_BUFFERS) {
+            mPooledCount.decrementAndGet();
+            return;
+        }
+
+        buffer.clear();
+        mPool.offer(buffer);
+    }
+}
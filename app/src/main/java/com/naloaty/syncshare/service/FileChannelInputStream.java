@@ -0,0 +1,186 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class represents a stream over a window of a file.
+ * It uses positional {@link FileChannel} reads into a pooled direct buffer,
+ * so the requested window is served exactly and without calling skip().
+ * {@link #read(ByteBuffer)} reads the channel straight into the caller's buffer,
+ * in which case the direct buffer is never taken from the pool.
+ * @see DirectBufferPool
+ * @see MediaServer
+ */
+public class FileChannelInputStream extends InputStream {
+
+    private final FileChannel mChannel;
+    private final long mEnd;
+
+    /* Position in the file of the next byte to be read from the channel */
+    private long mPosition;
+
+    /* Taken from the pool on the first read into an array */
+    private ByteBuffer mBuffer;
+    private boolean mClosed = false;
+
+    /**
+     * @param channel Channel of the file. It will be closed together with this stream.
+     * @param offset Position of the first byte of the window.
+     * @param length Length of the window in bytes.
+     */
+    public FileChannelInputStream(@NonNull FileChannel channel, long offset, long length) {
+        mChannel = channel;
+        mPosition = offset;
+        mEnd = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureBuffered())
+            return -1;
+
+        return mBuffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        if (!ensureBuffered())
+            return -1;
+
+        int count = Math.min(len, mBuffer.remaining());
+        mBuffer.get(b, off, count);
+
+        return count;
+    }
+
+    /**
+     * Reads the next bytes of the window into the buffer without an intermediate copy.
+     * @return Number of bytes read or -1 if the end of the window has been reached.
+     */
+    public int read(@NonNull ByteBuffer dst) throws IOException {
+        if (mClosed)
+            throw new IOException("Stream closed");
+
+        if (!dst.hasRemaining())
+            return 0;
+
+        //Bytes buffered by the array reads go first
+        if (mBuffer != null && mBuffer.hasRemaining()) {
+            int count = Math.min(dst.remaining(), mBuffer.remaining());
+            ByteBuffer slice = mBuffer.duplicate();
+            slice.limit(slice.position() + count);
+            dst.put(slice);
+            mBuffer.position(mBuffer.position() + count);
+
+            return count;
+        }
+
+        long left = mEnd - mPosition;
+
+        if (left <= 0)
+            return -1;
+
+        int limit = dst.limit();
+        dst.limit((int) Math.min(limit, dst.position() + left));
+
+        int read;
+
+        try {
+            read = mChannel.read(dst, mPosition);
+        }
+        finally {
+            dst.limit(limit);
+        }
+
+        if (read < 0)
+            return -1;
+
+        mPosition += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0 || mClosed)
+            return 0;
+
+        long buffered = mBuffer == null ? 0 : Math.min(n, mBuffer.remaining());
+
+        if (buffered > 0)
+            mBuffer.position(mBuffer.position() + (int) buffered);
+
+        long skipped = Math.min(n - buffered, mEnd - mPosition);
+        mPosition += skipped;
+
+        return buffered + skipped;
+    }
+
+    @Override
+    public int available() {
+        if (mClosed)
+            return 0;
+
+        long buffered = mBuffer == null ? 0 : mBuffer.remaining();
+        return (int) Math.min(Integer.MAX_VALUE, buffered + (mEnd - mPosition));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed)
+            return;
+
+        mClosed = true;
+
+        if (mBuffer != null) {
+            DirectBufferPool.release(mBuffer);
+            mBuffer = null;
+        }
+
+        mChannel.close();
+    }
+
+    /**
+     * Refills the buffer from the channel if it has been drained.
+     * @return False if the end of the window has been reached.
+     */
+    private boolean ensureBuffered() throws IOException {
+        if (mClosed)
+            throw new IOException("Stream closed");
+
+        if (mBuffer == null) {
+            mBuffer = DirectBufferPool.acquire();
+            mBuffer.limit(0);
+        }
+
+        if (mBuffer.hasRemaining())
+            return true;
+
+        long left = mEnd - mPosition;
+
+        if (left <= 0)
+            return false;
+
+        mBuffer.clear();
+        mBuffer.limit((int) Math.min(mBuffer.capacity(), left));
+
+        while (mBuffer.hasRemaining()) {
+            int read = mChannel.read(mBuffer, mPosition + mBuffer.position());
+
+            if (read < 0)
+                break;
+        }
+
+        mBuffer.flip();
+        mPosition += mBuffer.remaining();
+
+        return mBuffer.hasRemaining();
+    }
+}
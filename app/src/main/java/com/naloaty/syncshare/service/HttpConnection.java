@@ -0,0 +1,761 @@
+package com.naloaty.syncshare.service;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.naloaty.syncshare.security.HandshakeMetrics;
+import com.naloaty.syncshare.security.SecurityUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * This class represents a TLS connection accepted by {@link HttpServer}.
+ * The selector thread performs the handshake and reads requests without blocking,
+ * so an idle keep-alive connection holds no thread and no buffers.
+ * A response is written by a transfer thread, which waits for the socket only while the peer is slow.
+ */
+class HttpConnection {
+
+    private static final String TAG = "HttpConnection";
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /* Maximum size of the request line and headers */
+    static final int MAX_HEAD_SIZE = 16 * 1024;
+
+    /* Maximum size of the request body */
+    static final int MAX_BODY_SIZE = 64 * 1024;
+
+    /* An idle keep-alive connection is closed after this time */
+    static final long IDLE_TIMEOUT = 60 * 1000; //milliseconds
+
+    /* A handshake or a request must be received within this time */
+    static final long REQUEST_TIMEOUT = 15 * 1000; //milliseconds
+
+    /* A transfer is aborted if the peer does not read for this time */
+    private static final long WRITE_TIMEOUT = 30 * 1000; //milliseconds
+
+    private enum State {
+        HANDSHAKING,
+        READING,
+        PROCESSING,
+        CLOSED
+    }
+
+    private final HttpServer mServer;
+    private final SocketChannel mChannel;
+    private final SSLEngine mEngine;
+    private final String mRemoteAddress;
+    private final long mHandshakeStart = System.nanoTime();
+    private final long mHandshakeStartMillis = System.currentTimeMillis();
+
+    private SelectionKey mKey;
+    private String mDeviceId;
+    private volatile State mState = State.HANDSHAKING;
+    private volatile long mLastActivity = System.currentTimeMillis();
+    private boolean mRunningTasks = false;
+
+    /*
+     * Network buffers are taken from the server pool only while they hold data.
+     * They are owned by the selector thread, except mNetOut during the PROCESSING state.
+     */
+    private ByteBuffer mNetIn;
+    private ByteBuffer mAppIn;
+    private ByteBuffer mNetOut;
+
+    private final Object mWriteLock = new Object();
+    private boolean mWritable = false;
+
+    HttpConnection(@NonNull HttpServer server, @NonNull SocketChannel channel, @NonNull SSLEngine engine) {
+        mServer = server;
+        mChannel = channel;
+        mEngine = engine;
+        mRemoteAddress = channel.socket().getInetAddress().getHostAddress();
+    }
+
+    /**
+     * Registers the connection and starts the handshake.
+     * Called on the selector thread.
+     */
+    void register(@NonNull Selector selector) throws IOException {
+        mKey = mChannel.register(selector, SelectionKey.OP_READ, this);
+        mEngine.beginHandshake();
+    }
+
+    /**
+     * Called on the selector thread.
+     */
+    void onReadable() {
+        if (mState != State.HANDSHAKING && mState != State.READING)
+            return;
+
+        try {
+            if (mNetIn == null)
+                mNetIn = mServer.acquireBuffer();
+
+            int read = mChannel.read(mNetIn);
+
+            if (read < 0) {
+                close();
+                return;
+            }
+
+            mLastActivity = System.currentTimeMillis();
+            advance();
+        }
+        catch (IOException e) {
+            Log.d(TAG, String.format("Cannot read from %s: %s", mRemoteAddress, e.getMessage()));
+            close();
+        }
+    }
+
+    /**
+     * Called on the selector thread.
+     */
+    void onWritable() {
+        if (mState == State.PROCESSING) {
+            mKey.interestOps(0);
+
+            synchronized (mWriteLock) {
+                mWritable = true;
+                mWriteLock.notifyAll();
+            }
+
+            return;
+        }
+
+        try {
+            if (flush()) {
+                mKey.interestOps(SelectionKey.OP_READ);
+                advance();
+            }
+        }
+        catch (IOException e) {
+            Log.d(TAG, String.format("Cannot write to %s: %s", mRemoteAddress, e.getMessage()));
+            close();
+        }
+    }
+
+    /**
+     * @param now Current time in milliseconds.
+     * @return True if the peer has been silent for too long.
+     */
+    boolean isExpired(long now) {
+        switch (mState) {
+            case HANDSHAKING:
+                return now - mLastActivity > REQUEST_TIMEOUT;
+
+            case READING:
+                boolean partial = (mAppIn != null && mAppIn.position() > 0) || (mNetIn != null && mNetIn.position() > 0);
+                return now - mLastActivity > (partial ? REQUEST_TIMEOUT : IDLE_TIMEOUT);
+
+            default:
+                return false;
+        }
+    }
+
+    boolean isClosed() {
+        return mState == State.CLOSED;
+    }
+
+    /**
+     * Makes as much progress as the received data allows: continues the handshake or reads the next request.
+     * Called on the selector thread.
+     */
+    private void advance() throws IOException {
+        if (mRunningTasks)
+            return;
+
+        while (mState == State.HANDSHAKING || mState == State.READING) {
+            SSLEngineResult.HandshakeStatus status = mEngine.getHandshakeStatus();
+
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+                return;
+            }
+
+            if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                if (!wrapHandshake())
+                    return;
+
+                continue;
+            }
+
+            if (mState == State.HANDSHAKING && status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                onHandshakeFinished();
+                continue;
+            }
+
+            if (!unwrap())
+                break;
+        }
+
+        if (mState == State.READING)
+            readRequest();
+    }
+
+    /**
+     * @return True if some data has been consumed or produced.
+     */
+    private boolean unwrap() throws IOException {
+        if (mNetIn == null || mNetIn.position() == 0)
+            return false;
+
+        if (mAppIn == null)
+            mAppIn = mServer.acquireBuffer();
+
+        SSLEngineResult result;
+        mNetIn.flip();
+
+        try {
+            result = mEngine.unwrap(mNetIn, mAppIn);
+        }
+        finally {
+            mNetIn.compact();
+        }
+
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                if (mAppIn.position() > MAX_HEAD_SIZE + MAX_BODY_SIZE)
+                    throw new IOException("Request is too large");
+
+                mAppIn = enlarge(mAppIn, mEngine.getSession().getApplicationBufferSize());
+                return true;
+
+            case BUFFER_UNDERFLOW:
+                if (!mNetIn.hasRemaining())
+                    mNetIn = enlarge(mNetIn, mEngine.getSession().getPacketBufferSize());
+
+                return false;
+
+            case CLOSED:
+                close();
+                return false;
+
+            default:
+                break;
+        }
+
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED)
+            onHandshakeFinished();
+
+        return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+    }
+
+    /**
+     * @return True if the handshake data has been sent completely.
+     */
+    private boolean wrapHandshake() throws IOException {
+        if (mNetOut == null)
+            mNetOut = mServer.acquireBuffer();
+
+        SSLEngineResult result = mEngine.wrap(EMPTY, mNetOut);
+
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                if (mNetOut.position() == 0)
+                    mNetOut = enlarge(mNetOut, mEngine.getSession().getPacketBufferSize());
+
+                return flush();
+
+            case CLOSED:
+                flush();
+                close();
+                return false;
+
+            default:
+                break;
+        }
+
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED)
+            onHandshakeFinished();
+
+        return flush();
+    }
+
+    /**
+     * Writes pending data without blocking. If the socket is full, the selector waits until it is writable.
+     * Called on the selector thread.
+     * @return True if there is no pending data.
+     */
+    private boolean flush() throws IOException {
+        if (mNetOut == null)
+            return true;
+
+        mNetOut.flip();
+        mChannel.write(mNetOut);
+        boolean done = !mNetOut.hasRemaining();
+        mNetOut.compact();
+
+        if (!done) {
+            mKey.interestOps(SelectionKey.OP_WRITE);
+            return false;
+        }
+
+        mServer.releaseBuffer(mNetOut);
+        mNetOut = null;
+        return true;
+    }
+
+    /**
+     * Certificate checks and key agreement are run by the handshake pool, so they do not delay other connections.
+     */
+    private void runDelegatedTasks() {
+        mRunningTasks = true;
+        mKey.interestOps(0);
+
+        mServer.executeHandshakeTask(() -> {
+            Runnable task;
+
+            while ((task = mEngine.getDelegatedTask()) != null)
+                task.run();
+
+            mServer.post(this::resume);
+        });
+    }
+
+    /**
+     * Called on the selector thread after delegated tasks have completed.
+     */
+    private void resume() {
+        mRunningTasks = false;
+
+        if (mState == State.CLOSED)
+            return;
+
+        try {
+            mKey.interestOps(SelectionKey.OP_READ);
+            advance();
+        }
+        catch (IOException e) {
+            Log.d(TAG, String.format("Handshake with %s has failed: %s", mRemoteAddress, e.getMessage()));
+            close();
+        }
+    }
+
+    private void onHandshakeFinished() {
+        if (mState != State.HANDSHAKING)
+            return;
+
+        mState = State.READING;
+        SSLSession session = mEngine.getSession();
+
+        if (!HandshakeMetrics.SERVER.recordServerHandshake(session, mHandshakeStart, mHandshakeStartMillis,
+                mServer.getSecurityManager())) {
+            close();
+            return;
+        }
+
+        //Requests are scheduled per device, so the ID is calculated once per connection
+        try {
+            Certificate[] certificates = session.getPeerCertificates();
+            mDeviceId = SecurityUtils.calculateDeviceId((X509Certificate) certificates[0]);
+        }
+        catch (SSLPeerUnverifiedException | ClassCastException e) {
+            Log.w(TAG, String.format("Cannot identify %s: %s", mRemoteAddress, e.getMessage()));
+            mDeviceId = mRemoteAddress;
+        }
+    }
+
+    /**
+     * Parses the next request if it has been received completely and passes it to the server.
+     * Called on the selector thread.
+     */
+    private void readRequest() {
+        if (mAppIn == null || mAppIn.position() == 0) {
+            releaseIdleBuffers();
+            return;
+        }
+
+        int headEnd = indexOfHeadEnd(mAppIn);
+
+        if (headEnd < 0) {
+            if (mAppIn.position() >= MAX_HEAD_SIZE)
+                reject(HttpResponse.Status.BAD_REQUEST, "Request head is too large");
+
+            return;
+        }
+
+        String[] lines = new String(mAppIn.array(), mAppIn.arrayOffset(), headEnd, ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+
+        if (requestLine.length != 3 || !requestLine[1].startsWith("/") || !requestLine[2].startsWith("HTTP/1.")) {
+            reject(HttpResponse.Status.BAD_REQUEST, "Malformed request line");
+            return;
+        }
+
+        HttpSession.Method method = HttpSession.Method.lookup(requestLine[0]);
+
+        if (method == null) {
+            reject(HttpResponse.Status.BAD_REQUEST, "Unsupported method");
+            return;
+        }
+
+        Map<String, String> headers = new HashMap<>();
+
+        for (int i = 1; i < lines.length; i++) {
+            int separator = lines[i].indexOf(':');
+
+            if (separator > 0)
+                headers.put(lines[i].substring(0, separator).trim().toLowerCase(Locale.US), lines[i].substring(separator + 1).trim());
+        }
+
+        if (headers.containsKey("transfer-encoding")) {
+            reject(HttpResponse.Status.BAD_REQUEST, "Chunked requests are not supported");
+            return;
+        }
+
+        long declaredLength = 0;
+
+        try {
+            String value = headers.get("content-length");
+
+            if (value != null)
+                declaredLength = Long.parseLong(value);
+        }
+        catch (NumberFormatException e) {
+            declaredLength = -1;
+        }
+
+        //Malformed framing is a bad request, a valid but huge length is not
+        if (declaredLength < 0) {
+            reject(HttpResponse.Status.BAD_REQUEST, "Malformed Content-Length");
+            return;
+        }
+
+        if (declaredLength > MAX_BODY_SIZE) {
+            reject(HttpResponse.Status.PAYLOAD_TOO_LARGE, "Request body is too large");
+            return;
+        }
+
+        int contentLength = (int) declaredLength;
+
+        int total = headEnd + 4 + contentLength;
+
+        if (mAppIn.position() < total) {
+            //Wait for the rest of the body
+            if (mAppIn.capacity() < total)
+                mAppIn = enlarge(mAppIn, total - mAppIn.position());
+
+            return;
+        }
+
+        byte[] body = null;
+
+        if (contentLength > 0) {
+            body = new byte[contentLength];
+            System.arraycopy(mAppIn.array(), mAppIn.arrayOffset() + headEnd + 4, body, 0, contentLength);
+        }
+
+        //Pipelined requests stay in the buffer
+        mAppIn.flip();
+        mAppIn.position(total);
+        mAppIn.compact();
+
+        String target = requestLine[1];
+        int query = target.indexOf('?');
+        String uri = HttpSession.decode(query >= 0 ? target.substring(0, query) : target);
+        String queryString = query >= 0 ? target.substring(query + 1) : null;
+
+        HttpSession session = new HttpSession(method, uri, queryString, headers, body, mRemoteAddress, mDeviceId);
+        boolean keepAlive = !session.isCloseRequested(requestLine[2]);
+
+        startProcessing();
+        mServer.dispatch(this, session, keepAlive);
+    }
+
+    /**
+     * Responds by an error and closes the connection, because the rest of the stream cannot be trusted.
+     */
+    private void reject(@NonNull HttpResponse.Status status, @NonNull String message) {
+        Log.w(TAG, String.format("Rejecting request of %s: %s", mRemoteAddress, message));
+
+        startProcessing();
+        mServer.transfer(this, HttpResponse.newFixedLengthResponse(status, HttpServer.MIME_PLAINTEXT, message), false, false, null);
+    }
+
+    private void startProcessing() {
+        mState = State.PROCESSING;
+        mKey.interestOps(0);
+        releaseIdleBuffers();
+    }
+
+    /**
+     * Returns empty buffers to the pool, so an idle connection does not hold them.
+     */
+    private void releaseIdleBuffers() {
+        if (mNetIn != null && mNetIn.position() == 0) {
+            mServer.releaseBuffer(mNetIn);
+            mNetIn = null;
+        }
+
+        if (mAppIn != null && mAppIn.position() == 0) {
+            mServer.releaseBuffer(mAppIn);
+            mAppIn = null;
+        }
+    }
+
+    /**
+     * Writes the response and then waits for the next request or closes the connection.
+     * Called on a transfer thread.
+     * @param keepAlive True if the connection is kept open after the response.
+     * @param headOnly True if only the headers should be sent.
+     */
+    void send(@NonNull HttpResponse response, boolean keepAlive, boolean headOnly) {
+        if (mState == State.CLOSED) {
+            response.close();
+            return;
+        }
+
+        ConnectionOutputStream out = new ConnectionOutputStream();
+
+        try {
+            response.send(out, keepAlive, headOnly);
+            out.flush();
+
+            if (!keepAlive) {
+                mEngine.closeOutbound();
+                out.flush();
+            }
+        }
+        catch (IOException e) {
+            Log.d(TAG, String.format("Cannot send response to %s: %s", mRemoteAddress, e.getMessage()));
+            keepAlive = false;
+        }
+        finally {
+            out.release();
+        }
+
+        if (!keepAlive) {
+            close();
+            return;
+        }
+
+        mLastActivity = System.currentTimeMillis();
+        mServer.post(this::onResponseSent);
+    }
+
+    /**
+     * Called on the selector thread.
+     */
+    private void onResponseSent() {
+        if (mState == State.CLOSED)
+            return;
+
+        if (mNetOut != null && mNetOut.position() == 0) {
+            mServer.releaseBuffer(mNetOut);
+            mNetOut = null;
+        }
+
+        mState = State.READING;
+        mKey.interestOps(SelectionKey.OP_READ);
+
+        try {
+            advance();
+        }
+        catch (IOException e) {
+            Log.d(TAG, String.format("Cannot read from %s: %s", mRemoteAddress, e.getMessage()));
+            close();
+        }
+    }
+
+    /**
+     * Encrypts the application data and writes it to the socket, waiting while the socket is full.
+     * Called on a transfer thread.
+     */
+    private void encrypt(@NonNull ByteBuffer appOut) throws IOException {
+        appOut.flip();
+
+        do {
+            if (mNetOut == null)
+                mNetOut = mServer.acquireBuffer();
+
+            SSLEngineResult result = mEngine.wrap(appOut, mNetOut);
+
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    if (mNetOut.position() == 0)
+                        mNetOut = enlarge(mNetOut, mEngine.getSession().getPacketBufferSize());
+
+                    break;
+
+                case CLOSED:
+                    if (result.bytesProduced() == 0 && appOut.hasRemaining())
+                        throw new SSLException("Connection is closed");
+
+                    break;
+
+                default:
+                    break;
+            }
+
+            writeFully();
+        }
+        while (appOut.hasRemaining());
+
+        appOut.clear();
+    }
+
+    private void writeFully() throws IOException {
+        mNetOut.flip();
+
+        try {
+            while (mNetOut.hasRemaining()) {
+                if (mChannel.write(mNetOut) == 0)
+                    awaitWritable();
+            }
+        }
+        finally {
+            mNetOut.compact();
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        synchronized (mWriteLock) {
+            mWritable = false;
+            mServer.post(() -> {
+                if (mState == State.PROCESSING)
+                    mKey.interestOps(SelectionKey.OP_WRITE);
+            });
+
+            long deadline = System.currentTimeMillis() + WRITE_TIMEOUT;
+
+            while (!mWritable) {
+                if (mState == State.CLOSED)
+                    throw new ClosedChannelException();
+
+                long remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0)
+                    throw new SocketTimeoutException("Peer has not read the response in time");
+
+                try {
+                    mWriteLock.wait(remaining);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Transfer has been interrupted");
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the connection. Can be called on any thread.
+     */
+    void close() {
+        synchronized (this) {
+            if (mState == State.CLOSED)
+                return;
+
+            mState = State.CLOSED;
+        }
+
+        try {
+            mChannel.close();
+        }
+        catch (IOException e) {
+            Log.d(TAG, "Cannot close channel: " + e.getMessage());
+        }
+
+        synchronized (mWriteLock) {
+            mWriteLock.notifyAll();
+        }
+
+        mServer.onClosed(this);
+    }
+
+    @NonNull
+    private static ByteBuffer enlarge(@NonNull ByteBuffer buffer, int free) {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.position() + Math.max(free, buffer.capacity()));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    /**
+     * @return Position of the empty line that ends the head or -1 if it has not been received yet.
+     */
+    private static int indexOfHeadEnd(@NonNull ByteBuffer buffer) {
+        byte[] array = buffer.array();
+        int offset = buffer.arrayOffset();
+        int end = buffer.position() - 3;
+
+        for (int i = 0; i < end; i++) {
+            if (array[offset + i] == '\r' && array[offset + i + 1] == '\n'
+                    && array[offset + i + 2] == '\r' && array[offset + i + 3] == '\n')
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Buffers the response, so records of the maximum size are encrypted.
+     */
+    private class ConnectionOutputStream extends OutputStream implements HttpResponse.BufferedOutput {
+
+        private final ByteBuffer mAppOut = mServer.acquireBuffer();
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!mAppOut.hasRemaining())
+                encrypt(mAppOut);
+
+            mAppOut.put((byte) b);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!mAppOut.hasRemaining())
+                    encrypt(mAppOut);
+
+                int count = Math.min(len, mAppOut.remaining());
+                mAppOut.put(b, off, count);
+                off += count;
+                len -= count;
+            }
+        }
+
+        @NonNull
+        @Override
+        public ByteBuffer getWritableBuffer() throws IOException {
+            if (!mAppOut.hasRemaining())
+                encrypt(mAppOut);
+
+            return mAppOut;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            encrypt(mAppOut);
+        }
+
+        void release() {
+            mServer.releaseBuffer(mAppOut);
+        }
+    }
+}
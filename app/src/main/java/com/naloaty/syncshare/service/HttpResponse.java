@@ -0,0 +1,319 @@
+package com.naloaty.syncshare.service;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class represents an HTTP response of {@link HttpServer}.
+ * A body of known length is sent as is, a body of unknown length is sent with chunked framing.
+ * A file body is read straight into the buffer of the connection, other bodies are copied through pooled chunks.
+ */
+public class HttpResponse {
+
+    private static final String TAG = "HttpResponse";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    /* Size of a chunk read from the body */
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    /* Maximum number of idle chunks kept in the pool */
+    private static final int MAX_POOLED_CHUNKS = 16;
+
+    private static final ConcurrentLinkedQueue<byte[]> mChunkPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger mPooledChunks = new AtomicInteger();
+
+    /**
+     * Output that exposes its buffer, so a file body is read into it without an intermediate array.
+     */
+    interface BufferedOutput {
+
+        /**
+         * @return Buffer with free space for the next bytes of the response. It is valid until the next call.
+         */
+        @NonNull
+        ByteBuffer getWritableBuffer() throws IOException;
+    }
+
+    public enum Status {
+        OK(200, "OK"),
+        PARTIAL_CONTENT(206, "Partial Content"),
+        NOT_MODIFIED(304, "Not Modified"),
+        BAD_REQUEST(400, "Bad Request"),
+        FORBIDDEN(403, "Forbidden"),
+        NOT_FOUND(404, "Not Found"),
+        PAYLOAD_TOO_LARGE(413, "Payload Too Large"),
+        RANGE_NOT_SATISFIABLE(416, "Requested Range Not Satisfiable"),
+        INTERNAL_ERROR(500, "Internal Server Error"),
+        SERVICE_UNAVAILABLE(503, "Service Unavailable");
+
+        private final int mCode;
+        private final String mDescription;
+
+        Status(int code, String description) {
+            mCode = code;
+            mDescription = description;
+        }
+
+        public int getCode() {
+            return mCode;
+        }
+
+        @NonNull
+        public String getDescription() {
+            return mCode + " " + mDescription;
+        }
+    }
+
+    private final Status mStatus;
+    private final String mMimeType;
+    private final InputStream mData;
+    private final long mLength;
+    private final Map<String, String> mHeaders = new LinkedHashMap<>();
+
+    /**
+     * @param data Body of the response or null if it is empty.
+     * @param length Length of the body or -1 if it is unknown.
+     */
+    private HttpResponse(@NonNull Status status, @Nullable String mimeType, @Nullable InputStream data, long length) {
+        mStatus = status;
+        mMimeType = mimeType;
+        mData = data;
+        mLength = data == null ? 0 : length;
+    }
+
+    /**
+     * Creates a response whose body has a known length.
+     */
+    @NonNull
+    public static HttpResponse newFixedLengthResponse(@NonNull Status status, @Nullable String mimeType, @Nullable InputStream data, long length) {
+        return new HttpResponse(status, mimeType, data, length);
+    }
+
+    /**
+     * Creates a response with a text body.
+     */
+    @NonNull
+    public static HttpResponse newFixedLengthResponse(@NonNull Status status, @Nullable String mimeType, @Nullable String text) {
+        if (text == null)
+            return new HttpResponse(status, mimeType, null, 0);
+
+        byte[] bytes = text.getBytes(UTF_8);
+        return new HttpResponse(status, mimeType, new ByteArrayInputStream(bytes), bytes.length);
+    }
+
+    /**
+     * Creates a response whose body is sent with chunked framing, because its length is unknown.
+     */
+    @NonNull
+    public static HttpResponse newChunkedResponse(@NonNull Status status, @Nullable String mimeType, @NonNull InputStream data) {
+        return new HttpResponse(status, mimeType, data, -1);
+    }
+
+    public void addHeader(@NonNull String name, @NonNull String value) {
+        mHeaders.put(name, value);
+    }
+
+    @Nullable
+    public String getHeader(@NonNull String name) {
+        for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name))
+                return header.getValue();
+        }
+
+        return null;
+    }
+
+    @NonNull
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    @Nullable
+    public String getMimeType() {
+        return mMimeType;
+    }
+
+    /**
+     * @return Length of the body or -1 if it is unknown.
+     */
+    public long getLength() {
+        return mLength;
+    }
+
+    /**
+     * Writes the response. The body is closed afterwards.
+     * @param out Stream of the connection. It is not flushed.
+     * @param keepAlive True if the connection is kept open after the response.
+     * @param headOnly True if only the headers should be sent (HEAD request).
+     */
+    void send(@NonNull OutputStream out, boolean keepAlive, boolean headOnly) throws IOException {
+        try {
+            boolean chunked = mLength < 0;
+            boolean hasBody = mStatus != Status.NOT_MODIFIED;
+
+            StringBuilder head = new StringBuilder(256);
+            head.append("HTTP/1.1 ").append(mStatus.getDescription()).append("\r\n");
+
+            if (mMimeType != null)
+                appendHeader(head, "Content-Type", mMimeType);
+
+            appendHeader(head, "Date", ByteRange.formatHttpDate(System.currentTimeMillis()));
+            appendHeader(head, "Connection", keepAlive ? "keep-alive" : "close");
+
+            if (hasBody) {
+                if (chunked)
+                    appendHeader(head, "Transfer-Encoding", "chunked");
+                else
+                    appendHeader(head, "Content-Length", String.valueOf(mLength));
+            }
+
+            for (Map.Entry<String, String> header : mHeaders.entrySet())
+                appendHeader(head, header.getKey(), header.getValue());
+
+            head.append("\r\n");
+            out.write(head.toString().getBytes(UTF_8));
+
+            if (headOnly || !hasBody || mData == null)
+                return;
+
+            if (chunked)
+                sendChunked(out);
+            else
+                sendFixedLength(out);
+        }
+        finally {
+            close();
+        }
+    }
+
+    private void sendFixedLength(@NonNull OutputStream out) throws IOException {
+        if (mData instanceof FileChannelInputStream && out instanceof BufferedOutput) {
+            sendFile((FileChannelInputStream) mData, (BufferedOutput) out);
+            return;
+        }
+
+        byte[] buffer = acquireChunk();
+        long remaining = mLength;
+
+        try {
+            while (remaining > 0) {
+                int read = mData.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+                if (read < 0)
+                    throw new EOFException(String.format("Body has ended %d bytes too early", remaining));
+
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        finally {
+            releaseChunk(buffer);
+        }
+    }
+
+    /**
+     * Reads the file from its channel into the buffer of the connection, which is then encrypted in place.
+     */
+    private void sendFile(@NonNull FileChannelInputStream data, @NonNull BufferedOutput out) throws IOException {
+        long remaining = mLength;
+
+        while (remaining > 0) {
+            ByteBuffer buffer = out.getWritableBuffer();
+            int limit = buffer.limit();
+            int read;
+
+            buffer.limit((int) Math.min(limit, buffer.position() + remaining));
+
+            try {
+                read = data.read(buffer);
+            }
+            finally {
+                buffer.limit(limit);
+            }
+
+            if (read < 0)
+                throw new EOFException(String.format("Body has ended %d bytes too early", remaining));
+
+            remaining -= read;
+        }
+    }
+
+    private void sendChunked(@NonNull OutputStream out) throws IOException {
+        byte[] buffer = acquireChunk();
+        int read;
+
+        try {
+            while ((read = mData.read(buffer)) >= 0) {
+                if (read == 0)
+                    continue;
+
+                out.write(Integer.toHexString(read).getBytes(UTF_8));
+                out.write(CRLF);
+                out.write(buffer, 0, read);
+                out.write(CRLF);
+            }
+        }
+        finally {
+            releaseChunk(buffer);
+        }
+
+        out.write('0');
+        out.write(CRLF);
+        out.write(CRLF);
+    }
+
+    @NonNull
+    private static byte[] acquireChunk() {
+        byte[] chunk = mChunkPool.poll();
+
+        if (chunk == null)
+            return new byte[CHUNK_SIZE];
+
+        mPooledChunks.decrementAndGet();
+        return chunk;
+    }
+
+    private static void releaseChunk(@NonNull byte[] chunk) {
+        if (mPooledChunks.incrementAndGet() > MAX_POOLED_CHUNKS) {
+            mPooledChunks.decrementAndGet();
+            return;
+        }
+
+        mChunkPool.offer(chunk);
+    }
+
+    /**
+     * Closes the body. Called if the response will never be sent.
+     */
+    void close() {
+        if (mData == null)
+            return;
+
+        try {
+            mData.close();
+        }
+        catch (IOException e) {
+            Log.w(TAG, "Cannot close response body: " + e.getMessage());
+        }
+    }
+
+    private static void appendHeader(@NonNull StringBuilder head, @NonNull String name, @NonNull String value) {
+        head.append(name).append(": ").append(value).append("\r\n");
+    }
+}
@@ -0,0 +1,430 @@
+package com.naloaty.syncshare.service;
+
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+
+import androidx.annotation.NonNull;
+
+import com.naloaty.syncshare.security.SecurityManager;
+import com.naloaty.syncshare.security.SecurityUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+
+/**
+ * This class represents a non-blocking HTTP/1.1 server over mutually authenticated TLS.
+ * One selector thread accepts connections, performs handshakes and reads requests for all of them.
+ * Requests are served by a small fixed worker pool and responses are written by a bounded transfer pool,
+ * so idle keep-alive connections cost neither threads nor buffers.
+ * @see HttpConnection
+ */
+public abstract class HttpServer {
+
+    private static final String TAG = "HttpServer";
+
+    public static final String MIME_PLAINTEXT = "text/plain";
+
+    /* Serving is CPU-bound (thumbnail decoding, JSON), so there are as many workers as cores */
+    private static final int WORKER_THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /* Delegated TLS tasks (certificate checks, key agreement) have their own threads, so handshakes do not wait for requests */
+    private static final int HANDSHAKE_THREADS = 2;
+
+    /* Maximum number of responses being written at once */
+    private static final int TRANSFER_THREADS = 16;
+
+    /* Connections above this limit are closed right after they are accepted */
+    private static final int MAX_CONNECTIONS = 512;
+
+    /* Maximum number of idle network buffers kept in the pool */
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    /* How often expired connections are looked for */
+    private static final long SWEEP_INTERVAL = 1000; //milliseconds
+
+    private final int mPort;
+    private final int mMaxConnections;
+    private final SSLContext mSslContext;
+    private final SecurityManager mSecurityManager;
+
+    private final ExecutorService mWorkers = Executors.newFixedThreadPool(WORKER_THREADS);
+    private final RequestScheduler mScheduler = new RequestScheduler(mWorkers, WORKER_THREADS);
+    private final ExecutorService mHandshakes = Executors.newFixedThreadPool(HANDSHAKE_THREADS);
+    private final ThreadPoolExecutor mTransfers = new ThreadPoolExecutor(TRANSFER_THREADS, TRANSFER_THREADS,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    /* Tasks to be run on the selector thread */
+    private final ConcurrentLinkedQueue<Runnable> mPendingTasks = new ConcurrentLinkedQueue<>();
+
+    private final ConcurrentLinkedQueue<ByteBuffer> mBuffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger mPooledBuffers = new AtomicInteger();
+
+    /* Accessed on the selector thread only */
+    private final Set<HttpConnection> mConnections = new HashSet<>();
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+
+    private Selector mSelector;
+    private ServerSocketChannel mServerChannel;
+    private Thread mSelectorThread;
+    private int mBufferSize;
+    private volatile boolean mRunning = false;
+
+    /**
+     * @param port The port that the server will listen.
+     * @param sslContext SSLContext whose trust manager authenticates clients.
+     * @param securityManager Security manager to check peers of resumed sessions with.
+     */
+    protected HttpServer(int port, @NonNull SSLContext sslContext, @NonNull SecurityManager securityManager) {
+        this(port, sslContext, securityManager, MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param maxConnections Connections above this limit are closed right after they are accepted.
+     */
+    HttpServer(int port, @NonNull SSLContext sslContext, @NonNull SecurityManager securityManager, int maxConnections) {
+        mPort = port;
+        mMaxConnections = maxConnections;
+        mSslContext = sslContext;
+        mSecurityManager = securityManager;
+
+        //Idle transfer threads are not kept
+        mTransfers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Serves a request. Called on a worker thread.
+     * @return Response to the request.
+     */
+    protected abstract HttpResponse serve(@NonNull HttpSession session);
+
+    /**
+     * Called on the selector thread, so it must not block.
+     * @return Class that determines the priority and the quota of the request.
+     */
+    @NonNull
+    protected RequestScheduler.TrafficClass classify(@NonNull HttpSession session) {
+        return RequestScheduler.TrafficClass.METADATA;
+    }
+
+    /**
+     * Binds the port and starts the selector thread.
+     */
+    public void start() throws IOException {
+        SSLSession session = mSslContext.createSSLEngine().getSession();
+        mBufferSize = Math.max(session.getPacketBufferSize(), session.getApplicationBufferSize());
+
+        mSelector = Selector.open();
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.configureBlocking(false);
+        mServerChannel.socket().setReuseAddress(true);
+        mServerChannel.socket().bind(new InetSocketAddress(mPort));
+        mServerChannel.register(mSelector, SelectionKey.OP_ACCEPT);
+
+        mRunning = true;
+        mSelectorThread = new Thread(this::loop, TAG);
+        mSelectorThread.start();
+    }
+
+    /**
+     * Closes all connections and stops the threads.
+     */
+    public void stop() {
+        mRunning = false;
+
+        if (mSelector != null)
+            mSelector.wakeup();
+
+        try {
+            if (mSelectorThread != null)
+                mSelectorThread.join(SWEEP_INTERVAL);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        mWorkers.shutdownNow();
+        mHandshakes.shutdownNow();
+        mTransfers.shutdownNow();
+    }
+
+    @NonNull
+    protected RequestScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * @return Number of open connections.
+     */
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    private void loop() {
+        long lastSweep = System.currentTimeMillis();
+
+        try {
+            while (mRunning) {
+                mSelector.select(SWEEP_INTERVAL);
+
+                Runnable task;
+
+                while ((task = mPendingTasks.poll()) != null)
+                    task.run();
+
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+
+                    HttpConnection connection = (HttpConnection) key.attachment();
+
+                    //A bug triggered by one connection must not stop the selector for the others
+                    try {
+                        if (key.isWritable())
+                            connection.onWritable();
+
+                        if (key.isValid() && key.isReadable())
+                            connection.onReadable();
+                    }
+                    catch (RuntimeException e) {
+                        Log.e(TAG, "Connection has failed: " + e.toString());
+                        connection.close();
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+
+                if (now - lastSweep >= SWEEP_INTERVAL) {
+                    lastSweep = now;
+                    closeExpired(now);
+                }
+            }
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Selector has failed: " + e.getMessage());
+        }
+        finally {
+            for (HttpConnection connection : new ArrayList<>(mConnections))
+                connection.close();
+
+            try {
+                mServerChannel.close();
+                mSelector.close();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Cannot close server channel: " + e.getMessage());
+            }
+
+            Log.i(TAG, "Selector thread has stopped");
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+
+        while ((channel = mServerChannel.accept()) != null) {
+            if (mConnections.size() >= mMaxConnections) {
+                Log.w(TAG, "Too many connections, closing the new one");
+                channel.close();
+                continue;
+            }
+
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                SSLEngine engine = SecurityUtils.createServerEngine(mSslContext);
+                HttpConnection connection = new HttpConnection(this, channel, engine);
+
+                connection.register(mSelector);
+                mConnections.add(connection);
+                mConnectionCount.incrementAndGet();
+            }
+            catch (IOException e) {
+                Log.w(TAG, "Cannot accept connection: " + e.getMessage());
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Closes connections whose peers have been silent for too long.
+     * Called on the selector thread.
+     * @param now Current time in milliseconds.
+     */
+    void closeExpired(long now) {
+        for (HttpConnection connection : new ArrayList<>(mConnections)) {
+            if (connection.isExpired(now))
+                connection.close();
+        }
+    }
+
+    /**
+     * Queues the request to {@link RequestScheduler}. It is served on the worker pool
+     * and then the response is written on the transfer pool.
+     * @param keepAlive True if the connection is kept open after the response.
+     */
+    void dispatch(@NonNull HttpConnection connection, @NonNull HttpSession session, boolean keepAlive) {
+        boolean headOnly = session.getMethod() == HttpSession.Method.HEAD;
+
+        boolean queued = mScheduler.submit(session.getDeviceId(), classify(session), permit -> {
+            HttpResponse response = null;
+
+            try {
+                response = serve(session);
+            }
+            catch (Exception e) {
+                Log.e(TAG, String.format("Cannot serve %s. Reason: %s", session.getUri(), e.toString()));
+            }
+
+            if (response == null)
+                response = HttpResponse.newFixedLengthResponse(HttpResponse.Status.INTERNAL_ERROR, MIME_PLAINTEXT,
+                        "Error 500, request execution error");
+
+            transfer(connection, response, keepAlive, headOnly, permit::release);
+        });
+
+        if (!queued) {
+            Log.w(TAG, String.format("Too many requests, rejecting %s", session.getUri()));
+
+            HttpResponse response = HttpResponse.newFixedLengthResponse(HttpResponse.Status.SERVICE_UNAVAILABLE,
+                    MIME_PLAINTEXT, "Error 503, server is busy");
+            response.addHeader("Retry-After", "1");
+
+            transfer(connection, response, keepAlive, headOnly, null);
+        }
+    }
+
+    /**
+     * Writes the response on the transfer pool.
+     * @param onSent Called when the response has been sent or dropped.
+     */
+    void transfer(@NonNull HttpConnection connection, @NonNull HttpResponse response, boolean keepAlive, boolean headOnly,
+                  Runnable onSent) {
+        try {
+            mTransfers.execute(() -> {
+                try {
+                    connection.send(response, keepAlive, headOnly);
+                }
+                finally {
+                    if (onSent != null)
+                        onSent.run();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            response.close();
+            connection.close();
+
+            if (onSent != null)
+                onSent.run();
+        }
+    }
+
+    /**
+     * Runs delegated TLS tasks on the handshake pool. The worker pool is owned by {@link RequestScheduler}.
+     */
+    void executeHandshakeTask(@NonNull Runnable task) {
+        try {
+            mHandshakes.execute(task);
+        }
+        catch (RejectedExecutionException e) {
+            Log.w(TAG, "Task has been rejected, the server is stopping");
+        }
+    }
+
+    /**
+     * Runs the task on the selector thread.
+     */
+    void post(@NonNull Runnable task) {
+        mPendingTasks.offer(task);
+        mSelector.wakeup();
+    }
+
+    /**
+     * Called by the connection when it has been closed.
+     */
+    void onClosed(@NonNull HttpConnection connection) {
+        post(() -> {
+            if (mConnections.remove(connection))
+                mConnectionCount.decrementAndGet();
+        });
+    }
+
+    @NonNull
+    SecurityManager getSecurityManager() {
+        return mSecurityManager;
+    }
+
+    /**
+     * @return Cleared heap buffer that fits a TLS record.
+     */
+    @NonNull
+    ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = mBuffers.poll();
+
+        if (buffer == null)
+            return ByteBuffer.allocate(mBufferSize);
+
+        mPooledBuffers.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    void releaseBuffer(@NonNull ByteBuffer buffer) {
+        if (buffer.capacity() != mBufferSize)
+            return;
+
+        if (mPooledBuffers.incrementAndGet() > MAX_POOLED_BUFFERS) {
+            mPooledBuffers.decrementAndGet();
+            return;
+        }
+
+        mBuffers.offer(buffer);
+    }
+
+    /**
+     * @return MIME type of the file by its extension.
+     */
+    @NonNull
+    public static String getMimeTypeForFile(@NonNull String path) {
+        int dot = path.lastIndexOf('.');
+        String mime = null;
+
+        if (dot >= 0)
+            mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(path.substring(dot + 1).toLowerCase(Locale.US));
+
+        return mime != null ? mime : "application/octet-stream";
+    }
+}
@@ -0,0 +1,168 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class represents a parsed HTTP request received by {@link HttpServer}.
+ * Header names are lower-cased.
+ */
+public class HttpSession {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public enum Method {
+        GET,
+        HEAD,
+        POST,
+        PUT,
+        DELETE,
+        OPTIONS;
+
+        @Nullable
+        static Method lookup(@NonNull String method) {
+            for (Method m : values()) {
+                if (m.name().equals(method))
+                    return m;
+            }
+
+            return null;
+        }
+    }
+
+    private final Method mMethod;
+    private final String mUri;
+    private final String mQueryString;
+    private final Map<String, String> mHeaders;
+    private final byte[] mBody;
+    private final String mRemoteAddress;
+    private final String mDeviceId;
+
+    private Map<String, List<String>> mParameters;
+
+    HttpSession(@NonNull Method method, @NonNull String uri, @Nullable String queryString, @NonNull Map<String, String> headers,
+                @Nullable byte[] body, @NonNull String remoteAddress, @NonNull String deviceId) {
+        mMethod = method;
+        mUri = uri;
+        mQueryString = queryString;
+        mHeaders = Collections.unmodifiableMap(headers);
+        mBody = body;
+        mRemoteAddress = remoteAddress;
+        mDeviceId = deviceId;
+    }
+
+    @NonNull
+    public Method getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * @return Decoded path of the request without the query string.
+     */
+    @NonNull
+    public String getUri() {
+        return mUri;
+    }
+
+    @Nullable
+    public String getQueryParameterString() {
+        return mQueryString;
+    }
+
+    @NonNull
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    /**
+     * @return Decoded query parameters. A parameter may have several values.
+     */
+    @NonNull
+    public synchronized Map<String, List<String>> getParameters() {
+        if (mParameters == null)
+            mParameters = decodeParameters(mQueryString);
+
+        return mParameters;
+    }
+
+    /**
+     * @return Body of the request decoded as UTF-8 or null if the request has no body.
+     */
+    @Nullable
+    public String getBody() {
+        return mBody != null ? new String(mBody, UTF_8) : null;
+    }
+
+    @NonNull
+    public String getRemoteIpAddress() {
+        return mRemoteAddress;
+    }
+
+    /**
+     * @return ID of the device authenticated by its certificate. See {@link com.naloaty.syncshare.security.SecurityUtils#calculateDeviceId}.
+     */
+    @NonNull
+    public String getDeviceId() {
+        return mDeviceId;
+    }
+
+    /**
+     * @return True if the client has asked to close the connection after the response.
+     */
+    boolean isCloseRequested(@NonNull String protocol) {
+        String connection = mHeaders.get("connection");
+
+        if ("HTTP/1.0".equals(protocol))
+            return connection == null || !connection.equalsIgnoreCase("keep-alive");
+
+        return connection != null && connection.equalsIgnoreCase("close");
+    }
+
+    @NonNull
+    private static Map<String, List<String>> decodeParameters(@Nullable String queryString) {
+        Map<String, List<String>> parameters = new HashMap<>();
+
+        if (queryString == null || queryString.isEmpty())
+            return parameters;
+
+        for (String pair : queryString.split("&")) {
+            if (pair.isEmpty())
+                continue;
+
+            int separator = pair.indexOf('=');
+            String name = decode(separator >= 0 ? pair.substring(0, separator) : pair).trim();
+            String value = separator >= 0 ? decode(pair.substring(separator + 1)) : null;
+
+            List<String> values = parameters.get(name);
+
+            if (values == null) {
+                values = new ArrayList<>();
+                parameters.put(name, values);
+            }
+
+            if (value != null)
+                values.add(value);
+        }
+
+        return parameters;
+    }
+
+    @NonNull
+    static String decode(@NonNull String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.naloaty.syncshare.service;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * This class represents the output format of thumbnails negotiated with a client.
+ * The format is selected by the "format" and "quality" request parameters or,
+ * if they are absent, by the Accept header.
+ * @see MediaServer
+ */
+public class ImageEncoding {
+
+    public static final String FORMAT_PNG  = "png";
+    public static final String FORMAT_JPEG = "jpeg";
+    public static final String FORMAT_WEBP = "webp";
+
+    private static final int DEFAULT_JPEG_QUALITY = 85;
+    private static final int DEFAULT_WEBP_QUALITY = 80;
+
+    private final String format;
+    private final int quality;
+
+    private ImageEncoding(@NonNull String format, int quality) {
+        this.format = format;
+        this.quality = quality;
+    }
+
+    /**
+     * Selects the output format.
+     * @param formatParam Value of the "format" request parameter (png, jpeg or webp).
+     * @param qualityParam Value of the "quality" request parameter (1-100, ignored for png).
+     * @param accept Value of the Accept header.
+     * @return Negotiated encoding. WebP is preferred when the client accepts it, JPEG is used otherwise.
+     */
+    @NonNull
+    public static ImageEncoding negotiate(@Nullable String formatParam, @Nullable String qualityParam, @Nullable String accept) {
+        String format = null;
+
+        if (formatParam != null) {
+            switch (formatParam.toLowerCase(Locale.US)) {
+                case "png":
+                    format = FORMAT_PNG;
+                    break;
+
+                case "jpg":
+                case "jpeg":
+                    format = FORMAT_JPEG;
+                    break;
+
+                case "webp":
+                    format = FORMAT_WEBP;
+                    break;
+            }
+        }
+
+        if (format == null) {
+            if (accept != null && accept.toLowerCase(Locale.US).contains("image/webp"))
+                format = FORMAT_WEBP;
+            else
+                format = FORMAT_JPEG;
+        }
+
+        int quality = format.equals(FORMAT_WEBP) ? DEFAULT_WEBP_QUALITY : DEFAULT_JPEG_QUALITY;
+
+        if (format.equals(FORMAT_PNG))
+            quality = 100;
+        else if (qualityParam != null) {
+            try {
+                quality = Math.max(1, Math.min(100, Integer.parseInt(qualityParam.trim())));
+            }
+            catch (NumberFormatException ignored) {
+            }
+        }
+
+        return new ImageEncoding(format, quality);
+    }
+
+    /**
+     * @return Encoding that StreamShare clients negotiate. See {@link com.naloaty.syncshare.app.SSOkHttpGlideModule}.
+     */
+    @NonNull
+    public static ImageEncoding getPreferred() {
+        return negotiate(null, null, "image/webp");
+    }
+
+    @NonNull
+    public Bitmap.CompressFormat getCompressFormat() {
+        switch (format) {
+            case FORMAT_PNG:
+                return Bitmap.CompressFormat.PNG;
+
+            case FORMAT_WEBP:
+                return Bitmap.CompressFormat.WEBP;
+
+            default:
+                return Bitmap.CompressFormat.JPEG;
+        }
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    @NonNull
+    public String getMimeType() {
+        return "image/" + format;
+    }
+
+    /**
+     * @return Suffix that distinguishes encodings in cache keys (e.g. "webp80").
+     */
+    @NonNull
+    public String getKey() {
+        return format + quality;
+    }
+}
@@ -0,0 +1,135 @@
+package com.naloaty.syncshare.service;
+
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * This class represents an in-memory cache of serialized JSON responses (albums and media list pages).
+ * Every entry remembers the generation of {@link com.naloaty.syncshare.media.MediaChangeTracker} it was built at
+ * and is dropped as soon as the generation changes, i.e. when the media store or shared albums are modified.
+ * @see MediaServer
+ */
+class JsonResponseCache {
+
+    /* Size limit in bytes */
+    private static final int MAX_SIZE = 4 * 1024 * 1024;
+
+    private final LruCache<String, Entry> mEntries = new LruCache<String, Entry>(MAX_SIZE) {
+        @Override
+        protected int sizeOf(String key, Entry value) {
+            return value.data.length;
+        }
+    };
+
+    /**
+     * @param generation Current generation of the change tracker.
+     * @return Cached response or null if it is missing or stale.
+     */
+    @Nullable
+    Entry get(@NonNull String key, long generation) {
+        Entry entry = mEntries.get(key);
+
+        if (entry == null)
+            return null;
+
+        if (entry.generation != generation) {
+            mEntries.remove(key);
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * @param generation Generation of the change tracker the response was built at.
+     * @param data Serialized response.
+     * @param headers Extra headers of the response.
+     * @return Cached response.
+     */
+    @NonNull
+    Entry put(@NonNull String key, long generation, @NonNull byte[] data, @NonNull Map<String, String> headers) {
+        Entry entry = new Entry(generation, data, headers);
+        mEntries.put(key, entry);
+
+        return entry;
+    }
+
+    static class Entry {
+
+        private final long generation;
+        private final byte[] data;
+        private final Map<String, String> headers;
+        private final String etag;
+        private final Map<String, byte[]> variants = new ConcurrentHashMap<>();
+
+        Entry(long generation, @NonNull byte[] data, @NonNull Map<String, String> headers) {
+            this.generation = generation;
+            this.data = data;
+            this.headers = Collections.unmodifiableMap(headers);
+
+            //Depends on the content only, so an unrelated change that rebuilds the entry keeps the tag
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            this.etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(data.length) + "\"";
+        }
+
+        @NonNull
+        byte[] getData() {
+            return data;
+        }
+
+        @NonNull
+        Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        @NonNull
+        String getETag() {
+            return etag;
+        }
+
+        /**
+         * Compressed variants are not counted in the cache size. They are several times smaller than the data.
+         * @param encoding Content coding (see {@link ContentEncoding}) or null for the data as is.
+         * @param metrics Receives the compression time if the variant is created.
+         * @param route Route name for the metrics.
+         * @return Variant of the data.
+         */
+        @NonNull
+        byte[] getData(@Nullable String encoding, @NonNull ServerMetrics metrics, @NonNull String route) {
+            if (encoding == null)
+                return data;
+
+            byte[] variant = variants.get(encoding);
+
+            if (variant == null) {
+                long start = ServerMetrics.getCpuTime();
+                variant = ContentEncoding.encode(data, encoding);
+                metrics.recordCompression(route, ServerMetrics.getCpuTime() - start);
+
+                variants.put(encoding, variant);
+            }
+
+            return variant;
+        }
+
+        /**
+         * Every variant has its own strong tag.
+         * @param encoding Content coding or null for the data as is.
+         */
+        @NonNull
+        String getETag(@Nullable String encoding) {
+            if (encoding == null)
+                return etag;
+
+            return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.naloaty.syncshare.service;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+import com.naloaty.syncshare.communication.WireFormat;
+import com.naloaty.syncshare.media.Media;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+/**
+ * This class represents a JSON array of media-files that is written row by row while the client reads it.
+ * Only a few rows are held in memory at a time, so the first bytes are sent before the whole album is read.
+ * @see com.naloaty.syncshare.media.MediaProvider#queryMedia(android.content.Context, String, com.naloaty.syncshare.media.PageCursor, int)
+ * @see MediaServer
+ */
+public class MediaListInputStream extends InputStream {
+
+    /* Number of rows written at once */
+    private static final int ROWS_PER_CHUNK = 64;
+
+    private final Cursor mCursor;
+    private final int mLimit;
+
+    private final PooledOutputStream mBuffer = new PooledOutputStream();
+    private final JsonWriter mWriter;
+
+    private int mPosition = 0;
+    private int mWritten = 0;
+    private boolean mStarted = false;
+    private boolean mFinished = false;
+    private boolean mClosed = false;
+
+    /**
+     * @param cursor Cursor with the {@link Media#getProjection()} columns. It is closed with this stream.
+     * @param limit Maximum number of rows to write or 0 to write all rows.
+     */
+    public MediaListInputStream(@NonNull Cursor cursor, int limit) {
+        mCursor = cursor;
+        mLimit = limit;
+        mWriter = new JsonWriter(new OutputStreamWriter(mBuffer, Charset.forName("UTF-8")));
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        while (mPosition == mBuffer.size()) {
+            if (mFinished || mClosed)
+                return -1;
+
+            fill();
+        }
+
+        int count = Math.min(len, mBuffer.size() - mPosition);
+        System.arraycopy(mBuffer.getBuffer(), mPosition, b, off, count);
+        mPosition += count;
+
+        return count;
+    }
+
+    @Override
+    public void close() {
+        if (mClosed)
+            return;
+
+        mClosed = true;
+        mCursor.close();
+        mBuffer.release();
+    }
+
+    /**
+     * Writes the next rows into the buffer.
+     */
+    private void fill() throws IOException {
+        mBuffer.reset();
+        mPosition = 0;
+
+        if (!mStarted) {
+            mWriter.beginArray();
+            mStarted = true;
+        }
+
+        try {
+            for (int i = 0; i < ROWS_PER_CHUNK; i++) {
+                if ((mLimit > 0 && mWritten == mLimit) || !mCursor.moveToNext()) {
+                    mWriter.endArray();
+                    mFinished = true;
+                    mCursor.close();
+                    break;
+                }
+
+                WireFormat.GSON.toJson(new Media(mCursor), Media.class, mWriter);
+                mWritten++;
+            }
+        }
+        catch (JsonIOException e) {
+            throw new IOException(e);
+        }
+
+        mWriter.flush();
+    }
+}
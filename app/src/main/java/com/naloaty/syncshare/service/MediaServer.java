@@ -1,87 +1,138 @@
 package com.naloaty.syncshare.service;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.os.Environment;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import com.google.gson.Gson;
 import com.naloaty.syncshare.communication.SimpleServerResponse;
+import com.naloaty.syncshare.communication.WireFormat;
 import com.naloaty.syncshare.database.device.SSDevice;
 import com.naloaty.syncshare.database.device.SSDeviceRepository;
 import com.naloaty.syncshare.database.media.Album;
 import com.naloaty.syncshare.media.Media;
+import com.naloaty.syncshare.media.MediaChangeTracker;
+import com.naloaty.syncshare.media.MediaDelta;
 import com.naloaty.syncshare.media.MediaObject;
+import com.naloaty.syncshare.media.MediaObjectCache;
+import com.naloaty.syncshare.media.SharedAlbumIndex;
 import com.naloaty.syncshare.media.MediaProvider;
-import com.naloaty.syncshare.security.CustomServerSocketFactory;
+import com.naloaty.syncshare.media.PageCursor;
+import com.naloaty.syncshare.media.SyncToken;
+import com.naloaty.syncshare.media.ThumbnailCache;
+import com.naloaty.syncshare.security.HandshakeMetrics;
 import com.naloaty.syncshare.security.SecurityManager;
 import com.naloaty.syncshare.security.SecurityUtils;
 import com.naloaty.syncshare.util.AppUtils;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLServerSocketFactory;
 
-import fi.iki.elonen.NanoHTTPD;
-import fi.iki.elonen.SimpleWebServer;
 import retrofit2.internal.EverythingIsNonNull;
 
 /**
  * This class represents a server that provides access to media files for trusted devices.
  * @see CommunicationService
  */
-public class MediaServer extends SimpleWebServer {
+public class MediaServer extends HttpServer {
 
-    /*
-     * TODO: get rid of SimpleWebServer
-     */
     private static final String TAG = "MediaServer";
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     private Context mContext;
+    private ThumbnailCache mThumbnailCache;
+    private MediaChangeTracker mChangeTracker;
+    private final JsonResponseCache mJsonCache = new JsonResponseCache();
+    private final ServerMetrics mMetrics = new ServerMetrics();
+    private final ThumbnailPregenerator mPregenerator;
+
+    /* Maximum number of media-files in one page of the media list */
+    private static final int MAX_PAGE_SIZE = 1000;
 
     /**
      * @param context The Context in which this instance should be created.
      * @param port The port that the server will listen.
      */
     MediaServer(@NonNull Context context, int port) throws Exception {
-        super(null, port, new File(Environment.getExternalStorageDirectory().getPath()), true);
+        this(context, port, new SecurityManager(context));
+    }
+
+    private MediaServer(@NonNull Context context, int port, @NonNull SecurityManager securityManager) throws Exception {
+        super(port, getSSLContext(context, securityManager), securityManager);
 
         mContext = context;
-        makeSecure();
+        mThumbnailCache = ThumbnailCache.getInstance(context);
+        mChangeTracker = MediaChangeTracker.getInstance(context);
+
+        //The index is built in the background, so the first albums request does not wait for it
+        SharedAlbumIndex.getInstance(context);
+
+        mPregenerator = new ThumbnailPregenerator(context, getScheduler(),
+                (mediaObject, encoding, key) -> generateThumbnail(mediaObject, ThumbnailSize.DEFAULT, encoding, key).release());
+    }
+
+    /**
+     * Starts filling {@link ThumbnailCache} with thumbnails of shared albums in the background.
+     * @see ThumbnailPregenerator
+     */
+    void startThumbnailPregeneration() {
+        mPregenerator.start();
+    }
+
+    @Override
+    public void stop() {
+        mPregenerator.stop();
+        super.stop();
+
+        Log.i(TAG, mThumbnailCache.toString());
+        Log.i(TAG, MediaObjectCache.getInstance(mContext).toString());
+        Log.i(TAG, SharedAlbumIndex.getInstance(mContext).toString());
+        Log.i(TAG, mMetrics.toString());
+        Log.i(TAG, HandshakeMetrics.SERVER.toString());
+        Log.i(TAG, getScheduler().toString());
+        Log.i(TAG, mPregenerator.toString());
     }
 
     /**
      * Forces the server to use the https protocol
      */
-    private void makeSecure() throws Exception {
-        SSLContext sslContext = SecurityUtils.getSSLContext(new SecurityManager(mContext), mContext.getFilesDir());
+    @NonNull
+    private static SSLContext getSSLContext(@NonNull Context context, @NonNull SecurityManager securityManager) throws Exception {
+        SSLContext sslContext = SecurityUtils.getSSLContext(securityManager, context.getFilesDir());
 
-        if (sslContext != null) {
-            SSLServerSocketFactory factory = sslContext.getServerSocketFactory();
-            setServerSocketFactory(new CustomServerSocketFactory(factory, null));
-        }
-        else
+        if (sslContext == null)
             throw new Exception("Cannot start media server in secure mode");
+
+        return sslContext;
     }
 
     /**
      * Serves a client requests
      */
     @Override
-    public Response serve(IHTTPSession session) {
+    protected HttpResponse serve(@NonNull HttpSession session) {
         //Remove URL arguments
         String uri = session.getUri().trim().replace(File.separatorChar, '/');
+
+        if (!uri.startsWith("/"))
+            return getBadRequestResponse();
+
         uri = uri.substring(1);
         if (uri.indexOf('?') >= 0) {
             uri = uri.substring(0, uri.indexOf('?'));
@@ -105,33 +156,57 @@ public class MediaServer extends SimpleWebServer {
     }
 
     /**
-     * Serves requests about device
+     * Thumbnails go before full-size images and files, so the grid stays responsive while media is being viewed.
      */
-    @EverythingIsNonNull
-    private Response getDeviceRespond(IHTTPSession session, String[] request) {
+    @NonNull
+    @Override
+    protected RequestScheduler.TrafficClass classify(@NonNull HttpSession session) {
+        String uri = session.getUri();
 
-        if (Method.POST.equals(session.getMethod())) {
-            Map<String, String> map = new HashMap<>();
+        //Called on the selector thread, so a malformed URI must not throw
+        if (!uri.startsWith("/"))
+            return RequestScheduler.TrafficClass.METADATA;
 
-            try {
-                session.parseBody(map);
-            }
-            catch (IOException e) {
-                return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, "Internal error: " + e.getMessage());
-            }
-            catch (ResponseException e) {
-                return newFixedLengthResponse(e.getStatus(), MIME_PLAINTEXT, e.getMessage());
-            }
+        String[] request = uri.substring(1).split("/");
+
+        if (request.length < 2 || !Requests.MEDIA.equals(request[0]))
+            return RequestScheduler.TrafficClass.METADATA;
+
+        switch (request[1]) {
+            case Requests.THUMBNAIL:
+                return RequestScheduler.TrafficClass.THUMBNAIL;
+
+            //A batch only queues its thumbnails, which take the THUMBNAIL quota themselves
+            case Requests.THUMBNAILS:
+                return RequestScheduler.TrafficClass.METADATA;
+
+            case Requests.FULL_SIZE_IMAGE:
+            case Requests.DISPLAY_IMAGE:
+                return RequestScheduler.TrafficClass.FULL_SIZE;
+
+            case Requests.SERVE_FILE:
+                return RequestScheduler.TrafficClass.BULK;
+
+            default:
+                return RequestScheduler.TrafficClass.METADATA;
+        }
+    }
+
+    /**
+     * Serves requests about device
+     */
+    @EverythingIsNonNull
+    private HttpResponse getDeviceRespond(HttpSession session, String[] request) {
 
-            String postParams = map.get("postData");
+        if (HttpSession.Method.POST.equals(session.getMethod())) {
+            String postParams = session.getBody();
 
             if (postParams == null)
                 return getBadRequestResponse();
 
             switch (request[1]) {
                 case Requests.INFORMATION:
-                    Gson converter = new Gson();
-                    SSDevice ssDevice = converter.fromJson(postParams, SSDevice.class);
+                    SSDevice ssDevice = WireFormat.GSON.fromJson(postParams, SSDevice.class);
                     ssDevice.setAccessAllowed(true);
 
                     SSDeviceRepository repository = new SSDeviceRepository(mContext);
@@ -140,22 +215,34 @@ public class MediaServer extends SimpleWebServer {
                     SimpleServerResponse resp = new SimpleServerResponse();
                     resp.setDescription("Device added");
 
-                    return newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, converter.toJson(resp));
+                    return HttpResponse.newFixedLengthResponse(HttpResponse.Status.OK, MIME_PLAINTEXT, WireFormat.GSON.toJson(resp));
 
                 default:
                     return getNotFoundResponse();
             }
         }
-        else if (Method.GET.equals(session.getMethod())) {
+        else if (HttpSession.Method.GET.equals(session.getMethod())) {
 
             switch (request[1]) {
 
                 case Requests.INFORMATION:
                     SSDevice myDevice = AppUtils.getLocalDevice(mContext);
-                    Gson converter = new Gson();
-                    String json = converter.toJson(myDevice);
+                    String json = WireFormat.GSON.toJson(myDevice);
 
-                    return newFixedLengthResponse(Response.Status.OK, NanoHTTPD.MIME_PLAINTEXT, json);
+                    return getJsonResponse(session, Requests.INFORMATION, json);
+
+                case Requests.METRICS:
+                    Map<String, Object> metrics = new HashMap<>();
+                    metrics.put("routes", mMetrics.getSnapshot());
+                    metrics.put("serverHandshakes", HandshakeMetrics.SERVER.getSnapshot());
+                    metrics.put("clientHandshakes", HandshakeMetrics.CLIENT.getSnapshot());
+                    metrics.put("connections", getConnectionCount());
+                    metrics.put("scheduler", getScheduler().getSnapshot());
+                    metrics.put("mediaObjects", MediaObjectCache.getInstance(mContext).getSnapshot());
+                    metrics.put("sharedAlbums", SharedAlbumIndex.getInstance(mContext).getSnapshot());
+                    metrics.put("pregeneration", mPregenerator.getSnapshot());
+
+                    return HttpResponse.newFixedLengthResponse(HttpResponse.Status.OK, MIME_PLAINTEXT, WireFormat.GSON.toJson(metrics));
 
                 default:
                     return getNotFoundResponse();
@@ -169,9 +256,9 @@ public class MediaServer extends SimpleWebServer {
      * Serves requests about media files.
      */
     @EverythingIsNonNull
-    private Response getMediaRespond(IHTTPSession session, String[] request) {
+    private HttpResponse getMediaRespond(HttpSession session, String[] request) {
 
-        if (Method.GET.equals(session.getMethod())) {
+        if (HttpSession.Method.GET.equals(session.getMethod())) {
             switch (request[1]) {
 
                 /*
@@ -179,13 +266,22 @@ public class MediaServer extends SimpleWebServer {
                  */
                 case Requests.ALBUMS:
                     try {
-                        List<Album> albums = MediaProvider.getSharedAlbums(mContext);
-                        Log.i(TAG, String.format("Albums fetched with success. Items count is %d", albums.size()));
+                        SyncToken since = SyncToken.parse(getParameter(session, Requests.SINCE));
+
+                        if (since != null && mChangeTracker.isValid(since) && !mChangeTracker.hasChangedSince(since)) {
+                            Log.i(TAG, "Albums have not changed since the last request");
+
+                            HttpResponse res = HttpResponse.newFixedLengthResponse(HttpResponse.Status.NOT_MODIFIED, MIME_PLAINTEXT, "");
+                            res.addHeader(Requests.SYNC_TOKEN, since.toString());
+                            return res;
+                        }
 
-                        Gson gson = new Gson();
-                        String json = gson.toJson(albums);
+                        return getCachedJsonResponse(session, Requests.ALBUMS, Requests.ALBUMS, true, headers -> {
+                            List<Album> albums = MediaProvider.getSharedAlbums(mContext);
+                            Log.i(TAG, String.format("Albums fetched with success. Items count is %d", albums.size()));
 
-                        return newFixedLengthResponse(Response.Status.OK, NanoHTTPD.MIME_PLAINTEXT, json);
+                            return WireFormat.GSON.toJson(albums).getBytes(UTF_8);
+                        });
                     }
                     catch (Exception e) {
                         Log.e(TAG, String.format("Cannot fetch albums list. Reason: %s", e.toString()));
@@ -209,17 +305,49 @@ public class MediaServer extends SimpleWebServer {
 
                     String albumId = albumParams.get(0);
 
-                    try {
-                        List<Media> media = MediaProvider.getMediaFromMediaStore(mContext, albumId);
-                        Log.i(TAG, String.format("Responding with albums list. Items count is %d", media.size()));
+                    int limit = 0;
+                    String limitParam = getParameter(session, Requests.LIMIT);
 
-                        Gson gson = new Gson();
-                        String json = gson.toJson(media);
+                    if (limitParam != null) {
+                        try {
+                            limit = Integer.parseInt(limitParam);
+                        }
+                        catch (NumberFormatException e) {
+                            return getBadRequestResponse();
+                        }
 
-                        return newFixedLengthResponse(Response.Status.OK, NanoHTTPD.MIME_PLAINTEXT, json);
+                        if (limit < 1 || limit > MAX_PAGE_SIZE)
+                            return getBadRequestResponse();
+                    }
+
+                    String sinceParam = getParameter(session, Requests.SINCE);
+
+                    if (sinceParam != null) {
+                        SyncToken since = SyncToken.parse(sinceParam);
+
+                        if (since == null)
+                            return getBadRequestResponse();
+
+                        try {
+                            return getMediaDeltaResponse(session, albumId, since);
+                        }
+                        catch (Exception e) {
+                            Log.e(TAG, String.format("Cannot respond with media list changes. Reason: %s", e.toString()));
+                            return getInternalErrorResponse();
+                        }
+                    }
+
+                    String afterParam = getParameter(session, Requests.AFTER);
+                    PageCursor after = PageCursor.parse(afterParam);
+
+                    if (afterParam != null && after == null)
+                        return getBadRequestResponse();
+
+                    try {
+                        return getMediaListResponse(session, albumId, after, limit);
                     }
                     catch (Exception e) {
-                        Log.e(TAG, String.format("Cannot respond with albums list. Reason: %s", e.toString()));
+                        Log.e(TAG, String.format("Cannot respond with media list. Reason: %s", e.toString()));
                         return getInternalErrorResponse();
                     }
 
@@ -227,18 +355,41 @@ public class MediaServer extends SimpleWebServer {
                  * Responds small-size bitmap thumbnail
                  */
                 case Requests.THUMBNAIL:
+                    int size = ThumbnailSize.parse(getParameter(session, Requests.SIZE));
+
+                    if (size < 0)
+                        return getBadRequestResponse();
+
                     try {
                         MediaObject mediaObject = MediaProvider.getMediaObjectById(mContext, request[2]);
-                        Bitmap thumbnail = MediaProvider.getCorrectlyOrientedThumbnail(mContext, mediaObject, false);
-                        Log.i(TAG, String.format("Responding thumbnail of %s located by path %s", request[2], mediaObject.getPath()));
+                        Log.i(TAG, String.format("Responding %dpx thumbnail of %s located by path %s", size, request[2], mediaObject.getPath()));
 
-                        return getBitmapResponse(thumbnail);
+                        return getThumbnailResponse(session, mediaObject, size);
                     }
                     catch (Exception e) {
                         Log.e(TAG, String.format("Cannot respond thumbnail of %s. Reason: %s", request[2], e.toString()));
                         return getInternalErrorResponse();
                     }
 
+                /*
+                 * Responds thumbnails of several media-files in one framed body
+                 */
+                case Requests.THUMBNAILS:
+                    String ids = getParameter(session, Requests.IDS);
+
+                    if (ids == null || ids.isEmpty())
+                        return getBadRequestResponse();
+
+                    String[] filenames = ids.split(ThumbnailFrames.SEPARATOR);
+
+                    int batchSize = ThumbnailSize.parse(getParameter(session, Requests.SIZE));
+
+                    if (filenames.length > ThumbnailFrames.MAX_BATCH_SIZE || batchSize < 0)
+                        return getBadRequestResponse();
+
+                    Log.i(TAG, String.format("Responding %d thumbnails of %dpx", filenames.length, batchSize));
+                    return getThumbnailBatchResponse(session, filenames, batchSize);
+
                 /*
                  * Responds full-size bitmap thumbnail
                  */
@@ -247,10 +398,9 @@ public class MediaServer extends SimpleWebServer {
                         MediaObject mediaObject = MediaProvider.getMediaObjectById(mContext, request[2]);
 
                         if (mediaObject.isVideo()) {
-                            Bitmap thumb = MediaProvider.getCorrectlyOrientedThumbnail(mContext, mediaObject, true);
                             Log.i(TAG, String.format("Responding full-size thumbnail of video %s located by path %s", request[2], mediaObject.getPath()));
 
-                            return getBitmapResponse(thumb);
+                            return getThumbnailResponse(session, mediaObject, ThumbnailSize.MAX);
                         }
 
                         Log.i(TAG, String.format("Responding full-size thumbnail of image %s located by path %s", request[2], mediaObject.getPath()));
@@ -261,6 +411,27 @@ public class MediaServer extends SimpleWebServer {
                         return getInternalErrorResponse();
                     }
 
+                /*
+                 * Responds image that fits the screen of the client
+                 */
+                case Requests.DISPLAY_IMAGE:
+                    String sizeParam = getParameter(session, Requests.SIZE);
+                    int maxDimension = sizeParam == null ? ThumbnailSize.MAX : ThumbnailSize.parse(sizeParam);
+
+                    if (maxDimension < 0)
+                        return getBadRequestResponse();
+
+                    try {
+                        MediaObject mediaObject = MediaProvider.getMediaObjectById(mContext, request[2]);
+                        Log.i(TAG, String.format("Responding %dpx display image of %s located by path %s", maxDimension, request[2], mediaObject.getPath()));
+
+                        return getDisplayImageResponse(session, mediaObject, maxDimension);
+                    }
+                    catch (Exception e) {
+                        Log.e(TAG, String.format("Cannot respond display image of %s. Reason: %s", request[2], e.toString()));
+                        return getInternalErrorResponse();
+                    }
+
                 /*
                  * Responds file
                  */
@@ -286,130 +457,494 @@ public class MediaServer extends SimpleWebServer {
     }
     
     /**
-     * Responds by file
+     * Responds by file.
+     * Supports single, open-ended, suffix and multiple byte ranges (RFC 7233) validated by If-Range.
+     * @see ByteRange
      */
     @EverythingIsNonNull
-    private Response serveFile(Map<String, String> header, File file, String mime) {
-        Response res;
+    private HttpResponse serveFile(Map<String, String> header, File file, String mime) {
+        HttpResponse res;
         try {
-            // Calculate etag
-            String etag = Integer.toHexString((file.getAbsolutePath() +
-                    file.lastModified() + "" + file.length()).hashCode());
-
-            // Support (simple) skipping:
-            long startFrom = 0;
-            long endAt = -1;
-            String range = header.get("range");
-            if (range != null) {
-                if (range.startsWith("bytes=")) {
-                    range = range.substring("bytes=".length());
-                    int minus = range.indexOf('-');
-                    try {
-                        if (minus > 0) {
-                            startFrom = Long.parseLong(range.substring(0, minus));
-                            endAt = Long.parseLong(range.substring(minus + 1));
-                        }
-                    } catch (NumberFormatException ignored) {
-                    }
-                }
-            }
-
-            // Change return code and add Content-Range header when skipping is requested
             long fileLen = file.length();
-            if (range != null && startFrom >= 0) {
-                if (startFrom >= fileLen) {
-                    res = newFixedLengthResponse(Response.Status.RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, "");
-                    res.addHeader("Content-Range", "bytes 0-0/" + fileLen);
-                    res.addHeader("ETag", etag);
-                }
-                else
-                {
-                    if (endAt < 0) {
-                        endAt = fileLen - 1;
-                    }
-                    long newLen = endAt - startFrom + 1;
-                    if (newLen < 0) {
-                        newLen = 0;
-                    }
+            long lastModified = file.lastModified();
 
-                    final long dataLen = newLen;
-                    FileInputStream fis = new FileInputStream(file) {
-                        @Override
-                        public int available() {
-                            return (int) dataLen;
-                        }
-                    };
-                    fis.skip(startFrom);
-
-                    res = getChunkedResponse(Response.Status.PARTIAL_CONTENT, mime, fis);
-                    res.addHeader("Content-Length", "" + dataLen);
-                    res.addHeader("Content-Range", "bytes " + startFrom + "-" +
-                            endAt + "/" + fileLen);
-                    res.addHeader("ETag", etag);
-                }
+            // Calculate strong etag
+            String etag = "\"" + Integer.toHexString((file.getAbsolutePath() +
+                    lastModified + "" + fileLen).hashCode()) + "\"";
+
+            List<ByteRange> ranges = null;
+
+            if (ByteRange.isIfRangeSatisfied(header.get("if-range"), etag, lastModified))
+                ranges = ByteRange.parse(header.get("range"), fileLen);
+
+            if (isEtagMatched(header.get("if-none-match"), etag)) {
+                res = HttpResponse.newFixedLengthResponse(HttpResponse.Status.NOT_MODIFIED, mime, "");
+            }
+            else if (ranges == null) {
+                res = getFileResponse(HttpResponse.Status.OK, mime, file, 0, fileLen);
+            }
+            else if (ranges.isEmpty()) {
+                res = HttpResponse.newFixedLengthResponse(HttpResponse.Status.RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, "");
+                res.addHeader("Content-Range", "bytes */" + fileLen);
+            }
+            else if (ranges.size() == 1) {
+                ByteRange range = ranges.get(0);
+
+                res = getFileResponse(HttpResponse.Status.PARTIAL_CONTENT, mime, file, range.getStart(), range.getLength());
+                res.addHeader("Content-Range", range.toContentRange(fileLen));
             }
             else
             {
-                if (etag.equals(header.get("if-none-match")))
-                    res = newFixedLengthResponse(Response.Status.NOT_MODIFIED, mime, "");
-                else
-                {
-                    res = getChunkedResponse(Response.Status.OK, mime, new FileInputStream(file));
-                    res.addHeader("Content-Length", "" + fileLen);
-                    res.addHeader("ETag", etag);
-                }
+                String boundary = UUID.randomUUID().toString().replace("-", "");
+                long length = MultipartRangesInputStream.getContentLength(fileLen, mime, ranges, boundary);
+                InputStream data = new MultipartRangesInputStream(file, mime, ranges, boundary);
+
+                res = HttpResponse.newFixedLengthResponse(HttpResponse.Status.PARTIAL_CONTENT,
+                        MultipartRangesInputStream.getContentType(boundary), data, length);
+                res.addHeader("Accept-Ranges", "bytes");
             }
+
+            res.addHeader("ETag", etag);
+            res.addHeader("Last-Modified", ByteRange.formatHttpDate(lastModified));
         }
         catch (IOException e) {
-            res = newFixedLengthResponse(Response.Status.OK, MIME_PLAINTEXT, "Forbidden: Reading file failed");
+            res = HttpResponse.newFixedLengthResponse(HttpResponse.Status.FORBIDDEN, MIME_PLAINTEXT, "Forbidden: Reading file failed");
         }
 
         return res;
     }
 
     /**
-     * Responds by bitmap
+     * Checks the If-None-Match precondition.
+     * @param ifNoneMatch Value of the If-None-Match header.
+     * @param etag Current entity tag of the resource (quoted).
+     * @return True if the client already has the current version of the resource.
      */
-    private Response getBitmapResponse(@NonNull Bitmap bitmap) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 0 /*ignored for PNG*/, bos);
-        byte[] bitmapData = bos.toByteArray();
-        bos.close();
-
-        ByteArrayInputStream bs = new ByteArrayInputStream(bitmapData);
-        return getChunkedResponse(Response.Status.OK, MIME_TYPES.get("png"), bs);
+    private static boolean isEtagMatched(String ifNoneMatch, @NonNull String etag) {
+        if (ifNoneMatch == null)
+            return false;
+
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+
+            //Weak comparison is used for If-None-Match
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+
+            if (tag.equals("*") || tag.equals(etag))
+                return true;
+        }
+
+        return false;
     }
 
     /**
-     * Announce that the media server accepts partial content requests
+     * Responds by the required window of a file.
+     * The body has a fixed length, so it is sent without chunked framing.
+     * @see FileChannelInputStream
      */
     @EverythingIsNonNull
-    private Response getChunkedResponse(Response.Status status, String mimeType, InputStream message) {
-        Response res = newChunkedResponse(status, mimeType, message);
+    private HttpResponse getFileResponse(HttpResponse.Status status, String mimeType, File file, long offset, long length) throws IOException {
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        InputStream data = new FileChannelInputStream(channel, offset, length);
+
+        HttpResponse res = HttpResponse.newFixedLengthResponse(status, mimeType, data, length);
         res.addHeader("Accept-Ranges", "bytes");
         return res;
     }
 
+    /**
+     * Responds by a page of the media list.
+     * The position of the next page is returned in the {@link Requests#NEXT_CURSOR} header unless this page is the last one.
+     * Pages are cached and revalidated with ETag. The whole album (no limit) is written while it is sent instead.
+     * @param after Position after which the page starts or null for the first page.
+     * @param limit Maximum number of media-files or 0 for the whole album.
+     */
+    private HttpResponse getMediaListResponse(@NonNull HttpSession session, @NonNull String albumId, PageCursor after, int limit) throws Exception {
+        //Changes are tracked from the first page, the next pages are read with the cursor
+        boolean withToken = after == null;
+
+        if (limit > 0) {
+            String key = Requests.MEDIA_LIST + "/" + albumId + "/" + limit + "/" + after;
+
+            return getCachedJsonResponse(session, Requests.MEDIA_LIST, key, withToken, headers -> {
+                //One extra row tells whether there is a next page
+                Cursor cursor = MediaProvider.queryMedia(mContext, albumId, after, limit + 1);
+
+                if (cursor == null)
+                    return "[]".getBytes(UTF_8);
+
+                if (cursor.getCount() > limit) {
+                    cursor.moveToPosition(limit - 1);
+                    headers.put(Requests.NEXT_CURSOR, PageCursor.fromCursor(cursor).toString());
+                    cursor.moveToPosition(-1);
+                }
+
+                Log.i(TAG, String.format("Responding with media list. Items count is %d", Math.min(limit, cursor.getCount())));
+                return readFully(new MediaListInputStream(cursor, limit));
+            });
+        }
+
+        //Issued before the query, so changes made during it are not missed
+        SyncToken token = mChangeTracker.issueToken();
+        Cursor cursor = MediaProvider.queryMedia(mContext, albumId, after, 0);
+
+        if (cursor == null)
+            return HttpResponse.newFixedLengthResponse(HttpResponse.Status.OK, MIME_PLAINTEXT, "[]");
+
+        Log.i(TAG, String.format("Responding with media list. Items count is %d", cursor.getCount()));
+
+        InputStream data = new MediaListInputStream(cursor, 0);
+        String encoding = negotiateEncoding(session, -1);
+
+        if (encoding != null) {
+            //The length is unknown, so the whole album is compressed while it is sent
+            data = new CompressingInputStream(data, encoding, (rawLength, compressedLength, cpuTime) -> {
+                mMetrics.recordResponse(Requests.MEDIA_LIST, rawLength, compressedLength, encoding);
+                mMetrics.recordCompression(Requests.MEDIA_LIST, cpuTime);
+            });
+        }
+
+        HttpResponse res = HttpResponse.newChunkedResponse(HttpResponse.Status.OK, MIME_PLAINTEXT, data);
+        addEncodingHeaders(res, encoding);
+
+        if (withToken)
+            res.addHeader(Requests.SYNC_TOKEN, token.toString());
+
+        return res;
+    }
+
+    /**
+     * Produces a serialized JSON response.
+     */
+    private interface JsonProducer {
+        /**
+         * @param headers Extra headers of the response can be put here.
+         * @return Serialized response.
+         */
+        byte[] produce(Map<String, String> headers) throws Exception;
+    }
+
+    /**
+     * Responds by serialized JSON that is taken from {@link JsonResponseCache} when possible.
+     * The response carries a strong ETag and 304 is returned if it matches If-None-Match.
+     * Compressed variants are cached along with the response and have their own tags.
+     * @param route Route name for {@link ServerMetrics}.
+     * @param key Cache key of the response.
+     * @param withToken True if the {@link Requests#SYNC_TOKEN} header should be added.
+     */
+    private HttpResponse getCachedJsonResponse(@NonNull HttpSession session, @NonNull String route, @NonNull String key, boolean withToken,
+                                           @NonNull JsonProducer producer) throws Exception {
+        //Issued before the query, so changes made during it are not missed
+        SyncToken token = mChangeTracker.issueToken();
+        JsonResponseCache.Entry entry = mJsonCache.get(key, token.getGeneration());
+
+        if (entry == null) {
+            Map<String, String> headers = new HashMap<>();
+            byte[] data = producer.produce(headers);
+            entry = mJsonCache.put(key, token.getGeneration(), data, headers);
+        }
+
+        HttpResponse res;
+        String encoding = negotiateEncoding(session, entry.getData().length);
+        String etag = entry.getETag(encoding);
+
+        if (isEtagMatched(session.getHeaders().get("if-none-match"), etag)) {
+            Log.i(TAG, String.format("%s has not been modified", key));
+            res = HttpResponse.newFixedLengthResponse(HttpResponse.Status.NOT_MODIFIED, MIME_PLAINTEXT, "");
+            mMetrics.recordResponse(route, 0, 0, null);
+        }
+        else {
+            byte[] data = entry.getData(encoding, mMetrics, route);
+            res = HttpResponse.newFixedLengthResponse(HttpResponse.Status.OK, MIME_PLAINTEXT, new ByteArrayInputStream(data), data.length);
+
+            if (encoding != null)
+                res.addHeader("Content-Encoding", encoding);
+
+            mMetrics.recordResponse(route, entry.getData().length, data.length, encoding);
+        }
+
+        for (Map.Entry<String, String> header : entry.getHeaders().entrySet())
+            res.addHeader(header.getKey(), header.getValue());
+
+        if (withToken)
+            res.addHeader(Requests.SYNC_TOKEN, token.toString());
+
+        //Clients may store the response, but have to revalidate it every time
+        res.addHeader("ETag", etag);
+        res.addHeader("Vary", "Accept-Encoding");
+        res.addHeader("Cache-Control", "no-cache");
+        return res;
+    }
+
+    /**
+     * Responds by JSON that is compressed if the client accepts it and it is large enough.
+     * @param route Route name for {@link ServerMetrics}.
+     */
+    private HttpResponse getJsonResponse(@NonNull HttpSession session, @NonNull String route, @NonNull String json) {
+        byte[] data = json.getBytes(UTF_8);
+        byte[] body = data;
+        String encoding = negotiateEncoding(session, data.length);
+
+        if (encoding != null) {
+            long start = ServerMetrics.getCpuTime();
+            body = ContentEncoding.encode(data, encoding);
+            mMetrics.recordCompression(route, ServerMetrics.getCpuTime() - start);
+        }
+
+        mMetrics.recordResponse(route, data.length, body.length, encoding);
+
+        HttpResponse res = HttpResponse.newFixedLengthResponse(HttpResponse.Status.OK, MIME_PLAINTEXT, new ByteArrayInputStream(body), body.length);
+        addEncodingHeaders(res, encoding);
+        return res;
+    }
+
+    /**
+     * @param length Length of the response or -1 if it is unknown.
+     * @return Content coding of the response or null if it should be sent as is.
+     */
+    private static String negotiateEncoding(@NonNull HttpSession session, long length) {
+        if (length >= 0 && length < ContentEncoding.MIN_SIZE)
+            return null;
+
+        return ContentEncoding.negotiate(session.getHeaders().get("accept-encoding"));
+    }
+
+    private static void addEncodingHeaders(@NonNull HttpResponse res, String encoding) {
+        if (encoding != null)
+            res.addHeader("Content-Encoding", encoding);
+
+        res.addHeader("Vary", "Accept-Encoding");
+    }
+
+    private static byte[] readFully(@NonNull InputStream in) throws IOException {
+        PooledOutputStream out = new PooledOutputStream();
+
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = in.read(buffer)) > 0)
+                out.write(buffer, 0, read);
+
+            return Arrays.copyOf(out.getBuffer(), out.size());
+        }
+        finally {
+            in.close();
+            out.release();
+        }
+    }
+
+    /**
+     * Responds by changes of the media list since the token was issued.
+     * Only added and modified media-files are queried, deleted ones are taken from {@link MediaChangeTracker}.
+     * @see MediaDelta
+     */
+    private HttpResponse getMediaDeltaResponse(@NonNull HttpSession session, @NonNull String albumId, @NonNull SyncToken since) {
+        SyncToken token = mChangeTracker.issueToken();
+        MediaDelta delta;
+
+        if (!mChangeTracker.isValid(since)) {
+            delta = new MediaDelta(true, null, null, -1, null);
+        }
+        else if (!mChangeTracker.hasChangedSince(since)) {
+            delta = new MediaDelta(false, new ArrayList<>(), new ArrayList<>(), -1, token.toString());
+        }
+        else {
+            List<Media> changed = new ArrayList<>();
+            Cursor cursor = MediaProvider.queryMediaChanges(mContext, albumId, since.getTimestamp());
+
+            if (cursor != null) {
+                while (cursor.moveToNext())
+                    changed.add(new Media(cursor));
+
+                cursor.close();
+            }
+
+            delta = new MediaDelta(false, changed, mChangeTracker.getRemovedSince(since),
+                    MediaProvider.getMediaCount(mContext, albumId), token.toString());
+        }
+
+        Log.i(TAG, String.format("Responding with media list changes. Reset: %s, changed: %d, removed: %d", delta.isReset(),
+                delta.getChanged() != null ? delta.getChanged().size() : 0, delta.getRemoved() != null ? delta.getRemoved().size() : 0));
+
+        return getJsonResponse(session, Requests.MEDIA_LIST, WireFormat.GSON.toJson(delta));
+    }
+
+    /**
+     * Responds by correctly oriented thumbnail of media-file.
+     * Output format is negotiated by {@link ImageEncoding}.
+     * Encoded thumbnails are taken from {@link ThumbnailCache} when possible.
+     * @param size Size of {@link ThumbnailSize} ladder.
+     */
+    private HttpResponse getThumbnailResponse(@NonNull HttpSession session, @NonNull MediaObject mediaObject, int size) throws IOException {
+        ImageEncoding encoding = ImageEncoding.negotiate(getParameter(session, Requests.FORMAT),
+                getParameter(session, Requests.QUALITY), session.getHeaders().get("accept"));
+
+        String key = ThumbnailCache.getKey(mediaObject, ThumbnailSize.getSizeClass(size, encoding));
+        byte[] thumbnail = mThumbnailCache.get(key);
+
+        if (thumbnail != null)
+            return getImageResponse(new ByteArrayInputStream(thumbnail), thumbnail.length, encoding.getMimeType());
+
+        PooledOutputStream encoded = generateThumbnail(mediaObject, size, encoding, key);
+
+        //The pooled buffer is sent as is and returns to the pool when the response is closed
+        return getImageResponse(encoded.toInputStream(), encoded.size(), encoding.getMimeType());
+    }
+
+    /**
+     * Responds by correctly oriented image that fits the screen of the client, so the original file is not sent to be viewed.
+     * Images are taken from {@link ThumbnailCache} when possible. Images that already fit are sent as is.
+     * @param maxDimension Size of {@link ThumbnailSize} ladder that bounds the longer side.
+     */
+    private HttpResponse getDisplayImageResponse(@NonNull HttpSession session, @NonNull MediaObject mediaObject, int maxDimension) throws IOException {
+        ImageEncoding encoding = ImageEncoding.negotiate(getParameter(session, Requests.FORMAT),
+                getParameter(session, Requests.QUALITY), session.getHeaders().get("accept"));
+
+        String key = ThumbnailCache.getKey(mediaObject, Requests.DISPLAY_IMAGE + ThumbnailSize.getSizeClass(maxDimension, encoding));
+        byte[] image = mThumbnailCache.get(key);
+
+        if (image != null)
+            return getImageResponse(new ByteArrayInputStream(image), image.length, encoding.getMimeType());
+
+        if (MediaProvider.fitsInside(mediaObject, maxDimension))
+            return serveFile(session.getHeaders(), new File(mediaObject.getPath()), getMimeTypeForFile(mediaObject.getPath()));
+
+        Bitmap bitmap = MediaProvider.getDisplayImage(mContext, mediaObject, maxDimension);
+
+        if (bitmap == null)
+            throw new IOException("Cannot create display image of " + mediaObject.getPath());
+
+        PooledOutputStream encoded = encode(bitmap, mediaObject, encoding, key);
+        return getImageResponse(encoded.toInputStream(), encoded.size(), encoding.getMimeType());
+    }
+
+    /**
+     * Responds by small thumbnails of several media-files.
+     * Thumbnails are generated in parallel and sent in the order they complete.
+     * Each thumbnail is queued to {@link RequestScheduler} as a THUMBNAIL request of the device,
+     * so a large batch is subject to the same priority and quota as single thumbnails.
+     * @param filenames Filenames of media-files (e.g. 5241.jpg).
+     * @see ThumbnailFrames
+     */
+    private HttpResponse getThumbnailBatchResponse(@NonNull HttpSession session, @NonNull String[] filenames, int size) {
+        ImageEncoding encoding = ImageEncoding.negotiate(getParameter(session, Requests.FORMAT),
+                getParameter(session, Requests.QUALITY), session.getHeaders().get("accept"));
+
+        ThumbnailBatchInputStream body = new ThumbnailBatchInputStream(filenames.length);
+
+        for (String filename : filenames) {
+            boolean queued = getScheduler().submit(session.getDeviceId(), RequestScheduler.TrafficClass.THUMBNAIL, permit -> {
+                if (body.isClosed()) {
+                    permit.release();
+                    return;
+                }
+
+                try {
+                    MediaObject mediaObject = MediaProvider.getMediaObjectById(mContext, filename);
+                    String key = ThumbnailCache.getKey(mediaObject, ThumbnailSize.getSizeClass(size, encoding));
+                    byte[] thumbnail = mThumbnailCache.get(key);
+
+                    if (thumbnail != null) {
+                        PooledOutputStream cached = new PooledOutputStream();
+                        cached.write(thumbnail, 0, thumbnail.length);
+                        body.offer(filename, cached);
+                    }
+                    else
+                        body.offer(filename, generateThumbnail(mediaObject, size, encoding, key));
+                }
+                catch (Exception e) {
+                    Log.e(TAG, String.format("Cannot respond thumbnail of %s. Reason: %s", filename, e.toString()));
+                    body.offerFailure(filename);
+                }
+                finally {
+                    permit.release();
+                }
+            });
+
+            if (!queued)
+                body.offerFailure(filename);
+        }
+
+        HttpResponse res = HttpResponse.newChunkedResponse(HttpResponse.Status.OK, ThumbnailFrames.MIME_TYPE, body);
+        res.addHeader("Vary", "Accept");
+        return res;
+    }
+
+    /**
+     * Creates and encodes a thumbnail, then puts it into {@link ThumbnailCache}.
+     * @param key Cache key of the thumbnail.
+     * @return Encoded thumbnail. The caller is responsible for releasing it.
+     */
+    private PooledOutputStream generateThumbnail(@NonNull MediaObject mediaObject, int size,
+                                                 @NonNull ImageEncoding encoding, @NonNull String key) throws IOException {
+        Bitmap bitmap = MediaProvider.getCorrectlyOrientedThumbnail(mContext, mediaObject, size);
+
+        if (bitmap == null)
+            throw new IOException("Cannot create thumbnail of " + mediaObject.getPath());
+
+        return encode(bitmap, mediaObject, encoding, key);
+    }
+
+    /**
+     * Encodes the bitmap, then recycles it and puts the result into {@link ThumbnailCache}.
+     * @param key Cache key of the image.
+     * @return Encoded image. The caller is responsible for releasing it.
+     */
+    private PooledOutputStream encode(@NonNull Bitmap bitmap, @NonNull MediaObject mediaObject,
+                                      @NonNull ImageEncoding encoding, @NonNull String key) throws IOException {
+        PooledOutputStream encoded = new PooledOutputStream();
+
+        if (!bitmap.compress(encoding.getCompressFormat(), encoding.getQuality(), encoded)) {
+            encoded.release();
+            bitmap.recycle();
+            throw new IOException("Cannot encode image of " + mediaObject.getPath());
+        }
+
+        bitmap.recycle();
+        mThumbnailCache.put(key, encoded.getBuffer(), 0, encoded.size());
+        return encoded;
+    }
+
+    /**
+     * Responds by encoded image
+     */
+    @EverythingIsNonNull
+    private HttpResponse getImageResponse(InputStream image, long length, String mimeType) {
+        HttpResponse res = HttpResponse.newFixedLengthResponse(HttpResponse.Status.OK, mimeType, image, length);
+        res.addHeader("Vary", "Accept");
+        return res;
+    }
+
+    /**
+     * @return First value of the query parameter or null if it is absent.
+     */
+    private static String getParameter(@NonNull HttpSession session, @NonNull String name) {
+        List<String> values = session.getParameters().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
     /**
      * Responds by bad request error code (400)
      */
-    private Response getBadRequestResponse() {
-        return newFixedLengthResponse(Response.Status.BAD_REQUEST, NanoHTTPD.MIME_PLAINTEXT,
+    private HttpResponse getBadRequestResponse() {
+        return HttpResponse.newFixedLengthResponse(HttpResponse.Status.BAD_REQUEST, MIME_PLAINTEXT,
                 "Error 400, request doesn't match StreamShare requirements");
     }
 
     /**
      * Responds by internal error code (500)
      */
-    private Response getInternalErrorResponse() {
-        return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, NanoHTTPD.MIME_PLAINTEXT,
+    private HttpResponse getInternalErrorResponse() {
+        return HttpResponse.newFixedLengthResponse(HttpResponse.Status.INTERNAL_ERROR, MIME_PLAINTEXT,
                 "Error 500, request execution error");
     }
 
     /**
      * Responds by not found error code (404)
      */
-    protected Response getNotFoundResponse() {
-        return newFixedLengthResponse(Response.Status.NOT_FOUND, NanoHTTPD.MIME_PLAINTEXT, "Error 404, requested resource not found");
+    private HttpResponse getNotFoundResponse() {
+        return HttpResponse.newFixedLengthResponse(HttpResponse.Status.NOT_FOUND, MIME_PLAINTEXT, "Error 404, requested resource not found");
     }
 }
\ No newline at end of file
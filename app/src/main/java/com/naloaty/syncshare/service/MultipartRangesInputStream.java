@@ -0,0 +1,149 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * This class represents a multipart/byteranges body (RFC 7233, Appendix A).
+ * Every part is read through its own {@link FileChannelInputStream}, so only one pooled buffer is held at a time.
+ * The channels of all parts are opened by the constructor: a file that cannot be read is reported
+ * before the response headers are sent instead of truncating the body.
+ * @see ByteRange
+ * @see MediaServer
+ */
+public class MultipartRangesInputStream extends SequenceInputStream {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * @param file The file whose ranges are served.
+     * @param mime MIME type of the file.
+     * @param ranges Satisfiable ranges of the file.
+     * @param boundary Multipart boundary.
+     * @throws IOException If the file cannot be opened.
+     */
+    public MultipartRangesInputStream(@NonNull File file, @NonNull String mime,
+                                      @NonNull List<ByteRange> ranges, @NonNull String boundary) throws IOException {
+        super(new PartEnumeration(file.length(), mime, ranges, openChannels(file, ranges.size()), boundary));
+    }
+
+    /**
+     * Opens one channel per part. Channels opened before a failure are closed.
+     */
+    private static FileChannel[] openChannels(File file, int count) throws IOException {
+        FileChannel[] channels = new FileChannel[count];
+
+        try {
+            for (int i = 0; i < count; i++)
+                channels[i] = new RandomAccessFile(file, "r").getChannel();
+        }
+        catch (IOException e) {
+            for (FileChannel channel : channels) {
+                if (channel == null)
+                    break;
+
+                try {
+                    channel.close();
+                }
+                catch (IOException ignored) {}
+            }
+
+            throw e;
+        }
+
+        return channels;
+    }
+
+    /**
+     * Calculates the exact length of the body, so it can be sent with Content-Length.
+     * @param fileLength Length of the whole file.
+     * @return Length of the multipart body in bytes.
+     */
+    public static long getContentLength(long fileLength, @NonNull String mime,
+                                        @NonNull List<ByteRange> ranges, @NonNull String boundary) {
+        long length = 0;
+
+        for (ByteRange range : ranges)
+            length += getPartHeader(mime, range, fileLength, boundary).length + range.getLength();
+
+        return length + getClosingDelimiter(boundary).length;
+    }
+
+    /**
+     * @return Value of the Content-Type header of the multipart body.
+     */
+    @NonNull
+    public static String getContentType(@NonNull String boundary) {
+        return "multipart/byteranges; boundary=" + boundary;
+    }
+
+    private static byte[] getPartHeader(String mime, ByteRange range, long fileLength, String boundary) {
+        String header = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + mime + "\r\n"
+                + "Content-Range: " + range.toContentRange(fileLength) + "\r\n"
+                + "\r\n";
+
+        return header.getBytes(ASCII);
+    }
+
+    private static byte[] getClosingDelimiter(String boundary) {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(ASCII);
+    }
+
+    /**
+     * Produces the header and the data stream of every part one after another.
+     */
+    private static class PartEnumeration implements Enumeration<InputStream> {
+
+        private final long fileLength;
+        private final String mime;
+        private final List<ByteRange> ranges;
+        private final FileChannel[] channels;
+        private final String boundary;
+
+        /* Index of the next element: even - part header, odd - part data, last - closing delimiter */
+        private int index = 0;
+
+        PartEnumeration(long fileLength, String mime, List<ByteRange> ranges, FileChannel[] channels, String boundary) {
+            this.fileLength = fileLength;
+            this.mime = mime;
+            this.ranges = ranges;
+            this.channels = channels;
+            this.boundary = boundary;
+        }
+
+        @Override
+        public boolean hasMoreElements() {
+            return index <= ranges.size() * 2;
+        }
+
+        @Override
+        public InputStream nextElement() {
+            if (!hasMoreElements())
+                throw new NoSuchElementException();
+
+            int current = index++;
+
+            if (current == ranges.size() * 2)
+                return new ByteArrayInputStream(getClosingDelimiter(boundary));
+
+            ByteRange range = ranges.get(current / 2);
+
+            if (current % 2 == 0)
+                return new ByteArrayInputStream(getPartHeader(mime, range, fileLength, boundary));
+
+            return new FileChannelInputStream(channels[current / 2], range.getStart(), range.getLength());
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * This class represents an in-memory output stream backed by a pooled growable array.
+ * Encoded data can be read back through {@link #toInputStream()} without copying,
+ * and the array returns to the pool when that stream is closed.
+ * @see MediaServer
+ */
+public class PooledOutputStream extends OutputStream {
+
+    /* Initial capacity of a new array (enough for most thumbnails) */
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    /* Arrays larger than this are not returned to the pool */
+    private static final int MAX_POOLED_CAPACITY = 1024 * 1024;
+
+    private static final int MAX_POOLED_ARRAYS = 8;
+
+    private static final ConcurrentLinkedQueue<byte[]> mPool = new ConcurrentLinkedQueue<>();
+
+    private byte[] mBuffer;
+    private int mCount = 0;
+    private boolean mReleased = false;
+
+    public PooledOutputStream() {
+        mBuffer = mPool.poll();
+
+        if (mBuffer == null)
+            mBuffer = new byte[INITIAL_CAPACITY];
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(mCount + 1);
+        mBuffer[mCount++] = (byte) b;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) {
+        ensureCapacity(mCount + len);
+        System.arraycopy(b, off, mBuffer, mCount, len);
+        mCount += len;
+    }
+
+    /**
+     * @return Backing array. Only the first {@link #size()} bytes are valid.
+     */
+    @NonNull
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Discards the written data, so the array can be reused.
+     */
+    public void reset() {
+        mCount = 0;
+    }
+
+    /**
+     * Returns a stream over the written data. Closing it returns the array to the pool,
+     * so this output stream must not be used afterwards.
+     */
+    @NonNull
+    public InputStream toInputStream() {
+        return new ByteArrayInputStream(mBuffer, 0, mCount) {
+            @Override
+            public void close() {
+                release();
+            }
+        };
+    }
+
+    /**
+     * Returns the array to the pool.
+     */
+    public synchronized void release() {
+        if (mReleased)
+            return;
+
+        mReleased = true;
+
+        if (mBuffer.length <= MAX_POOLED_CAPACITY && mPool.size() < MAX_POOLED_ARRAYS)
+            mPool.offer(mBuffer);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mBuffer.length)
+            return;
+
+        byte[] grown = new byte[Math.max(capacity, mBuffer.length * 2)];
+        System.arraycopy(mBuffer, 0, grown, 0, mCount);
+        mBuffer = grown;
+    }
+}
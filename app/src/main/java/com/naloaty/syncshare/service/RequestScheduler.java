@@ -0,0 +1,360 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * This class decides which request is served next by the worker pool of {@link HttpServer}.
+ * Requests are ordered by {@link TrafficClass}, so a grid of thumbnails is not stuck behind full-size images and files.
+ * Each device has a quota of requests per class, so one client cannot take all the workers and transfers
+ * from another one, e.g. while flinging through an album during video playback.
+ * A request holds its quota until the response has been sent.
+ */
+public class RequestScheduler {
+
+    /* Maximum number of waiting requests */
+    static final int MAX_QUEUED = 256;
+
+    /* Maximum number of waiting requests of a single device */
+    static final int MAX_QUEUED_PER_DEVICE = 96;
+
+    /* A waiting request is promoted by one class every time it has waited this long, so it is not starved */
+    static final long AGING_INTERVAL = 500; //milliseconds
+
+    public enum TrafficClass {
+        //Albums, media lists, device information
+        METADATA(8, Integer.MAX_VALUE),
+        //Grid thumbnails
+        THUMBNAIL(6, Integer.MAX_VALUE),
+        //Full-size images
+        FULL_SIZE(3, 6),
+        //Files and video streams
+        BULK(2, 6);
+
+        private final int mDeviceQuota;
+        private final int mGlobalQuota;
+
+        /**
+         * @param deviceQuota Maximum number of requests of a single device in progress.
+         * @param globalQuota Maximum number of requests of all devices in progress.
+         */
+        TrafficClass(int deviceQuota, int globalQuota) {
+            mDeviceQuota = deviceQuota;
+            mGlobalQuota = globalQuota;
+        }
+    }
+
+    /**
+     * Request that waits for a worker.
+     */
+    public interface Job {
+        /**
+         * Called on a worker thread.
+         * @param permit Must be released when the response has been sent or dropped.
+         * It is released by the scheduler if this method throws.
+         */
+        void run(@NonNull Permit permit);
+    }
+
+    private final Executor mExecutor;
+    private final int mWorkers;
+
+    private final List<Task> mQueue = new ArrayList<>();
+    private final Map<String, Device> mDevices = new HashMap<>();
+    private final Map<TrafficClass, ClassMetrics> mMetrics = new EnumMap<>(TrafficClass.class);
+
+    private int mBusyWorkers = 0;
+    private long mSequence = 0;
+
+    /**
+     * @param executor Executor of the worker pool.
+     * @param workers Number of threads of the worker pool.
+     */
+    RequestScheduler(@NonNull Executor executor, int workers) {
+        mExecutor = executor;
+        mWorkers = workers;
+
+        for (TrafficClass trafficClass : TrafficClass.values())
+            mMetrics.put(trafficClass, new ClassMetrics());
+    }
+
+    /**
+     * Queues the request.
+     * @param deviceId ID of the authenticated device.
+     * @return False if there are too many waiting requests and this one has been rejected.
+     */
+    synchronized boolean submit(@NonNull String deviceId, @NonNull TrafficClass trafficClass, @NonNull Job job) {
+        Device device = getDevice(deviceId);
+        ClassMetrics metrics = mMetrics.get(trafficClass);
+
+        if (mQueue.size() >= MAX_QUEUED || device.queued >= MAX_QUEUED_PER_DEVICE) {
+            metrics.rejected++;
+
+            if (device.isIdle())
+                mDevices.remove(deviceId);
+
+            return false;
+        }
+
+        mQueue.add(new Task(device, trafficClass, job, mSequence++));
+        device.queued++;
+        metrics.queued++;
+        metrics.maxQueued = Math.max(metrics.maxQueued, metrics.queued);
+
+        schedule();
+        return true;
+    }
+
+    /**
+     * @return True if no request is waiting, being served or being sent.
+     */
+    synchronized boolean isIdle() {
+        return mDevices.isEmpty();
+    }
+
+    /**
+     * Starts the best waiting requests while there are free workers.
+     */
+    private void schedule() {
+        while (mBusyWorkers < mWorkers) {
+            Task task = pollNext();
+
+            if (task == null)
+                return;
+
+            ClassMetrics metrics = mMetrics.get(task.trafficClass);
+            long wait = System.currentTimeMillis() - task.submitted;
+
+            task.device.queued--;
+            task.device.running[task.trafficClass.ordinal()]++;
+            metrics.queued--;
+            metrics.running++;
+            metrics.started++;
+            metrics.waitTime += wait;
+            metrics.maxWaitTime = Math.max(metrics.maxWaitTime, wait);
+            mBusyWorkers++;
+
+            try {
+                mExecutor.execute(() -> run(task));
+            }
+            catch (RejectedExecutionException e) {
+                //The server is stopping
+                task.device.running[task.trafficClass.ordinal()]--;
+                metrics.running--;
+                mBusyWorkers--;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Waiting request with the highest priority whose quotas allow it to start or null if there is none.
+     */
+    private Task pollNext() {
+        long now = System.currentTimeMillis();
+        Task best = null;
+        long bestRank = Long.MAX_VALUE;
+
+        for (Task task : mQueue) {
+            int ordinal = task.trafficClass.ordinal();
+
+            if (task.device.running[ordinal] >= task.trafficClass.mDeviceQuota)
+                continue;
+
+            if (mMetrics.get(task.trafficClass).running >= task.trafficClass.mGlobalQuota)
+                continue;
+
+            long rank = Math.max(0, ordinal - (now - task.submitted) / AGING_INTERVAL);
+
+            //Within a class the device that has fewer requests in progress goes first
+            if (best == null || rank < bestRank
+                    || (rank == bestRank && task.device.getRunning() < best.device.getRunning())
+                    || (rank == bestRank && task.device.getRunning() == best.device.getRunning() && task.sequence < best.sequence)) {
+                best = task;
+                bestRank = rank;
+            }
+        }
+
+        if (best != null)
+            mQueue.remove(best);
+
+        return best;
+    }
+
+    private void run(@NonNull Task task) {
+        Permit permit = new Permit(task);
+
+        try {
+            task.job.run(permit);
+        }
+        catch (RuntimeException e) {
+            //Otherwise the quota of the device would be taken forever
+            permit.release();
+            throw e;
+        }
+        finally {
+            synchronized (this) {
+                mBusyWorkers--;
+                schedule();
+            }
+        }
+    }
+
+    private synchronized void release(@NonNull Task task) {
+        task.device.running[task.trafficClass.ordinal()]--;
+        mMetrics.get(task.trafficClass).running--;
+
+        if (task.device.isIdle())
+            mDevices.remove(task.device.id);
+
+        schedule();
+    }
+
+    @NonNull
+    private Device getDevice(@NonNull String deviceId) {
+        Device device = mDevices.get(deviceId);
+
+        if (device == null) {
+            device = new Device(deviceId);
+            mDevices.put(deviceId, device);
+        }
+
+        return device;
+    }
+
+    /**
+     * @return Snapshot of the statistics. It is serialized with Gson.
+     */
+    @NonNull
+    public synchronized Map<TrafficClass, Snapshot> getSnapshot() {
+        Map<TrafficClass, Snapshot> snapshot = new EnumMap<>(TrafficClass.class);
+
+        for (Map.Entry<TrafficClass, ClassMetrics> entry : mMetrics.entrySet())
+            snapshot.put(entry.getKey(), new Snapshot(entry.getValue()));
+
+        return snapshot;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("RequestScheduler{");
+        Iterator<Map.Entry<TrafficClass, Snapshot>> iterator = getSnapshot().entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<TrafficClass, Snapshot> entry = iterator.next();
+            Snapshot s = entry.getValue();
+
+            builder.append(String.format("%s: started=%d, rejected=%d, avgWait=%dms, maxWait=%dms, maxQueued=%d",
+                    entry.getKey(), s.started, s.rejected, s.averageWaitMs, s.maxWaitMs, s.maxQueued));
+
+            if (iterator.hasNext())
+                builder.append("; ");
+        }
+
+        return builder.append("}").toString();
+    }
+
+    /**
+     * Quota taken by a started request.
+     */
+    public class Permit {
+
+        private final Task mTask;
+        private boolean mReleased = false;
+
+        private Permit(@NonNull Task task) {
+            mTask = task;
+        }
+
+        public void release() {
+            synchronized (RequestScheduler.this) {
+                if (mReleased)
+                    return;
+
+                mReleased = true;
+            }
+
+            RequestScheduler.this.release(mTask);
+        }
+    }
+
+    private static class Task {
+
+        final Device device;
+        final TrafficClass trafficClass;
+        final Job job;
+        final long sequence;
+        final long submitted = System.currentTimeMillis();
+
+        Task(@NonNull Device device, @NonNull TrafficClass trafficClass, @NonNull Job job, long sequence) {
+            this.device = device;
+            this.trafficClass = trafficClass;
+            this.job = job;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class Device {
+
+        final String id;
+        final int[] running = new int[TrafficClass.values().length];
+        int queued = 0;
+
+        Device(@NonNull String id) {
+            this.id = id;
+        }
+
+        int getRunning() {
+            int sum = 0;
+
+            for (int count : running)
+                sum += count;
+
+            return sum;
+        }
+
+        boolean isIdle() {
+            return queued == 0 && getRunning() == 0;
+        }
+    }
+
+    private static class ClassMetrics {
+        int queued;
+        int maxQueued;
+        int running;
+        long started;
+        long rejected;
+        long waitTime;
+        long maxWaitTime;
+    }
+
+    public static class Snapshot {
+
+        private final int queued;
+        private final int maxQueued;
+        private final int running;
+        private final long started;
+        private final long rejected;
+        private final long averageWaitMs;
+        private final long maxWaitMs;
+
+        private Snapshot(@NonNull ClassMetrics metrics) {
+            queued = metrics.queued;
+            maxQueued = metrics.maxQueued;
+            running = metrics.running;
+            started = metrics.started;
+            rejected = metrics.rejected;
+            averageWaitMs = started > 0 ? metrics.waitTime / started : 0;
+            maxWaitMs = metrics.maxWaitTime;
+        }
+    }
+}
@@ -14,11 +14,27 @@ public class Requests {
      * /---/<here>
      */
     public static final String INFORMATION    = "information";
+    public static final String METRICS        = "metrics";
     public static final String ALBUMS         = "albums";
     public static final String THUMBNAIL      = "thumbnail";
+    public static final String THUMBNAILS     = "thumbnails";
     public static final String FULL_SIZE_IMAGE = "full_size";
+    public static final String DISPLAY_IMAGE  = "display";
     public static final String MEDIA_LIST     = "media_list";
     public static final String SERVE_FILE     = "serve";
 
     public static final String ALBUM_ID = "albumId";
+    public static final String FORMAT   = "format";
+    public static final String QUALITY  = "quality";
+    public static final String IDS      = "ids";
+    public static final String LIMIT    = "limit";
+    public static final String AFTER    = "after";
+    public static final String SINCE    = "since";
+    public static final String SIZE     = "size";
+
+    /*
+     * Response headers
+     */
+    public static final String NEXT_CURSOR = "X-Next-Cursor";
+    public static final String SYNC_TOKEN  = "X-Sync-Token";
 }
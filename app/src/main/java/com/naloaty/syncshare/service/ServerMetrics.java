@@ -0,0 +1,146 @@
+package com.naloaty.syncshare.service;
+
+import android.os.Debug;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class collects per-route statistics of JSON responses of {@link MediaServer}:
+ * how many bytes were produced and sent and how much CPU time compression took.
+ * They are available to trusted devices by the {@link Requests#METRICS} request.
+ * @see ContentEncoding
+ */
+public class ServerMetrics {
+
+    private final Map<String, Route> mRoutes = new ConcurrentHashMap<>();
+
+    /**
+     * @return CPU time of the current thread in nanoseconds.
+     */
+    public static long getCpuTime() {
+        long time = Debug.threadCpuTimeNanos();
+
+        //Not supported on some devices
+        return time >= 0 ? time : System.nanoTime();
+    }
+
+    /**
+     * @param route Route name (e.g. {@link Requests#ALBUMS}).
+     * @param rawLength Length of the response before compression.
+     * @param sentLength Length of the sent response.
+     * @param encoding Applied content coding or null if the response was not compressed.
+     */
+    public void recordResponse(@NonNull String route, long rawLength, long sentLength, @Nullable String encoding) {
+        Route metrics = getRoute(route);
+        metrics.requests.incrementAndGet();
+        metrics.rawBytes.addAndGet(rawLength);
+        metrics.sentBytes.addAndGet(sentLength);
+
+        if (encoding != null)
+            metrics.compressed.incrementAndGet();
+    }
+
+    /**
+     * @param route Route name (e.g. {@link Requests#ALBUMS}).
+     * @param cpuTime CPU time spent on compression in nanoseconds.
+     */
+    public void recordCompression(@NonNull String route, long cpuTime) {
+        getRoute(route).compressionTime.addAndGet(cpuTime);
+    }
+
+    /**
+     * @return Snapshot of the statistics sorted by route name.
+     */
+    @NonNull
+    public Map<String, Snapshot> getSnapshot() {
+        Map<String, Snapshot> snapshot = new TreeMap<>();
+
+        for (Map.Entry<String, Route> entry : mRoutes.entrySet())
+            snapshot.put(entry.getKey(), new Snapshot(entry.getValue()));
+
+        return snapshot;
+    }
+
+    @NonNull
+    private Route getRoute(@NonNull String route) {
+        Route metrics = mRoutes.get(route);
+
+        if (metrics == null) {
+            mRoutes.putIfAbsent(route, new Route());
+            metrics = mRoutes.get(route);
+        }
+
+        return metrics;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("ServerMetrics{");
+
+        for (Map.Entry<String, Snapshot> entry : getSnapshot().entrySet()) {
+            Snapshot s = entry.getValue();
+            builder.append(String.format("%s: requests=%d, compressed=%d, raw=%d, sent=%d, ratio=%.2f, cpu=%dms; ",
+                    entry.getKey(), s.requests, s.compressed, s.rawBytes, s.sentBytes, s.ratio, s.compressionTimeMs));
+        }
+
+        return builder.append("}").toString();
+    }
+
+    private static class Route {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong compressed = new AtomicLong();
+        private final AtomicLong rawBytes = new AtomicLong();
+        private final AtomicLong sentBytes = new AtomicLong();
+        private final AtomicLong compressionTime = new AtomicLong();
+    }
+
+    /**
+     * Statistics of one route. It is serialized with Gson.
+     */
+    public static class Snapshot {
+
+        private final long requests;
+        private final long compressed;
+        private final long rawBytes;
+        private final long sentBytes;
+        /* Sent bytes to raw bytes */
+        private final double ratio;
+        private final long compressionTimeMs;
+
+        private Snapshot(@NonNull Route route) {
+            requests = route.requests.get();
+            compressed = route.compressed.get();
+            rawBytes = route.rawBytes.get();
+            sentBytes = route.sentBytes.get();
+            ratio = rawBytes > 0 ? (double) sentBytes / rawBytes : 1;
+            compressionTimeMs = route.compressionTime.get() / 1000000;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getRawBytes() {
+            return rawBytes;
+        }
+
+        public long getSentBytes() {
+            return sentBytes;
+        }
+
+        public double getRatio() {
+            return ratio;
+        }
+
+        public long getCompressionTimeMs() {
+            return compressionTimeMs;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class represents the body of the media/thumbnails response.
+ * Thumbnails are generated in parallel and offered to this stream as they complete,
+ * so the client receives the first thumbnails while the rest are still being encoded.
+ * @see ThumbnailFrames
+ * @see MediaServer
+ */
+public class ThumbnailBatchInputStream extends InputStream {
+
+    /* How long a reader waits for the next thumbnail */
+    private static final long TIMEOUT = 30;
+
+    private final LinkedBlockingQueue<Frame> mQueue = new LinkedBlockingQueue<>();
+    private final int mCount;
+
+    private int mTaken = 0;
+    private Frame mCurrent;
+    private volatile boolean mClosed = false;
+
+    /**
+     * @param count Number of thumbnails that will be offered.
+     */
+    public ThumbnailBatchInputStream(int count) {
+        mCount = count;
+    }
+
+    /**
+     * Offers the encoded thumbnail.
+     * The buffer is released after it has been read or when this stream is closed.
+     */
+    public void offer(@NonNull String filename, @NonNull PooledOutputStream data) {
+        offer(new Frame(ThumbnailFrames.getHeader(filename, data.size()), data));
+    }
+
+    /**
+     * Offers a media-file whose thumbnail cannot be responded.
+     */
+    public void offerFailure(@NonNull String filename) {
+        offer(new Frame(ThumbnailFrames.getHeader(filename, ThumbnailFrames.FAILED), null));
+    }
+
+    /**
+     * @return True if the client has gone, so the remaining thumbnails do not need to be generated.
+     */
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+
+        while (mCurrent == null || mCurrent.remaining() == 0) {
+            if (mCurrent != null) {
+                mCurrent.release();
+                mCurrent = null;
+            }
+
+            if (mTaken == mCount)
+                return -1;
+
+            mCurrent = take();
+            mTaken++;
+        }
+
+        return mCurrent.read(b, off, len);
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+
+        if (mCurrent != null) {
+            mCurrent.release();
+            mCurrent = null;
+        }
+
+        Frame frame;
+
+        while ((frame = mQueue.poll()) != null)
+            frame.release();
+    }
+
+    private void offer(Frame frame) {
+        mQueue.offer(frame);
+
+        //The reader has gone and will not release it
+        if (mClosed && mQueue.remove(frame))
+            frame.release();
+    }
+
+    private Frame take() throws IOException {
+        try {
+            Frame frame = mQueue.poll(TIMEOUT, TimeUnit.SECONDS);
+
+            if (frame == null)
+                throw new IOException("Thumbnail generation timed out");
+
+            return frame;
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Frame header followed by the thumbnail in a pooled buffer.
+     */
+    private static class Frame {
+
+        private final byte[] header;
+        private final PooledOutputStream data;
+        private int position = 0;
+
+        Frame(@NonNull byte[] header, @Nullable PooledOutputStream data) {
+            this.header = header;
+            this.data = data;
+        }
+
+        int remaining() {
+            return header.length + (data == null ? 0 : data.size()) - position;
+        }
+
+        int read(byte[] b, int off, int len) {
+            int count = 0;
+
+            if (position < header.length) {
+                count = Math.min(len, header.length - position);
+                System.arraycopy(header, position, b, off, count);
+                position += count;
+            }
+
+            if (count < len && data != null) {
+                int dataPosition = position - header.length;
+                int chunk = Math.min(len - count, data.size() - dataPosition);
+
+                System.arraycopy(data.getBuffer(), dataPosition, b, off + count, chunk);
+                position += chunk;
+                count += chunk;
+            }
+
+            return count;
+        }
+
+        void release() {
+            if (data != null)
+                data.release();
+        }
+    }
+}
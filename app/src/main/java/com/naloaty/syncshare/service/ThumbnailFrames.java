@@ -0,0 +1,134 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * This class describes the body of the media/thumbnails response.
+ * The body is a sequence of frames in the order thumbnails were completed:
+ *      - filename length (2 bytes, big-endian);
+ *      - filename (UTF-8);
+ *      - thumbnail length (4 bytes, big-endian) or {@link #FAILED};
+ *      - encoded thumbnail.
+ * The body ends after the last frame.
+ * @see MediaServer
+ * @see com.naloaty.syncshare.communication.ThumbnailBatcher
+ */
+public class ThumbnailFrames {
+
+    public static final String MIME_TYPE = "application/vnd.syncshare.thumbnails";
+
+    /* Maximum number of media-files in one request */
+    public static final int MAX_BATCH_SIZE = 64;
+
+    /* Thumbnail length of a media-file that cannot be responded */
+    public static final int FAILED = -1;
+
+    /* Separator of filenames in the ids parameter */
+    public static final String SEPARATOR = ",";
+
+    /* Longest accepted filename (e.g. 5241.jpg) in bytes */
+    private static final int MAX_NAME_LENGTH = 1024;
+
+    /* Largest accepted thumbnail. A PNG of the largest size class fits with a large margin */
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Builds a frame header.
+     * @param filename Filename of the media-file.
+     * @param length Length of the encoded thumbnail or {@link #FAILED}.
+     */
+    @NonNull
+    public static byte[] getHeader(@NonNull String filename, int length) {
+        byte[] name = filename.getBytes(UTF_8);
+        byte[] header = new byte[2 + name.length + 4];
+
+        header[0] = (byte) (name.length >>> 8);
+        header[1] = (byte) name.length;
+        System.arraycopy(name, 0, header, 2, name.length);
+
+        int offset = 2 + name.length;
+        header[offset]     = (byte) (length >>> 24);
+        header[offset + 1] = (byte) (length >>> 16);
+        header[offset + 2] = (byte) (length >>> 8);
+        header[offset + 3] = (byte) length;
+
+        return header;
+    }
+
+    /**
+     * Reads the next frame.
+     * Lengths are checked before anything is allocated, so a broken or hostile peer cannot exhaust the memory.
+     * @return Frame or null if the body has ended.
+     */
+    @Nullable
+    public static Frame read(@NonNull InputStream stream) throws IOException {
+        DataInputStream in = stream instanceof DataInputStream ? (DataInputStream) stream : new DataInputStream(stream);
+
+        int high = in.read();
+
+        if (high < 0)
+            return null;
+
+        int low = in.read();
+
+        if (low < 0)
+            throw new EOFException("Truncated frame header");
+
+        int nameLength = (high << 8) | low;
+
+        if (nameLength > MAX_NAME_LENGTH)
+            throw new IOException("Filename is too long: " + nameLength);
+
+        byte[] name = new byte[nameLength];
+        in.readFully(name);
+
+        int length = in.readInt();
+
+        if (length == FAILED)
+            return new Frame(new String(name, UTF_8), null);
+
+        if (length < 0 || length > MAX_FRAME_SIZE)
+            throw new IOException("Invalid frame length " + length);
+
+        byte[] data = new byte[length];
+        in.readFully(data);
+
+        return new Frame(new String(name, UTF_8), data);
+    }
+
+    /**
+     * This class represents a single thumbnail of the response.
+     */
+    public static class Frame {
+
+        private final String filename;
+        private final byte[] data;
+
+        Frame(@NonNull String filename, @Nullable byte[] data) {
+            this.filename = filename;
+            this.data = data;
+        }
+
+        @NonNull
+        public String getFilename() {
+            return filename;
+        }
+
+        /**
+         * @return Encoded thumbnail or null if the remote device cannot respond it.
+         */
+        @Nullable
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
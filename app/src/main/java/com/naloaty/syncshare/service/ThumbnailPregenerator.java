@@ -0,0 +1,345 @@
+package com.naloaty.syncshare.service;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.naloaty.syncshare.database.media.Album;
+import com.naloaty.syncshare.media.MediaObject;
+import com.naloaty.syncshare.media.MediaProvider;
+import com.naloaty.syncshare.media.SharedAlbumIndex;
+import com.naloaty.syncshare.media.ThumbnailCache;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This class fills {@link ThumbnailCache} with grid thumbnails of shared albums in the background,
+ * so the first remote viewer of an album is served from the cache.
+ * Albums and media-files are walked newest-first: the first screen of every album goes before the rest of them.
+ * The work is done on a single background-priority thread, paused while requests are being served
+ * and throttled when the device is hot or in power save mode.
+ * A new pass is started whenever the list of shared albums changes (e.g. an album is shared in LocalAlbumsFragment).
+ * @see MediaServer
+ */
+class ThumbnailPregenerator implements SharedAlbumIndex.Listener {
+
+    private static final String TAG = "ThumbnailPregenerator";
+
+    /* Number of media-files of the first screen of the remote grid */
+    private static final int FIRST_SCREEN = 48;
+
+    /* Maximum number of media-files per pass, so the pass does not evict the whole cache */
+    private static final int MAX_ITEMS_PER_PASS = 4000;
+
+    /* The thread sleeps as long as the previous thumbnail took, so it takes at most half of a core */
+    private static final float DUTY_CYCLE = 0.5f;
+
+    /* A pass continues only after the server has been idle for this long */
+    private static final long IDLE_GRACE = 2000; //milliseconds
+
+    private static final long BUSY_POLL_INTERVAL = 250; //milliseconds
+
+    /* How long the pass waits before the thermal status is checked again */
+    private static final long THERMAL_PAUSE = 30 * 1000; //milliseconds
+
+    /**
+     * Generates and caches a thumbnail.
+     */
+    interface Generator {
+        void generate(@NonNull MediaObject mediaObject, @NonNull ImageEncoding encoding, @NonNull String key) throws IOException;
+    }
+
+    private final Context mContext;
+    private final RequestScheduler mScheduler;
+    private final Generator mGenerator;
+    private final ThumbnailCache mThumbnailCache;
+    private final SharedAlbumIndex mAlbumIndex;
+    private final PowerManager mPowerManager;
+
+    private Thread mThread;
+    private volatile boolean mRunning = false;
+
+    /* Guarded by this */
+    private boolean mPassRequested = false;
+    private String mState = "idle";
+    private int mPasses = 0;
+    private int mPassTotal = 0;
+    private int mPassDone = 0;
+    private long mGenerated = 0;
+    private long mAlreadyCached = 0;
+    private long mFailed = 0;
+    private long mBusyPauses = 0;
+    private long mThermalPauses = 0;
+
+    ThumbnailPregenerator(@NonNull Context context, @NonNull RequestScheduler scheduler, @NonNull Generator generator) {
+        mContext = context;
+        mScheduler = scheduler;
+        mGenerator = generator;
+        mThumbnailCache = ThumbnailCache.getInstance(context);
+        mAlbumIndex = SharedAlbumIndex.getInstance(context);
+        mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+    }
+
+    /**
+     * Starts the thread and the first pass.
+     */
+    synchronized void start() {
+        if (mRunning)
+            return;
+
+        mRunning = true;
+        mPassRequested = true;
+        mAlbumIndex.addListener(this);
+
+        mThread = new Thread(this::loop, TAG);
+        mThread.start();
+    }
+
+    void stop() {
+        Thread thread;
+
+        synchronized (this) {
+            mRunning = false;
+            mAlbumIndex.removeListener(this);
+            thread = mThread;
+            notifyAll();
+        }
+
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    @Override
+    public synchronized void onSharedAlbumsChanged(@NonNull List<Album> albums) {
+        mPassRequested = true;
+        notifyAll();
+    }
+
+    private void loop() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+        try {
+            while (mRunning) {
+                synchronized (this) {
+                    while (mRunning && !mPassRequested)
+                        wait();
+
+                    if (!mRunning)
+                        break;
+
+                    mPassRequested = false;
+                    mPasses++;
+                }
+
+                runPass();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            setState("stopped");
+        }
+    }
+
+    private void runPass() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        List<Album> albums = mAlbumIndex.getAlbums();
+        ImageEncoding encoding = ImageEncoding.getPreferred();
+        String sizeClass = ThumbnailSize.getSizeClass(ThumbnailSize.DEFAULT, encoding);
+
+        int total = 0;
+
+        for (Album album : albums)
+            total += album.getItemsCount();
+
+        synchronized (this) {
+            mPassTotal = Math.min(total, MAX_ITEMS_PER_PASS);
+            mPassDone = 0;
+        }
+
+        setState("running");
+
+        //The first screen of every album goes first, then the rest of the albums
+        int budget = MAX_ITEMS_PER_PASS;
+
+        for (int screen = 0; screen < 2 && budget > 0; screen++) {
+            for (Album album : albums) {
+                if (budget <= 0 || isPassOutdated())
+                    break;
+
+                int limit = screen == 0 ? Math.min(FIRST_SCREEN, budget) : Math.min(album.getItemsCount(), budget + FIRST_SCREEN);
+                List<MediaObject> mediaObjects = MediaProvider.getRecentMediaObjects(mContext, String.valueOf(album.getAlbumId()), limit);
+
+                //The first screen has been done by the previous round
+                int from = screen == 0 ? 0 : Math.min(FIRST_SCREEN, mediaObjects.size());
+
+                for (int i = from; i < mediaObjects.size() && budget > 0; i++) {
+                    if (isPassOutdated())
+                        break;
+
+                    pregenerate(mediaObjects.get(i), encoding, ThumbnailCache.getKey(mediaObjects.get(i), sizeClass));
+                    budget--;
+                }
+            }
+        }
+
+        setState("idle");
+        Log.i(TAG, String.format("Pass has finished in %d ms. %s", System.currentTimeMillis() - start, toString()));
+    }
+
+    private void pregenerate(@NonNull MediaObject mediaObject, @NonNull ImageEncoding encoding, @NonNull String key) throws InterruptedException {
+        if (mThumbnailCache.contains(key)) {
+            synchronized (this) {
+                mAlreadyCached++;
+                mPassDone++;
+            }
+
+            return;
+        }
+
+        awaitIdle();
+        throttle();
+
+        long start = System.currentTimeMillis();
+        boolean generated = true;
+
+        try {
+            mGenerator.generate(mediaObject, encoding, key);
+        }
+        catch (Exception e) {
+            Log.w(TAG, String.format("Cannot pregenerate thumbnail of %s. Reason: %s", mediaObject.getPath(), e.toString()));
+            generated = false;
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+
+        synchronized (this) {
+            if (generated)
+                mGenerated++;
+            else
+                mFailed++;
+
+            mPassDone++;
+        }
+
+        Thread.sleep((long) (elapsed * (1 - DUTY_CYCLE) / DUTY_CYCLE));
+    }
+
+    /**
+     * Waits until no request has been served for {@link #IDLE_GRACE}.
+     */
+    private void awaitIdle() throws InterruptedException {
+        long lastBusy = 0;
+        boolean paused = false;
+
+        while (mRunning) {
+            long now = System.currentTimeMillis();
+
+            if (!mScheduler.isIdle())
+                lastBusy = now;
+            else if (now - lastBusy >= IDLE_GRACE)
+                break;
+
+            if (!paused) {
+                paused = true;
+
+                synchronized (this) {
+                    mBusyPauses++;
+                }
+
+                setState("paused");
+            }
+
+            Thread.sleep(BUSY_POLL_INTERVAL);
+        }
+
+        if (paused)
+            setState("running");
+    }
+
+    /**
+     * Waits while the device is hot or in power save mode.
+     */
+    private void throttle() throws InterruptedException {
+        while (mRunning && isThrottled()) {
+            synchronized (this) {
+                mThermalPauses++;
+            }
+
+            setState("throttled");
+            Thread.sleep(THERMAL_PAUSE);
+        }
+
+        setState("running");
+    }
+
+    private boolean isThrottled() {
+        if (mPowerManager == null)
+            return false;
+
+        if (mPowerManager.isPowerSaveMode())
+            return true;
+
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                && mPowerManager.getCurrentThermalStatus() >= PowerManager.THERMAL_STATUS_MODERATE;
+    }
+
+    /**
+     * @return True if the pass should be restarted, because the shared albums have changed or the server is stopping.
+     */
+    private synchronized boolean isPassOutdated() {
+        return !mRunning || mPassRequested;
+    }
+
+    private synchronized void setState(@NonNull String state) {
+        mState = state;
+    }
+
+    /**
+     * @return Snapshot of the progress. It is serialized with Gson.
+     */
+    @NonNull
+    synchronized Snapshot getSnapshot() {
+        return new Snapshot(this);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        Snapshot s = getSnapshot();
+
+        return String.format("%s{state=%s, passes=%d, progress=%d/%d, generated=%d, alreadyCached=%d, failed=%d, busyPauses=%d, thermalPauses=%d}",
+                TAG, s.state, s.passes, s.done, s.total, s.generated, s.alreadyCached, s.failed, s.busyPauses, s.thermalPauses);
+    }
+
+    static class Snapshot {
+
+        private final String state;
+        private final int passes;
+        private final int total;
+        private final int done;
+        private final long generated;
+        private final long alreadyCached;
+        private final long failed;
+        private final long busyPauses;
+        private final long thermalPauses;
+
+        private Snapshot(@NonNull ThumbnailPregenerator pregenerator) {
+            state = pregenerator.mState;
+            passes = pregenerator.mPasses;
+            total = pregenerator.mPassTotal;
+            done = pregenerator.mPassDone;
+            generated = pregenerator.mGenerated;
+            alreadyCached = pregenerator.mAlreadyCached;
+            failed = pregenerator.mFailed;
+            busyPauses = pregenerator.mBusyPauses;
+            thermalPauses = pregenerator.mThermalPauses;
+        }
+    }
+}
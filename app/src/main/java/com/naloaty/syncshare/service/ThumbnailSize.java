@@ -0,0 +1,60 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * This class represents the ladder of thumbnail sizes.
+ * A size is the length of the shorter side of a thumbnail in pixels, so it covers a square cell of that size.
+ * Clients round the size of their cells up to the ladder, so each size is generated and cached once
+ * and is shared by all clients with similar screens.
+ * @see MediaServer
+ * @see com.naloaty.syncshare.communication.RemoteThumbnail
+ */
+public class ThumbnailSize {
+
+    private static final int[] LADDER = { 128, 256, 512, 1024, 2048 };
+
+    /* Size of the requests without the size parameter. It is close to MINI_KIND thumbnails. */
+    public static final int DEFAULT = 512;
+
+    public static final int MAX = LADDER[LADDER.length - 1];
+
+    /**
+     * @param pixels Size of the cell (the shorter side) in pixels.
+     * @return The smallest size of the ladder that covers the cell.
+     */
+    public static int forPixels(int pixels) {
+        for (int size : LADDER) {
+            if (size >= pixels)
+                return size;
+        }
+
+        return MAX;
+    }
+
+    /**
+     * @param sizeParam Value of the "size" request parameter.
+     * @return Size of the ladder or -1 if the parameter is invalid.
+     */
+    public static int parse(@Nullable String sizeParam) {
+        if (sizeParam == null)
+            return DEFAULT;
+
+        try {
+            int pixels = Integer.parseInt(sizeParam.trim());
+            return pixels > 0 ? forPixels(pixels) : -1;
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return Size class of the thumbnail in {@link com.naloaty.syncshare.media.ThumbnailCache} keys (e.g. "512_webp80").
+     */
+    @NonNull
+    static String getSizeClass(int size, @NonNull ImageEncoding encoding) {
+        return size + "_" + encoding.getKey();
+    }
+}
@@ -36,4 +36,12 @@ public class DeviceUtils {
         final float width = resources.getDisplayMetrics().widthPixels;
         return (int) Math.ceil(width / resources.getDimension(R.dimen.media_column_size));
     }
+
+    /**
+     * Returns the size of a cell of the grid layout with {@link #getOptimalColumnsCount(Resources)} columns.
+     * @return Size of the cell in pixels.
+     */
+    public static int getGridCellSize(@NonNull Resources resources) {
+        return resources.getDisplayMetrics().widthPixels / getOptimalColumnsCount(resources);
+    }
 }
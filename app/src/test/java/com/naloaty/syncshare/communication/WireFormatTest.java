@@ -0,0 +1,107 @@
+package com.naloaty.syncshare.communication;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.naloaty.syncshare.database.device.SSDevice;
+import com.naloaty.syncshare.database.media.Album;
+import com.naloaty.syncshare.media.Media;
+
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link WireFormat}: its adapters must read and write the same JSON as reflective Gson,
+ * so devices with older versions understand each other.
+ */
+public class WireFormatTest {
+
+    private static final int ROWS = 1000;
+
+    private static final Type MEDIA_LIST = new TypeToken<List<Media>>(){}.getType();
+
+    private final Gson mReflective = new Gson();
+
+    @Test
+    public void media_sameJsonAsReflection() {
+        List<Media> list = createMediaList(ROWS);
+        String json = mReflective.toJson(list, MEDIA_LIST);
+
+        assertEquals(json, WireFormat.GSON.toJson(list, MEDIA_LIST));
+
+        List<Media> parsed = WireFormat.GSON.fromJson(json, MEDIA_LIST);
+        assertEquals(json, mReflective.toJson(parsed, MEDIA_LIST));
+    }
+
+    @Test
+    public void media_nullFieldsAndUnknownFields() {
+        Media media = WireFormat.GSON.fromJson("{\"filename\":null,\"size\":5,\"thumbnail\":{\"width\":1},\"mimeType\":\"image/jpeg\"}", Media.class);
+
+        assertNull(media.getFilename());
+        assertEquals(5, media.getSize());
+        assertEquals("image/jpeg", media.getMimeType());
+        assertEquals(mReflective.toJson(media), WireFormat.GSON.toJson(media));
+    }
+
+    @Test
+    public void album_sameJsonAsReflection() {
+        Album album = new Album(42, "Camera", "/storage/emulated/0/DCIM/Camera", true);
+        album.setId(7);
+        album.setItemsCount(1234);
+        album.setLastItemFilename("5241.jpg");
+        album.setLastModified(1589200000);
+
+        String json = mReflective.toJson(album);
+
+        assertEquals(json, WireFormat.GSON.toJson(album));
+        assertEquals(json, mReflective.toJson(WireFormat.GSON.fromJson(json, Album.class)));
+    }
+
+    @Test
+    public void device_sameJsonAsReflection() {
+        SSDevice device = new SSDevice("a1b2c3", "1.0");
+        device.setBrand("Google");
+        device.setModel("Pixel \"4\"");
+        device.setNickname(null);
+        device.setLastUsageTime(1589200000000L);
+        device.setTrusted(true);
+
+        String json = mReflective.toJson(device);
+
+        assertEquals(json, WireFormat.GSON.toJson(device));
+        assertEquals(json, mReflective.toJson(WireFormat.GSON.fromJson(json, SSDevice.class)));
+    }
+
+    @Test
+    public void response_sameJsonAsReflection() {
+        SimpleServerResponse response = new SimpleServerResponse();
+        response.setDescription("Device added");
+
+        String json = mReflective.toJson(response);
+
+        assertEquals(json, WireFormat.GSON.toJson(response));
+        assertEquals("Device added", WireFormat.GSON.fromJson(json, SimpleServerResponse.class).getDescription());
+    }
+
+    private static List<Media> createMediaList(int count) {
+        List<Media> list = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            Media media = new Media();
+            media.setFilename((100000 + i) + (i % 10 == 0 ? ".mp4" : ".jpg"));
+            media.setDateTaken(1589200000000L - i * 60000L);
+            media.setMimeType(i % 10 == 0 ? "video/mp4" : "image/jpeg");
+            media.setSize(2000000 + i * 37L);
+            media.setOrientation(i % 4 * 90);
+            media.setMediaType(i % 10 == 0 ? 3 : 1);
+            media.setDateModified(1589200000L - i * 60L);
+            list.add(media);
+        }
+
+        return list;
+    }
+}
@@ -0,0 +1,171 @@
+package com.naloaty.syncshare.service;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the RFC 7233 range support used by {@link MediaServer}.
+ */
+public class ByteRangeTest {
+
+    private static final long LENGTH = 10000;
+
+    @Test
+    public void parse_closedRange() {
+        assertEquals(Arrays.asList(new ByteRange(0, 499)), ByteRange.parse("bytes=0-499", LENGTH));
+        assertEquals(Arrays.asList(new ByteRange(500, 999)), ByteRange.parse("bytes=500-999", LENGTH));
+    }
+
+    @Test
+    public void parse_firstByteOnly() {
+        assertEquals(Arrays.asList(new ByteRange(0, 0)), ByteRange.parse("bytes=0-0", LENGTH));
+    }
+
+    @Test
+    public void parse_openEndedRange() {
+        assertEquals(Arrays.asList(new ByteRange(9500, 9999)), ByteRange.parse("bytes=9500-", LENGTH));
+        assertEquals(Arrays.asList(new ByteRange(0, 9999)), ByteRange.parse("bytes=0-", LENGTH));
+    }
+
+    @Test
+    public void parse_suffixRange() {
+        assertEquals(Arrays.asList(new ByteRange(9500, 9999)), ByteRange.parse("bytes=-500", LENGTH));
+    }
+
+    @Test
+    public void parse_suffixLongerThanFile() {
+        assertEquals(Arrays.asList(new ByteRange(0, 9999)), ByteRange.parse("bytes=-20000", LENGTH));
+    }
+
+    @Test
+    public void parse_lastBytePastEndIsClamped() {
+        assertEquals(Arrays.asList(new ByteRange(9000, 9999)), ByteRange.parse("bytes=9000-20000", LENGTH));
+    }
+
+    @Test
+    public void parse_multipleRangesKeepOrder() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=5000-5099, 0-99", LENGTH);
+        assertEquals(Arrays.asList(new ByteRange(5000, 5099), new ByteRange(0, 99)), ranges);
+    }
+
+    @Test
+    public void parse_overlappingRangesAreCoalesced() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=500-700,0-99,600-999,100-199", LENGTH);
+        assertEquals(Arrays.asList(new ByteRange(0, 199), new ByteRange(500, 999)), ranges);
+    }
+
+    @Test
+    public void parse_unitIsCaseInsensitiveAndWhitespaceIsAllowed() {
+        assertEquals(Arrays.asList(new ByteRange(1, 2)), ByteRange.parse(" Bytes= 1 - 2 ", LENGTH));
+    }
+
+    @Test
+    public void parse_unsatisfiableRanges() {
+        assertTrue(ByteRange.parse("bytes=10000-", LENGTH).isEmpty());
+        assertTrue(ByteRange.parse("bytes=20000-30000", LENGTH).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", LENGTH).isEmpty());
+        assertTrue(ByteRange.parse("bytes=0-", 0).isEmpty());
+    }
+
+    @Test
+    public void parse_unsatisfiableRangesAreDroppedFromList() {
+        assertEquals(Arrays.asList(new ByteRange(0, 9)), ByteRange.parse("bytes=20000-,0-9", LENGTH));
+    }
+
+    @Test
+    public void parse_invalidHeadersAreIgnored() {
+        assertNull(ByteRange.parse(null, LENGTH));
+        assertNull(ByteRange.parse("items=0-1", LENGTH));
+        assertNull(ByteRange.parse("bytes=", LENGTH));
+        assertNull(ByteRange.parse("bytes=abc", LENGTH));
+        assertNull(ByteRange.parse("bytes=5-1", LENGTH));
+        assertNull(ByteRange.parse("bytes=1-x", LENGTH));
+        assertNull(ByteRange.parse("bytes=-", LENGTH));
+        assertNull(ByteRange.parse("bytes=0-1,5-1", LENGTH));
+    }
+
+    @Test
+    public void parse_tooManyRangesAreIgnored() {
+        StringBuilder header = new StringBuilder("bytes=");
+
+        for (int i = 0; i <= ByteRange.MAX_RANGES; i++)
+            header.append(i * 10).append('-').append(i * 10 + 1).append(',');
+
+        assertNull(ByteRange.parse(header.toString(), LENGTH));
+    }
+
+    @Test
+    public void contentRange() {
+        assertEquals("bytes 0-499/10000", new ByteRange(0, 499).toContentRange(LENGTH));
+        assertEquals(500, new ByteRange(0, 499).getLength());
+    }
+
+    @Test
+    public void ifRange_entityTag() {
+        assertTrue(ByteRange.isIfRangeSatisfied(null, "\"abc\"", 0));
+        assertTrue(ByteRange.isIfRangeSatisfied("\"abc\"", "\"abc\"", 0));
+        assertFalse(ByteRange.isIfRangeSatisfied("\"abd\"", "\"abc\"", 0));
+        assertFalse(ByteRange.isIfRangeSatisfied("W/\"abc\"", "\"abc\"", 0));
+    }
+
+    @Test
+    public void ifRange_date() {
+        long lastModified = 1600000000123L;
+        String date = ByteRange.formatHttpDate(lastModified);
+
+        assertTrue(ByteRange.isIfRangeSatisfied(date, "\"abc\"", lastModified));
+        assertFalse(ByteRange.isIfRangeSatisfied(date, "\"abc\"", lastModified + 5000));
+        assertFalse(ByteRange.isIfRangeSatisfied("not a date", "\"abc\"", lastModified));
+    }
+
+    @Test
+    public void multipart_bodyMatchesContentLength() throws Exception {
+        byte[] content = new byte[(int) LENGTH];
+
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) i;
+
+        File file = File.createTempFile("ranges", ".bin");
+        file.deleteOnExit();
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-9,-10", LENGTH);
+        String boundary = "BOUNDARY";
+
+        long expectedLength = MultipartRangesInputStream.getContentLength(LENGTH, "video/mp4", ranges, boundary);
+        byte[] body = readAll(new MultipartRangesInputStream(file, "video/mp4", ranges, boundary));
+
+        assertEquals(expectedLength, body.length);
+
+        String text = new String(body, "ISO-8859-1");
+        assertTrue(text.startsWith("\r\n--BOUNDARY\r\nContent-Type: video/mp4\r\nContent-Range: bytes 0-9/10000\r\n\r\n"));
+        assertTrue(text.contains("\r\n--BOUNDARY\r\nContent-Type: video/mp4\r\nContent-Range: bytes 9990-9999/10000\r\n\r\n"));
+        assertTrue(text.endsWith("\r\n--BOUNDARY--\r\n"));
+
+        int dataStart = text.indexOf("\r\n\r\n") + 4;
+        assertArrayEquals(Arrays.copyOfRange(content, 0, 10), Arrays.copyOfRange(body, dataStart, dataStart + 10));
+    }
+
+    private static byte[] readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+
+        while ((read = in.read(buffer)) > 0)
+            out.write(buffer, 0, read);
+
+        in.close();
+        return out.toByteArray();
+    }
+}
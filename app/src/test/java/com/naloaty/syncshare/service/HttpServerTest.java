@@ -0,0 +1,488 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the request handling of {@link HttpServer}, {@link HttpConnection} and {@link HttpResponse}.
+ * The server is run on a loopback port and is spoken to over TLS by raw sockets, so the framing is checked byte by byte.
+ * Device authentication is not tested here: peers are trusted without checks.
+ */
+public class HttpServerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* Connection limit of the test server */
+    private static final int MAX_CONNECTIONS = 2;
+
+    /* Longer than a chunk of HttpResponse, so the chunked body has several chunks */
+    private static final byte[] CHUNKED_BODY = new byte[40000];
+
+    private static final char[] PASSWORD = "password".toCharArray();
+
+    /* Keys are extracted before the BouncyCastle provider is installed by SecurityUtils, which cannot read them back */
+    private static KeyManager[] sKeyManagers;
+
+    private TestServer mServer;
+    private int mPort;
+
+    @BeforeClass
+    public static void createIdentity() throws Exception {
+        for (int i = 0; i < CHUNKED_BODY.length; i++)
+            CHUNKED_BODY[i] = (byte) (i * 31);
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+
+        X500Name name = new X500Name("CN=HttpServerTest");
+        X509v3CertificateBuilder builder = new X509v3CertificateBuilder(name, BigInteger.ONE,
+                new Date(System.currentTimeMillis() - 86400000L), new Date(System.currentTimeMillis() + 86400000L), name,
+                SubjectPublicKeyInfo.getInstance(keyPair.getPublic().getEncoded()));
+
+        X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+                builder.build(new JcaContentSignerBuilder("SHA256withECDSA").build(keyPair.getPrivate())));
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("identity", keyPair.getPrivate(), PASSWORD, new Certificate[] {certificate});
+
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        sKeyManagers = kmf.getKeyManagers();
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        //Pick a free port for the server
+        try (ServerSocket socket = new ServerSocket(0)) {
+            mPort = socket.getLocalPort();
+        }
+
+        //Clients use a new context for every connection, so sessions are never resumed and the security manager is not used
+        mServer = new TestServer(mPort, createContext(), MAX_CONNECTIONS);
+        mServer.start();
+    }
+
+    @After
+    public void stopServer() {
+        mServer.stop();
+    }
+
+    @Test
+    public void fixedLengthResponse() throws Exception {
+        try (SSLSocket socket = connect()) {
+            write(socket, "GET /fixed HTTP/1.1\r\nHost: test\r\n\r\n");
+            Response response = Response.read(socket.getInputStream());
+
+            assertEquals(200, response.code);
+            assertEquals("5", response.headers.get("content-length"));
+            assertEquals("keep-alive", response.headers.get("connection"));
+            assertEquals("hello", response.getText());
+        }
+    }
+
+    @Test
+    public void chunkedResponse() throws Exception {
+        try (SSLSocket socket = connect()) {
+            write(socket, "GET /chunked HTTP/1.1\r\n\r\n");
+            Response response = Response.read(socket.getInputStream());
+
+            assertEquals(200, response.code);
+            assertEquals("chunked", response.headers.get("transfer-encoding"));
+            assertNull(response.headers.get("content-length"));
+            assertArrayEquals(CHUNKED_BODY, response.body);
+        }
+    }
+
+    @Test
+    public void headResponseHasNoBody() throws Exception {
+        try (SSLSocket socket = connect()) {
+            write(socket, "HEAD /fixed HTTP/1.1\r\n\r\nGET /fixed HTTP/1.1\r\n\r\n");
+            InputStream in = socket.getInputStream();
+
+            Response head = Response.readHead(in);
+            assertEquals(200, head.code);
+            assertEquals("5", head.headers.get("content-length"));
+
+            //The next response starts right after the head
+            assertEquals("hello", Response.read(in).getText());
+        }
+    }
+
+    @Test
+    public void pipelinedRequests() throws Exception {
+        try (SSLSocket socket = connect()) {
+            write(socket, "GET /fixed HTTP/1.1\r\n\r\n"
+                    + "POST /echo HTTP/1.1\r\nContent-Length: 6\r\n\r\nbody-1"
+                    + "GET /chunked HTTP/1.1\r\n\r\n"
+                    + "POST /echo HTTP/1.1\r\nContent-Length: 6\r\n\r\nbody-2");
+
+            InputStream in = socket.getInputStream();
+
+            assertEquals("hello", Response.read(in).getText());
+            assertEquals("body-1", Response.read(in).getText());
+            assertArrayEquals(CHUNKED_BODY, Response.read(in).body);
+            assertEquals("body-2", Response.read(in).getText());
+        }
+    }
+
+    @Test
+    public void bodyReceivedInParts() throws Exception {
+        try (SSLSocket socket = connect()) {
+            write(socket, "POST /echo HTTP/1.1\r\nContent-Length: 10\r\n\r\nfirst");
+            Thread.sleep(100);
+            write(socket, "-half");
+
+            assertEquals("first-half", Response.read(socket.getInputStream()).getText());
+        }
+    }
+
+    @Test
+    public void connectionCloseRequested() throws Exception {
+        try (SSLSocket socket = connect()) {
+            write(socket, "GET /fixed HTTP/1.1\r\nConnection: close\r\n\r\n");
+            Response response = Response.read(socket.getInputStream());
+
+            assertEquals(200, response.code);
+            assertEquals("close", response.headers.get("connection"));
+            assertClosed(socket);
+        }
+    }
+
+    @Test
+    public void malformedRequestLine() throws Exception {
+        assertRejected("GARBAGE\r\n\r\n", 400);
+        assertRejected("GET fixed HTTP/1.1\r\n\r\n", 400);
+        assertRejected("GET /fixed SPDY/3\r\n\r\n", 400);
+        assertRejected("BREW /fixed HTTP/1.1\r\n\r\n", 400);
+    }
+
+    @Test
+    public void malformedBody() throws Exception {
+        assertRejected("POST /echo HTTP/1.1\r\nContent-Length: ten\r\n\r\n", 400);
+        assertRejected("POST /echo HTTP/1.1\r\nContent-Length: -1\r\n\r\n", 400);
+        assertRejected("POST /echo HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n", 400);
+    }
+
+    @Test
+    public void oversizedRequest() throws Exception {
+        char[] padding = new char[HttpConnection.MAX_HEAD_SIZE];
+        Arrays.fill(padding, 'a');
+
+        //The head never ends
+        assertRejected("GET /fixed HTTP/1.1\r\nX-Padding: " + new String(padding), 400);
+
+        //The body is not awaited
+        assertRejected("POST /echo HTTP/1.1\r\nContent-Length: " + (HttpConnection.MAX_BODY_SIZE + 1) + "\r\n\r\n", 413);
+    }
+
+    @Test
+    public void idleConnectionIsClosed() throws Exception {
+        try (SSLSocket socket = connect()) {
+            write(socket, "GET /fixed HTTP/1.1\r\n\r\n");
+            assertEquals(200, Response.read(socket.getInputStream()).code);
+
+            //An idle keep-alive connection outlives the request timeout
+            sweep(HttpConnection.REQUEST_TIMEOUT + 1000);
+            write(socket, "GET /fixed HTTP/1.1\r\n\r\n");
+            assertEquals(200, Response.read(socket.getInputStream()).code);
+
+            sweep(HttpConnection.IDLE_TIMEOUT + 1000);
+            assertClosed(socket);
+        }
+    }
+
+    @Test
+    public void incompleteRequestIsClosed() throws Exception {
+        try (SSLSocket socket = connect()) {
+            write(socket, "GET /fixed HTTP/1.1\r\n");
+            sweep(HttpConnection.REQUEST_TIMEOUT + 1000);
+            assertClosed(socket);
+        }
+    }
+
+    @Test
+    public void connectionsAboveLimitAreClosed() throws Exception {
+        Socket[] sockets = new Socket[MAX_CONNECTIONS];
+
+        try {
+            //Connections count from the moment they are accepted, before the handshake
+            for (int i = 0; i < MAX_CONNECTIONS; i++)
+                sockets[i] = new Socket(InetAddress.getLoopbackAddress(), mPort);
+
+            awaitConnectionCount(MAX_CONNECTIONS);
+
+            try (Socket rejected = new Socket(InetAddress.getLoopbackAddress(), mPort)) {
+                rejected.setSoTimeout(5000);
+                assertEquals(-1, rejected.getInputStream().read());
+            }
+
+            sockets[0].close();
+            awaitConnectionCount(MAX_CONNECTIONS - 1);
+
+            try (SSLSocket socket = connect()) {
+                write(socket, "GET /fixed HTTP/1.1\r\n\r\n");
+                assertEquals(200, Response.read(socket.getInputStream()).code);
+            }
+        }
+        finally {
+            for (Socket socket : sockets) {
+                if (socket != null)
+                    socket.close();
+            }
+        }
+    }
+
+    /**
+     * Sends the request on a new connection and expects an error response followed by the end of the stream.
+     */
+    private void assertRejected(@NonNull String request, int code) throws Exception {
+        try (SSLSocket socket = connect()) {
+            write(socket, request);
+            Response response = Response.read(socket.getInputStream());
+
+            assertEquals(request, code, response.code);
+            assertEquals("close", response.headers.get("connection"));
+            assertClosed(socket);
+        }
+    }
+
+    /**
+     * Runs the sweep of expired connections on the selector thread as if the time had passed.
+     */
+    private void sweep(long elapsed) throws InterruptedException {
+        //The connection waits for the next request only after the response has been written
+        Thread.sleep(100);
+
+        long now = System.currentTimeMillis() + elapsed;
+        Object done = new Object();
+
+        synchronized (done) {
+            mServer.post(() -> {
+                mServer.closeExpired(now);
+
+                synchronized (done) {
+                    done.notifyAll();
+                }
+            });
+
+            done.wait(5000);
+        }
+    }
+
+    private void awaitConnectionCount(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (mServer.getConnectionCount() != count && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertEquals(count, mServer.getConnectionCount());
+    }
+
+    @NonNull
+    private SSLSocket connect() throws Exception {
+        SSLSocket socket = (SSLSocket) createContext().getSocketFactory().createSocket(InetAddress.getLoopbackAddress(), mPort);
+        socket.setSoTimeout(5000);
+        socket.startHandshake();
+        return socket;
+    }
+
+    private static void write(@NonNull Socket socket, @NonNull String data) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(data.getBytes(UTF_8));
+        out.flush();
+    }
+
+    /**
+     * Expects the end of the stream. A TLS or socket error also means the server has closed the connection.
+     */
+    private static void assertClosed(@NonNull Socket socket) throws IOException {
+        try {
+            assertEquals(-1, socket.getInputStream().read());
+        }
+        catch (SocketTimeoutException e) {
+            fail("Connection has not been closed");
+        }
+        catch (IOException ignored) {
+        }
+    }
+
+    @NonNull
+    private static SSLContext createContext() throws Exception {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(sKeyManagers, new TrustManager[] {new TrustAllManager()}, null);
+        return context;
+    }
+
+    private static class TestServer extends HttpServer {
+
+        TestServer(int port, @NonNull SSLContext sslContext, int maxConnections) {
+            super(port, sslContext, null, maxConnections);
+        }
+
+        @Override
+        protected HttpResponse serve(@NonNull HttpSession session) {
+            switch (session.getUri()) {
+                case "/fixed":
+                    return HttpResponse.newFixedLengthResponse(HttpResponse.Status.OK, MIME_PLAINTEXT, "hello");
+
+                case "/chunked":
+                    return HttpResponse.newChunkedResponse(HttpResponse.Status.OK, "application/octet-stream",
+                            new ByteArrayInputStream(CHUNKED_BODY));
+
+                case "/echo":
+                    return HttpResponse.newFixedLengthResponse(HttpResponse.Status.OK, MIME_PLAINTEXT, session.getBody());
+
+                default:
+                    return HttpResponse.newFixedLengthResponse(HttpResponse.Status.NOT_FOUND, MIME_PLAINTEXT, "");
+            }
+        }
+    }
+
+    private static class TrustAllManager implements X509TrustManager {
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+
+    /**
+     * HTTP/1.1 response read from the stream of the client.
+     */
+    private static class Response {
+
+        int code;
+        final Map<String, String> headers = new HashMap<>();
+        byte[] body = new byte[0];
+
+        @NonNull
+        static Response read(@NonNull InputStream in) throws IOException {
+            Response response = readHead(in);
+
+            if ("chunked".equals(response.headers.get("transfer-encoding"))) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                int size;
+
+                while ((size = Integer.parseInt(readLine(in), 16)) > 0) {
+                    body.write(readFully(in, size));
+                    assertEquals("", readLine(in));
+                }
+
+                assertEquals("", readLine(in));
+                response.body = body.toByteArray();
+            }
+            else if (response.headers.containsKey("content-length")) {
+                response.body = readFully(in, Integer.parseInt(response.headers.get("content-length")));
+            }
+
+            return response;
+        }
+
+        @NonNull
+        static Response readHead(@NonNull InputStream in) throws IOException {
+            Response response = new Response();
+            String[] statusLine = readLine(in).split(" ");
+
+            assertEquals("HTTP/1.1", statusLine[0]);
+            response.code = Integer.parseInt(statusLine[1]);
+
+            String line;
+
+            while (!(line = readLine(in)).isEmpty()) {
+                int separator = line.indexOf(':');
+                response.headers.put(line.substring(0, separator).trim().toLowerCase(Locale.US), line.substring(separator + 1).trim());
+            }
+
+            return response;
+        }
+
+        @NonNull
+        String getText() {
+            return new String(body, UTF_8);
+        }
+
+        @NonNull
+        private static String readLine(@NonNull InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+
+            while ((b = in.read()) != '\n') {
+                if (b < 0)
+                    throw new IOException("Stream has ended inside a line");
+
+                if (b != '\r')
+                    line.append((char) b);
+            }
+
+            return line.toString();
+        }
+
+        @NonNull
+        private static byte[] readFully(@NonNull InputStream in, int length) throws IOException {
+            byte[] data = new byte[length];
+            int offset = 0;
+
+            while (offset < length) {
+                int read = in.read(data, offset, length - offset);
+
+                if (read < 0)
+                    throw new IOException("Stream has ended inside the body");
+
+                offset += read;
+            }
+
+            return data;
+        }
+    }
+}
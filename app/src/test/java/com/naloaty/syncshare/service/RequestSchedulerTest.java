@@ -0,0 +1,244 @@
+package com.naloaty.syncshare.service;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of the priorities and quotas of {@link RequestScheduler}.
+ * Workers are simulated by an executor that runs the queued jobs only when it is told to.
+ */
+public class RequestSchedulerTest {
+
+    /* Quotas of TrafficClass.BULK */
+    private static final int BULK_DEVICE_QUOTA = 2;
+    private static final int BULK_GLOBAL_QUOTA = 6;
+
+    private final ManualExecutor mExecutor = new ManualExecutor();
+    private final List<String> mStarted = new ArrayList<>();
+    private final List<RequestScheduler.Permit> mPermits = new ArrayList<>();
+
+    @Test
+    public void submit_higherClassGoesFirst() {
+        RequestScheduler scheduler = new RequestScheduler(mExecutor, 1);
+
+        assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.METADATA, releasing("blocker")));
+        assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.BULK, releasing("bulk")));
+        assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.FULL_SIZE, releasing("full")));
+        assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.THUMBNAIL, releasing("thumbnail")));
+        assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.METADATA, releasing("metadata")));
+
+        mExecutor.runAll();
+
+        assertEquals(Arrays.asList("blocker", "metadata", "thumbnail", "full", "bulk"), mStarted);
+        assertTrue(scheduler.isIdle());
+    }
+
+    @Test
+    public void submit_deviceWithFewerRequestsGoesFirstWithinClass() {
+        RequestScheduler scheduler = new RequestScheduler(mExecutor, 1);
+
+        assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.THUMBNAIL, holding("a1")));
+        mExecutor.runAll();
+
+        assertTrue(scheduler.submit("Z", RequestScheduler.TrafficClass.METADATA, releasing("blocker")));
+        assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.THUMBNAIL, holding("a2")));
+        assertTrue(scheduler.submit("B", RequestScheduler.TrafficClass.THUMBNAIL, holding("b1")));
+        mExecutor.runAll();
+
+        assertEquals(Arrays.asList("a1", "blocker", "b1", "a2"), mStarted);
+    }
+
+    @Test
+    public void schedule_waitingRequestIsPromoted() throws InterruptedException {
+        RequestScheduler scheduler = new RequestScheduler(mExecutor, 1);
+
+        assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.METADATA, releasing("blocker")));
+        assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.BULK, releasing("bulk")));
+
+        //BULK is promoted by three classes and overtakes a fresh THUMBNAIL request
+        Thread.sleep(3 * RequestScheduler.AGING_INTERVAL + 100);
+
+        assertTrue(scheduler.submit("B", RequestScheduler.TrafficClass.THUMBNAIL, releasing("thumbnail")));
+        mExecutor.runAll();
+
+        assertEquals(Arrays.asList("blocker", "bulk", "thumbnail"), mStarted);
+    }
+
+    @Test
+    public void schedule_deviceQuotaIsHeldUntilPermitIsReleased() {
+        RequestScheduler scheduler = new RequestScheduler(mExecutor, 4);
+
+        for (int i = 0; i <= BULK_DEVICE_QUOTA; i++)
+            assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.BULK, holding("bulk" + i)));
+
+        //Jobs have returned, so the workers are free, but the responses are still being sent
+        mExecutor.runAll();
+        assertEquals(BULK_DEVICE_QUOTA, mStarted.size());
+
+        //Another device is not affected
+        assertTrue(scheduler.submit("B", RequestScheduler.TrafficClass.BULK, holding("other")));
+        mExecutor.runAll();
+        assertEquals(BULK_DEVICE_QUOTA + 1, mStarted.size());
+
+        mPermits.get(0).release();
+        mExecutor.runAll();
+        assertEquals(BULK_DEVICE_QUOTA + 2, mStarted.size());
+
+        //A permit is released once
+        mPermits.get(0).release();
+        assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.BULK, holding("extra")));
+        mExecutor.runAll();
+        assertEquals(BULK_DEVICE_QUOTA + 2, mStarted.size());
+
+        releaseAll();
+        assertTrue(mStarted.contains("extra"));
+        assertTrue(scheduler.isIdle());
+    }
+
+    @Test
+    public void schedule_globalQuotaIsSharedByDevices() {
+        RequestScheduler scheduler = new RequestScheduler(mExecutor, 4);
+
+        for (int i = 0; i < BULK_GLOBAL_QUOTA; i++)
+            assertTrue(scheduler.submit("D" + i, RequestScheduler.TrafficClass.BULK, holding("bulk" + i)));
+
+        assertTrue(scheduler.submit("X", RequestScheduler.TrafficClass.BULK, holding("over")));
+        mExecutor.runAll();
+        assertEquals(BULK_GLOBAL_QUOTA, mStarted.size());
+
+        //Metadata has no global quota
+        assertTrue(scheduler.submit("X", RequestScheduler.TrafficClass.METADATA, holding("metadata")));
+        mExecutor.runAll();
+        assertEquals("metadata", mStarted.get(mStarted.size() - 1));
+
+        mPermits.get(0).release();
+        mExecutor.runAll();
+        assertEquals("over", mStarted.get(mStarted.size() - 1));
+    }
+
+    @Test
+    public void submit_rejectsWhenDeviceQueueIsFull() {
+        RequestScheduler scheduler = new RequestScheduler(mExecutor, 1);
+
+        //The only worker is never run, so everything else waits
+        assertTrue(scheduler.submit("Z", RequestScheduler.TrafficClass.METADATA, holding("blocker")));
+
+        for (int i = 0; i < RequestScheduler.MAX_QUEUED_PER_DEVICE; i++)
+            assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.THUMBNAIL, holding("a" + i)));
+
+        assertFalse(scheduler.submit("A", RequestScheduler.TrafficClass.METADATA, holding("rejected")));
+        assertTrue(scheduler.submit("B", RequestScheduler.TrafficClass.THUMBNAIL, holding("b")));
+    }
+
+    @Test
+    public void submit_rejectsWhenQueueIsFull() {
+        RequestScheduler scheduler = new RequestScheduler(mExecutor, 1);
+
+        assertTrue(scheduler.submit("Z", RequestScheduler.TrafficClass.METADATA, holding("blocker")));
+
+        for (int i = 0; i < RequestScheduler.MAX_QUEUED; i++)
+            assertTrue(scheduler.submit("D" + (i % 8), RequestScheduler.TrafficClass.THUMBNAIL, holding("d" + i)));
+
+        assertFalse(scheduler.submit("New", RequestScheduler.TrafficClass.METADATA, holding("rejected")));
+
+        //Everything but the rejected request is served and the rejected device is not tracked
+        releaseAll();
+        assertEquals(RequestScheduler.MAX_QUEUED + 1, mStarted.size());
+        assertFalse(mStarted.contains("rejected"));
+        assertTrue(scheduler.isIdle());
+    }
+
+    @Test
+    public void run_permitIsReleasedWhenJobThrows() {
+        RequestScheduler scheduler = new RequestScheduler(mExecutor, 1);
+
+        for (int i = 0; i < BULK_DEVICE_QUOTA; i++) {
+            assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.BULK, permit -> {
+                throw new IllegalStateException("Failure");
+            }));
+        }
+
+        mExecutor.runAll();
+        assertTrue(scheduler.isIdle());
+
+        //The quota is free again
+        for (int i = 0; i < BULK_DEVICE_QUOTA; i++)
+            assertTrue(scheduler.submit("A", RequestScheduler.TrafficClass.BULK, holding("bulk" + i)));
+
+        mExecutor.runAll();
+        assertEquals(BULK_DEVICE_QUOTA, mStarted.size());
+    }
+
+    /**
+     * Runs and completes all requests, including the ones started by released permits.
+     */
+    private void releaseAll() {
+        mExecutor.runAll();
+
+        while (!mPermits.isEmpty()) {
+            List<RequestScheduler.Permit> permits = new ArrayList<>(mPermits);
+            mPermits.clear();
+
+            for (RequestScheduler.Permit permit : permits)
+                permit.release();
+
+            mExecutor.runAll();
+        }
+    }
+
+    /**
+     * @return Job that releases its permit at once, as if the response had been sent.
+     */
+    @NonNull
+    private RequestScheduler.Job releasing(@NonNull String name) {
+        return permit -> {
+            mStarted.add(name);
+            permit.release();
+        };
+    }
+
+    /**
+     * @return Job whose permit is kept in {@link #mPermits}, as if the response were still being sent.
+     */
+    @NonNull
+    private RequestScheduler.Job holding(@NonNull String name) {
+        return permit -> {
+            mStarted.add(name);
+            mPermits.add(permit);
+        };
+    }
+
+    private static class ManualExecutor implements Executor {
+
+        private final Queue<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mTasks.add(command);
+        }
+
+        /**
+         * Runs the queued jobs and the jobs they have started. Failures are dropped like a thread pool does.
+         */
+        void runAll() {
+            Runnable task;
+
+            while ((task = mTasks.poll()) != null) {
+                try {
+                    task.run();
+                }
+                catch (RuntimeException ignored) {}
+            }
+        }
+    }
+}